@@ -0,0 +1,362 @@
+package gov.nasa.jpl.graphs;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Graph of two vertex edges kept as adjacency maps, out.get(u).get(v) is the
+ * edge from u to v and in.get(v).get(u) the same edge. Finding the edges,
+ * children or neighbors of a vertex and removing a vertex only touch that
+ * vertex's edges, instead of every edge like AbstractGraph. Undirected graphs
+ * use the same map for in and out and store each edge under both vertices.
+ *
+ * There's at most one edge between two vertices in each direction, adding
+ * another one returns false like adding an equal edge to the hash set graphs.
+ * The sets returned by getVertices, getEdges and the find methods are read
+ * only views that change with the graph, copy them to change the graph while
+ * iterating.
+ */
+public abstract class AbstractAdjacencyGraph<VertexType, EdgeType extends Edge<VertexType>> implements
+        Graph<VertexType, EdgeType> {
+    protected final Map<VertexType, Map<VertexType, EdgeType>> out;
+    protected final Map<VertexType, Map<VertexType, EdgeType>> in;
+    protected int                                              edgeCount;
+
+    private final Set<EdgeType>                                edges = new AbstractSet<EdgeType>() {
+        @Override
+        public Iterator<EdgeType> iterator() {
+            return new AllEdges();
+        }
+
+        @Override
+        public int size() {
+            return edgeCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsEdge(o);
+        }
+    };
+
+    protected AbstractAdjacencyGraph(boolean directed) {
+        out = new HashMap<VertexType, Map<VertexType, EdgeType>>();
+        in = directed ? new HashMap<VertexType, Map<VertexType, EdgeType>>() : out;
+    }
+
+    protected boolean isDirected() {
+        return in != out;
+    }
+
+    protected VertexType first(EdgeType edge) {
+        assert (edge.getVertices().size() == 2);
+        return edge.getVertices().get(0);
+    }
+
+    protected VertexType second(EdgeType edge) {
+        return edge.getVertices().get(1);
+    }
+
+    @Override
+    public Set<VertexType> getVertices() {
+        return Collections.unmodifiableSet(out.keySet());
+    }
+
+    @Override
+    public Set<EdgeType> getEdges() {
+        return edges;
+    }
+
+    @Override
+    public void clear() {
+        out.clear();
+        in.clear();
+        edgeCount = 0;
+    }
+
+    @Override
+    public boolean addVertex(VertexType vertex) {
+        if (out.containsKey(vertex))
+            return false;
+        out.put(vertex, new HashMap<VertexType, EdgeType>(4));
+        if (isDirected())
+            in.put(vertex, new HashMap<VertexType, EdgeType>(4));
+        return true;
+    }
+
+    @Override
+    public boolean addVertices(Set<VertexType> vertices) {
+        boolean added = false;
+        for (VertexType v: vertices) {
+            added = addVertex(v) || added;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeVertex(VertexType vertex) {
+        Map<VertexType, EdgeType> outgoing = out.remove(vertex);
+        if (outgoing == null)
+            return false;
+        for (VertexType target: outgoing.keySet()) {
+            Map<VertexType, EdgeType> incoming = in.get(target);
+            if (incoming != null)
+                incoming.remove(vertex);
+        }
+        edgeCount -= outgoing.size();
+        if (isDirected()) {
+            Map<VertexType, EdgeType> incoming = in.remove(vertex);
+            incoming.remove(vertex); // self loop, counted already
+            for (VertexType source: incoming.keySet())
+                out.get(source).remove(vertex);
+            edgeCount -= incoming.size();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeVertices(Set<VertexType> vertices) {
+        boolean removed = false;
+        for (VertexType v: vertices) {
+            removed = removeVertex(v) || removed;
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean addEdge(EdgeType edge) {
+        VertexType source = first(edge);
+        VertexType target = second(edge);
+        addVertex(source);
+        addVertex(target);
+        Map<VertexType, EdgeType> outgoing = out.get(source);
+        if (outgoing.containsKey(target))
+            return false;
+        outgoing.put(target, edge);
+        in.get(target).put(source, edge);
+        edgeCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addEdges(Set<EdgeType> edges) {
+        boolean added = false;
+        for (EdgeType e: edges) {
+            added = addEdge(e) || added;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeEdge(EdgeType edge) {
+        if (!containsEdge(edge))
+            return false;
+        VertexType source = first(edge);
+        VertexType target = second(edge);
+        out.get(source).remove(target);
+        in.get(target).remove(source);
+        edgeCount--;
+        return true;
+    }
+
+    @Override
+    public boolean removeEdges(Set<EdgeType> edges) {
+        boolean removed = false;
+        for (EdgeType e: edges) {
+            removed = removeEdge(e) || removed;
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean containsEdge(Object o) {
+        if (!(o instanceof Edge))
+            return false;
+        Edge<VertexType> edge = (Edge<VertexType>)o;
+        if (edge.getVertices().size() != 2)
+            return false;
+        Map<VertexType, EdgeType> outgoing = out.get(edge.getVertices().get(0));
+        if (outgoing == null)
+            return false;
+        EdgeType e = outgoing.get(edge.getVertices().get(1));
+        return e != null && e.equals(edge);
+    }
+
+    /**
+     * edges going out of or coming into the vertex
+     */
+    @Override
+    public Set<EdgeType> findEdgesOf(VertexType vertex) {
+        Map<VertexType, EdgeType> outgoing = out.get(vertex);
+        if (outgoing == null)
+            return Collections.emptySet();
+        if (!isDirected())
+            return values(outgoing);
+        Set<EdgeType> edges = new HashSet<EdgeType>(outgoing.values());
+        edges.addAll(in.get(vertex).values());
+        return edges;
+    }
+
+    /**
+     * edges that have all of the vertices, only one or two vertices can match
+     * an edge
+     */
+    @Override
+    public Set<EdgeType> findEdgesOf(Set<VertexType> vertices) {
+        Set<EdgeType> edges = new HashSet<EdgeType>();
+        if (vertices.isEmpty() || vertices.size() > 2)
+            return edges;
+        Iterator<VertexType> i = vertices.iterator();
+        VertexType u = i.next();
+        if (!i.hasNext())
+            return findEdgesOf(u);
+        VertexType v = i.next();
+        Map<VertexType, EdgeType> outgoing = out.get(u);
+        if (outgoing == null)
+            return edges;
+        if (outgoing.containsKey(v))
+            edges.add(outgoing.get(v));
+        if (in.get(u).containsKey(v))
+            edges.add(in.get(u).get(v));
+        return edges;
+    }
+
+    /**
+     * vertices connected to the vertex, for a directed graph only by edges
+     * going out of it like the hash set graphs
+     */
+    @Override
+    public Set<VertexType> findNeighborsOf(VertexType vertex) {
+        Map<VertexType, EdgeType> outgoing = out.get(vertex);
+        if (outgoing == null)
+            return Collections.emptySet();
+        if (!isDirected() && outgoing.containsKey(vertex)) {
+            Set<VertexType> vertices = new HashSet<VertexType>(outgoing.keySet());
+            vertices.remove(vertex);
+            return vertices;
+        }
+        return keys(outgoing);
+    }
+
+    @Override
+    public Set<VertexType> findChildrenOf(VertexType vertex) {
+        return keys(out.get(vertex));
+    }
+
+    /**
+     * @param vertex
+     * @return number of edges going out of the vertex, for undirected graphs
+     *         the number of edges of the vertex
+     */
+    public int outDegree(VertexType vertex) {
+        Map<VertexType, EdgeType> outgoing = out.get(vertex);
+        return outgoing == null ? 0 : outgoing.size();
+    }
+
+    /**
+     * @param vertex
+     * @return number of edges coming into the vertex, for undirected graphs
+     *         the number of edges of the vertex
+     */
+    public int inDegree(VertexType vertex) {
+        Map<VertexType, EdgeType> incoming = in.get(vertex);
+        return incoming == null ? 0 : incoming.size();
+    }
+
+    protected Set<VertexType> keys(Map<VertexType, EdgeType> map) {
+        if (map == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    // read only set of the edges in the map, they're all different since
+    // they have different vertices
+    protected Set<EdgeType> values(final Map<VertexType, EdgeType> map) {
+        if (map == null)
+            return Collections.emptySet();
+        return new AbstractSet<EdgeType>() {
+            @Override
+            public Iterator<EdgeType> iterator() {
+                return Collections.unmodifiableCollection(map.values()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+
+    // every edge once, an undirected edge is only returned from its first
+    // vertex's map
+    private class AllEdges implements Iterator<EdgeType> {
+        private final Iterator<Map.Entry<VertexType, Map<VertexType, EdgeType>>> vertices = out.entrySet()
+                                                                                         .iterator();
+        private VertexType                                                     vertex;
+        private Iterator<EdgeType>                                             current;
+        private EdgeType                                                       next;
+
+        AllEdges() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null) {
+                if (current != null && current.hasNext()) {
+                    EdgeType e = current.next();
+                    if (isDirected() || vertex.equals(first(e)))
+                        next = e;
+                } else if (vertices.hasNext()) {
+                    Map.Entry<VertexType, Map<VertexType, EdgeType>> entry = vertices.next();
+                    vertex = entry.getKey();
+                    current = entry.getValue().values().iterator();
+                } else
+                    return;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public EdgeType next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            EdgeType e = next;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        boolean isFirst = true;
+        for (VertexType v: out.keySet()) {
+            if (isFirst) {
+                isFirst = false;
+            } else {
+                sb.append(", ");
+            }
+            sb.append(v);
+        }
+        for (EdgeType e: edges) {
+            sb.append("\n").append(e);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package gov.nasa.jpl.graphs;
+
+import java.util.Set;
+
+/**
+ * Directed graph with in and out adjacency maps per vertex, can be used in
+ * place of DirectedGraphHashSet. Children, edges with a source or target
+ * vertex and vertex removal are O(degree) and don't make new sets.
+ */
+public class DirectedGraphAdjacencyMap<VertexType, EdgeType extends DirectedEdge<VertexType>> extends
+        AbstractAdjacencyGraph<VertexType, EdgeType> implements DirectedGraph<VertexType, EdgeType> {
+
+    public DirectedGraphAdjacencyMap() {
+        super(true);
+    }
+
+    @Override
+    protected VertexType first(EdgeType edge) {
+        return edge.getSourceVertex();
+    }
+
+    @Override
+    protected VertexType second(EdgeType edge) {
+        return edge.getTargetVertex();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean addEdge(VertexType sourceVertex, VertexType targetVertex) {
+        DirectedEdge<VertexType> edge = new DirectedEdgeVector<VertexType>(sourceVertex, targetVertex);
+        return addEdge((EdgeType)edge);
+    }
+
+    @Override
+    public boolean addEdge(Set<VertexType> sourceVertices, Set<VertexType> targetVertices) {
+        assert (sourceVertices.size() == 1 && targetVertices.size() == 1);
+        return addEdge(sourceVertices.iterator().next(), targetVertices.iterator().next());
+    }
+
+    @Override
+    public Set<EdgeType> findEdgesWithSourceVertex(VertexType vertex) {
+        return values(out.get(vertex));
+    }
+
+    @Override
+    public Set<EdgeType> findEdgesWithTargetVertex(VertexType vertex) {
+        return values(in.get(vertex));
+    }
+
+    /**
+     * @return the vertices with edges into the vertex
+     */
+    public Set<VertexType> findParentsOf(VertexType vertex) {
+        return keys(in.get(vertex));
+    }
+
+    /**
+     * edges with all of the vertices as sources, so only the source vertex's
+     * edges for one vertex
+     */
+    @Override
+    public Set<EdgeType> findEdgesWithSourceVertices(Set<VertexType> vertices) {
+        return vertices.size() == 1 ? findEdgesWithSourceVertex(vertices.iterator().next()) : values(null);
+    }
+
+    @Override
+    public Set<EdgeType> findEdgesWithTargetVertices(Set<VertexType> vertices) {
+        return vertices.size() == 1 ? findEdgesWithTargetVertex(vertices.iterator().next()) : values(null);
+    }
+}
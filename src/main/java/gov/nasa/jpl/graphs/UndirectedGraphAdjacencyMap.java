@@ -0,0 +1,28 @@
+package gov.nasa.jpl.graphs;
+
+import java.util.Set;
+
+/**
+ * Undirected graph with an adjacency map per vertex, each edge is kept under
+ * both of its vertices. Edges and neighbors of a vertex and vertex removal
+ * are O(degree).
+ */
+public class UndirectedGraphAdjacencyMap<VertexType, EdgeType extends UndirectedEdge<VertexType>> extends
+        AbstractAdjacencyGraph<VertexType, EdgeType> implements UndirectedGraph<VertexType, EdgeType> {
+
+    public UndirectedGraphAdjacencyMap() {
+        super(false);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean addEdge(VertexType vertex1, VertexType vertex2) {
+        UndirectedEdge<VertexType> edge = new UndirectedEdgeVector<VertexType>(vertex1, vertex2);
+        return addEdge((EdgeType)edge);
+    }
+
+    @Override
+    public Set<VertexType> findChildrenOf(VertexType vertex) {
+        return findNeighborsOf(vertex);
+    }
+}
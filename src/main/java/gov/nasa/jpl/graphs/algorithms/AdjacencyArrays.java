@@ -0,0 +1,71 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import gov.nasa.jpl.graphs.Edge;
+import gov.nasa.jpl.graphs.Graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of a graph's children as int arrays so the algorithms can keep
+ * their state in arrays indexed by vertex number instead of maps keyed by
+ * vertex, and each vertex is only hashed once per child. Vertices are
+ * numbered in the order given first, then the rest of the graph's vertices.
+ * Children of vertex i are targets[start[i]] to targets[start[i + 1] - 1] in
+ * findChildrenOf order. Children that aren't vertices of the graph are left
+ * out.
+ */
+class AdjacencyArrays<VertexType> {
+    final List<VertexType>         vertices;
+    final Map<VertexType, Integer> index;
+    final int[]                    start;
+    final int[]                    targets;
+
+    <EdgeType extends Edge<VertexType>> AdjacencyArrays(Graph<VertexType, EdgeType> G,
+            Collection<VertexType> first) {
+        Set<VertexType> all = G.getVertices();
+        vertices = new ArrayList<VertexType>(all.size());
+        index = new HashMap<VertexType, Integer>(all.size() * 4 / 3 + 1);
+        for (VertexType v: first) {
+            if (all.contains(v))
+                number(v);
+        }
+        for (VertexType v: all)
+            number(v);
+        int n = vertices.size();
+        start = new int[n + 1];
+        int[] t = new int[Math.max(16, G.getEdges().size())];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = count;
+            for (VertexType child: G.findChildrenOf(vertices.get(i))) {
+                Integer c = index.get(child);
+                if (c == null)
+                    continue;
+                if (count == t.length) {
+                    int[] bigger = new int[t.length * 2];
+                    System.arraycopy(t, 0, bigger, 0, count);
+                    t = bigger;
+                }
+                t[count++] = c;
+            }
+        }
+        start[n] = count;
+        targets = t;
+    }
+
+    int size() {
+        return vertices.size();
+    }
+
+    private void number(VertexType v) {
+        if (!index.containsKey(v)) {
+            index.put(v, vertices.size());
+            vertices.add(v);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import java.util.List;
+
+/**
+ * Thrown when vertices can't be ordered because of a cycle, has the vertices
+ * that are on a cycle or can only come after one.
+ */
+public class CycleException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final List<?>     vertices;
+
+    public CycleException(String message, List<?> vertices) {
+        super(message);
+        this.vertices = vertices;
+    }
+
+    public List<?> getVertices() {
+        return vertices;
+    }
+}
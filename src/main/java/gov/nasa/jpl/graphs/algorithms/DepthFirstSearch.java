@@ -31,11 +31,13 @@ package gov.nasa.jpl.graphs.algorithms;
 import gov.nasa.jpl.graphs.DirectedEdge;
 import gov.nasa.jpl.graphs.DirectedEdgeVector;
 import gov.nasa.jpl.graphs.DirectedGraph;
-import gov.nasa.jpl.graphs.DirectedGraphHashSet;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
 import gov.nasa.jpl.graphs.Edge;
 import gov.nasa.jpl.graphs.Graph;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -45,6 +47,10 @@ import java.util.Set;
  * Introduction to Algorithms. The MIT Press, Cambridge, Massachusetts, 2nd
  * edition, 2001.
  * 
+ * DFS-VISIT runs with an explicit stack and the colors and times are kept in
+ * arrays indexed by vertex number while searching, so deep graphs (long owner
+ * chains) don't overflow the call stack.
+ * 
  * @author shchung
  */
 
@@ -54,22 +60,23 @@ public class DepthFirstSearch {
         WHITE, GRAY, BLACK
     }
 
-    private Map<Object, Color>  color; // colors of the vertices
-    private Integer             time;
+    private Color[]             color;   // colors of the vertices
+    private int                 time;
 
-    public Map<Object, Integer> d;    // discovery times of the vertices
-    public Map<Object, Integer> f;    // finish times of the vertices
+    public Map<Object, Integer> d;       // discovery times of the vertices
+    public Map<Object, Integer> f;       // finish times of the vertices
+    private List<Object>        finished; // vertices in the order they finished
 
     public DepthFirstSearch() {
-        color = new HashMap<Object, Color>();
         d = new HashMap<Object, Integer>();
         f = new HashMap<Object, Integer>();
+        finished = new ArrayList<Object>();
     }
 
     private void clear() {
-        color.clear();
         d.clear();
         f.clear();
+        finished.clear();
     }
 
     /**
@@ -206,32 +213,50 @@ public class DepthFirstSearch {
      *            a graph.
      * @param roots
      *            a set of vertices from which depth first search should be
-     *            performed.
+     *            performed. Only these vertices are colored white, so other
+     *            vertices aren't visited even if they can be reached.
      */
     // DFS(G)
     public <VertexType, EdgeType extends Edge<VertexType>> DirectedGraph<VertexType, DirectedEdge<VertexType>> dfs(
             Graph<VertexType, EdgeType> G, Set<VertexType> roots) {
         clear();
-        DirectedGraph<VertexType, DirectedEdge<VertexType>> pi = new DirectedGraphHashSet<VertexType, DirectedEdge<VertexType>>();
+        DirectedGraph<VertexType, DirectedEdge<VertexType>> pi = new DirectedGraphAdjacencyMap<VertexType, DirectedEdge<VertexType>>();
         // parents of the vertices
+        AdjacencyArrays<VertexType> adj = new AdjacencyArrays<VertexType>(G, roots);
+        int n = adj.size();
+        color = new Color[n];
+        int[] dt = new int[n];
+        int[] ft = new int[n];
 
         // 1 for each vertex u \in V[G]
         for (VertexType u: roots) {
+            Integer i = adj.index.get(u);
             // 2 color[u] <- WHITE
-            color.put(u, Color.WHITE);
+            if (i != null)
+                color[i] = Color.WHITE;
             // 3 \pi[u] <- NIL
             pi.addVertex(u);
         }
         // 4 time <- 0
         time = 0;
-        // 5 for each vertex u \in V[G]
-        for (VertexType u: roots) {
+        // 5 for each vertex u \in V[G], roots are numbered first in
+        // iteration order
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        for (int u = 0; u < n; u++) {
             // 6 do if color[u] = WHITE
-            if (color.get(u) == Color.WHITE) {
+            if (color[u] == Color.WHITE) {
                 // 7 then DFS-VISIT(u)
-                dfs_visit(G, u, pi);
+                dfs_visit(adj, u, pi, stack, next, dt, ft);
+            }
+        }
+        for (int u = 0; u < n; u++) {
+            if (color[u] == Color.BLACK) {
+                d.put(adj.vertices.get(u), dt[u]);
+                f.put(adj.vertices.get(u), ft[u]);
             }
         }
+        color = null;
         return pi;
     }
 
@@ -314,33 +339,57 @@ public class DepthFirstSearch {
      * </li>
      * </ol>
      * 
+     * The recursion is replaced by a stack of vertices being visited, with
+     * next[u] the position in u's children to continue from when the visit
+     * of a child returns.
+     * 
      * @param u
-     *            a vertex to be visited
+     *            number of the vertex to be visited
      */
-    private <VertexType, EdgeType extends Edge<VertexType>> void dfs_visit(Graph<VertexType, EdgeType> G,
-            VertexType u, DirectedGraph<VertexType, DirectedEdge<VertexType>> pi) {
+    private <VertexType> void dfs_visit(AdjacencyArrays<VertexType> adj, int u,
+            DirectedGraph<VertexType, DirectedEdge<VertexType>> pi, int[] stack, int[] next, int[] dt, int[] ft) {
+        int top = 0;
+        stack[top] = u;
+        discover(adj, u, next, dt);
+        while (top >= 0) {
+            u = stack[top];
+            // 4 for each v \in Adj[u] -> Explore edge(u,v).
+            if (next[u] < adj.start[u + 1]) {
+                int v = adj.targets[next[u]++];
+                // 5 do if color[v] = WHITE
+                if (color[v] == Color.WHITE) {
+                    // 6 then \pi[v] <- u
+                    pi.addEdge(new DirectedEdgeVector<VertexType>(adj.vertices.get(u), adj.vertices.get(v)));
+                    // 7 DFS-VISIT(v)
+                    stack[++top] = v;
+                    discover(adj, v, next, dt);
+                }
+            } else {
+                // 8 color[u] <- BLACK -> BLACKen u; it is finished.
+                color[u] = Color.BLACK;
+                // 9 f[u] <- time <- time + 1
+                ft[u] = ++time;
+                finished.add(adj.vertices.get(u));
+                top--;
+            }
+        }
+    }
+
+    private void discover(AdjacencyArrays<?> adj, int u, int[] next, int[] dt) {
         // 1 color[u] <- GRAY -> WHITE vertex u has just been discovered.
-        color.put(u, Color.GRAY);
+        color[u] = Color.GRAY;
         // 2 time <- time + 1
         time++;
         // 3 d[u] <- time
-        d.put(u, time);
-        // guiLog.log("Discovered: " + u.getName() + " , " + str(d[u]))
-        // guiLog.log("Children(" + u.getName() + "): " + str(map(lambda x:
-        // x.getName(), G.getChildren(u))))
-        // 4 for each v \in Adj[u] -> Explore edge(u,v).
-        for (VertexType v: G.findChildrenOf(u)) {
-            // 5 do if color[v] = WHITE
-            if (color.get(v) == Color.WHITE) {
-                // 6 then \pi[v] <- u
-                pi.addEdge(new DirectedEdgeVector<VertexType>(u, v));
-                // 7 DFS-VISIT(v)
-                dfs_visit(G, v, pi);
-            }
-        }
-        // 8 color[u] <- BLACK -> BLACKen u; it is finished.
-        color.put(u, Color.BLACK);
-        // 9 f[u] <- time <- time + 1
-        f.put(u, ++time);
+        dt[u] = time;
+        next[u] = adj.start[u];
+    }
+
+    /**
+     * @return the vertices visited by the last search in the order they
+     *         finished, the same as ordering them by f
+     */
+    public List<Object> getFinishOrder() {
+        return finished;
     }
 }
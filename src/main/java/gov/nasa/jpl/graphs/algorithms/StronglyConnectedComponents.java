@@ -0,0 +1,136 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import gov.nasa.jpl.graphs.Edge;
+import gov.nasa.jpl.graphs.Graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tarjan's strongly connected components on the graph's children, with an
+ * explicit stack so long chains don't overflow the call stack. Linear in the
+ * number of vertices and edges. Components come out in reverse topological
+ * order, a component is listed before any component with an edge into it.
+ *
+ * [1] R. Tarjan. Depth-first search and linear graph algorithms. SIAM Journal
+ * on Computing, 1(2):146-160, 1972.
+ */
+public class StronglyConnectedComponents {
+
+    /**
+     * @param G
+     *            a graph.
+     * @return every strongly connected component of G, single vertices
+     *         included
+     */
+    public <VertexType, EdgeType extends Edge<VertexType>> List<Set<VertexType>> components(
+            Graph<VertexType, EdgeType> G) {
+        return find(G, Collections.<VertexType>emptyList(), false);
+    }
+
+    /**
+     * Components reachable from the roots only, for checking the part of a
+     * graph that changed without going over the rest of it.
+     *
+     * @param G
+     *            a graph.
+     * @param roots
+     *            vertices to search from, ones not in G are ignored.
+     * @return the strongly connected components reachable from the roots
+     */
+    public <VertexType, EdgeType extends Edge<VertexType>> List<Set<VertexType>> components(
+            Graph<VertexType, EdgeType> G, Collection<VertexType> roots) {
+        return find(G, roots, true);
+    }
+
+    /**
+     * @param G
+     *            a graph.
+     * @return the components with more than one vertex, vertices with an edge
+     *         to themselves aren't included
+     */
+    public <VertexType, EdgeType extends Edge<VertexType>> List<Set<VertexType>> cycles(
+            Graph<VertexType, EdgeType> G) {
+        List<Set<VertexType>> cycles = new ArrayList<Set<VertexType>>();
+        for (Set<VertexType> component: components(G)) {
+            if (component.size() > 1)
+                cycles.add(component);
+        }
+        return cycles;
+    }
+
+    private <VertexType, EdgeType extends Edge<VertexType>> List<Set<VertexType>> find(
+            Graph<VertexType, EdgeType> G, Collection<VertexType> roots, boolean rootsOnly) {
+        AdjacencyArrays<VertexType> adj = new AdjacencyArrays<VertexType>(G, roots);
+        int n = adj.size();
+        int searched = n;
+        if (rootsOnly) {
+            searched = 0;
+            for (VertexType v: roots) {
+                Integer i = adj.index.get(v);
+                if (i != null && i >= searched)
+                    searched = i + 1;
+            }
+        }
+        List<Set<VertexType>> components = new ArrayList<Set<VertexType>>();
+        // index[u] is 0 until u is visited, then its visit number + 1
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        // vertices not yet assigned to a component
+        int[] stack = new int[n];
+        int top = 0;
+        // depth first path and the next child to look at for each vertex on it
+        int[] path = new int[n];
+        int[] next = new int[n];
+        int count = 0;
+        for (int root = 0; root < searched; root++) {
+            if (index[root] != 0)
+                continue;
+            int depth = 0;
+            path[0] = root;
+            next[root] = adj.start[root];
+            index[root] = low[root] = ++count;
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int u = path[depth];
+                if (next[u] < adj.start[u + 1]) {
+                    int v = adj.targets[next[u]++];
+                    if (index[v] == 0) {
+                        path[++depth] = v;
+                        next[v] = adj.start[v];
+                        index[v] = low[v] = ++count;
+                        stack[top++] = v;
+                        onStack[v] = true;
+                    } else if (onStack[v] && index[v] < low[u]) {
+                        low[u] = index[v];
+                    }
+                    continue;
+                }
+                // u is finished
+                if (low[u] == index[u]) {
+                    Set<VertexType> component = new LinkedHashSet<VertexType>();
+                    int v;
+                    do {
+                        v = stack[--top];
+                        onStack[v] = false;
+                        component.add(adj.vertices.get(v));
+                    } while (v != u);
+                    components.add(component);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = path[depth];
+                    if (low[u] < low[parent])
+                        low[parent] = low[u];
+                }
+            }
+        }
+        return components;
+    }
+}
@@ -31,7 +31,10 @@ package gov.nasa.jpl.graphs.algorithms;
 import gov.nasa.jpl.graphs.Edge;
 import gov.nasa.jpl.graphs.Graph;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
@@ -55,13 +58,7 @@ public class TopologicalSort {
 
         @Override
         public int compare(Object o1, Object o2) {
-            if (value.get(o1) < value.get(o2)) {
-                return -1;
-            } else if (value.get(o1) == value.get(o2)) {
-                return 0;
-            } else {
-                return 1;
-            }
+            return value.get(o1).compareTo(value.get(o2));
         }
     }
 
@@ -87,4 +84,70 @@ public class TopologicalSort {
             Graph<VertexType, EdgeType> G) {
         return topological_sort(G, G.getVertices());
     }
+
+    /**
+     * Kahn's algorithm on the graph's children, in the same order as
+     * topological_sort: every edge's target comes before its source (for an
+     * edge from an element to its owner, owners come first). Linear in the
+     * number of vertices and edges, and cycles are reported instead of giving
+     * an order that breaks some edges.
+     * 
+     * @param G
+     *            a graph.
+     * @return the vertices in order
+     * @throws CycleException
+     *             with the vertices that are on a cycle or are sources of
+     *             edges into one
+     */
+    public <VertexType, EdgeType extends Edge<VertexType>> List<VertexType> sort(Graph<VertexType, EdgeType> G)
+            throws CycleException {
+        AdjacencyArrays<VertexType> adj = new AdjacencyArrays<VertexType>(G,
+                Collections.<VertexType>emptyList());
+        int n = adj.size();
+        int m = adj.start[n];
+        // edges reversed, parents of vertex i are parents[pstart[i]] to
+        // parents[pstart[i + 1] - 1]
+        int[] pstart = new int[n + 1];
+        int[] parents = new int[m];
+        for (int e = 0; e < m; e++)
+            pstart[adj.targets[e] + 1]++;
+        for (int i = 0; i < n; i++)
+            pstart[i + 1] += pstart[i];
+        int[] fill = new int[n];
+        System.arraycopy(pstart, 0, fill, 0, n);
+        int[] children = new int[n];
+        for (int u = 0; u < n; u++) {
+            children[u] = adj.start[u + 1] - adj.start[u];
+            for (int e = adj.start[u]; e < adj.start[u + 1]; e++)
+                parents[fill[adj.targets[e]]++] = u;
+        }
+        // vertices with no children left go next, the queue is the order
+        int[] order = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int u = 0; u < n; u++) {
+            if (children[u] == 0)
+                order[tail++] = u;
+        }
+        while (head < tail) {
+            int v = order[head++];
+            for (int e = pstart[v]; e < pstart[v + 1]; e++) {
+                int u = parents[e];
+                if (--children[u] == 0)
+                    order[tail++] = u;
+            }
+        }
+        if (tail < n) {
+            List<VertexType> cyclic = new ArrayList<VertexType>(n - tail);
+            for (int u = 0; u < n; u++) {
+                if (children[u] > 0)
+                    cyclic.add(adj.vertices.get(u));
+            }
+            throw new CycleException(cyclic.size() + " vertices are on or lead to a cycle", cyclic);
+        }
+        List<VertexType> sorted = new ArrayList<VertexType>(n);
+        for (int i = 0; i < n; i++)
+            sorted.add(adj.vertices.get(order[i]));
+        return sorted;
+    }
 }
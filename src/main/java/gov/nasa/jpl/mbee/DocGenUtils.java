@@ -33,6 +33,8 @@ import gov.nasa.jpl.mbee.dgview.Table;
 import gov.nasa.jpl.mbee.dgview.TableEntry;
 import gov.nasa.jpl.mbee.dgview.TableRow;
 import gov.nasa.jpl.mbee.dgview.ViewElement;
+import gov.nasa.jpl.mbee.lib.DiagramImageCache;
+import gov.nasa.jpl.mbee.lib.DocBookText;
 import gov.nasa.jpl.mbee.lib.HtmlManipulator;
 import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBTable;
@@ -50,6 +52,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -57,7 +61,6 @@ import org.jsoup.select.Elements;
 
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.GUILog;
-import com.nomagic.magicdraw.export.image.ImageExporter;
 import com.nomagic.magicdraw.properties.BooleanProperty;
 import com.nomagic.magicdraw.properties.ElementProperty;
 import com.nomagic.magicdraw.properties.NumberProperty;
@@ -142,6 +145,18 @@ public class DocGenUtils {
                                                                     }
                                                                 };
 
+    // html2docbookConvert compiled once, applied in the map's iteration order
+    private static final Pattern[] html2docbookPatterns = new Pattern[html2docbookConvert.size()];
+    private static final String[]  html2docbookReplacements = new String[html2docbookConvert.size()];
+    static {
+        int i = 0;
+        for (Map.Entry<String, String> e: html2docbookConvert.entrySet()) {
+            html2docbookPatterns[i] = Pattern.compile(e.getKey());
+            html2docbookReplacements[i] = e.getValue();
+            i++;
+        }
+    }
+
     /**
      * docbook ignores regular white space in table cells, this is to force
      * indentation in docbook, 1 indent is 4 spaces
@@ -178,9 +193,7 @@ public class DocGenUtils {
                 else
                     return Utils.stripHtmlWrapper((String)s);
             else
-                return HtmlManipulator.replaceHtmlEntities(((String)s)
-                        .replaceAll("&(?![A-Za-z#0-9]+;)", "&amp;").replaceAll("<([>=\\s])", "&lt;$1")
-                        .replaceAll("<<", "&lt;&lt;").replaceAll("<(?![^>]+>)", "&lt;"));
+                return DocBookText.fixString((String)s);
         } else if (s instanceof Integer)
             return Integer.toString((Integer)s);
         else if (s instanceof InstanceValue) {
@@ -287,8 +300,7 @@ public class DocGenUtils {
      */
     public static String addDocbook(String s) {
         String ss = html2docbook(s);
-        if (ss.matches("(?s).*<para>.*")) // (s?) is the flag for DOTALL mode, .
-                                          // doesn't match newlines by default
+        if (ss.contains("<para>"))
             // if (s.matches("(?s)\\s*<para>.*</para>\\s*"))
             return ss;
         return "<para>" + ss + "</para>";
@@ -301,8 +313,7 @@ public class DocGenUtils {
      * @return
      */
     public static String addP(String s) {
-        if (s.matches("(?s).*<p>.*")) // (s?) is the flag for DOTALL mode, .
-                                      // doesn't match newlines by default
+        if (s.contains("<p>"))
             // if (s.matches("(?s)\\s*<para>.*</para>\\s*"))
             return s;
         return "<p>" + s + "</p>";
@@ -311,15 +322,12 @@ public class DocGenUtils {
     /**
      * this is to help pdf transfrom be able to do wordwrap at non whitespace
      * chars, adds an invisible space to chars that should be able to break
-     * probably should use some regex instead...
      * 
      * @param s
      * @return
      */
     public static String addInvisibleSpace(String s) {
-        return s.replaceAll(";", ";&#x200B;").replaceAll("\\.", ".&#x200B;").replaceAll("\\(", "(&#x200B;")
-                .replaceAll("\\)", ")&#x200B;").replaceAll(",", ",&#x200B;").replaceAll("/", "/&#x200B;")
-                .replaceAll("_", "_&#x200B;").replaceAll("::", "::&#x200B;");
+        return DocBookText.addInvisibleSpace(s);
     }
 
     /**
@@ -364,8 +372,8 @@ public class DocGenUtils {
         int end = s.indexOf("</body>");
         if (start > -1 && end > -1)
             s = s.substring(start + 6, end);
-        for (String key: html2docbookConvert.keySet()) {
-            s = s.replaceAll(key, html2docbookConvert.get(key));
+        for (int i = 0; i < html2docbookPatterns.length; i++) {
+            s = html2docbookPatterns[i].matcher(s).replaceAll(html2docbookReplacements[i]);
         }
         return s;
     }
@@ -406,18 +414,20 @@ public class DocGenUtils {
                                                   // + svgfilename;
         res.add(svgfname);
 
-        if (genNew || !pngdiagramFile.exists()) {
-            try {
-                gl.log("[DocGen] Exporting Diagram " + diagram.getName() + " " + svgfname);
-                ImageExporter.export(diagram, ImageExporter.SVG, svgdiagramFile);
-                ImageExporter.export(diagram, ImageExporter.PNG, pngdiagramFile);
-            } catch (IOException e) {
-                e.printStackTrace();
-                return res;
-            }
-        } else {
-            gl.log("[DocGen] Exporting diagram: Image file for " + diagram.getName()
-                    + " exists. Using previously generated file.");
+        try {
+            DiagramImageCache.Image image = DiagramImageCache.getInstance()
+                    .submit(d, svgdiagramFile, pngdiagramFile, genNew).get();
+            if (image.exported)
+                gl.log("[DocGen] Exported Diagram " + diagram.getName() + " " + svgfname);
+            else
+                gl.log("[DocGen] Exporting diagram: Image file for " + diagram.getName()
+                        + " is up to date. Using previously generated file.");
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return res;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return res;
         }
 
         // whether to scale to width or not, in svg file width is specified in
@@ -452,6 +462,21 @@ public class DocGenUtils {
         return res;
     }
 
+    /**
+     * exports the diagram ahead of time, in the background when
+     * mdk.images.exportThreads is set, a later exportDiagram call with the
+     * same arguments uses it instead of exporting again
+     * 
+     * @param d
+     * @param directory
+     * @param genNew
+     */
+    public static void prefetchDiagram(Diagram d, File directory, boolean genNew) {
+        String id = Application.getInstance().getProject().getDiagram(d).getID();
+        DiagramImageCache.getInstance().submit(d, new File(directory, id + ".svg"),
+                new File(directory, id + ".png"), genNew);
+    }
+
     /**
      * return names of a collection of named elements
      * 
@@ -175,14 +175,14 @@ public class OclQueryAction extends MDAction {
                     OclEvaluator evaluator = null;
                     try {
                         result = OclEvaluator.evaluateQuery(contextEObject, oclString, true);
-                        evaluator = OclEvaluator.instance;
+                        evaluator = OclEvaluator.getInstance();
                     } catch (ParserException e) {
                         // TODO Auto-generated catch block
                         e.printStackTrace();
                     }
 
                     // If the parse succeeds, return the result.
-                    if (evaluator != null && ( evaluator.isValid() || !Utils2.isNullOrEmpty( result ) ) ) {
+                    if (evaluator != null && ( OclEvaluator.isLastQueryValid() || !Utils2.isNullOrEmpty( result ) ) ) {
                         // return result;
                         outputList.add(result);
                     } else {
@@ -260,9 +260,9 @@ public class OclQueryAction extends MDAction {
                 completionSource = elem;
                 result = OclEvaluator.evaluateQuery(elem, oclString, true);
                 if ( result instanceof EObject ) completionSource = (EObject)result;  // TODO -- what if the result is a collection?
-                evaluator = OclEvaluator.instance;
+                evaluator = OclEvaluator.getInstance();
                 output = toString(result);
-                if (!evaluator.isValid() && Utils2.isNullOrEmpty( result ) ) {
+                if (!OclEvaluator.isLastQueryValid() && Utils2.isNullOrEmpty( result ) ) {
                     output = output
                             + "\nOclInvalid\nThis may be the result of a problem with a shortcut/blackbox function.";
                 }
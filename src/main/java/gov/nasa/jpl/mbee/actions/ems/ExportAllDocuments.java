@@ -1,7 +1,6 @@
 package gov.nasa.jpl.mbee.actions.ems;
 
-import gov.nasa.jpl.mbee.ems.ViewExportRunner;
-import gov.nasa.jpl.mbee.ems.validation.actions.ExportView;
+import gov.nasa.jpl.mbee.ems.DocumentsExporter;
 import gov.nasa.jpl.mbee.lib.Utils;
 
 import java.awt.event.ActionEvent;
@@ -49,10 +48,7 @@ public class ExportAllDocuments extends MDAction {
                 Application.getInstance().getGUILog().log("No Documents Found");
                 return;
             }
-            for (Element doc: projDocs) {
-                ExportView action = new ExportView(doc, true, false, "");
-                action.performAction();
-            }
+            new DocumentsExporter(projDocs).export(arg0);
         }
     }
 
@@ -444,9 +444,8 @@ public class BasicConstraint implements Constraint {
             Object res = null;
             try {
                 res = OclEvaluator.evaluateQuery(constrainedObject, constraint);
-                OclEvaluator evaluator = OclEvaluator.instance;
                 if (isConsistent)
-                    isConsistent = evaluator.isValid();
+                    isConsistent = OclEvaluator.isLastQueryValid();
             } catch (Exception e) {
                 this.errorMessage = e.getLocalizedMessage() + " for OCL query \"" + getExpression(constraint)
                         + "\" on " + Utils.toStringNameAndType(constrainedObject, true, true);
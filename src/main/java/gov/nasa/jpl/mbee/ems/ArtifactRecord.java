@@ -0,0 +1,119 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Local record of the image artifacts (id, checksum, extension) a server and
+ * site are known to have, either found there or uploaded successfully. An
+ * artifact's checksum changes with its content, so images in the record don't
+ * need to be checked again. Kept in ~/.mdk/artifacts as one append only file
+ * per url and site, a line per artifact.
+ */
+public class ArtifactRecord {
+    public static Logger log = Logger.getLogger(ArtifactRecord.class);
+
+    private static final Map<String, ArtifactRecord> records = new HashMap<String, ArtifactRecord>();
+
+    private final File file;
+    private final Set<String> confirmed = new HashSet<String>();
+    private Writer out;
+
+    private ArtifactRecord(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @param url
+     *            server url with workspace
+     * @param site
+     * @return the record for the url and site
+     */
+    public static synchronized ArtifactRecord getRecord(String url, String site) {
+        String key = url + " " + site;
+        ArtifactRecord record = records.get(key);
+        if (record == null) {
+            File dir = new File(System.getProperty("user.home"), ".mdk" + File.separator + "artifacts");
+            dir.mkdirs();
+            record = new ArtifactRecord(new File(dir, Integer.toHexString(key.hashCode()) + "-" + key.length()
+                    + ".artifacts"));
+            records.put(key, record);
+        }
+        return record;
+    }
+
+    private static String line(String id, String cs, String extension) {
+        return id + " " + cs + " " + extension;
+    }
+
+    private void load() {
+        if (!file.exists())
+            return;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.split(" ").length == 3)
+                        confirmed.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.error("", e);
+            confirmed.clear();
+        }
+    }
+
+    public synchronized boolean isConfirmed(String id, String cs, String extension) {
+        return confirmed.contains(line(id, cs, extension));
+    }
+
+    /**
+     * the server has the artifact
+     */
+    public synchronized void confirm(String id, String cs, String extension) {
+        String line = line(id, cs, extension);
+        if (!confirmed.add(line))
+            return;
+        try {
+            if (out == null)
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * forget everything, ex. after the server's artifacts were reset
+     */
+    public synchronized void clear() {
+        confirmed.clear();
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            log.warn("", e);
+        }
+        out = null;
+        file.delete();
+    }
+}
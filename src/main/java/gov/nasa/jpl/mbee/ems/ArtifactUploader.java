@@ -0,0 +1,182 @@
+package gov.nasa.jpl.mbee.ems;
+
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+/**
+ * Makes sure the server has the images a view export references. Images in
+ * the site's ArtifactRecord are skipped, the rest are checked together on up
+ * to mdk.artifacts.threads pooled connections (default 4), and only the
+ * missing ones are uploaded, streamed from disk, on the same number of
+ * connections. Artifacts found or uploaded go into the record. Set
+ * mdk.artifacts.record to false to check every image again.
+ */
+public class ArtifactUploader {
+    public static Logger log = Logger.getLogger(ArtifactUploader.class);
+
+    private final String url;
+    private final String site;
+    private final ArtifactRecord record;
+
+    private static class Artifact {
+        String id;
+        String cs;
+        String extension;
+        File file;
+    }
+
+    /**
+     * @param url
+     *            server url with workspace
+     * @param site
+     */
+    public ArtifactUploader(String url, String site) {
+        this.url = url;
+        this.site = site;
+        this.record = ArtifactRecord.getRecord(url, site);
+    }
+
+    private String query(Artifact a) {
+        return a.id + "?cs=" + a.cs + "&extension=" + a.extension;
+    }
+
+    /**
+     * @param images
+     *            image id to json with abspath, cs and extension, as recorded
+     *            by DBAlfrescoVisitor
+     * @return false if any image couldn't be checked or uploaded
+     */
+    public boolean upload(Map<String, JSONObject> images) {
+        boolean useRecord = !"false".equals(System.getProperty("mdk.artifacts.record"));
+        List<Artifact> unknown = new ArrayList<Artifact>();
+        for (Map.Entry<String, JSONObject> entry: images.entrySet()) {
+            Artifact a = new Artifact();
+            a.id = entry.getKey();
+            a.cs = (String)entry.getValue().get("cs");
+            a.extension = (String)entry.getValue().get("extension");
+            a.file = new File((String)entry.getValue().get("abspath"));
+            if (!useRecord || !record.isConfirmed(a.id, a.cs, a.extension))
+                unknown.add(a);
+        }
+        int known = images.size() - unknown.size();
+        if (unknown.isEmpty()) {
+            Utils.guilog("[INFO] All " + known + " images already on server.");
+            return true;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(unknown.size(),
+                Utils.getIntProperty("mdk.artifacts.threads", 4, 1)));
+        try {
+            Utils.guilog("[INFO] Checking " + unknown.size() + " images (" + known + " known to be on server)...");
+            List<Future<Integer>> checks = new ArrayList<Future<Integer>>();
+            for (final Artifact a: unknown) {
+                checks.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return check(a);
+                    }
+                }));
+            }
+            List<Artifact> missing = new ArrayList<Artifact>();
+            int failed = 0;
+            for (int i = 0; i < unknown.size(); i++) {
+                Artifact a = unknown.get(i);
+                Integer status = get(checks.get(i));
+                if (status == null) {
+                    failed++;
+                } else if (status == HttpURLConnection.HTTP_OK) {
+                    record.confirm(a.id, a.cs, a.extension);
+                } else
+                    missing.add(a);
+            }
+            if (!missing.isEmpty())
+                Utils.guilog("[INFO] Uploading " + missing.size() + " images...");
+            List<Future<Integer>> uploads = new ArrayList<Future<Integer>>();
+            for (final Artifact a: missing) {
+                uploads.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return post(a);
+                    }
+                }));
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                Artifact a = missing.get(i);
+                Integer status = get(uploads.get(i));
+                if (status != null && status == HttpURLConnection.HTTP_OK) {
+                    record.confirm(a.id, a.cs, a.extension);
+                } else {
+                    failed++;
+                    Utils.guilog("[ERROR] Could not upload image " + a.id + "_cs" + a.cs + a.extension);
+                }
+            }
+            if (failed > 0)
+                Utils.guilog("[WARNING] " + failed + " of " + images.size() + " images could not be checked or uploaded.");
+            return failed == 0;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Integer get(Future<Integer> f) {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            log.error("", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    // status of the artifact on the server, 0 if it couldn't be checked so
+    // it gets uploaded
+    private int check(Artifact a) {
+        String baseurl = url + "/artifacts/" + query(a);
+        GetMethod get = new GetMethod(baseurl);
+        try {
+            HttpClient client = HttpClientPool.getClient(baseurl);
+            log.info("check artifact: " + baseurl);
+            return client.executeMethod(get);
+        } catch (Exception e) {
+            log.warn("could not check artifact " + baseurl, e);
+            return 0;
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    private int post(Artifact a) throws Exception {
+        String posturl = url + "/sites/" + site + "/artifacts/" + query(a);
+        PostMethod post = new PostMethod(posturl);
+        try {
+            Part[] parts = {new FilePart("content", a.file)};
+            post.setRequestEntity(new MultipartRequestEntity(parts, post.getParams()));
+            HttpClient client = HttpClientPool.getClient(posturl);
+            log.info("upload artifact: " + posturl);
+            int code = client.executeMethod(post);
+            log.info("upload artifact response: " + code + " " + post.getResponseBodyAsString());
+            return code;
+        } finally {
+            post.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONObject;
+
+import com.nomagic.task.ProgressStatus;
+
+/**
+ * Sends the export in fixed size chunks as elements come in. ModelExporter
+ * walks the containment tree so owners always go out in the same or an
+ * earlier chunk than what they own. Chunks already acknowledged in the
+ * checkpoint with the same content are skipped.
+ */
+public class ChunkedElementWriter implements ElementWriter {
+
+    private String url;
+    private int chunkSize;
+    private ExportCheckpoint checkpoint;
+    private ProgressStatus ps;
+
+    private StringWriter buffer;
+    private JsonElementWriter chunk;
+    private int chunkIndex = 0;
+    private int sent = 0;
+    private int skipped = 0;
+    private int total = 0;
+
+    public ChunkedElementWriter(String url, int chunkSize, ExportCheckpoint checkpoint, ProgressStatus ps) {
+        this.url = url;
+        this.chunkSize = chunkSize;
+        this.checkpoint = checkpoint;
+        this.ps = ps;
+    }
+
+    @Override
+    public void write(JSONObject element) throws IOException {
+        if (ps != null && ps.isCancel())
+            throw new ExportCancelledException();
+        if (chunk == null) {
+            buffer = new StringWriter();
+            chunk = new JsonElementWriter(buffer);
+        }
+        chunk.write(element);
+        total++;
+        if (chunk.getCount() >= chunkSize)
+            flush();
+    }
+
+    /**
+     * sends the last partial chunk
+     */
+    public void finish() throws IOException {
+        flush();
+    }
+
+    private void flush() throws IOException {
+        if (chunk == null)
+            return;
+        chunk.finish();
+        String json = buffer.toString();
+        int count = chunk.getCount();
+        chunk = null;
+        buffer = null;
+        CRC32 crc = new CRC32();
+        crc.update(json.getBytes("UTF-8"));
+        String hash = Long.toHexString(crc.getValue()) + "." + json.length();
+        int index = chunkIndex++;
+        if (checkpoint.isAcked(index, hash)) {
+            skipped++;
+            return;
+        }
+        if (ps != null) {
+            if (ps.isCancel())
+                throw new ExportCancelledException();
+            ps.setDescription("Sending chunk " + (index + 1) + " (" + total + " elements so far)");
+        }
+        if (ExportUtility.send(url, json, null, false, true) == null)
+            throw new IOException("Server did not accept chunk " + (index + 1));
+        checkpoint.ack(index, count, hash);
+        sent++;
+    }
+
+    public int getChunksSent() {
+        return sent;
+    }
+
+    public int getChunksSkipped() {
+        return skipped;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public static class ExportCancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ExportCancelledException() {
+            super("Export cancelled");
+        }
+    }
+}
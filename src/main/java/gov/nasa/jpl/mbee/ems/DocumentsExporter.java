@@ -0,0 +1,211 @@
+package gov.nasa.jpl.mbee.ems;
+
+import gov.nasa.jpl.mbee.ems.sync.OutputQueue;
+import gov.nasa.jpl.mbee.ems.sync.Request;
+import gov.nasa.jpl.mbee.generator.CollectFilterCache;
+import gov.nasa.jpl.mbee.generator.DocumentGenerator;
+import gov.nasa.jpl.mbee.generator.DocumentValidator;
+import gov.nasa.jpl.mbee.generator.PostProcessor;
+import gov.nasa.jpl.mbee.lib.Utils;
+import gov.nasa.jpl.mbee.model.DocBookOutputVisitor;
+import gov.nasa.jpl.mbee.model.Document;
+import gov.nasa.jpl.mbee.model.Section;
+import gov.nasa.jpl.mbee.viewedit.DBAlfrescoVisitor;
+import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBBook;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.nomagic.task.ProgressStatus;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.NamedElement;
+
+/**
+ * Commits the view structure of many documents in one go, what ExportView
+ * does for each document but without redoing or resending what the documents
+ * share:
+ *
+ * - documents are validated, generated, converted to json and queued one
+ * after the other on the calling thread. With mdk.export.pipelineDepth more
+ * than 0 (default 0), earlier documents are converted on another thread while
+ * the next is generated, with up to that many generated documents waiting.
+ * Conversion evaluates OCL and reads the model while the next validation
+ * resets the OCL environment, so this is only for models that don't use OCL
+ * in their views
+ * - views shared by documents are generated once, with the content cached in
+ * a DocumentGenerator view content cache for the rest of the export
+ * - each view is sent once, views from all documents are merged into requests
+ * of up to mdk.export.viewBatchSize views (default 1000)
+ * - images are collected from all documents and uploaded at the end by
+ * ArtifactUploader
+ *
+ * Validation also reuses shared views when mdk.validator.incremental is on.
+ */
+public class DocumentsExporter {
+    public static Logger log = Logger.getLogger(DocumentsExporter.class);
+
+    private final List<Element> docs;
+    private final String url;
+    private final String sendElementsUrl;
+    private final int batchSize = Utils.getIntProperty("mdk.export.viewBatchSize", 1000, 1);
+
+    private final Map<Element, Section> viewContents = new HashMap<Element, Section>();
+    // guarded by this, conversions can also run on the generating thread
+    private final Set<String> sentViews = new HashSet<String>();
+    private final Map<String, JSONObject> images = new LinkedHashMap<String, JSONObject>();
+    private JSONArray pending = new JSONArray();
+    private int requests = 0;
+
+    public DocumentsExporter(List<Element> docs) {
+        this.docs = docs;
+        url = ExportUtility.getUrlWithWorkspace();
+        sendElementsUrl = ExportUtility.getPostElementsUrl();
+    }
+
+    /**
+     * @param ps
+     * @return number of documents exported, -1 if canceled
+     */
+    public int export(ProgressStatus ps) {
+        if (url == null || sendElementsUrl == null)
+            return 0;
+        if (ps != null) {
+            ps.setIndeterminate(false);
+            ps.setMax(docs.size());
+            ps.setCurrent(0);
+        }
+        // with a pipeline, when the queue is full the generating thread
+        // converts the next document itself, so generated documents don't
+        // pile up in memory
+        int depth = Utils.getIntProperty("mdk.export.pipelineDepth", 0, 0);
+        ThreadPoolExecutor converter = depth == 0 ? null : new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(depth), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<?>> conversions = new ArrayList<Future<?>>();
+        boolean canceled = false;
+        int exported = 0;
+        // views shared by the documents reuse collect/filter results
+        CollectFilterCache.startBatch();
+        try {
+            for (int i = 0; i < docs.size(); i++) {
+                if (ps != null && ps.isCancel()) {
+                    canceled = true;
+                    break;
+                }
+                final Element doc = docs.get(i);
+                String name = doc instanceof NamedElement ? ((NamedElement)doc).getName() : doc.getID();
+                if (ps != null) {
+                    ps.setCurrent(i);
+                    ps.setDescription("Generating " + name + " (" + (i + 1) + " of " + docs.size() + ")");
+                }
+                final Document dge = generate(doc);
+                if (dge == null) {
+                    Utils.guilog("[ERROR] " + name + " has fatal validation errors, not committed.");
+                    continue;
+                }
+                exported++;
+                if (converter == null) {
+                    try {
+                        convert(dge);
+                    } catch (Exception e) {
+                        Utils.printException(e);
+                    }
+                    continue;
+                }
+                conversions.add(converter.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        convert(dge);
+                    }
+                }));
+            }
+        } finally {
+            CollectFilterCache.endBatch();
+            if (converter != null)
+                converter.shutdown();
+        }
+        for (Future<?> f: conversions) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                canceled = true;
+                break;
+            } catch (ExecutionException e) {
+                Utils.printException(e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+            }
+        }
+        if (canceled) {
+            if (converter != null)
+                converter.shutdownNow();
+            Utils.guilog("[INFO] Commit canceled, " + requests + " requests were already queued.");
+            return -1;
+        }
+        flush();
+        Utils.guilog("[INFO] " + exported + " documents with " + sentViews.size() + " views added to queue in "
+                + requests + " requests.");
+        if (ps != null)
+            ps.setCurrent(docs.size());
+        new ArtifactUploader(url, ExportUtility.getSite()).upload(images);
+        return exported;
+    }
+
+    private Document generate(Element doc) {
+        DocumentValidator dv = new DocumentValidator(doc);
+        dv.validateDocument();
+        if (dv.isFatal()) {
+            dv.printErrors(false);
+            return null;
+        }
+        DocumentGenerator dg = new DocumentGenerator(doc, dv, null);
+        dg.setViewContentCache(viewContents);
+        return dg.parseDocument(true, true, false);
+    }
+
+    // post processing is done here too, it sets titles on content that can
+    // be shared with documents generated later
+    @SuppressWarnings("unchecked")
+    private synchronized void convert(Document dge) {
+        new PostProcessor().process(dge);
+        DocBookOutputVisitor visitor = new DocBookOutputVisitor(true);
+        dge.accept(visitor);
+        DBBook book = visitor.getBook();
+        if (book == null)
+            return;
+        DBAlfrescoVisitor visitor2 = new DBAlfrescoVisitor(true);
+        book.accept(visitor2);
+        for (Object o: visitor2.getViews().values()) {
+            JSONObject view = (JSONObject)o;
+            if (sentViews.add((String)view.get("sysmlid")))
+                pending.add(view);
+            if (pending.size() >= batchSize)
+                flush();
+        }
+        images.putAll(visitor2.getImages());
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+        JSONObject send = new JSONObject();
+        send.put("elements", pending);
+        send.put("source", "magicdraw");
+        OutputQueue.getInstance().offer(new Request(sendElementsUrl, send.toJSONString(), pending.size()));
+        requests++;
+        pending = new JSONArray();
+    }
+}
@@ -0,0 +1,15 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.IOException;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Receives element json as it's filled in by ModelExporter, so exports don't
+ * need to hold the whole model's json in memory.
+ */
+public interface ElementWriter {
+
+    public void write(JSONObject element) throws IOException;
+
+}
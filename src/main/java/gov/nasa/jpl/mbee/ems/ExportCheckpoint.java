@@ -0,0 +1,100 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Local record of which chunks of a chunked model export the server has
+ * acknowledged, so a failed or cancelled export can pick up where it left off.
+ * Each line of the file is "chunk index, element count, content hash"; a
+ * chunk is only skipped on resume if it comes out with the same hash, so
+ * chunks touched since the failed run get sent again.
+ */
+public class ExportCheckpoint {
+    public static Logger log = Logger.getLogger(ExportCheckpoint.class);
+
+    private File file;
+    private Map<Integer, String> acked = new HashMap<Integer, String>();
+    private Writer out;
+
+    /**
+     * @param key identifies the export (project, start element, url)
+     */
+    public ExportCheckpoint(String key) {
+        File dir = new File(System.getProperty("user.home"), ".mdk" + File.separator + "exports");
+        dir.mkdirs();
+        file = new File(dir, Integer.toHexString(key.hashCode()) + "-" + key.length() + ".checkpoint");
+    }
+
+    public boolean exists() {
+        return file.exists() && file.length() > 0;
+    }
+
+    public void load() throws IOException {
+        acked.clear();
+        if (!file.exists())
+            return;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length != 3)
+                    continue; // partial line from a crash
+                try {
+                    acked.put(Integer.parseInt(parts[0]), parts[2]);
+                } catch (NumberFormatException e) {
+                    log.warn("bad checkpoint line: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public int getAckedCount() {
+        return acked.size();
+    }
+
+    public boolean isAcked(int chunk, String hash) {
+        return hash.equals(acked.get(chunk));
+    }
+
+    public void ack(int chunk, int elements, String hash) throws IOException {
+        if (out == null)
+            out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        out.write(chunk + "," + elements + "," + hash + "\n");
+        out.flush();
+        acked.put(chunk, hash);
+    }
+
+    public void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.warn("", e);
+        }
+        out = null;
+    }
+
+    /**
+     * export finished, nothing to resume
+     */
+    public void delete() {
+        close();
+        acked.clear();
+        file.delete();
+    }
+}
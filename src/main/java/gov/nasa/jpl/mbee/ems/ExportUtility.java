@@ -32,6 +32,7 @@ import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.ems.sync.AutoSyncProjectListener;
 import gov.nasa.jpl.mbee.ems.sync.OutputQueue;
 import gov.nasa.jpl.mbee.ems.sync.Request;
+import gov.nasa.jpl.mbee.ems.sync.SyncJournal;
 import gov.nasa.jpl.mbee.ems.validation.PropertyValueType;
 import gov.nasa.jpl.mbee.lib.MDUtils;
 import gov.nasa.jpl.mbee.lib.Utils;
@@ -520,8 +521,7 @@ public class ExportUtility {
             return null;
         DeleteMethod gm = new DeleteMethod(url);
         try {
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             //Application.getInstance().getGUILog().log("[INFO] Getting...");
             //Application.getInstance().getGUILog().log("url=" + url);
             log.info("delete: " + url);
@@ -556,8 +556,7 @@ public class ExportUtility {
             GUILog gl = Application.getInstance().getGUILog();
             Utils.guilog("[INFO] Sending file...");
             log.info("send file: " + url);
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             int code = client.executeMethod(pm);
             String response = pm.getResponseBodyAsString();
             log.info("send file response: " + code + " " + response);
@@ -597,8 +596,7 @@ public class ExportUtility {
             pm.setRequestHeader("Content-Type",
                     "application/json;charset=utf-8");
             pm.setRequestEntity(JsonRequestEntity.create(json));
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             int code = client.executeMethod(pm);
             String response = pm.getResponseBodyAsString();
             log.info("send response: " + code + " " + response);
@@ -628,8 +626,7 @@ public class ExportUtility {
             pm.setRequestHeader("Content-Type",
                     "application/json;charset=utf-8");
             pm.setRequestEntity(JsonRequestEntity.create(json));
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             int code = client.executeMethod(pm);
             String response = pm.getResponseBodyAsString();
             log.info("deleteWithBody Response: " + code + " " + response);
@@ -648,15 +645,26 @@ public class ExportUtility {
     }
     
     public static String getWithBody(String url, String json) {
-        EntityEnclosingMethod pm = null;
-        pm = new GetMethodWithEntity(url);
+        return getWithBody(new GetMethodWithEntity(url), json);
+    }
+    
+    /**
+     * like getWithBody(url, json) but with the method made by the caller, so
+     * another thread can abort it
+     * 
+     * @param pm
+     * @param json
+     * @return
+     */
+    public static String getWithBody(EntityEnclosingMethod pm, String json) {
+        String url = null;
         try {
+            url = pm.getURI().toString();
             log.info("getWithBody: " + url + ": " + json);// gl.log(json);
             pm.setRequestHeader("Content-Type",
                     "application/json;charset=utf-8");
             pm.setRequestEntity(JsonRequestEntity.create(json));
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             int code = client.executeMethod(pm);
             String response = pm.getResponseBodyAsString();
             log.info("getWithBody Response: " + code + " " + response);
@@ -665,7 +673,8 @@ public class ExportUtility {
             }
             return response;
         } catch (Exception ex) {
-            Utils.printException(ex);
+            if (!pm.isAborted())
+                Utils.printException(ex);
             return null;
         } finally {
             pm.releaseConnection();
@@ -708,8 +717,7 @@ public class ExportUtility {
             return null;
         GetMethod gm = new GetMethod(url);
         try {
-            HttpClient client = new HttpClient();
-            ViewEditUtils.setCredentials(client, url);
+            HttpClient client = HttpClientPool.getClient(url);
             //Application.getInstance().getGUILog().log("[INFO] Getting...");
             //Application.getInstance().getGUILog().log("url=" + url);
             log.info("get: " + url);
@@ -1568,11 +1576,28 @@ public class ExportUtility {
             return false;
         if (e instanceof Slot && (e.getOwner() == null || ((Slot)e).getDefiningFeature() == null)) //model is messed up
                 return false;
-        if (e.getID().endsWith("sync") || (e.getOwner() != null && e.getOwner().getID().endsWith("sync"))) //delayed sync stuff
+        if (isSyncElement(e)) //delayed sync stuff
             return false;
         return true;
     }
 
+    /**
+     * true for the __ProjectSync__ package, its classes and the SyncJournal
+     * segments on them, also once the segments are deleted
+     */
+    public static boolean isSyncElement(Element e) {
+        if (SyncJournal.isSegment(e))
+            return true;
+        // the package, a class in it or something owned by a class
+        Element cur = e;
+        for (int i = 0; i < 3 && cur != null; i++) {
+            if (cur.getID().endsWith("sync"))
+                return true;
+            cur = cur.getOwner();
+        }
+        return false;
+    }
+
     public static final Pattern HTML_WHITESPACE_END = Pattern.compile(
             "\\s*</p>", Pattern.DOTALL);
     public static final Pattern HTML_WHITESPACE_START = Pattern.compile(
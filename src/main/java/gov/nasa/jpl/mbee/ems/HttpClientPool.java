@@ -0,0 +1,117 @@
+package gov.nasa.jpl.mbee.ems;
+
+import gov.nasa.jpl.mbee.lib.Utils;
+import gov.nasa.jpl.mbee.viewedit.ViewEditUtils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared, connection pooled http client for all MMS calls. Connections are kept
+ * alive between requests and credentials are set once per host instead of on
+ * every request.
+ *
+ * Can be tuned with system properties:
+ * mdk.http.maxPerHost (default 8), mdk.http.maxTotal (default 32),
+ * mdk.http.soTimeout and mdk.http.connectTimeout in ms (default 0, no timeout)
+ */
+public class HttpClientPool {
+    public static Logger log = Logger.getLogger(HttpClientPool.class);
+
+    private static final MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+    private static final HttpClient client = new HttpClient(manager);
+    private static final Set<String> authorized = new HashSet<String>();
+
+    static {
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(Utils.getIntProperty("mdk.http.maxPerHost", 8, 1));
+        params.setMaxTotalConnections(Utils.getIntProperty("mdk.http.maxTotal", 32, 1));
+        params.setSoTimeout(Utils.getIntProperty("mdk.http.soTimeout", 0, 0));
+        params.setConnectionTimeout(Utils.getIntProperty("mdk.http.connectTimeout", 0, 0));
+        params.setStaleCheckingEnabled(true);
+        client.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
+                new DefaultHttpMethodRetryHandler(0, false));
+        client.getParams().setAuthenticationPreemptive(true);
+    }
+
+    /**
+     * the shared client without any credentials set for the url
+     *
+     * @return
+     */
+    public static HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * the shared client with credentials for the url host, will prompt for
+     * login if not logged in yet
+     *
+     * @param url
+     * @return
+     */
+    public static HttpClient getClient(String url) {
+        String key = null;
+        AuthScope scope = null;
+        try {
+            URL u = new URL(url);
+            key = u.getHost() + ":" + u.getPort();
+            scope = new AuthScope(u.getHost(), u.getPort(), AuthScope.ANY_REALM);
+        } catch (MalformedURLException e) {
+            log.error("", e);
+            return client;
+        }
+        synchronized (authorized) {
+            if (!ViewEditUtils.isPasswordSet() && !authorized.isEmpty()) {
+                // logged out since last request (ex. 401), drop cached logins
+                client.getState().clearCredentials();
+                authorized.clear();
+            }
+            if (!authorized.contains(key)) {
+                client.getState().setCredentials(scope, ViewEditUtils.getCredentials());
+                authorized.add(key);
+            }
+        }
+        return client;
+    }
+
+    public static void setTimeouts(int soTimeout, int connectTimeout) {
+        manager.getParams().setSoTimeout(soTimeout);
+        manager.getParams().setConnectionTimeout(connectTimeout);
+    }
+
+    public static void setMaxConnections(int perHost, int total) {
+        manager.getParams().setDefaultMaxConnectionsPerHost(perHost);
+        manager.getParams().setMaxTotalConnections(total);
+    }
+
+    public static void clearCredentials() {
+        synchronized (authorized) {
+            client.getState().clearCredentials();
+            authorized.clear();
+        }
+    }
+
+    /**
+     * close connections that have been idle for longer than the given time
+     *
+     * @param idleMillis
+     */
+    public static void closeIdleConnections(long idleMillis) {
+        manager.closeIdleConnections(idleMillis);
+    }
+
+    public static void shutdown() {
+        manager.shutdown();
+    }
+}
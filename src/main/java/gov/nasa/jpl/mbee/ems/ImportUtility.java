@@ -8,10 +8,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 
 import gov.nasa.jpl.graphs.DirectedEdgeVector;
-import gov.nasa.jpl.graphs.DirectedGraphHashSet;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+import gov.nasa.jpl.graphs.algorithms.CycleException;
 import gov.nasa.jpl.graphs.algorithms.TopologicalSort;
 import gov.nasa.jpl.mbee.ems.validation.PropertyValueType;
 import gov.nasa.jpl.mbee.lib.Debug;
@@ -74,32 +74,91 @@ public class ImportUtility {
        ));
     
     public static List<JSONObject> getCreationOrder(List<JSONObject> newElements) {
-        DirectedGraphHashSet<JSONObject, DirectedEdgeVector<JSONObject>> graph = new DirectedGraphHashSet<JSONObject, DirectedEdgeVector<JSONObject>>();
+        List<JSONObject> cannotCreate = new ArrayList<JSONObject>();
+        List<JSONObject> order = getCreationOrder(newElements, Collections.<String, Element>emptyMap(),
+                cannotCreate);
+        return cannotCreate.isEmpty() ? order : null; //cannot all be created
+    }
+
+    /**
+     * Orders the elements that can be created so owners come first, leaving
+     * out the ones whose owner isn't in the model or among the new elements
+     * that can be created.
+     * 
+     * @param newElements
+     * @param known
+     *            elements already looked up by id, others are looked up
+     * @param cannotCreate
+     *            gets the elements left out
+     * @return
+     */
+    public static List<JSONObject> getCreationOrder(List<JSONObject> newElements, Map<String, Element> known,
+            List<JSONObject> cannotCreate) {
         Map<String, JSONObject> id2ob = new HashMap<String, JSONObject>();
+        for (JSONObject ob: newElements) {
+            String sysmlid = (String)ob.get("sysmlid");
+            if (sysmlid != null)
+                id2ob.put(sysmlid, ob);
+        }
+        Map<String, Element> found = new HashMap<String, Element>(known);
+        // whether an element's owner chain ends in the model
+        Map<String, Boolean> creatable = new HashMap<String, Boolean>();
+        for (String sysmlid: id2ob.keySet()) {
+            List<String> chain = new ArrayList<String>();
+            Set<String> onChain = new HashSet<String>();
+            String id = sysmlid;
+            Boolean result = null;
+            while (result == null) {
+                result = creatable.get(id);
+                if (result != null)
+                    break;
+                chain.add(id);
+                onChain.add(id);
+                String ownerid = (String)id2ob.get(id).get("owner");
+                if (lookup(ownerid, found) != null)
+                    result = true;
+                else if (!id2ob.containsKey(ownerid) || onChain.contains(ownerid))
+                    result = false; // owner missing, or an ownership cycle
+                else
+                    id = ownerid;
+            }
+            for (String c: chain)
+                creatable.put(c, result);
+        }
+
+        DirectedGraphAdjacencyMap<JSONObject, DirectedEdgeVector<JSONObject>> graph = new DirectedGraphAdjacencyMap<JSONObject, DirectedEdgeVector<JSONObject>>();
         for (JSONObject ob: newElements) {
             String sysmlid = (String)ob.get("sysmlid");
             if (sysmlid == null)
                 continue;
-            id2ob.put(sysmlid, ob);
-            graph.addVertex(ob);
+            if (creatable.get(sysmlid))
+                graph.addVertex(ob);
+            else
+                cannotCreate.add(ob);
         }
-        for (JSONObject ob: newElements) {
+        for (JSONObject ob: new ArrayList<JSONObject>(graph.getVertices())) {
             String sysmlid = (String)ob.get("sysmlid");
             String ownerid = (String)ob.get("owner");
-            Element newE = ExportUtility.getElementFromID(sysmlid);
-            Element ownerE = ExportUtility.getElementFromID(ownerid);
-            if (ownerE == null && !id2ob.containsKey(ownerid))
-                return null; //cannot all be created
-            if (newE != null || ownerE != null)
+            if (lookup(sysmlid, found) != null || lookup(ownerid, found) != null)
                 continue;
-            JSONObject newj = id2ob.get(sysmlid);
-            JSONObject ownerj = id2ob.get(ownerid);
-            graph.addEdge(newj, ownerj);
+            graph.addEdge(ob, id2ob.get(ownerid));
+        }
+        // owners come before the elements they own
+        try {
+            return new TopologicalSort().sort(graph);
+        } catch (CycleException e) {
+            log.error("cannot create elements with an ownership cycle: " + e.getVertices().size() + " elements");
+            cannotCreate.addAll(graph.getVertices());
+            return new ArrayList<JSONObject>();
         }
-        SortedSet<JSONObject> reverse = (new TopologicalSort()).topological_sort(graph);
-        List<JSONObject> toposort = new ArrayList<JSONObject>(reverse);
-        //Collections.reverse(toposort);
-        return toposort;
+    }
+
+    private static Element lookup(String id, Map<String, Element> found) {
+        if (id == null)
+            return null;
+        if (!found.containsKey(id))
+            found.put(id, ExportUtility.getElementFromID(id));
+        return found.get(id);
     }
     
     public static Element createElement(JSONObject ob, boolean updateRelations) {
@@ -0,0 +1,48 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Writes elements as the json post body for the elements service,
+ * {"elements":[...]}, one element at a time.
+ */
+public class JsonElementWriter implements ElementWriter {
+
+    private Writer out;
+    private int count = 0;
+    private boolean closed = false;
+
+    public JsonElementWriter(Writer out) throws IOException {
+        this.out = out;
+        out.write("{\"elements\":[");
+    }
+
+    @Override
+    public void write(JSONObject element) throws IOException {
+        if (count > 0)
+            out.write(',');
+        element.writeJSONString(out);
+        count++;
+    }
+
+    /**
+     * closes the elements array and flushes, doesn't close the underlying
+     * writer
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (closed)
+            return;
+        out.write("]}");
+        out.flush();
+        closed = true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * Request body that runs the model export while the request is being sent,
+ * so elements are written straight to the connection (chunked) instead of
+ * being built into one json string first. Not repeatable, the export is done
+ * on the sending thread.
+ */
+public class ModelExportRequestEntity implements RequestEntity {
+
+    private ModelExporter exporter;
+
+    public ModelExportRequestEntity(ModelExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        exporter.writeTo(writer);
+        writer.flush();
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/json;charset=utf-8";
+    }
+}
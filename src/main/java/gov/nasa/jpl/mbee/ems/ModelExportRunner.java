@@ -31,13 +31,18 @@ package gov.nasa.jpl.mbee.ems;
 import gov.nasa.jpl.mbee.ems.sync.OutputQueue;
 import gov.nasa.jpl.mbee.ems.sync.Request;
 import gov.nasa.jpl.mbee.lib.Utils;
+import gov.nasa.jpl.mbee.web.JsonFileRequestEntity;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
-import org.json.simple.JSONObject;
+import org.apache.commons.httpclient.methods.PostMethod;
 
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.GUILog;
@@ -52,6 +57,8 @@ public class ModelExportRunner implements RunnableWithProgress {
     private int depth;
     private boolean packageOnly;
     private String url;
+    // elements per request for exports, 0 sends the whole export as one request
+    private int chunkSize = Utils.getIntProperty("mdk.export.chunkSize", 5000, 0);
     
     public ModelExportRunner(Element start, int depth, boolean packageOnly, String url) {
         this.start = start;
@@ -60,11 +67,10 @@ public class ModelExportRunner implements RunnableWithProgress {
         this.url = url;
     }
     
+    
     @Override
     public void run(ProgressStatus arg0) {
         ModelExporter me;
-        GUILog gl = Application.getInstance().getGUILog();
-        
         if (start == Application.getInstance().getProject().getModel()) {
             me = new ModelExporter(Application.getInstance().getProject(), depth, packageOnly);
         } else {
@@ -72,14 +78,91 @@ public class ModelExportRunner implements RunnableWithProgress {
             root.add(start);
             me = new ModelExporter(root, depth, packageOnly, Application.getInstance().getProject().getPrimaryProject());
         }
-        JSONObject result = me.getResult();
-        String json = result.toJSONString();
+        if (chunkSize > 0)
+            exportChunked(me, arg0);
+        else
+            exportStreamed(me);
+    }
+
+    /**
+     * sends the export in chunks on this thread, recording each acknowledged
+     * chunk so a failed or cancelled export can be resumed
+     */
+    private void exportChunked(ModelExporter me, ProgressStatus ps) {
+        GUILog gl = Application.getInstance().getGUILog();
+        ExportCheckpoint checkpoint = new ExportCheckpoint(Application.getInstance().getProject().getPrimaryProject().getProjectID()
+                + "|" + start.getID() + "|" + depth + "|" + packageOnly + "|" + url);
+        try {
+            if (checkpoint.exists()) {
+                Boolean resume = Utils.getUserYesNoAnswer("A previous export of this model did not finish, resume it?");
+                if (resume == null)
+                    return;
+                if (resume)
+                    checkpoint.load();
+                else
+                    checkpoint.delete();
+            }
+        } catch (IOException e) {
+            Utils.printException(e);
+            checkpoint.delete();
+        }
+        ChunkedElementWriter writer = new ChunkedElementWriter(url, chunkSize, checkpoint, ps);
+        try {
+            me.export(writer);
+            writer.finish();
+            checkpoint.delete();
+            gl.log("Number of Elements: " + me.getNumberOfElements());
+            gl.log("[INFO] Export finished, sent " + writer.getChunksSent() + " chunk(s)"
+                    + (writer.getChunksSkipped() > 0 ? ", " + writer.getChunksSkipped() + " already sent" : "") + ".");
+        } catch (ChunkedElementWriter.ExportCancelledException e) {
+            checkpoint.close();
+            gl.log("[INFO] Export cancelled after " + writer.getChunksSent() + " chunk(s), export again to resume.");
+        } catch (IOException e) {
+            checkpoint.close();
+            Utils.printException(e);
+            gl.log("[ERROR] Export failed after " + writer.getChunksSent() + " chunk(s): " + e.getMessage()
+                    + ", export again to resume.");
+        }
+    }
+
+    /**
+     * streams the export to a temp file and queues it as one request
+     */
+    private void exportStreamed(ModelExporter me) {
+        GUILog gl = Application.getInstance().getGUILog();
+        // stream the export to a temp file instead of building the json in
+        // memory, the file is sent then deleted by the sync queue
+        File file = null;
+        Writer writer = null;
+        try {
+            file = File.createTempFile("mdkexport", ".json");
+            file.deleteOnExit();
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            me.writeTo(writer);
+        } catch (IOException e) {
+            Utils.printException(e);
+            gl.log("[ERROR] Could not write export: " + e.getMessage());
+            if (file != null)
+                file.delete();
+            return;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                }
+            }
+        }
 
         //gl.log(json);
         gl.log("Number of Elements: " + me.getNumberOfElements());
        // gl.log("*** Starting export view comments ***");
         Application.getInstance().getGUILog().log("[INFO] Request is added to queue.");
-        OutputQueue.getInstance().offer(new Request(url, json, me.getNumberOfElements()));
+        PostMethod pm = new PostMethod(url);
+        pm.setRequestEntity(new JsonFileRequestEntity(file, true));
+        Request r = new Request(url, pm);
+        r.setWait(me.getNumberOfElements()*1000 + 120000);
+        OutputQueue.getInstance().offer(r);
         //ExportUtility.send(url, json, null, false);
     }
 }
@@ -30,7 +30,11 @@ package gov.nasa.jpl.mbee.ems;
 
 import gov.nasa.jpl.mbee.lib.Utils;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -58,13 +62,14 @@ import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
 public class ModelExporter {
 
     //private JSONObject elementHierarchy = new JSONObject();
-    private JSONObject elements = new JSONObject();
+    private Set<String> added = new HashSet<String>();
     //private JSONArray roots = new JSONArray();
     
     private Set<Element> starts;
     private int depth;
     private boolean packageOnly;
     private IProject parentPrj;
+    private ElementWriter writer;
     
     private Stereotype view = Utils.getViewStereotype();
     private Stereotype viewpoint = Utils.getViewpointStereotype();
@@ -90,27 +95,78 @@ public class ModelExporter {
     }
     
     public int getNumberOfElements() {
-        return elements.size();
+        return added.size();
     }
     
+    /**
+     * builds the whole export in memory, use writeTo or export for big models
+     * 
+     * @return
+     */
     @SuppressWarnings("unchecked")
     public JSONObject getResult() {
-        for (Element e: starts) {
-            addToElements(e, 1);
-                //roots.add(e.getID());
+        final JSONArray elementss = new JSONArray();
+        try {
+            export(new ElementWriter() {
+                @Override
+                public void write(JSONObject element) {
+                    elementss.add(element);
+                }
+            });
+        } catch (IOException e) {
+            // can't happen with in memory writer
         }
         JSONObject result = new JSONObject();
         //result.put("roots", roots);
-        JSONArray elementss = new JSONArray();
-        elementss.addAll(elements.values());
         result.put("elements", elementss);
         //result.put("elementHierarchy", elementHierarchy);
         return result;
     }
     
+    /**
+     * writes the export as json to out without building it in memory first,
+     * elements are written in containment order (owners before owned)
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out) throws IOException {
+        JsonElementWriter jw = new JsonElementWriter(out);
+        export(jw);
+        jw.finish();
+    }
+    
+    /**
+     * walks the containment tree from the starts, passing each element to the
+     * writer as it's filled in
+     * 
+     * @param writer
+     * @throws IOException
+     */
+    public void export(ElementWriter writer) throws IOException {
+        this.writer = writer;
+        added.clear();
+        // same order every run so chunked exports can resume
+        List<Element> ordered = new ArrayList<Element>(starts);
+        Collections.sort(ordered, new Comparator<Element>() {
+            @Override
+            public int compare(Element o1, Element o2) {
+                return o1.getID().compareTo(o2.getID());
+            }
+        });
+        try {
+            for (Element e: ordered) {
+                addToElements(e, 1);
+                    //roots.add(e.getID());
+            }
+        } finally {
+            this.writer = null;
+        }
+    }
+    
     @SuppressWarnings("unchecked")
-    private boolean addToElements(Element e, int curdepth) {
-        if (elements.containsKey(e.getID()))
+    private boolean addToElements(Element e, int curdepth) throws IOException {
+        if (added.contains(e.getID()))
             return true;
         if (//e instanceof ValueSpecification || 
             (packageOnly && !(e instanceof Package)) || e instanceof Extension || e instanceof ProfileApplication)
@@ -123,10 +179,11 @@ public class ModelExporter {
             return false;
         JSONObject elementInfo = new JSONObject();
         ExportUtility.fillElement(e, elementInfo);
-        elements.put(e.getID(), elementInfo);
+        added.add(e.getID());
         
         if (starts.contains(e) && ProjectUtilities.isAttachedProjectRoot(e))
             elementInfo.put("owner", parentPrj.getProjectID());
+        writer.write(elementInfo);
         
         //if (e instanceof Property || e instanceof Slot)
         //    elements.putAll(ExportUtility.getReferencedElements(e));
@@ -2,6 +2,7 @@ package gov.nasa.jpl.mbee.ems.sync;
 
 import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.validation.ValidationJournal;
 import gov.nasa.jpl.mbee.lib.Utils;
 
 import java.beans.PropertyChangeEvent;
@@ -13,7 +14,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import com.nomagic.magicdraw.core.Application;
@@ -100,8 +100,11 @@ public class AutoSyncCommitListener implements TransactionCommitListener {
             // simply return without processing
             // the events.
             //
-            if (disabled) //take into account delayed sync?
+            if (disabled) { //take into account delayed sync?
+                // imports aren't sent back, but still have to be validated
+                markDirty();
                 return;
+            }
 
             for (PropertyChangeEvent event : events) {
 
@@ -138,36 +141,60 @@ public class AutoSyncCommitListener implements TransactionCommitListener {
             for (String id: toRemove) {
                 elements.remove(id);
             }
+            if (!elements.isEmpty() || !deletes.isEmpty()) {
+                Set<String> changed = new HashSet<String>(elements.keySet());
+                changed.addAll(deletes);
+                ValidationJournal.getJournal(Application.getInstance().getProject()).markDirty(changed);
+            }
             if ((!elements.isEmpty() || !deletes.isEmpty()) && auto)
                 sendChanges();
         }
 
-        @SuppressWarnings("unchecked")
+        // the changed elements and the elements that export them (owners of
+        // value specs, docs and connector ends)
+        private void markDirty() {
+            Set<String> changed = new HashSet<String>();
+            for (PropertyChangeEvent event: events) {
+                if (event == null || !(event.getSource() instanceof Element))
+                    continue;
+                Element e = (Element)event.getSource();
+                while (e != null) {
+                    String id = ExportUtility.getElementID(e);
+                    if (id != null)
+                        changed.add(id);
+                    if (!(e instanceof ValueSpecification || e instanceof Comment || e instanceof ConnectorEnd))
+                        break;
+                    e = e.getOwner();
+                }
+            }
+            if (!changed.isEmpty())
+                ValidationJournal.getJournal(Application.getInstance().getProject()).markDirty(changed);
+        }
+
+        // changes the output queue has no room for are kept like delayed
+        // sync changes, they're saved with the project and sent by the next
+        // manual sync
         private void sendChanges() {
-            JSONObject toSend = new JSONObject();
-            JSONArray eles = new JSONArray();
-            eles.addAll(elements.values());
-            toSend.put("elements", eles);
-            toSend.put("source", "magicdraw");
-            if (!eles.isEmpty()) {
+            OutputQueue q = OutputQueue.getInstance();
+            if (!elements.isEmpty()) {
                 String url = ExportUtility.getPostElementsUrl();
-                if (url != null) {
-                    Request r = new Request(url, toSend.toJSONString(), "POST", false, eles.size());
-                    OutputQueue.getInstance().offer(r);
+                if (url != null && !q.offerElements(url, elements.values())) {
+                    for (String id: elements.keySet()) {
+                        Element e = ExportUtility.getElementFromID(id);
+                        if (e != null)
+                            changedElements.put(id, e);
+                    }
                 }
             }
             if (!deletes.isEmpty()) {
                 String deleteUrl = ExportUtility.getUrlWithWorkspace();
-                JSONObject send = new JSONObject();
-                JSONArray elements = new JSONArray();
-                send.put("elements", elements);
-                send.put("source", "magicdraw");
-                for (String id: deletes) {
-                    JSONObject eo = new JSONObject();
-                    eo.put("sysmlid", id);
-                    elements.add(eo);
+                if (deleteUrl != null && !q.offerDeletes(deleteUrl + "/elements", deletes)) {
+                    for (String id: deletes) {
+                        changedElements.remove(id);
+                        addedElements.remove(id);
+                        deletedElements.put(id, null);
+                    }
                 }
-                OutputQueue.getInstance().offer(new Request(deleteUrl + "/elements", send.toJSONString(), "DELETEALL", false, elements.size()));
             }
         }
 
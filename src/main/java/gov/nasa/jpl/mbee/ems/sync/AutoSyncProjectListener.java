@@ -13,23 +13,21 @@ import java.util.Set;
 import java.util.UUID;
 
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.validation.ValidationJournal;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
-import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.Session;
-import javax.jms.TextMessage;
 import javax.jms.Topic;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.Project;
@@ -40,7 +38,6 @@ import com.nomagic.magicdraw.openapi.uml.ReadOnlyElementException;
 import com.nomagic.magicdraw.openapi.uml.SessionManager;
 import com.nomagic.magicdraw.teamwork.application.TeamworkUtils;
 import com.nomagic.magicdraw.uml.transaction.MDTransactionManager;
-import com.nomagic.uml2.ext.jmi.helpers.ModelHelper;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.NamedElement;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Class;
@@ -135,10 +132,17 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
         return elements;
     }
     
-    public static void setUpdatesOrFailed(Project project, JSONObject o, String type) {
+    private static final String[] UPDATE_SETS = {"added", "changed", "deleted"};
+    private static final String[] CONFLICT_SETS = {"elements"};
+
+    @SuppressWarnings("unchecked")
+    private static void setSyncIds(Project project, JSONObject o, String type, String[] sets) {
         List<Element> es = getSyncElement(project, true, type);
         ((NamedElement)es.get(0)).setName(type + "_" + df.format(new Date()));
-        ModelHelper.setComment(es.get(0), (o == null) ? "{\"deleted\":[], \"changed\":[], \"added\":[]}" : o.toJSONString());
+        Map<String, Collection<String>> state = new HashMap<String, Collection<String>>();
+        for (String set: sets)
+            state.put(set, (o == null || o.get(set) == null) ? new HashSet<String>() : (Collection<String>)o.get(set));
+        SyncJournal.getJournal(project, es.get(0)).write(state);
         for (int i = 1; i < es.size(); i++) {
             Element toremove = es.get(i);
             if (toremove.isEditable()) {
@@ -151,32 +155,55 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
             }
         }
     }
-    
-    public static JSONObject getUpdatesOrFailed(Project project, String type) {
-        List<Element> es = getSyncElement(project, false, type);
-        if (es.isEmpty())
-            return null;
-        JSONObject update = new JSONObject();
-        update.put("deleted", new JSONArray());
-        update.put("changed", new JSONArray());
-        update.put("added", new JSONArray());
-        Set<String> deleted = new HashSet<String>();
-        Set<String> changed = new HashSet<String>();
-        Set<String> added = new HashSet<String>();
-        for (Element e: es) {
+
+    /**
+     * @param project
+     * @param type
+     *            "update", "error" or "conflict"
+     * @param set
+     *            "added", "changed" or "deleted", "elements" for conflicts
+     * @return the ids in the set, merged from all the type's sync classes
+     */
+    public static Set<String> getSyncIds(Project project, String type, String set) {
+        Set<String> ids = new HashSet<String>();
+        for (Element e: getSyncElement(project, false, type)) {
             try {
-                JSONObject updates = (JSONObject)JSONValue.parse(ModelHelper.getComment(e));
-                deleted.addAll((JSONArray)updates.get("deleted"));
-                changed.addAll((JSONArray)updates.get("changed"));
-                added.addAll((JSONArray)updates.get("added"));
+                ids.addAll(SyncJournal.getJournal(project, e).getIds(set));
             } catch (Exception ex) {
                 log.error("", ex);
             }
         }
-        ((JSONArray)update.get("deleted")).addAll(deleted);
-        ((JSONArray)update.get("changed")).addAll(changed);
-        ((JSONArray)update.get("added")).addAll(added);
-        return update;
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject getSyncIds(Project project, String type, String[] sets) {
+        List<Element> es = getSyncElement(project, false, type);
+        if (es.isEmpty())
+            return null;
+        JSONObject result = new JSONObject();
+        for (String set: sets) {
+            Set<String> ids = new HashSet<String>();
+            for (Element e: es) {
+                try {
+                    ids.addAll(SyncJournal.getJournal(project, e).getIds(set));
+                } catch (Exception ex) {
+                    log.error("", ex);
+                }
+            }
+            JSONArray array = new JSONArray();
+            array.addAll(ids);
+            result.put(set, array);
+        }
+        return result;
+    }
+
+    public static void setUpdatesOrFailed(Project project, JSONObject o, String type) {
+        setSyncIds(project, o, type, UPDATE_SETS);
+    }
+    
+    public static JSONObject getUpdatesOrFailed(Project project, String type) {
+        return getSyncIds(project, type, UPDATE_SETS);
     }
     
     public static void setConflicts(Project project, JSONObject o) {
@@ -185,39 +212,11 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
             projectInstances.remove(CONFLICTS);
         else
             projectInstances.put(CONFLICTS, o);
-        List<Element> es = getSyncElement(project, true, "conflict");
-        ((NamedElement)es.get(0)).setName("conflict_" + df.format(new Date()));
-        ModelHelper.setComment(es.get(0), (o == null) ? "{\"elements\":[]}" : o.toJSONString());
-        for (int i = 1; i < es.size(); i++) {
-            Element toremove = es.get(i);
-            if (toremove.isEditable()) {
-                try {
-                    ModelElementsManager.getInstance().removeElement(toremove);
-                } catch (ReadOnlyElementException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
-        }
+        setSyncIds(project, o, "conflict", CONFLICT_SETS);
     }
     
     public static JSONObject getConflicts(Project project) {
-        List<Element> es = getSyncElement(project, false, "conflict");
-        if (es.isEmpty())
-            return null;
-        JSONObject update = new JSONObject();
-        update.put("elements", new JSONArray());
-        Set<String> elements = new HashSet<String>();
-        for (Element e: es) {
-            try {
-                JSONObject updates = (JSONObject)JSONValue.parse(ModelHelper.getComment(e));
-                elements.addAll((JSONArray)updates.get("elements"));
-            } catch (Exception ex) {
-                log.error("", ex);
-            }
-        }
-        ((JSONArray)update.get("elements")).addAll(elements);
-        return update;
+        return getSyncIds(project, "conflict", CONFLICT_SETS);
         
         /*
         Map<String, Object> projectInstances = ProjectListenerMapping.getInstance().get(project);
@@ -307,7 +306,8 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
             changedIds.addAll((List<String>)previousConflicts.get("elements"));
         }
         try {
-            ConnectionFactory connectionFactory = new ActiveMQConnectionFactory(url);
+            ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(url);
+            JMSDrain.configure(connectionFactory);
             String subscriberId = projectID + "/" + wsID; //getSubscriberId(project);
             connection = connectionFactory.createConnection();
             connection.setClientID(subscriberId);// + (new Date()).toString());
@@ -316,50 +316,7 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
             String messageSelector = constructSelectorString(projectID, wsID);
             consumer = session.createDurableSubscriber(topic, subscriberId, messageSelector, true);
             connection.start();
-            Message m = consumer.receive(1000);
-            while (m != null) {
-                TextMessage message = (TextMessage)m;
-                log.info("From JMS (Manual receive): " + message.getText());
-                JSONObject ob = (JSONObject) JSONValue.parse(message.getText());
-                boolean magicdraw = false;
-                if (ob.get("source") != null && ob.get("source").equals("magicdraw")) {
-                    //m = consumer.receive(1000);
-                    magicdraw = true;
-                    //continue;
-                }
-                JSONObject ws2 = (JSONObject) ob.get("workspace2");
-                final JSONArray updated = (JSONArray) ws2.get("updatedElements");
-                final JSONArray added = (JSONArray) ws2.get("addedElements");
-                final JSONArray deleted = (JSONArray) ws2.get("deletedElements");
-                final JSONArray moved = (JSONArray) ws2.get("movedElements");
-                for (Object e: updated) {
-                    String id = (String)((JSONObject)e).get("sysmlid");
-                    if (!magicdraw) 
-                        changedIds.add(id);
-                    deletedIds.remove(id);
-                }
-                for (Object e: added) {
-                    String id = (String)((JSONObject)e).get("sysmlid");
-                    if (!magicdraw) 
-                        addedIds.add(id);
-                    deletedIds.remove(id);
-                }
-                for (Object e: moved) {
-                    String id = (String)((JSONObject)e).get("sysmlid");
-                    if (!magicdraw) 
-                        changedIds.add(id);
-                    deletedIds.remove(id);
-                }
-                for (Object e: deleted) {
-                    String id = (String)((JSONObject)e).get("sysmlid");
-                    if (!magicdraw)
-                        deletedIds.add(id);
-                    addedIds.remove(id);
-                    changedIds.remove(id);
-                }
-                m.acknowledge();
-                m = consumer.receive(1000);
-            }
+            new JMSDrain().drain(consumer, addedIds, changedIds, deletedIds);
             SessionManager sm = SessionManager.getInstance();
             sm.createSession("mms delayed sync change logs");
             try {
@@ -530,7 +487,9 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
         Connection connection = (Connection) projectInstances.remove(CONNECTION);
         Session session = (Session) projectInstances.remove(SESSION);
         MessageConsumer consumer = (MessageConsumer) projectInstances.remove(CONSUMER);
-        projectInstances.remove(JMSLISTENER);
+        JMSMessageListener jmslistener = (JMSMessageListener) projectInstances.remove(JMSLISTENER);
+        if (jmslistener != null)
+            jmslistener.close();
         try {
             if (consumer != null)
                 consumer.close();
@@ -585,6 +544,9 @@ public class AutoSyncProjectListener extends ProjectEventListenerAdapter {
     @Override
     public void projectClosed(Project project) {
         close(project, false);
+        Map<String, Object> projectInstances = ProjectListenerMapping.getInstance().get(project);
+        if (projectInstances != null && projectInstances.get(ValidationJournal.JOURNAL) != null)
+            ((ValidationJournal)projectInstances.get(ValidationJournal.JOURNAL)).close();
         ProjectListenerMapping.getInstance().remove(project);
     }
     
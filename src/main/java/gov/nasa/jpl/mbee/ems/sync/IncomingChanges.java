@@ -0,0 +1,479 @@
+package gov.nasa.jpl.mbee.ems.sync;
+
+import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.ImportUtility;
+import gov.nasa.jpl.mbee.ems.validation.ElementFingerprint;
+import gov.nasa.jpl.mbee.ems.validation.ViewValidator;
+import gov.nasa.jpl.mbee.ems.validation.actions.ImportHierarchy;
+import gov.nasa.jpl.mbee.generator.DocumentGenerator;
+import gov.nasa.jpl.mbee.lib.Utils;
+import gov.nasa.jpl.mbee.model.Document;
+import gov.nasa.jpl.mbee.viewedit.ViewHierarchyVisitor;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.magicdraw.openapi.uml.ModelElementsManager;
+import com.nomagic.magicdraw.teamwork.application.TeamworkUtils;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.transaction.TransactionCommitListener;
+
+/**
+ * A batch of element changes from MMS, applied to the model by autosync and
+ * manual update. Changes are merged as they're added, so one batch can cover
+ * many messages: a delete cancels earlier adds, moves and updates of the
+ * element, an add, move or update cancels an earlier delete, and the latest
+ * json of an element wins.
+ *
+ * prepare() does everything that doesn't change the model, outside the
+ * session: it looks up the changed elements and the owners of added ones,
+ * orders added elements so owners come first (the ones whose owner can't be
+ * found go to cannotAdd), finds the added elements whose relationships need
+ * a second pass, keys view hierarchies, and leaves out deletes of elements
+ * whose owner is also deleted.
+ *
+ * apply() then makes the changes, in a session the caller opened: added,
+ * moved, updated, then deleted elements. With mdk.sync.skipUnchanged (default
+ * true) updated elements that already export to the incoming json, with every
+ * field the update would set, are skipped. If the model had a commit since
+ * prepare(), the elements are looked up again and the skipped deletes are
+ * worked out again first. It returns the view hierarchy changes
+ * to send back, to be sent in one batch with
+ * ImportHierarchy.sendChanges(List) after the session is closed.
+ */
+public class IncomingChanges {
+    public static Logger log = Logger.getLogger(IncomingChanges.class);
+
+    // types createElement sets no relationships or values for
+    private static final Set<String> NO_RELATIONS = new HashSet<String>(Arrays.asList("view", "viewpoint",
+            "package", "product", "element"));
+
+    private final Project project;
+    private final String tag;
+    private final boolean lock;
+
+    private final Map<String, JSONObject> added = new LinkedHashMap<String, JSONObject>();
+    private final Map<String, JSONObject> moved = new LinkedHashMap<String, JSONObject>();
+    private final Map<String, JSONObject> updated = new LinkedHashMap<String, JSONObject>();
+    // updates that also set the owner
+    private final Set<String> updatedOwner = new HashSet<String>();
+    private final Set<String> deleted = new LinkedHashSet<String>();
+
+    // from prepare
+    private final Map<String, Element> elements = new HashMap<String, Element>();
+    private List<JSONObject> creationOrder = new ArrayList<JSONObject>();
+    private final Set<String> secondPass = new HashSet<String>();
+    // updates to check against the model before applying
+    private final Set<String> maybeUnchanged = new HashSet<String>();
+    private final Map<String, JSONObject> view2view = new HashMap<String, JSONObject>();
+    private final List<String> deleteRoots = new ArrayList<String>();
+    // deleted ids that go with a deleted owner, by the owner's id
+    private final Map<String, List<String>> deletedWith = new HashMap<String, List<String>>();
+
+    private final Set<String> cannotAdd = new HashSet<String>();
+    private final Set<String> cannotChange = new HashSet<String>();
+    private final Set<String> cannotDelete = new HashSet<String>();
+
+    // set when the model changes between prepare and apply
+    private volatile boolean modelChanged = false;
+    private boolean listening = false;
+    private final TransactionCommitListener listener = new TransactionCommitListener() {
+        @Override
+        public Runnable transactionCommited(Collection<PropertyChangeEvent> events) {
+            modelChanged = true;
+            return null;
+        }
+    };
+
+    /**
+     * @param project
+     * @param tag
+     *            shown in the gui log, ex. "[Autosync] x updated"
+     * @param lock
+     *            try to lock teamwork elements that aren't editable
+     */
+    public IncomingChanges(Project project, String tag, boolean lock) {
+        this.project = project;
+        this.tag = tag;
+        this.lock = lock;
+    }
+
+    public void add(JSONObject ob) {
+        String id = (String)ob.get("sysmlid");
+        deleted.remove(id);
+        added.put(id, ob);
+    }
+
+    public void move(JSONObject ob) {
+        String id = (String)ob.get("sysmlid");
+        deleted.remove(id);
+        moved.put(id, ob);
+    }
+
+    /**
+     * @param ob
+     * @param setOwner
+     *            also move the element to the owner in the json
+     */
+    public void update(JSONObject ob, boolean setOwner) {
+        String id = (String)ob.get("sysmlid");
+        deleted.remove(id);
+        updated.put(id, ob);
+        if (setOwner)
+            updatedOwner.add(id);
+    }
+
+    public void delete(String id) {
+        added.remove(id);
+        moved.remove(id);
+        updated.remove(id);
+        updatedOwner.remove(id);
+        deleted.add(id);
+    }
+
+    /**
+     * merges the changes of a jms message's workspace2
+     *
+     * @param ws2
+     */
+    public void addMessage(JSONObject ws2) {
+        for (Object ob: elements(ws2, "addedElements"))
+            add((JSONObject)ob);
+        for (Object ob: elements(ws2, "movedElements"))
+            move((JSONObject)ob);
+        for (Object ob: elements(ws2, "updatedElements"))
+            update((JSONObject)ob, false);
+        for (Object ob: elements(ws2, "deletedElements"))
+            delete((String)((JSONObject)ob).get("sysmlid"));
+    }
+
+    private static JSONArray elements(JSONObject ws2, String key) {
+        JSONArray array = (JSONArray)ws2.get(key);
+        return array == null ? new JSONArray() : array;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && moved.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + moved.size() + updated.size() + deleted.size();
+    }
+
+    public void prepare() {
+        if (project != null && !listening) {
+            project.getRepository().getTransactionManager().addTransactionCommitListener(listener);
+            listening = true;
+        }
+        boolean prepared = false;
+        try {
+            prepareChanges();
+            prepared = true;
+        } finally {
+            if (!prepared)
+                stopListening();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void prepareChanges() {
+        Set<String> ids = new HashSet<String>();
+        ids.addAll(added.keySet());
+        ids.addAll(moved.keySet());
+        ids.addAll(updated.keySet());
+        ids.addAll(deleted);
+        // owners of added elements too, ids not found are kept so
+        // getCreationOrder doesn't look them up again
+        Map<String, Element> found = new HashMap<String, Element>();
+        for (String id: ids) {
+            Element e = ExportUtility.getElementFromID(id);
+            found.put(id, e);
+            if (e != null)
+                elements.put(id, e);
+        }
+        for (JSONObject ob: added.values()) {
+            String ownerid = (String)ob.get("owner");
+            if (ownerid != null && !found.containsKey(ownerid))
+                found.put(ownerid, ExportUtility.getElementFromID(ownerid));
+        }
+
+        if (!added.isEmpty()) {
+            List<JSONObject> cannotCreate = new ArrayList<JSONObject>();
+            creationOrder = ImportUtility.getCreationOrder(new ArrayList<JSONObject>(added.values()), found,
+                    cannotCreate);
+            if (!cannotCreate.isEmpty()) {
+                List<String> cannotCreateIds = new ArrayList<String>();
+                for (JSONObject ob: cannotCreate)
+                    cannotCreateIds.add((String)ob.get("sysmlid"));
+                log.error("added elements can't be created, owners not found: " + cannotCreateIds);
+                cannotAdd.addAll(cannotCreateIds);
+            }
+            for (JSONObject ob: creationOrder) {
+                String id = (String)ob.get("sysmlid");
+                JSONObject spec = (JSONObject)ob.get("specialization");
+                String type = spec == null ? "Element" : (String)spec.get("type");
+                // existing elements are only changed on the second pass
+                if (elements.containsKey(id) || type == null || !NO_RELATIONS.contains(type.toLowerCase()))
+                    secondPass.add(id);
+            }
+        }
+
+        boolean skipUnchanged = !"false".equals(System.getProperty("mdk.sync.skipUnchanged"));
+        for (Map.Entry<String, JSONObject> entry: updated.entrySet()) {
+            JSONObject spec = (JSONObject)entry.getValue().get("specialization");
+            JSONArray vv = spec == null ? null : (JSONArray)spec.get("view2view");
+            if (vv != null)
+                view2view.put(entry.getKey(), ExportUtility.keyView2View(vv));
+            else if (skipUnchanged && !added.containsKey(entry.getKey()))
+                maybeUnchanged.add(entry.getKey());
+        }
+
+        findDeleteRoots();
+    }
+
+    // deleting an owner deletes what it owns, unless that's moved out
+    private void findDeleteRoots() {
+        deleteRoots.clear();
+        deletedWith.clear();
+        Map<Element, String> toDelete = new HashMap<Element, String>();
+        for (String id: deleted) {
+            if (elements.containsKey(id))
+                toDelete.put(elements.get(id), id);
+        }
+        for (String id: deleted) {
+            Element e = elements.get(id);
+            if (e == null)
+                continue;
+            String root = id;
+            for (Element o = e.getOwner(); o != null; o = o.getOwner()) {
+                String oid = ExportUtility.getElementID(o);
+                if (moved.containsKey(oid) || updatedOwner.contains(oid))
+                    break;
+                if (toDelete.containsKey(o))
+                    root = oid;
+            }
+            if (root.equals(id))
+                deleteRoots.add(id);
+            else {
+                if (!deletedWith.containsKey(root))
+                    deletedWith.put(root, new ArrayList<String>());
+                deletedWith.get(root).add(id);
+            }
+        }
+    }
+
+    // exports the element, so only in the session
+    private boolean unchanged(String id, JSONObject ob) {
+        Element e = elements.get(id);
+        if (e == null)
+            return false;
+        try {
+            return ElementFingerprint.matchesUpdate(ElementFingerprint.exported(e), ob);
+        } catch (RuntimeException ex) {
+            log.warn("could not compare " + id, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Puts all the changes in the cannot sets, for when prepare() or apply()
+     * couldn't run.
+     */
+    public void cannotApply() {
+        stopListening();
+        cannotAdd.addAll(added.keySet());
+        cannotChange.addAll(moved.keySet());
+        cannotChange.addAll(updated.keySet());
+        cannotDelete.addAll(deleted);
+    }
+
+    private void stopListening() {
+        if (listening) {
+            project.getRepository().getTransactionManager().removeTransactionCommitListener(listener);
+            listening = false;
+        }
+    }
+
+    // the model changed since prepare, elements can be gone or changed
+    private void refresh() {
+        log.info("model changed since changes were prepared, checking elements again");
+        elements.clear();
+        Set<String> ids = new HashSet<String>();
+        ids.addAll(moved.keySet());
+        ids.addAll(updated.keySet());
+        ids.addAll(deleted);
+        for (String id: ids) {
+            Element e = ExportUtility.getElementFromID(id);
+            if (e != null)
+                elements.put(id, e);
+        }
+        findDeleteRoots();
+    }
+
+    /**
+     * Makes the changes, has to be called in a session after prepare().
+     *
+     * @return view hierarchy changes to send back
+     */
+    public List<Map<String, Object>> apply() {
+        stopListening();
+        if (modelChanged)
+            refresh();
+        List<Map<String, Object>> hierarchies = new ArrayList<Map<String, Object>>();
+        for (JSONObject ob: creationOrder) {
+            String id = (String)ob.get("sysmlid");
+            try {
+                Element e = ImportUtility.createElement(ob, false);
+                if (e != null)
+                    elements.put(id, e);
+                if (!secondPass.contains(id))
+                    created(id, e);
+            } catch (Exception ex) {
+                log.error("", ex);
+                if (!secondPass.contains(id))
+                    cannotAdd.add(id);
+            }
+        }
+        // relationships and values can refer to any of the new elements
+        for (JSONObject ob: creationOrder) {
+            String id = (String)ob.get("sysmlid");
+            if (!secondPass.contains(id))
+                continue;
+            try {
+                Element e = ImportUtility.createElement(ob, true);
+                if (e != null)
+                    elements.put(id, e);
+                created(id, e);
+            } catch (Exception ex) {
+                log.error("", ex);
+                cannotAdd.add(id);
+            }
+        }
+
+        for (Map.Entry<String, JSONObject> entry: moved.entrySet()) {
+            String id = entry.getKey();
+            Element e = elements.get(id);
+            if (e == null) {
+                Utils.guilog("[ERROR - " + tag + "] element " + id + " not found for move");
+                continue;
+            }
+            try {
+                ImportUtility.setOwner(e, entry.getValue());
+                Utils.guilog("[" + tag + "] " + e.getHumanName() + " moved");
+            } catch (Exception ex) {
+                log.error("", ex);
+                cannotChange.add(id);
+            }
+        }
+
+        int unchanged = 0;
+        for (Map.Entry<String, JSONObject> entry: updated.entrySet()) {
+            String id = entry.getKey();
+            if (maybeUnchanged.contains(id) && unchanged(id, entry.getValue())) {
+                unchanged++;
+                continue;
+            }
+            Map<String, Object> result = update(id, entry.getValue());
+            if (result != null)
+                hierarchies.add(result);
+        }
+        if (unchanged > 0)
+            log.info(unchanged + " updated elements already matched the model");
+
+        for (String id: deleteRoots) {
+            Element e = elements.get(id);
+            if (e == null)
+                continue;
+            if (!e.isEditable() && lock)
+                TeamworkUtils.lockElement(project, e, false);
+            String name = e.getHumanName();
+            try {
+                ModelElementsManager.getInstance().removeElement(e);
+                Utils.guilog("[" + tag + "] " + name + " deleted");
+            } catch (Exception ex) {
+                Utils.guilog("[ERROR - " + tag + "] " + name + " cannot be deleted!");
+                log.error("", ex);
+                cannotDelete.add(id);
+                if (deletedWith.containsKey(id))
+                    cannotDelete.addAll(deletedWith.get(id));
+            }
+        }
+        return hierarchies;
+    }
+
+    private void created(String id, Element e) {
+        if (e == null) {
+            Utils.guilog("[ERROR - " + tag + "] create element failed, owner not found");
+            cannotAdd.add(id);
+        } else
+            Utils.guilog("[" + tag + "] " + e.getHumanName() + " created");
+    }
+
+    private Map<String, Object> update(String id, JSONObject ob) {
+        Element e = elements.get(id);
+        if (e == null) {
+            Utils.guilog("[ERROR - " + tag + "] element " + id + " not found for update");
+            return null;
+        }
+        if (!e.isEditable() && !(lock && TeamworkUtils.lockElement(project, e, false))) {
+            Utils.guilog("[ERROR - " + tag + "] " + e.getHumanName() + " is not editable!");
+            cannotChange.add(id);
+            return null;
+        }
+        try {
+            ImportUtility.updateElement(e, ob);
+            if (updatedOwner.contains(id))
+                ImportUtility.setOwner(e, ob);
+            Utils.guilog("[" + tag + "] " + e.getHumanName() + " updated");
+            JSONObject web = view2view.get(id);
+            if (web == null)
+                return null;
+            DocumentGenerator dg = new DocumentGenerator(e, null, null);
+            Document dge = dg.parseDocument(true, true, true);
+            ViewHierarchyVisitor vhv = new ViewHierarchyVisitor();
+            dge.accept(vhv);
+            JSONObject model = vhv.getView2View();
+            if (ViewValidator.viewHierarchyMatch(e, dge, vhv, (JSONObject)ob.get("specialization")))
+                return null;
+            Map<String, Object> result = ImportHierarchy.importHierarchy(e, model, web);
+            if (result != null && (Boolean)result.get("success")) {
+                Utils.guilog("[" + tag + "] Document hierarchy updated for " + e.getHumanName());
+                return result;
+            }
+            cannotChange.add(id);
+        } catch (Exception ex) {
+            Utils.guilog("[ERROR - " + tag + "] " + e.getHumanName() + " failed to update from MMS: "
+                    + ex.getMessage());
+            log.error("", ex);
+            cannotChange.add(id);
+        }
+        return null;
+    }
+
+    public Set<String> getCannotAdd() {
+        return Collections.unmodifiableSet(cannotAdd);
+    }
+
+    public Set<String> getCannotChange() {
+        return Collections.unmodifiableSet(cannotChange);
+    }
+
+    public Set<String> getCannotDelete() {
+        return Collections.unmodifiableSet(cannotDelete);
+    }
+}
@@ -0,0 +1,190 @@
+package gov.nasa.jpl.mbee.ems.sync;
+
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.log4j.Logger;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Reads everything queued for a durable subscriber in one go, for manual
+ * updates after autosync was off:
+ *
+ * - the broker pushes up to mdk.jms.prefetch messages ahead (default 1000)
+ * - messages are acknowledged every mdk.jms.ackBatch messages (default 500)
+ * and at the end, the session has to be CLIENT_ACKNOWLEDGE
+ * - only the source and the sysmlids of the changed elements are picked out
+ * of each message while it's parsed, nothing else is built
+ * - draining stops when no message came for mdk.jms.idleTimeout ms (default
+ * 500), the first message is waited for up to 1000 ms
+ */
+public class JMSDrain {
+    public static Logger log = Logger.getLogger(JMSDrain.class);
+
+    private static final String[] KINDS = {"updatedElements", "addedElements", "movedElements",
+            "deletedElements"};
+    private static final int UPDATED = 0;
+    private static final int ADDED = 1;
+    private static final int MOVED = 2;
+    private static final int DELETED = 3;
+
+    private final int ackBatch = Utils.getIntProperty("mdk.jms.ackBatch", 500, 1);
+    private final int idleTimeout = Utils.getIntProperty("mdk.jms.idleTimeout", 500, 1);
+    private final JSONParser parser = new JSONParser();
+    private final Handler handler = new Handler();
+
+    /**
+     * sets the durable topic prefetch on a connection factory, before the
+     * connection is created
+     */
+    public static void configure(ActiveMQConnectionFactory factory) {
+        factory.getPrefetchPolicy().setDurableTopicPrefetch(Utils.getIntProperty("mdk.jms.prefetch", 1000, 1));
+    }
+
+    /**
+     * picks out the sysmlids of a message's workspace2 element arrays and its
+     * source, skipping everything else
+     */
+    private static class Handler implements ContentHandler {
+        String source;
+        final List<List<String>> ids = new ArrayList<List<String>>();
+        private final LinkedList<String> keys = new LinkedList<String>();
+        private int depth;
+        private List<String> current;
+
+        Handler() {
+            for (int i = 0; i < KINDS.length; i++)
+                ids.add(new ArrayList<String>());
+        }
+
+        @Override
+        public void startJSON() {
+            source = null;
+            for (List<String> l: ids)
+                l.clear();
+            keys.clear();
+            depth = 0;
+            current = null;
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            keys.addLast(key);
+            if (depth == 2 && keys.size() == 2 && "workspace2".equals(keys.getFirst())) {
+                for (int i = 0; i < KINDS.length; i++) {
+                    if (KINDS[i].equals(key))
+                        current = ids.get(i);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            keys.removeLast();
+            if (keys.size() < 2)
+                current = null;
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (depth == 1 && keys.size() == 1 && "source".equals(keys.getLast()))
+                source = value == null ? null : value.toString();
+            else if (current != null && depth == 3 && keys.size() == 3 && "sysmlid".equals(keys.getLast())
+                    && value instanceof String)
+                current.add((String)value);
+            return true;
+        }
+    }
+
+    /**
+     * Receives until the subscriber is idle and merges the changes into the
+     * sets the same way as they arrived: a deleted element is no longer added
+     * or changed, an added, changed or moved one no longer deleted. Changes
+     * made from magicdraw only take earlier deletes out.
+     *
+     * @return number of messages read
+     */
+    public int drain(MessageConsumer consumer, Set<String> addedIds, Set<String> changedIds,
+            Set<String> deletedIds) throws JMSException, ParseException {
+        int count = 0;
+        Message unacked = null;
+        long start = System.currentTimeMillis();
+        Message m = consumer.receive(1000);
+        while (m != null) {
+            String text = ((TextMessage)m).getText();
+            if (log.isDebugEnabled())
+                log.debug("From JMS (Manual receive): " + text);
+            parser.parse(text, handler);
+            boolean magicdraw = "magicdraw".equals(handler.source);
+            for (int kind: new int[] {UPDATED, ADDED, MOVED}) {
+                for (String id: handler.ids.get(kind)) {
+                    if (!magicdraw) {
+                        if (kind == ADDED)
+                            addedIds.add(id);
+                        else
+                            changedIds.add(id);
+                    }
+                    deletedIds.remove(id);
+                }
+            }
+            for (String id: handler.ids.get(DELETED)) {
+                if (!magicdraw)
+                    deletedIds.add(id);
+                addedIds.remove(id);
+                changedIds.remove(id);
+            }
+            count++;
+            unacked = m;
+            // acknowledges every message consumed so far in the session
+            if (count % ackBatch == 0) {
+                m.acknowledge();
+                unacked = null;
+            }
+            m = consumer.receive(idleTimeout);
+        }
+        if (unacked != null)
+            unacked.acknowledge();
+        log.info("JMS (Manual receive): " + count + " messages in " + (System.currentTimeMillis() - start) + " ms");
+        return count;
+    }
+}
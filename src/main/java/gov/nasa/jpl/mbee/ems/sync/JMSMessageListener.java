@@ -1,37 +1,26 @@
 package gov.nasa.jpl.mbee.ems.sync;
 
-import gov.nasa.jpl.mbee.ems.ExportUtility;
-import gov.nasa.jpl.mbee.ems.ImportUtility;
-import gov.nasa.jpl.mbee.ems.validation.ViewValidator;
 import gov.nasa.jpl.mbee.ems.validation.actions.ImportHierarchy;
-import gov.nasa.jpl.mbee.generator.DocumentGenerator;
-import gov.nasa.jpl.mbee.lib.Utils;
-import gov.nasa.jpl.mbee.model.Document;
-import gov.nasa.jpl.mbee.viewedit.ViewHierarchyVisitor;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
 
 import org.apache.log4j.Logger;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
-import com.nomagic.magicdraw.core.Application;
-import com.nomagic.magicdraw.core.GUILog;
 import com.nomagic.magicdraw.core.Project;
-import com.nomagic.magicdraw.openapi.uml.ModelElementsManager;
-import com.nomagic.magicdraw.openapi.uml.ReadOnlyElementException;
 import com.nomagic.magicdraw.openapi.uml.SessionManager;
-import com.nomagic.magicdraw.teamwork.application.TeamworkUtils;
-import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
 
 public class JMSMessageListener implements MessageListener {
 
@@ -41,6 +30,18 @@ public class JMSMessageListener implements MessageListener {
         this.project = project;
     }
 
+    // one batch of changes is applied at a time, in the order received
+    private final ExecutorService applier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JMSApplyChanges");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    // guarded by this
+    private IncomingChanges pending;
+
     private Set<String> cannotAdd = new HashSet<String>();
     private Set<String> cannotChange = new HashSet<String>();
     private Set<String> cannotDelete = new HashSet<String>();
@@ -73,187 +74,110 @@ public class JMSMessageListener implements MessageListener {
             //
             JSONObject ws2 = (JSONObject) ob.get("workspace2");
 
-            // Retrieve the changed elements: each type of change (updated,
-            // added, moved, deleted)
-            // will be returned as an JSONArray.
+            // Messages that come in while a batch is being applied are
+            // merged into the next one.
             //
-            final JSONArray updated = (JSONArray) ws2.get("updatedElements");
-            final JSONArray added = (JSONArray) ws2.get("addedElements");
-            final JSONArray deleted = (JSONArray) ws2.get("deletedElements");
-            final JSONArray moved = (JSONArray) ws2.get("movedElements");
-
-            Runnable runnable = new Runnable() {
-                private GUILog guilog = Application.getInstance().getGUILog();
-                public void run() {
-                    Map<String, ?> projectInstances = ProjectListenerMapping.getInstance().get(project);
-                    AutoSyncCommitListener listener = (AutoSyncCommitListener) projectInstances
-                            .get(AutoSyncProjectListener.LISTENER);
-
-                    // Disable the listener so we do not react to the
-                    // changes we are importing from MMS.
-                    //
-                    //if (listener != null)
-                      //  listener.disable();
-
-                    SessionManager sm = SessionManager.getInstance();
-                    sm.createSession("mms sync change");
-                    try {
-                        List<Map<String, Object>> toChange = new ArrayList<Map<String, Object>>();
-                        // Loop through each specified element.
-                        //
-                        List<JSONObject> sortedAdded = ImportUtility.getCreationOrder((List<JSONObject>)added);
-                        if (sortedAdded != null) {
-                            for (Object element : added) {
-                                addElement((JSONObject) element, false);
-                            }
-                            for (Object element : added) { //do a second pass to update relations in case relations are part of new elements
-                                addElement((JSONObject) element, true);
-                            }
-                        } else {
-                            log.error("jms message added can't be executed - " + added.toJSONString());
-                            for (JSONObject element: (List<JSONObject>)added) {
-                                cannotAdd.add((String)((JSONObject)element).get("sysmlid"));
-                            }
+            synchronized (this) {
+                if (pending == null) {
+                    pending = new IncomingChanges(project, "Autosync", true);
+                    applier.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            applyPending();
                         }
-                        for (Object element : moved) {
-                            moveElement((JSONObject) element);
-                        }
-                        for (Object element : updated) { 
-                            Map<String, Object> results = makeChange((JSONObject) element);
-                            if (results != null)
-                                toChange.add(results);
-                        }
-                        for (Object element : deleted) {
-                            deleteElement((JSONObject) element);
-                        }
-                        
-                        if (listener != null)
-                            listener.disable();
+                    });
+                }
+                pending.addMessage(ws2);
+            }
+            message.acknowledge();
 
-                        sm.closeSession();
-                        for (Map<String, Object> r: toChange) {
-                            ImportHierarchy.sendChanges(r);
-                            //OutputQueue.getInstance().offer(r);
-                        }
-                        if (listener != null)
-                            listener.enable();
-                    }
-                    catch (Exception e) {
-                        sm.cancelSession();
-                        log.error(e, e);
-                        if (listener != null)
-                            listener.enable();
-                    }
+        }
+        catch (Exception e) {
+            log.error("", e);
+        }
+    }
 
-                    // Once we've completed make all the
-                    // changes, enable the listener, duplicated everywhere seems like some timing issue/bug isn't always reenabling it
-                    //
-                    if (listener != null)
-                        listener.enable();
-                }
+    /**
+     * stops applying changes once the batches already received are done
+     */
+    public void close() {
+        applier.shutdown();
+    }
 
-                private Map<String, Object> makeChange(JSONObject ob) {
-                    String sysmlid = (String) ob.get("sysmlid");
-                    try {
-                        Element changedElement = ExportUtility.getElementFromID(sysmlid);
-                        if (changedElement == null) {
-                            Utils.guilog("[ERROR - Autosync] element " + sysmlid + " not found for autosync change");
-                            return null;
-                        } else if (!changedElement.isEditable()) {
-                            if (!TeamworkUtils.lockElement(project, changedElement, false)) {
-                                Utils.guilog("[ERROR - Autosync] " + changedElement.getHumanName() + " is not editable!");
-                                cannotChange.add(sysmlid);
-                                return null;
-                            }
-                        }
-                        ImportUtility.updateElement(changedElement, ob);
-                        Utils.guilog("[Autosync] " + changedElement.getHumanName() + " updated");
-                        if (ob.containsKey("specialization")) {
-                            JSONArray view2view = (JSONArray)((JSONObject)ob.get("specialization")).get("view2view");
-                            if (view2view != null) {
-                                JSONObject web = ExportUtility.keyView2View(view2view);
-                                DocumentGenerator dg = new DocumentGenerator(changedElement, null, null);
-                                Document dge = dg.parseDocument(true, true, true);
-                                ViewHierarchyVisitor vhv = new ViewHierarchyVisitor();
-                                dge.accept(vhv);
-                                JSONObject model = vhv.getView2View();
-                                if (!ViewValidator.viewHierarchyMatch(changedElement, dge, vhv, (JSONObject)ob.get("specialization"))) {
-                                    Map<String, Object> result = ImportHierarchy.importHierarchy(changedElement, model, web);
-                                    if (result != null && (Boolean)result.get("success")) {
-                                        Utils.guilog("[Autosync] Document hierarchy updated for " + changedElement.getHumanName());
-                                        return result;
-                                    } else {
-                                        cannotChange.add(sysmlid);
-                                    }
-                                    //List<Request> requests = ImportHierarchy.sendChanges(result);
-                                    //return requests;
-                                }
-                            }
-                        }
-                        return null;
-                    } catch (Exception ex) {
-                        log.error("", ex);
-                        cannotChange.add(sysmlid);
-                        return null;
-                    }
+    private void applyPending() {
+        final IncomingChanges changes;
+        synchronized (this) {
+            changes = pending;
+            pending = null;
+        }
+        if (changes == null || changes.isEmpty())
+            return;
+        log.info("applying " + changes.size() + " changes from JMS");
+        try {
+            changes.prepare();
+        } catch (Exception e) {
+            // the messages are acknowledged already, keep the ids to retry
+            log.error("could not prepare changes from JMS", e);
+            changes.cannotApply();
+            cannotAdd.addAll(changes.getCannotAdd());
+            cannotChange.addAll(changes.getCannotChange());
+            cannotDelete.addAll(changes.getCannotDelete());
+            return;
+        }
+        // the next batch is prepared against the model this one leaves
+        final CountDownLatch applied = new CountDownLatch(1);
+        project.getRepository().invokeAfterTransaction(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    apply(changes);
+                } finally {
+                    applied.countDown();
                 }
+            }
+        });
+        try {
+            applied.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                private void addElement(JSONObject ob, boolean updateRelations) {
-                    try {
-                        Element e = ImportUtility.createElement(ob, updateRelations);
-                        if (e == null && updateRelations) {
-                            Utils.guilog("[ERROR -- Autosync] create element failed, owner not found");
-                            cannotAdd.add((String)ob.get("sysmlid"));
-                        }
-                        else if (e != null && updateRelations)
-                            Utils.guilog("[Autosync] " + e.getHumanName() + " created");
-                    } catch (Exception ex) {
-                        log.error("", ex);
-                        cannotAdd.add((String)ob.get("sysmlid"));
-                    }
-                }
+    private void apply(IncomingChanges changes) {
+        Map<String, ?> projectInstances = ProjectListenerMapping.getInstance().get(project);
+        AutoSyncCommitListener listener = projectInstances == null ? null
+                : (AutoSyncCommitListener) projectInstances.get(AutoSyncProjectListener.LISTENER);
 
-                private void deleteElement(JSONObject ob) {
-                    String sysmlid = (String) ob.get("sysmlid");
-                    Element changedElement = ExportUtility.getElementFromID(sysmlid);
-                    if (changedElement == null) {
-                        //Application.getInstance().getGUILog().log("[ERROR - Autosync] element " + sysmlid + " not found for autosync delete");
-                        return;
-                    }
-                    if (!changedElement.isEditable())
-                        TeamworkUtils.lockElement(project, changedElement, false);
-                    try {
-                        ModelElementsManager.getInstance().removeElement(changedElement);
-                        Utils.guilog("[Autosync] " + changedElement.getHumanName() + " deleted");
-                    } catch (ReadOnlyElementException e) {
-                        Utils.guilog("[ERROR - Autosync] Sync: " + changedElement.getHumanName() + " cannot be deleted!");
-                        log.error("", e);
-                        cannotDelete.add((String)ob.get("sysmlid"));
-                    }
-                }
+        SessionManager sm = SessionManager.getInstance();
+        sm.createSession("mms sync change");
+        try {
+            List<Map<String, Object>> toChange = changes.apply();
 
-                private void moveElement(JSONObject ob) {
-                    String sysmlid = (String) ob.get("sysmlid");
-                    try {
-                        Element changedElement = ExportUtility.getElementFromID(sysmlid);
-                        if (changedElement == null) {
-                            Utils.guilog("[ERROR - Autosync] element " + sysmlid + " not found for autosync move");
-                            return;
-                        }
-                        ImportUtility.setOwner(changedElement, ob);
-                        Utils.guilog("[Autosync] " + changedElement.getHumanName() + " moved");
-                    } catch (Exception ex) {
-                        log.error("", ex);
-                        cannotChange.add(sysmlid);
-                    }
-                }
-            };
-            project.getRepository().invokeAfterTransaction(runnable);
-            message.acknowledge();
+            // Disable the listener so we do not react to the
+            // changes we are importing from MMS.
+            //
+            if (listener != null)
+                listener.disable();
 
+            sm.closeSession();
+            ImportHierarchy.sendChanges(toChange);
+            if (listener != null)
+                listener.enable();
         }
         catch (Exception e) {
-            log.error("", e);
+            sm.cancelSession();
+            log.error(e, e);
+            if (listener != null)
+                listener.enable();
         }
+        cannotAdd.addAll(changes.getCannotAdd());
+        cannotChange.addAll(changes.getCannotChange());
+        cannotDelete.addAll(changes.getCannotDelete());
+
+        // Once we've completed make all the
+        // changes, enable the listener, duplicated everywhere seems like some timing issue/bug isn't always reenabling it
+        //
+        if (listener != null)
+            listener.enable();
     }
 }
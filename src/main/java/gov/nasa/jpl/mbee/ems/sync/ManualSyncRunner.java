@@ -1,13 +1,8 @@
 package gov.nasa.jpl.mbee.ems.sync;
 
 import gov.nasa.jpl.mbee.ems.ExportUtility;
-import gov.nasa.jpl.mbee.ems.ImportUtility;
 import gov.nasa.jpl.mbee.ems.validation.ModelValidator;
-import gov.nasa.jpl.mbee.ems.validation.ViewValidator;
 import gov.nasa.jpl.mbee.ems.validation.actions.ImportHierarchy;
-import gov.nasa.jpl.mbee.generator.DocumentGenerator;
-import gov.nasa.jpl.mbee.model.Document;
-import gov.nasa.jpl.mbee.viewedit.ViewHierarchyVisitor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -25,7 +20,6 @@ import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.GUILog;
 import com.nomagic.magicdraw.core.Project;
 import com.nomagic.magicdraw.core.ProjectUtilities;
-import com.nomagic.magicdraw.openapi.uml.ModelElementsManager;
 import com.nomagic.magicdraw.openapi.uml.SessionManager;
 import com.nomagic.magicdraw.teamwork.application.TeamworkUtils;
 import com.nomagic.task.ProgressStatus;
@@ -150,7 +144,6 @@ public class ManualSyncRunner implements RunnableWithProgress {
                 if (webElements.containsKey(webAdd))
                     webAddedObjects.add(webElements.get(webAdd));
             }
-            List<JSONObject> webAddedSorted = ImportUtility.getCreationOrder(webAddedObjects);
             
             //calculate potential conflicted set and clean web updated set
             Set<String> localChangedIds = new HashSet<String>(localChanged.keySet());
@@ -174,97 +167,29 @@ public class ManualSyncRunner implements RunnableWithProgress {
                     webChangedObjects.add(webElements.get(webUpdate));
             }
             
+            //look up elements and work out what to change before the session
+            IncomingChanges changes = new IncomingChanges(project, "SYNC", false);
+            for (JSONObject webAdd: webAddedObjects)
+                changes.add(webAdd);
+            for (JSONObject webUpdated: webChangedObjects)
+                changes.update(webUpdated, true);
+            for (String webDelete: webDeleted)
+                changes.delete(webDelete);
+            changes.prepare();
+            
             gl.log("[INFO] Applying changes...");
             SessionManager sm = SessionManager.getInstance();
             sm.createSession("mms delayed sync change");
             try {
-                List<Map<String, Object>> toChange = new ArrayList<Map<String, Object>>();
-                //take care of web added
-                if (webAddedSorted != null) {
-                    for (Object element : webAddedSorted) {
-                        try {
-                            ImportUtility.createElement((JSONObject) element, false);
-                        } catch (Exception ex) {
-                            
-                        }
-                    }
-                    for (Object element : webAddedSorted) { 
-                        try {
-                            Element newe = ImportUtility.createElement((JSONObject) element, true);
-                            gl.log("[SYNC] " + newe.getHumanName() + " created.");
-                        } catch (Exception ex) {
-                            log.error("", ex);
-                            cannotAdd.add((String)((JSONObject)element).get("sysmlid"));
-                        }
-                    }
-                } else {
-                    for (Object element: webAddedObjects) {
-                        cannotAdd.add((String)((JSONObject)element).get("sysmlid"));
-                    }
-                }
-            
-                //take care of updated
-                for (JSONObject webUpdated: webChangedObjects) {
-                    Element e = ExportUtility.getElementFromID((String)webUpdated.get("sysmlid"));
-                    if (e == null) {
-                        //bad? maybe it was supposed to have been added?
-                        continue;
-                    }
-                    if (!e.isEditable()) {
-                        cannotChange.add(ExportUtility.getElementID(e));
-                        gl.log("[ERROR - SYNC] " + e.getHumanName() + " not editable.");
-                        continue;
-                    }
-                    try {
-                        ImportUtility.updateElement(e, webUpdated);
-                        ImportUtility.setOwner(e, webUpdated);
-                        gl.log("[SYNC] " + e.getHumanName() + " updated.");
-                        if (webUpdated.containsKey("specialization")) {
-                            JSONArray view2view = (JSONArray)((JSONObject)webUpdated.get("specialization")).get("view2view");
-                            if (view2view != null) {
-                                JSONObject web = ExportUtility.keyView2View(view2view);
-                                DocumentGenerator dg = new DocumentGenerator(e, null, null);
-                                Document dge = dg.parseDocument(true, true, true);
-                                ViewHierarchyVisitor vhv = new ViewHierarchyVisitor();
-                                dge.accept(vhv);
-                                JSONObject model = vhv.getView2View();
-                                if (!ViewValidator.viewHierarchyMatch(e, dge, vhv, (JSONObject)webUpdated.get("specialization"))) {
-                                    Map<String, Object> result = ImportHierarchy.importHierarchy(e, model, web);
-                                    if (result != null && (Boolean)result.get("success")) {
-                                        gl.log("[SYNC] Document hierarchy updated for " + e.getHumanName());
-                                        toChange.add(result);
-                                    } else
-                                        cannotChange.add(ExportUtility.getElementID(e));
-                                }
-                            }
-                        }
-                    } catch (Exception ex) {
-                        gl.log("[ERROR - SYNC] " + e.getHumanName() + " failed to update from MMS: " + ex.getMessage());
-                        log.error("", ex);
-                        cannotChange.add(ExportUtility.getElementID(e));
-                    }
-                }
-                
-                //take care of deleted
-                for (String e: webDeleted) {
-                    Element toBeDeleted = ExportUtility.getElementFromID(e);
-                    if (toBeDeleted == null)
-                        continue;
-                    try {
-                        ModelElementsManager.getInstance().removeElement(toBeDeleted);
-                        gl.log("[SYNC] " + toBeDeleted.getHumanName() + " deleted.");
-                    } catch (Exception ex) {
-                        log.error("", ex);
-                        cannotDelete.add(e);
-                    }
-                }
+                List<Map<String, Object>> toChange = changes.apply();
+                cannotAdd.addAll(changes.getCannotAdd());
+                cannotChange.addAll(changes.getCannotChange());
+                cannotDelete.addAll(changes.getCannotDelete());
                 listener.disable();
                 sm.closeSession();
                 listener.enable();
                 gl.log("[INFO] Finished applying changes.");
-                for (Map<String, Object> r: toChange) {
-                    ImportHierarchy.sendChanges(r); //what about if doc is involved in conflict?
-                }
+                ImportHierarchy.sendChanges(toChange); //what about if doc is involved in conflict?
                 
                 if (!cannotAdd.isEmpty() || !cannotChange.isEmpty() || !cannotDelete.isEmpty()) {
                     JSONObject failed = new JSONObject();
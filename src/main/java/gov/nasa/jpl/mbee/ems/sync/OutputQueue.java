@@ -1,14 +1,345 @@
 package gov.nasa.jpl.mbee.ems.sync;
 
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 
+/**
+ * Queue of requests for the OutputSyncRunner. Element updates and deletes
+ * from auto sync go through offerElements/offerDeletes, where they're merged
+ * by sysmlid (later changes overwrite earlier ones, a delete cancels a pending
+ * update) and flushed as batched requests when the batch gets big enough or
+ * old enough. Producers are never held back, they can be the commit thread:
+ * when the pending and queued json is over the memory cap the changes are
+ * refused instead, and the caller keeps their ids for delayed sync. Requests
+ * offered directly flush the pending changes first, so they can't overtake
+ * earlier changes to the same elements.
+ *
+ * Can be tuned with system properties:
+ * mdk.sync.batchSize (elements, default 500), mdk.sync.batchDelay (ms, default
+ * 2000), mdk.sync.maxBytes (default 64MB)
+ */
 public class OutputQueue extends LinkedBlockingQueue<Request> {
+    private static final long serialVersionUID = 1L;
+    public static Logger log = Logger.getLogger(OutputQueue.class);
     private final static OutputQueue instance = new OutputQueue();
+
+    private final int batchSize = Utils.getIntProperty("mdk.sync.batchSize", 500, 1);
+    private final long batchDelay = Utils.getIntProperty("mdk.sync.batchDelay", 2000, 0);
+    private final long maxBytes = Utils.getIntProperty("mdk.sync.maxBytes", 64*1024*1024, 0);
+
+    private final Object lock = new Object();
+    // post url -> (sysmlid -> merged element json)
+    private final Map<String, Map<String, JSONObject>> pendingUpdates = new LinkedHashMap<String, Map<String, JSONObject>>();
+    // delete url -> sysmlids
+    private final Map<String, Set<String>> pendingDeletes = new LinkedHashMap<String, Set<String>>();
+    private int pendingCount = 0;
+    private long pendingBytes = 0;
+    private long queuedBytes = 0;
+    private long oldestPending = 0;
+    private boolean flushScheduled = false;
+    private boolean overCap = false;
+
+    private long flushes = 0;
+    private long lastFlushLatency = 0;
+    private long totalFlushLatency = 0;
+    private long coalesced = 0;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "OutputQueueFlush");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private OutputQueue() {
         super();
     }
-    
+
     public static OutputQueue getInstance() {
         return instance;
     }
-}
\ No newline at end of file
+
+    /**
+     * Queue element changes to be posted to url, merged with any pending
+     * changes to the same elements.
+     *
+     * @param url
+     * @param elements element json objects with sysmlid
+     * @return false if the queue is over the memory cap and the changes
+     *         weren't taken
+     */
+    @SuppressWarnings("unchecked")
+    public boolean offerElements(String url, Collection<JSONObject> elements) {
+        if (url == null || elements.isEmpty())
+            return true;
+        synchronized (lock) {
+            if (isOverCap())
+                return false;
+            Map<String, JSONObject> pending = pendingUpdates.get(url);
+            if (pending == null) {
+                pending = new LinkedHashMap<String, JSONObject>();
+                pendingUpdates.put(url, pending);
+            }
+            for (JSONObject element: elements) {
+                String id = (String)element.get("sysmlid");
+                if (id == null)
+                    continue;
+                for (Set<String> deletes: pendingDeletes.values()) {
+                    if (deletes.remove(id)) // recreated, ex. undo of delete
+                        pendingCount--;
+                }
+                JSONObject existing = pending.get(id);
+                if (existing == null) {
+                    pending.put(id, element);
+                    pendingCount++;
+                } else {
+                    pendingBytes -= existing.toJSONString().length();
+                    existing.putAll(element);
+                    element = existing;
+                    coalesced++;
+                }
+                pendingBytes += element.toJSONString().length();
+            }
+            added();
+        }
+        return true;
+    }
+
+    /**
+     * Queue element deletes to be sent to url, any pending updates to the
+     * elements are dropped.
+     *
+     * @param url
+     * @param ids
+     * @return false if the queue is over the memory cap and the deletes
+     *         weren't taken
+     */
+    public boolean offerDeletes(String url, Collection<String> ids) {
+        if (url == null || ids.isEmpty())
+            return true;
+        synchronized (lock) {
+            if (isOverCap())
+                return false;
+            Set<String> pending = pendingDeletes.get(url);
+            if (pending == null) {
+                pending = new LinkedHashSet<String>();
+                pendingDeletes.put(url, pending);
+            }
+            for (String id: ids) {
+                for (Map<String, JSONObject> updates: pendingUpdates.values()) {
+                    JSONObject removed = updates.remove(id);
+                    if (removed != null) {
+                        pendingCount--;
+                        pendingBytes -= removed.toJSONString().length();
+                        coalesced++;
+                    }
+                }
+                if (pending.add(id)) {
+                    pendingCount++;
+                    pendingBytes += id.length() + 16;
+                }
+            }
+            added();
+        }
+        return true;
+    }
+
+    /**
+     * Sends all pending element changes to the queue now.
+     */
+    public void flush() {
+        synchronized (lock) {
+            flushPending();
+        }
+    }
+
+    // must hold lock
+    private boolean isOverCap() {
+        if (pendingBytes + queuedBytes > maxBytes) {
+            if (!overCap)
+                log.warn("output queue over " + maxBytes + " bytes, leaving element changes for delayed sync");
+            overCap = true;
+        } else
+            overCap = false;
+        return overCap;
+    }
+
+    // must hold lock
+    private void added() {
+        if (pendingCount == 0)
+            return;
+        if (oldestPending == 0)
+            oldestPending = System.currentTimeMillis();
+        if (pendingCount >= batchSize)
+            flushPending();
+        else if (!flushScheduled) {
+            flushScheduled = true;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        flushScheduled = false;
+                        flushPending();
+                    }
+                }
+            }, batchDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // must hold lock
+    @SuppressWarnings("unchecked")
+    private void flushPending() {
+        if (pendingCount == 0)
+            return;
+        for (Map.Entry<String, Map<String, JSONObject>> entry: pendingUpdates.entrySet()) {
+            Iterator<JSONObject> it = entry.getValue().values().iterator();
+            while (it.hasNext()) {
+                JSONArray eles = new JSONArray();
+                while (it.hasNext() && eles.size() < batchSize)
+                    eles.add(it.next());
+                JSONObject toSend = new JSONObject();
+                toSend.put("elements", eles);
+                toSend.put("source", "magicdraw");
+                enqueue(new Request(entry.getKey(), toSend.toJSONString(), "POST", false, eles.size()));
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry: pendingDeletes.entrySet()) {
+            if (entry.getValue().isEmpty())
+                continue;
+            List<String> ids = new ArrayList<String>(entry.getValue());
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                JSONArray eles = new JSONArray();
+                for (String id: ids.subList(i, Math.min(ids.size(), i + batchSize))) {
+                    JSONObject eo = new JSONObject();
+                    eo.put("sysmlid", id);
+                    eles.add(eo);
+                }
+                JSONObject toSend = new JSONObject();
+                toSend.put("elements", eles);
+                toSend.put("source", "magicdraw");
+                enqueue(new Request(entry.getKey(), toSend.toJSONString(), "DELETEALL", false, eles.size()));
+            }
+        }
+        lastFlushLatency = System.currentTimeMillis() - oldestPending;
+        totalFlushLatency += lastFlushLatency;
+        flushes++;
+        log.info("flushed " + pendingCount + " pending element changes (" + coalesced
+                + " coalesced so far), waited " + lastFlushLatency + " ms, queue depth " + size());
+        pendingUpdates.clear();
+        pendingDeletes.clear();
+        pendingCount = 0;
+        pendingBytes = 0;
+        oldestPending = 0;
+    }
+
+    // must hold lock, the queue isn't bounded so this doesn't block
+    private boolean enqueue(Request r) {
+        boolean result = super.offer(r);
+        if (result)
+            queuedBytes += r.getJson() == null ? 0 : r.getJson().length();
+        return result;
+    }
+
+    @Override
+    public boolean offer(Request r) {
+        synchronized (lock) {
+            flushPending();
+            return enqueue(r);
+        }
+    }
+
+    @Override
+    public void put(Request r) {
+        offer(r);
+    }
+
+    @Override
+    public Request take() throws InterruptedException {
+        Request r = super.take();
+        synchronized (lock) {
+            queuedBytes -= r.getJson() == null ? 0 : r.getJson().length();
+            if (queuedBytes < 0)
+                queuedBytes = 0;
+        }
+        return r;
+    }
+
+    @Override
+    public Request poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Request r = super.poll(timeout, unit);
+        if (r != null) {
+            synchronized (lock) {
+                queuedBytes -= r.getJson() == null ? 0 : r.getJson().length();
+                if (queuedBytes < 0)
+                    queuedBytes = 0;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return number of requests waiting to be sent plus element changes not
+     *         yet flushed into a request
+     */
+    public int getDepth() {
+        synchronized (lock) {
+            return size() + pendingCount;
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    public long getQueuedBytes() {
+        synchronized (lock) {
+            return queuedBytes + pendingBytes;
+        }
+    }
+
+    /**
+     * @return ms between the oldest change in the last flushed batch being
+     *         queued and the batch being flushed
+     */
+    public long getLastFlushLatency() {
+        synchronized (lock) {
+            return lastFlushLatency;
+        }
+    }
+
+    public long getAverageFlushLatency() {
+        synchronized (lock) {
+            return flushes == 0 ? 0 : totalFlushLatency / flushes;
+        }
+    }
+
+    public String getStats() {
+        synchronized (lock) {
+            return "queued requests: " + size() + ", pending element changes: " + pendingCount
+                    + ", queued bytes: " + (queuedBytes + pendingBytes) + ", flushes: " + flushes
+                    + ", coalesced: " + coalesced + ", last flush latency: " + lastFlushLatency
+                    + " ms, avg flush latency: " + (flushes == 0 ? 0 : totalFlushLatency / flushes) + " ms";
+        }
+    }
+}
@@ -1,25 +1,86 @@
 package gov.nasa.jpl.mbee.ems.sync;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
+import org.json.simple.JSONValue;
 
 import com.nomagic.magicdraw.core.Application;
 
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.HttpClientPool;
 import gov.nasa.jpl.mbee.lib.Utils;
 
+/**
+ * Sends queued requests. By default requests are sent one at a time in queue
+ * order. If system property mdk.sync.workers is more than 1, up to that many
+ * requests are sent at once; a request that posts an element is still sent in
+ * queue order with other requests that post it or refer to it (as owner,
+ * relationship end, type...), and requests where the elements
+ * can't be told (deletes, which delete owned elements too, logs, file uploads,
+ * project/view posts) wait for everything before them and hold back everything
+ * after them. A request the user stopped waiting for keeps holding back
+ * requests with the same elements until it's actually done.
+ */
 public class OutputSyncRunner implements Runnable {
     public static Logger log = Logger.getLogger(OutputSyncRunner.class);
-    
+    private static final long IDLE_CONNECTION_TIMEOUT = 5*60*1000;
+    // keys of element json whose values are ids of other elements
+    private static final Set<String> REFERENCE_KEYS = new HashSet<String>(Arrays.asList("owner", "source",
+            "target", "element", "instance", "propertyType", "connectorType", "parameterType", "sourcePath",
+            "targetPath", "ownedEnd", "parameters", "contains", "displayedElements", "allowedElements",
+            "childrenViews"));
+
+    private final int workers;
+
+    // parallel mode state, guarded by this
+    private final Set<String> inFlightIds = new HashSet<String>();
+    // referred to id -> number of requests in flight referring to it
+    private final Map<String, Integer> inFlightRefs = new HashMap<String, Integer>();
+    private final List<Pending> waiting = new LinkedList<Pending>();
+    private int inFlight = 0;
+    private boolean barrierInFlight = false;
+    private ExecutorService pool;
+
+    private static class Pending {
+        final Request r;
+        final Set<String> refs = new HashSet<String>();
+        final Set<String> ids;
+        Pending(Request r) {
+            this.r = r;
+            this.ids = getIds(r, refs);
+        }
+    }
+
+    public OutputSyncRunner() {
+        this(Utils.getIntProperty("mdk.sync.workers", 1, 1));
+    }
+
+    public OutputSyncRunner(int workers) {
+        this.workers = workers < 1 ? 1 : workers;
+    }
+
     public class SendThread extends Thread {
         Request r;
         SendThread(Request r) {
             this.r = r;
         }
-        
+
         public void run() {
             if (r.getMethod().equals("DELETE"))
                 ExportUtility.delete(r.getUrl(), r.isFeedback());
@@ -31,44 +92,30 @@ public class OutputSyncRunner implements Runnable {
                 ExportUtility.send(r.getUrl(), r.getJson(), null, false, r.isSuppressGui());
         }
     }
-    
+
     @Override
     public void run() {
-        log.info("sync runner started");
+        log.info("sync runner started with " + workers + " worker(s)");
         OutputQueue q = OutputQueue.getInstance();
+        if (workers > 1)
+            pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SendWorker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
         while(true) {
             //Request r;
             try {
                 final Request r = q.take();
                 log.info("got a request");
-                if (r.getMethod().equals("LOG"))
-                    Utils.guilog(r.getJson());
-                else {
-                    SendThread st = new SendThread(r);
-                    st.setName("SendThread");
-                    st.start();
-                    st.join(r.getWait());
-                    while (st.isAlive()) {
-                        Application.getInstance().getGUILog().log("[INFO] A send request did not finish within expected time.");
-                        log.warn("A queued send request didn't complete within wait time: " + r.toString());
-                        final AtomicReference<Boolean> userwait = new AtomicReference<Boolean>();
-                        SwingUtilities.invokeAndWait(new Runnable() {
-                               @Override
-                                public void run() {
-                                     Boolean wait = Utils.getUserYesNoAnswer("The current send request did not finish within the timeout: " + r.getWait()/60000 + " min, do you want to wait longer?");
-                                     if (wait == null)
-                                         userwait.set(false);
-                                     else
-                                         userwait.set(wait);
-                                }
-                           });
-                        Boolean result = userwait.get();
-                        if (result != null && result)
-                            st.join(r.getWait());
-                        else
-                            break;
-                    }
-                }
+                if (pool == null)
+                    process(r);
+                else
+                    dispatch(r);
                 /*else if (r.getMethod().equals("DELETE"))
                     ExportUtility.delete(r.getUrl(), r.isFeedback());
                 else if (r.getMethod().equals("DELETEALL"))
@@ -80,11 +127,189 @@ public class OutputSyncRunner implements Runnable {
             } catch (Exception e) {
                 log.error("", e);
             }
-            if (q.isEmpty()) {
-                Application.getInstance().getGUILog().log("[INFO] Finished processing queued requests.");
+            if (pool == null && q.getDepth() == 0)
+                finished(q);
+        }
+
+    }
+
+    private void finished(OutputQueue q) {
+        HttpClientPool.closeIdleConnections(IDLE_CONNECTION_TIMEOUT);
+        log.info(q.getStats());
+        Application.getInstance().getGUILog().log("[INFO] Finished processing queued requests.");
+    }
+
+    /**
+     * Sends the request on a SendThread and waits for it, asking the user
+     * whether to keep waiting if it takes longer than the request's wait time.
+     * 
+     * @return the SendThread if the user stopped waiting for it, null if the
+     *         request is done
+     */
+    private Thread process(final Request r) throws Exception {
+        if (r.getMethod().equals("LOG")) {
+            Utils.guilog(r.getJson());
+            return null;
+        }
+        SendThread st = new SendThread(r);
+        st.setName("SendThread");
+        st.start();
+        st.join(r.getWait());
+        while (st.isAlive()) {
+            Application.getInstance().getGUILog().log("[INFO] A send request did not finish within expected time.");
+            log.warn("A queued send request didn't complete within wait time: " + r.toString());
+            final AtomicReference<Boolean> userwait = new AtomicReference<Boolean>();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                   @Override
+                    public void run() {
+                         Boolean wait = Utils.getUserYesNoAnswer("The current send request did not finish within the timeout: " + r.getWait()/60000 + " min, do you want to wait longer?");
+                         if (wait == null)
+                             userwait.set(false);
+                         else
+                             userwait.set(wait);
+                    }
+               });
+            Boolean result = userwait.get();
+            if (result != null && result)
+                st.join(r.getWait());
+            else
+                return st;
+        }
+        return null;
+    }
+
+    /**
+     * ids of the elements the request posts, null if they can't be told and
+     * the request has to be ordered against everything
+     * 
+     * @param r
+     * @param refs
+     *            gets the ids of other elements the posted elements refer to
+     */
+    private static Set<String> getIds(Request r, Set<String> refs) {
+        if (r.getPm() != null || !r.getMethod().equals("POST") || r.getJson() == null
+                || !r.getUrl().endsWith("/elements"))
+            return null;
+        Object json = JSONValue.parse(r.getJson());
+        if (!(json instanceof Map) || !(((Map<?, ?>)json).get("elements") instanceof List))
+            return null;
+        // not the whole request, its source is "magicdraw"
+        Set<String> ids = new HashSet<String>();
+        for (Object element: (List<?>)((Map<?, ?>)json).get("elements")) {
+            if (!(element instanceof Map))
+                continue;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>)element).entrySet()) {
+                if ("sysmlid".equals(entry.getKey()) && entry.getValue() instanceof String)
+                    ids.add((String)entry.getValue());
+                else
+                    addRefs(entry.getKey(), entry.getValue(), refs);
+            }
+        }
+        refs.removeAll(ids);
+        return ids.isEmpty() ? null : ids;
+    }
+
+    // values of reference keys, strings or lists, also in nested objects
+    private static void addRefs(Object key, Object value, Set<String> refs) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>)value).entrySet())
+                addRefs(entry.getKey(), entry.getValue(), refs);
+        } else if (value instanceof List) {
+            for (Object item: (List<?>)value)
+                addRefs(key, item, refs);
+        } else if (value instanceof String && ("sysmlid".equals(key) || REFERENCE_KEYS.contains(key)))
+            refs.add((String)value);
+    }
+
+    private void dispatch(Request r) throws InterruptedException {
+        Pending p = new Pending(r);
+        synchronized (this) {
+            while (inFlight >= workers || waiting.size() >= workers)
+                wait();
+            waiting.add(p);
+            schedule();
+        }
+    }
+
+    // must hold this; starts waiting requests that don't conflict with
+    // anything in flight or anything ahead of them in the waiting list
+    private void schedule() {
+        // posted and referred to by requests in flight or waiting ahead
+        Set<String> posted = new HashSet<String>(inFlightIds);
+        Set<String> referred = new HashSet<String>(inFlightRefs.keySet());
+        boolean barrierAhead = barrierInFlight;
+        Iterator<Pending> it = waiting.iterator();
+        while (it.hasNext() && inFlight < workers && !barrierAhead) {
+            Pending p = it.next();
+            if (p.ids == null) {
+                if (inFlight == 0) {
+                    it.remove();
+                    barrierInFlight = true;
+                    start(p);
+                }
+                barrierAhead = true;
+                break;
+            }
+            // referring to the same elements doesn't need ordering
+            boolean conflict = !Collections.disjoint(p.ids, posted) || !Collections.disjoint(p.ids, referred)
+                    || !Collections.disjoint(p.refs, posted);
+            posted.addAll(p.ids);
+            referred.addAll(p.refs);
+            if (conflict)
+                continue;
+            it.remove();
+            inFlightIds.addAll(p.ids);
+            for (String ref: p.refs) {
+                Integer count = inFlightRefs.get(ref);
+                inFlightRefs.put(ref, count == null ? 1 : count + 1);
             }
+            start(p);
         }
-        
     }
 
+    // must hold this
+    private void start(final Pending p) {
+        inFlight++;
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread st = process(p.r);
+                    // the user stopped waiting, but later requests for the
+                    // same elements still have to wait for it
+                    if (st != null)
+                        st.join();
+                } catch (Exception e) {
+                    log.error("", e);
+                } finally {
+                    done(p);
+                }
+            }
+        });
+    }
+
+    private void done(Pending p) {
+        boolean idle;
+        synchronized (this) {
+            inFlight--;
+            if (p.ids == null)
+                barrierInFlight = false;
+            else {
+                inFlightIds.removeAll(p.ids);
+                for (String ref: p.refs) {
+                    int count = inFlightRefs.get(ref);
+                    if (count == 1)
+                        inFlightRefs.remove(ref);
+                    else
+                        inFlightRefs.put(ref, count - 1);
+                }
+            }
+            schedule();
+            notifyAll();
+            idle = inFlight == 0 && waiting.isEmpty();
+        }
+        OutputQueue q = OutputQueue.getInstance();
+        if (idle && q.getDepth() == 0)
+            finished(q);
+    }
 }
@@ -0,0 +1,330 @@
+package gov.nasa.jpl.mbee.ems.sync;
+
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.magicdraw.openapi.uml.ModelElementsManager;
+import com.nomagic.magicdraw.openapi.uml.ReadOnlyElementException;
+import com.nomagic.uml2.ext.jmi.helpers.ModelHelper;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Comment;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+
+/**
+ * Id sets (added, changed, deleted or conflicting elements) kept on one of
+ * the __ProjectSync__ classes, so they're saved and shared with the project.
+ *
+ * Each set is stored as an append only list of segments, comments owned by
+ * the class that aren't its documentation (ExportUtility.shouldAdd leaves
+ * them out, so they're not exported, validated or autosynced). A segment's body is a header line
+ * "mdk-sync seq +|- set count" followed by up to mdk.sync.segmentSize sorted
+ * ids (default 1000) added to or removed from the set. Writing a new state
+ * only appends segments for the ids that changed. Once the segments hold more
+ * than twice the live ids, or there are more than mdk.sync.maxSegments
+ * (default 64) besides the ones the sets themselves need, they're replaced
+ * with one sorted "+" run per set.
+ *
+ * Sets are read when first asked for and kept until the class's segments
+ * change, ex. from a teamwork update. The json documentation earlier versions
+ * wrote is still read, and dropped by the next write.
+ */
+public class SyncJournal {
+    public static Logger log = Logger.getLogger(SyncJournal.class);
+    public static final String JOURNALS = "SyncJournals";
+
+    private static final String HEADER = "mdk-sync ";
+
+    private final Project project;
+    private final Element owner;
+    private final int segmentSize = Utils.getIntProperty("mdk.sync.segmentSize", 1000, 1);
+    private final int maxSegments = Utils.getIntProperty("mdk.sync.maxSegments", 64, 1);
+
+    // segments as last read from the model
+    private Map<Comment, Segment> segments = new HashMap<Comment, Segment>();
+    private final Map<String, Set<String>> sets = new HashMap<String, Set<String>>();
+    // json documentation written by earlier versions
+    private String legacyDoc;
+    private JSONObject legacy;
+    private int nextSeq;
+    private int stored;
+
+    private static class Segment {
+        int seq;
+        boolean add;
+        String set;
+        int count;
+    }
+
+    private SyncJournal(Project project, Element owner) {
+        this.project = project;
+        this.owner = owner;
+    }
+
+    /**
+     * @param project
+     * @param owner
+     *            a __ProjectSync__ class
+     * @return the journal kept on the class, cached for the project
+     */
+    @SuppressWarnings("unchecked")
+    public static SyncJournal getJournal(Project project, Element owner) {
+        Map<String, Object> projectInstances = ProjectListenerMapping.getInstance().get(project);
+        if (projectInstances == null)
+            return new SyncJournal(project, owner);
+        synchronized (projectInstances) {
+            Map<Element, SyncJournal> journals = (Map<Element, SyncJournal>)projectInstances.get(JOURNALS);
+            if (journals == null) {
+                journals = new HashMap<Element, SyncJournal>();
+                projectInstances.put(JOURNALS, journals);
+            }
+            SyncJournal journal = journals.get(owner);
+            if (journal == null) {
+                journal = new SyncJournal(project, owner);
+                journals.put(owner, journal);
+            }
+            return journal;
+        }
+    }
+
+    /**
+     * true if e is a segment of a journal, so it isn't exported or synced
+     */
+    public static boolean isSegment(Element e) {
+        return e instanceof Comment && header((Comment)e) != null;
+    }
+
+    private static Segment header(Comment c) {
+        String body = c.getBody();
+        if (body == null || !body.startsWith(HEADER))
+            return null;
+        int end = body.indexOf('\n');
+        String[] parts = (end < 0 ? body : body.substring(0, end)).split(" ");
+        if (parts.length != 5 || !(parts[2].equals("+") || parts[2].equals("-")))
+            return null;
+        try {
+            Segment s = new Segment();
+            s.seq = Integer.parseInt(parts[1]);
+            s.add = parts[2].equals("+");
+            s.set = parts[3];
+            s.count = Integer.parseInt(parts[4]);
+            return s;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * rereads the segment headers if the class's comments changed since last
+     * time, dropping the loaded sets
+     */
+    private void refresh() {
+        Map<Comment, Segment> current = new HashMap<Comment, Segment>();
+        for (Comment c: owner.getOwnedComment()) {
+            if (!c.getAnnotatedElement().isEmpty())
+                continue;
+            Segment s = segments.get(c);
+            if (s == null)
+                s = header(c);
+            if (s != null)
+                current.put(c, s);
+        }
+        String doc = ModelHelper.getComment(owner);
+        if (doc != null && !doc.trim().startsWith("{"))
+            doc = null;
+        if (current.keySet().equals(segments.keySet()) && (doc == null ? legacyDoc == null : doc.equals(legacyDoc)))
+            return;
+        segments = current;
+        sets.clear();
+        nextSeq = 0;
+        stored = 0;
+        for (Segment s: current.values()) {
+            nextSeq = Math.max(nextSeq, s.seq + 1);
+            stored += s.count;
+        }
+        legacyDoc = doc;
+        legacy = null;
+        if (doc != null) {
+            try {
+                legacy = (JSONObject)JSONValue.parse(doc);
+            } catch (Exception ex) {
+                log.error("", ex);
+            }
+        }
+    }
+
+    private List<Map.Entry<Comment, Segment>> inOrder(String set) {
+        List<Map.Entry<Comment, Segment>> result = new ArrayList<Map.Entry<Comment, Segment>>();
+        for (Map.Entry<Comment, Segment> entry: segments.entrySet()) {
+            if (entry.getValue().set.equals(set))
+                result.add(entry);
+        }
+        Collections.sort(result, new Comparator<Map.Entry<Comment, Segment>>() {
+            @Override
+            public int compare(Map.Entry<Comment, Segment> a, Map.Entry<Comment, Segment> b) {
+                return a.getValue().seq < b.getValue().seq ? -1 : (a.getValue().seq == b.getValue().seq ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    private Set<String> load(String set) {
+        Set<String> ids = sets.get(set);
+        if (ids != null)
+            return ids;
+        ids = new HashSet<String>();
+        if (legacy != null && legacy.get(set) instanceof JSONArray) {
+            for (Object id: (JSONArray)legacy.get(set))
+                ids.add((String)id);
+        }
+        for (Map.Entry<Comment, Segment> entry: inOrder(set)) {
+            String body = entry.getKey().getBody();
+            int start = body.indexOf('\n') + 1;
+            while (start > 0 && start < body.length()) {
+                int end = body.indexOf('\n', start);
+                if (end < 0)
+                    end = body.length();
+                if (end > start) {
+                    String id = body.substring(start, end);
+                    if (entry.getValue().add)
+                        ids.add(id);
+                    else
+                        ids.remove(id);
+                }
+                start = end + 1;
+            }
+        }
+        sets.put(set, ids);
+        return ids;
+    }
+
+    /**
+     * @param set
+     *            ex. "added"
+     * @return ids in the set, read only
+     */
+    public synchronized Set<String> getIds(String set) {
+        refresh();
+        return Collections.unmodifiableSet(load(set));
+    }
+
+    /**
+     * Makes the sets have exactly the given ids, sets not in state are left
+     * alone. Has to be called in a session with the class editable.
+     *
+     * @param state
+     *            set name to ids
+     */
+    public synchronized void write(Map<String, ? extends Collection<String>> state) {
+        refresh();
+        Map<String, List<String>> added = new HashMap<String, List<String>>();
+        Map<String, List<String>> removed = new HashMap<String, List<String>>();
+        int delta = 0;
+        int appended = 0;
+        for (Map.Entry<String, ? extends Collection<String>> entry: state.entrySet()) {
+            Set<String> current = load(entry.getKey());
+            Set<String> wanted = new HashSet<String>(entry.getValue());
+            List<String> add = new ArrayList<String>();
+            for (String id: wanted) {
+                if (!current.contains(id))
+                    add.add(id);
+            }
+            List<String> remove = new ArrayList<String>();
+            for (String id: current) {
+                if (!wanted.contains(id))
+                    remove.add(id);
+            }
+            added.put(entry.getKey(), add);
+            removed.put(entry.getKey(), remove);
+            sets.put(entry.getKey(), wanted);
+            delta += add.size() + remove.size();
+            appended += chunks(add.size()) + chunks(remove.size());
+        }
+        if (delta == 0 && legacyDoc == null)
+            return;
+        // compaction rewrites every set
+        for (Segment segment: segments.values())
+            load(segment.set);
+        if (legacy != null) {
+            for (Object set: legacy.keySet())
+                load((String)set);
+        }
+        int live = 0;
+        int base = 0;
+        for (Set<String> ids: sets.values()) {
+            live += ids.size();
+            base += chunks(ids.size());
+        }
+        if (legacyDoc != null || segments.size() + appended > base + maxSegments
+                || stored + delta > 2 * live + segmentSize) {
+            compact();
+            return;
+        }
+        for (String set: state.keySet()) {
+            append(set, false, removed.get(set));
+            append(set, true, added.get(set));
+        }
+    }
+
+    private int chunks(int size) {
+        return (size + segmentSize - 1) / segmentSize;
+    }
+
+    private void append(String set, boolean add, List<String> ids) {
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i += segmentSize) {
+            List<String> chunk = ids.subList(i, Math.min(ids.size(), i + segmentSize));
+            StringBuilder body = new StringBuilder();
+            body.append(HEADER).append(nextSeq).append(add ? " + " : " - ").append(set).append(' ')
+                    .append(chunk.size());
+            for (String id: chunk)
+                body.append('\n').append(id);
+            Comment c = project.getElementsFactory().createCommentInstance();
+            c.setBody(body.toString());
+            c.setOwner(owner);
+            Segment s = new Segment();
+            s.seq = nextSeq++;
+            s.add = add;
+            s.set = set;
+            s.count = chunk.size();
+            segments.put(c, s);
+            stored += s.count;
+        }
+    }
+
+    /**
+     * replaces the segments with the loaded sets, one sorted run each
+     */
+    private void compact() {
+        for (Comment c: segments.keySet()) {
+            try {
+                ModelElementsManager.getInstance().removeElement(c);
+            } catch (ReadOnlyElementException e) {
+                log.error("", e);
+            }
+        }
+        segments = new HashMap<Comment, Segment>();
+        stored = 0;
+        nextSeq = 0;
+        if (legacyDoc != null) {
+            ModelHelper.setComment(owner, "");
+            legacyDoc = null;
+            legacy = null;
+        }
+        for (Map.Entry<String, Set<String>> entry: sets.entrySet())
+            append(entry.getKey(), true, new ArrayList<String>(entry.getValue()));
+    }
+}
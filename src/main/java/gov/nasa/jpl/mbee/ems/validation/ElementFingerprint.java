@@ -0,0 +1,263 @@
+package gov.nasa.jpl.mbee.ems.validation;
+
+import gov.nasa.jpl.mbee.ems.ExportUtility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+
+/**
+ * Stable hash of element json, independent of key order. Used to tell if an
+ * element's json has changed since it was last validated, and to tell if a
+ * model element matches its server json without diffing field by field.
+ */
+public class ElementFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * keys that change without the element changing (read is the time of the
+     * request)
+     */
+    public static final Set<String> IGNORE_KEYS = Collections.singleton("read");
+
+    // top level keys ImportUtility.updateElement and setOwner read
+    private static final List<String> UPDATE_KEYS = Arrays.asList("name", "documentation", "owner",
+            "specialization");
+
+    public static String of(Map<?, ?> json) {
+        StringBuilder sb = new StringBuilder();
+        canonical(json, sb);
+        return hash(sb);
+    }
+
+    /**
+     * json with object keys sorted and whole number doubles written as
+     * integers, so the same element always gives the same string
+     * 
+     * @param o
+     * @param sb
+     */
+    @SuppressWarnings("unchecked")
+    public static void canonical(Object o, StringBuilder sb) {
+        if (o == null) {
+            sb.append("null");
+        } else if (o instanceof Map) {
+            Map<Object, Object> m = (Map<Object, Object>)o;
+            List<String> keys = new ArrayList<String>();
+            for (Object key: m.keySet())
+                if (!IGNORE_KEYS.contains(key))
+                    keys.add(String.valueOf(key));
+            Collections.sort(keys);
+            sb.append('{');
+            boolean first = true;
+            for (String key: keys) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                sb.append('"').append(JSONValue.escape(key)).append("\":");
+                canonical(m.get(key), sb);
+            }
+            sb.append('}');
+        } else if (o instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item: (List<Object>)o) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                canonical(item, sb);
+            }
+            sb.append(']');
+        } else if (o instanceof String) {
+            sb.append('"').append(JSONValue.escape((String)o)).append('"');
+        } else if (o instanceof Double || o instanceof Float) {
+            double d = ((Number)o).doubleValue();
+            if (d % 1 == 0 && !Double.isInfinite(d) && Math.abs(d) < Long.MAX_VALUE)
+                sb.append((long)d);
+            else
+                sb.append(d);
+        } else {
+            sb.append(o.toString());
+        }
+    }
+
+    /**
+     * Fingerprint of the element as it would be exported, from
+     * ExportUtility.fillElement, with name and doc normalized the same way
+     * ModelValidator compares them.
+     * 
+     * @param e
+     * @return
+     */
+    public static String ofModel(Element e) {
+        return of(exported(e));
+    }
+
+    /**
+     * the element as it would be exported, normalized for ofModel and
+     * matches, to fingerprint and compare it without exporting it twice
+     * 
+     * @param e
+     * @return
+     */
+    public static JSONObject exported(Element e) {
+        return normalize(ExportUtility.fillElement(e, null), false);
+    }
+
+    /**
+     * Fingerprint of the server json limited to what fillElement exports for
+     * the element (the template), so server only keys like modified or
+     * qualifiedName don't count.
+     * 
+     * @param server
+     * @param template
+     * @return
+     */
+    public static String ofServer(JSONObject server, JSONObject template) {
+        StringBuilder sb = new StringBuilder();
+        projected(normalize(server, true), template, sb);
+        return hash(sb);
+    }
+
+    /**
+     * true if the model element exports to the same json the server has, in
+     * which case there's nothing for ModelValidator.checkElement to find
+     * 
+     * @param e
+     * @param server
+     * @return
+     */
+    public static boolean matches(Element e, JSONObject server) {
+        return matches(exported(e), server);
+    }
+
+    /**
+     * @param local
+     *            from exported()
+     * @param server
+     * @return
+     */
+    public static boolean matches(JSONObject local, JSONObject server) {
+        return of(local).equals(ofServer(server, local));
+    }
+
+    /**
+     * true if applying the incoming json with ImportUtility.updateElement
+     * would leave the element as it is. Stricter than matches: every field
+     * the update can set (name, documentation, owner and everything under
+     * specialization) also has to be in the local export, since matches
+     * ignores what the export leaves out, ex. a constraint with no
+     * specification.
+     *
+     * @param local
+     *            from exported()
+     * @param incoming
+     * @return
+     */
+    public static boolean matchesUpdate(JSONObject local, JSONObject incoming) {
+        for (String key: UPDATE_KEYS) {
+            if (incoming.containsKey(key) && !local.containsKey(key))
+                return false;
+        }
+        if (incoming.containsKey("specialization")
+                && !coveredBy(incoming.get("specialization"), local.get("specialization")))
+            return false;
+        return matches(local, incoming);
+    }
+
+    // true if every key in incoming objects is also in the local ones
+    @SuppressWarnings("unchecked")
+    private static boolean coveredBy(Object incoming, Object local) {
+        if (incoming instanceof Map) {
+            if (!(local instanceof Map))
+                return false;
+            Map<Object, Object> m = (Map<Object, Object>)incoming;
+            Map<Object, Object> l = (Map<Object, Object>)local;
+            for (Map.Entry<Object, Object> entry: m.entrySet()) {
+                if (IGNORE_KEYS.contains(entry.getKey()))
+                    continue;
+                if (!l.containsKey(entry.getKey()) || !coveredBy(entry.getValue(), l.get(entry.getKey())))
+                    return false;
+            }
+        } else if (incoming instanceof List) {
+            if (!(local instanceof List) || ((List<Object>)incoming).size() != ((List<Object>)local).size())
+                return false;
+            for (int i = 0; i < ((List<Object>)incoming).size(); i++) {
+                if (!coveredBy(((List<Object>)incoming).get(i), ((List<Object>)local).get(i)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject normalize(JSONObject info, boolean web) {
+        JSONObject copy = new JSONObject();
+        copy.putAll(info);
+        Object doc = copy.get("documentation");
+        if (doc instanceof String)
+            copy.put("documentation", ExportUtility.cleanHtml((String)doc));
+        Object name = copy.get("name");
+        if (web && name instanceof String)
+            copy.put("name", ExportUtility.unescapeHtml((String)name));
+        return copy;
+    }
+
+    // canonical form of o with only the keys in template objects
+    @SuppressWarnings("unchecked")
+    private static void projected(Object o, Object template, StringBuilder sb) {
+        if (o instanceof Map && template instanceof Map) {
+            Map<Object, Object> m = (Map<Object, Object>)o;
+            List<String> keys = new ArrayList<String>();
+            for (Object key: ((Map<Object, Object>)template).keySet())
+                if (!IGNORE_KEYS.contains(key))
+                    keys.add(String.valueOf(key));
+            Collections.sort(keys);
+            sb.append('{');
+            boolean first = true;
+            for (String key: keys) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                sb.append('"').append(JSONValue.escape(key)).append("\":");
+                projected(m.get(key), ((Map<Object, Object>)template).get(key), sb);
+            }
+            sb.append('}');
+        } else if (o instanceof List && template instanceof List
+                && ((List<Object>)o).size() == ((List<Object>)template).size()) {
+            List<Object> l = (List<Object>)o;
+            List<Object> t = (List<Object>)template;
+            sb.append('[');
+            for (int i = 0; i < l.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                projected(l.get(i), t.get(i), sb);
+            }
+            sb.append(']');
+        } else
+            canonical(o, sb);
+    }
+
+    // 64 bit FNV-1a over the chars
+    private static String hash(CharSequence s) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h ^= (c & 0xff);
+            h *= FNV_PRIME;
+            h ^= (c >>> 8);
+            h *= FNV_PRIME;
+        }
+        return Long.toHexString(h) + "." + s.length();
+    }
+}
@@ -29,6 +29,7 @@
 package gov.nasa.jpl.mbee.ems.validation;
 
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.GetMethodWithEntity;
 import gov.nasa.jpl.mbee.ems.ImportUtility;
 import gov.nasa.jpl.mbee.ems.sync.AutoSyncCommitListener;
 import gov.nasa.jpl.mbee.ems.sync.AutoSyncProjectListener;
@@ -70,11 +71,20 @@ import gov.nasa.jpl.mgss.mbee.docgen.validation.ViolationSeverity;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.simple.JSONArray;
@@ -142,6 +152,12 @@ public class ModelValidator {
 	private boolean checkExist;
     private Set<Element> elementSet;
     private boolean crippled;
+    // skip elements whose export and server json haven't changed since they
+    // last validated clean, turn off with -Dmdk.validate.incremental=false
+    private boolean incremental = !"false".equals(System.getProperty("mdk.validate.incremental"));
+    // compare a hash of the element's exported json with the server json
+    // before diffing field by field, turn off with -Dmdk.validate.fastDiff=false
+    private boolean fastDiff = !"false".equals(System.getProperty("mdk.validate.fastDiff"));
         
     public Set<Element> getDifferentElements() {
         return differentElements;
@@ -323,14 +339,14 @@ public class ModelValidator {
                     continue;
             }
         }
-        JSONObject missingResult = getManyAlfrescoElements(missing, ps);
-        updateElementsKeyed(missingResult, elementsKeyed);
-        JSONObject failed = AutoSyncProjectListener.getUpdatesOrFailed(Application.getInstance().getProject(), "error");
-        JSONArray deletedOnMMS = null;
-        if (failed == null)
-            deletedOnMMS = new JSONArray();
-        else 
-            deletedOnMMS = (JSONArray)failed.get("deleted");
+        // canceled, whatever wasn't fetched would show up as missing
+        if (!getManyAlfrescoElements(missing, ps, elementsKeyed))
+            return;
+        Set<String> deletedOnMMS = AutoSyncProjectListener.getSyncIds(Application.getInstance().getProject(), "error", "deleted");
+        ValidationJournal journal = incremental ? ValidationJournal.getJournal(prj) : null;
+        long mark = journal == null ? 0 : journal.getSequence();
+        int skipped = 0;
+        int matched = 0;
         for (Element e: all) {
             if (ps != null && ps.isCancel())
                 break;
@@ -348,9 +364,32 @@ public class ModelValidator {
                 continue;
             }
             JSONObject elementInfo = (JSONObject)elementsKeyed.get(e.getID());
-            checkElement(e, elementInfo);
+            String fingerprint = journal == null ? null : ElementFingerprint.of(elementInfo);
+            if (journal != null && journal.isClean(e.getID(), fingerprint)) {
+                // not changed here or on the server, not even exported
+                skipped++;
+            } else if (fastDiff && ElementFingerprint.matches(e, elementInfo)) {
+                // exports to the same json, nothing for checkElement to find
+                matched++;
+                if (journal != null)
+                    journal.validated(e.getID(), fingerprint, true, mark);
+            } else if (journal != null) {
+                int before = differentElements.size();
+                int violations = getViolationCount();
+                checkElement(e, elementInfo);
+                journal.validated(e.getID(), fingerprint,
+                        before == differentElements.size() && violations == getViolationCount(), mark);
+            } else
+                checkElement(e, elementInfo);
             checked.add(e.getID());
         }
+        if (matched > 0)
+            Debug.outln("fingerprint matched " + matched + " elements, skipped field by field check");
+        if (journal != null) {
+            journal.compactIfNeeded();
+            if (skipped > 0)
+                Utils.guilog("[INFO] Skipped " + skipped + " elements unchanged since they were last validated.");
+        }
         
         Set<String> elementsKeyedIds = new HashSet<String>(elementsKeyed.keySet());
         elementsKeyedIds.removeAll(checked);
@@ -398,6 +437,13 @@ public class ModelValidator {
         }
     }
     
+    private int getViolationCount() {
+        int count = 0;
+        for (ValidationRule rule: suite.getValidationRules())
+            count += rule.getViolations().size();
+        return count;
+    }
+    
     private void getAllMissing(Element current, Set<Element> missing, Map<String, JSONObject> elementsKeyed) {
         if (ProjectUtilities.isElementInAttachedProject(current))
             return;
@@ -1069,52 +1115,121 @@ public class ModelValidator {
         return (JSONObject)elements.get(0);
     }
     
+    @SuppressWarnings("unchecked")
     public static JSONObject getManyAlfrescoElements(Set<Element> es, ProgressStatus ps) {
         if (es.isEmpty())
             return null;
+        Map<String, JSONObject> keyed = new HashMap<String, JSONObject>();
+        getManyAlfrescoElements(es, ps, keyed);
         JSONArray elements = new JSONArray();
-        for (Element e: es) {
-            JSONObject ob = new JSONObject();
-            ob.put("sysmlid", ExportUtility.getElementID(e));
-            elements.add(ob);
+        elements.addAll(keyed.values());
+        JSONObject reso = new JSONObject();
+        reso.put("elements", elements);
+        return reso;
+    }
+    
+    /**
+     * Gets the elements from the server in pages of mdk.validate.pageSize ids
+     * (default 1000), up to mdk.validate.fetchThreads pages at a time (default
+     * 4), merging each page into elementsKeyed as it comes back.
+     * 
+     * @param es
+     * @param ps
+     * @param elementsKeyed
+     * @return false if canceled
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean getManyAlfrescoElements(Set<Element> es, ProgressStatus ps, Map<String, JSONObject> elementsKeyed) {
+        if (es.isEmpty())
+            return true;
+        String wsUrl = ExportUtility.getUrlWithWorkspace();
+        if (wsUrl == null)
+            return true;
+        final String url = wsUrl + "/elements";
+        int pageSize = Utils.getIntProperty("mdk.validate.pageSize", 1000, 1);
+        int threads = Utils.getIntProperty("mdk.validate.fetchThreads", 4, 1);
+        List<String> ids = new ArrayList<String>();
+        for (Element e: es)
+            ids.add(ExportUtility.getElementID(e));
+        int pages = (ids.size() + pageSize - 1) / pageSize;
+        Utils.guilog("[INFO] Searching for " + es.size() + " elements from server in " + pages + " page(s)...");
+        if (ps != null) {
+            ps.setIndeterminate(false);
+            ps.setMax(pages);
+            ps.setCurrent(0);
         }
-        final JSONObject tosend = new JSONObject();
-        tosend.put("elements", elements);
-        final String url = ExportUtility.getUrlWithWorkspace() + "/elements";
-        //url += "/elements";
-        Utils.guilog("[INFO] Searching for " + es.size() + " elements from server...");
         
-        final AtomicReference<String> res = new AtomicReference<String>();
-        Thread t = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                String tres = ExportUtility.getWithBody(url, tosend.toJSONString());
-                res.set(tres);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pages)));
+        CompletionService<String> completion = new ExecutorCompletionService<String>(pool);
+        final List<GetMethodWithEntity> running = Collections.synchronizedList(new ArrayList<GetMethodWithEntity>());
+        for (int i = 0; i < ids.size(); i += pageSize) {
+            JSONArray elements = new JSONArray();
+            for (String id: ids.subList(i, Math.min(ids.size(), i + pageSize))) {
+                JSONObject ob = new JSONObject();
+                ob.put("sysmlid", id);
+                elements.add(ob);
             }
-        });
-        t.start();
+            JSONObject tosend = new JSONObject();
+            tosend.put("elements", elements);
+            final String json = tosend.toJSONString();
+            completion.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    GetMethodWithEntity gm = new GetMethodWithEntity(url);
+                    running.add(gm);
+                    try {
+                        return ExportUtility.getWithBody(gm, json);
+                    } finally {
+                        running.remove(gm);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        int done = 0;
+        int failed = 0;
+        boolean canceled = false;
         try {
-            t.join(10000);
-            while(t.isAlive()) {
-                if (ps.isCancel()) {
-                    //clean up thread?
-                    Utils.guilog("[INFO] Search for elements canceled.");
+            while (done < pages) {
+                if (ps != null && ps.isCancel()) {
+                    canceled = true;
                     break;
                 }
-                t.join(10000);
+                Future<String> f = completion.poll(1, TimeUnit.SECONDS);
+                if (f == null)
+                    continue;
+                done++;
+                String response = null;
+                try {
+                    response = f.get();
+                } catch (ExecutionException e) {
+                    Utils.printException(e);
+                }
+                if (response == null)
+                    failed++;
+                else
+                    updateElementsKeyed((JSONObject)JSONValue.parse(response), elementsKeyed);
+                if (ps != null) {
+                    ps.setCurrent(done);
+                    ps.setDescription("Got " + done + " of " + pages + " pages of elements");
+                }
             }
-        } catch (Exception e) {
-            
+        } catch (InterruptedException e) {
+            canceled = true;
         }
-        
-        String response = res.get();
-        //String response = ExportUtility.getWithBody(url, tosend.toJSONString());
-        Utils.guilog("[INFO] Finished getting elements.");
-        if (response == null) {
-            JSONObject reso = new JSONObject();
-            reso.put("elements", new JSONArray());
-            return reso;
+        if (canceled) {
+            pool.shutdownNow();
+            synchronized (running) {
+                for (GetMethodWithEntity gm: running)
+                    gm.abort();
+            }
+            Utils.guilog("[INFO] Search for elements canceled.");
+            return false;
         }
-        return (JSONObject)JSONValue.parse(response);
+        if (failed > 0)
+            Utils.guilog("[WARNING] " + failed + " of " + pages + " pages of elements could not be retrieved.");
+        Utils.guilog("[INFO] Finished getting elements.");
+        return true;
     }
+    
 }
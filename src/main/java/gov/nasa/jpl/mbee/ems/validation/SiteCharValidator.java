@@ -35,9 +35,8 @@ public class SiteCharValidator {
         Model m = Application.getInstance().getProject().getModel();
         getPackages(packages, m);
         packages.remove(m);
-        JSONObject web = ModelValidator.getManyAlfrescoElements(packages, ps);
         Map<String, JSONObject> elementsKeyed = new HashMap<String, JSONObject>();
-        ModelValidator.updateElementsKeyed(web, elementsKeyed);
+        ModelValidator.getManyAlfrescoElements(packages, ps, elementsKeyed);
         for (Element e: packages) {
             if (elementsKeyed.containsKey(e.getID())) {
                 JSONObject webO = elementsKeyed.get(e.getID());
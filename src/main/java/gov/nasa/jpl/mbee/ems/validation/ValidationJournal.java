@@ -0,0 +1,266 @@
+package gov.nasa.jpl.mbee.ems.validation;
+
+import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.sync.ProjectListenerMapping;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.magicdraw.core.ProjectUtilities;
+
+/**
+ * Per project and branch record of which elements were changed locally since
+ * they were last validated, and the fingerprint of the server json each
+ * element matched when it last validated clean. ModelValidator skips elements
+ * that aren't dirty and whose server json still has the same fingerprint,
+ * without exporting them.
+ * 
+ * That's only right if every local change since was marked dirty, so the
+ * journal forgets everything it knows when it can't be sure of that: when it
+ * wasn't closed cleanly (MagicDraw crashed, changes can be lost from the
+ * buffer) and when a teamwork project is opened (updates from other users
+ * don't go through the commit listener).
+ * 
+ * Kept in ~/.mdk/journals as an append only log ("D id" dirty, "V id hash"
+ * validated clean, "R id" validated with differences, "O" opened, "S"
+ * closed cleanly), rewritten compactly after a validation when most of it is
+ * out of date.
+ */
+public class ValidationJournal {
+    public static Logger log = Logger.getLogger(ValidationJournal.class);
+    public static final String JOURNAL = "ValidationJournal";
+
+    private File file;
+    private Writer out;
+    // dirty element id -> sequence it was last marked at
+    private Map<String, Long> dirty = new HashMap<String, Long>();
+    // server fingerprints of elements that validated clean
+    private Map<String, String> fingerprints = new HashMap<String, String>();
+    private long sequence = 0;
+    // lines in the file
+    private int lines = 0;
+
+    /**
+     * @param file
+     * @param trusted
+     *            false if the model can have changed since the journal was
+     *            last closed without the changes being recorded
+     */
+    public ValidationJournal(File file, boolean trusted) {
+        this.file = file;
+        if (!load() || !trusted) {
+            dirty.clear();
+            fingerprints.clear();
+            compact();
+        }
+        try {
+            append("O");
+            out.flush();
+        } catch (IOException e) {
+            log.error("", e);
+        }
+    }
+
+    public static ValidationJournal getJournal(Project project) {
+        Map<String, Object> projectInstances = ProjectListenerMapping.getInstance().get(project);
+        if (projectInstances != null) {
+            synchronized (projectInstances) {
+                ValidationJournal journal = (ValidationJournal)projectInstances.get(JOURNAL);
+                if (journal == null) {
+                    journal = new ValidationJournal(getFile(project), isTrusted(project));
+                    projectInstances.put(JOURNAL, journal);
+                }
+                return journal;
+            }
+        }
+        return new ValidationJournal(getFile(project), isTrusted(project));
+    }
+
+    private static boolean isTrusted(Project project) {
+        return !ProjectUtilities.isFromTeamworkServer(project.getPrimaryProject());
+    }
+
+    private static File getFile(Project project) {
+        String branch = ExportUtility.getTeamworkBranch(project);
+        String name = project.getPrimaryProject().getProjectID();
+        if (branch != null)
+            name += "_" + branch;
+        name = name.replaceAll("[^A-Za-z0-9_.-]", "_");
+        File dir = new File(System.getProperty("user.home"), ".mdk" + File.separator + "journals");
+        dir.mkdirs();
+        return new File(dir, name + ".journal");
+    }
+
+    // true if the journal was closed cleanly
+    private synchronized boolean load() {
+        if (!file.exists())
+            return false;
+        boolean closed = false;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    String[] parts = line.split(" ");
+                    closed = parts[0].equals("S");
+                    if (parts.length == 2 && parts[0].equals("D")) {
+                        dirty.put(parts[1], ++sequence);
+                    } else if (parts.length >= 3 && parts[0].equals("V")) {
+                        dirty.remove(parts[1]);
+                        fingerprints.put(parts[1], parts[2]);
+                    } else if (parts.length == 2 && parts[0].equals("R")) {
+                        dirty.remove(parts[1]);
+                        fingerprints.remove(parts[1]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.error("", e);
+            return false;
+        }
+        return closed;
+    }
+
+    private void append(String line) throws IOException {
+        if (out == null)
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        out.write(line);
+        out.write('\n');
+        lines++;
+    }
+
+    /**
+     * elements changed locally, they'll be checked on the next validation.
+     * Not flushed, if they're lost the journal isn't closed cleanly either.
+     * 
+     * @param ids
+     */
+    public synchronized void markDirty(Collection<String> ids) {
+        if (ids.isEmpty())
+            return;
+        try {
+            for (String id: ids) {
+                dirty.put(id, ++sequence);
+                fingerprints.remove(id);
+                append("D " + id);
+            }
+        } catch (IOException e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * @return mark to pass to validated() for elements checked from now on
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized boolean isClean(String id, String serverFingerprint) {
+        return !dirty.containsKey(id) && serverFingerprint.equals(fingerprints.get(id));
+    }
+
+    /**
+     * Records the result of checking an element. Ignored if the element was
+     * changed again after mark.
+     * 
+     * @param id
+     * @param serverFingerprint
+     * @param clean
+     *            no differences found
+     * @param mark
+     *            from getSequence() before the element was checked
+     */
+    public synchronized void validated(String id, String serverFingerprint, boolean clean, long mark) {
+        Long changed = dirty.get(id);
+        if (changed != null && changed > mark)
+            return;
+        dirty.remove(id);
+        try {
+            if (clean) {
+                fingerprints.put(id, serverFingerprint);
+                append("V " + id + " " + serverFingerprint);
+            } else {
+                fingerprints.remove(id);
+                append("R " + id);
+            }
+        } catch (IOException e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * rewrites the journal with just the current state, if most of the file
+     * is out of date
+     */
+    public synchronized void compactIfNeeded() {
+        if (lines > 2 * (fingerprints.size() + dirty.size()) + 1000)
+            compact();
+    }
+
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            closeWriter();
+            Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            try {
+                for (Map.Entry<String, String> entry: fingerprints.entrySet())
+                    w.write("V " + entry.getKey() + " " + entry.getValue() + "\n");
+                for (String id: dirty.keySet())
+                    w.write("D " + id + "\n");
+            } finally {
+                w.close();
+            }
+            if (!file.delete() && file.exists())
+                throw new IOException("could not replace " + file);
+            if (!tmp.renameTo(file))
+                throw new IOException("could not rename " + tmp);
+            lines = fingerprints.size() + dirty.size();
+        } catch (IOException e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * marks the journal as closed cleanly, it's trusted when opened again
+     */
+    public synchronized void close() {
+        try {
+            append("S");
+        } catch (IOException e) {
+            log.error("", e);
+        }
+        closeWriter();
+    }
+
+    private void closeWriter() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.error("", e);
+        }
+        out = null;
+    }
+
+    public synchronized int getDirtyCount() {
+        return dirty.size();
+    }
+}
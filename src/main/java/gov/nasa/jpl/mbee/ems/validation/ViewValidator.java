@@ -60,6 +60,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -94,6 +102,9 @@ public class ViewValidator {
     private Element view;
     private boolean recurse;
     private boolean hierarchyOnly;
+    // get all views and their elements before comparing instead of getting
+    // them view by view, turn off with -Dmdk.validate.bulkViews=false
+    private boolean bulk = !"false".equals(System.getProperty("mdk.validate.bulkViews"));
 
     public ViewValidator(Element view, boolean recursive, boolean hierarchyOnly) {
         this.view = view;
@@ -201,21 +212,50 @@ public class ViewValidator {
             viewIds = visitor2.getViews().keySet();
         else
             viewIds.add(startView.getID());
+        List<String> toValidate = new ArrayList<String>();
         for (String viewid: viewIds) {
+            //viewid is a string that's the view's magicdraw id
+            if (recurse || viewid.equals(startView.getID()))
+                toValidate.add(viewid);
+        }
+        Map<String, JSONObject> webViews = null;
+        Map<String, String> webViewElements = null;
+        if (bulk) {
+            // get all the views and their displayed elements up front instead
+            // of 2 gets per view
+            webViews = getWebViews(toValidate, ps);
+            if (webViews == null || !ViewEditUtils.isPasswordSet())
+                return false;
+            if (!hierarchyOnly) {
+                List<String> existing = new ArrayList<String>();
+                for (String viewid: toValidate) {
+                    if (getContains(webViews.get(viewid)) != null)
+                        existing.add(viewid);
+                }
+                webViewElements = getWebViewElements(url, existing, ps);
+                if (webViewElements == null)
+                    return false;
+            }
+        }
+        for (String viewid: toValidate) {
             if (ps != null && ps.isCancel())
                 break;
-            //viewid is a string that's the view's magicdraw id
-            if (!recurse && !viewid.equals(startView.getID()))
-                continue;
             Element currentView = (Element)Application.getInstance().getProject().getElementByID((String)viewid);
 
             //check to see if view exists on alfresco
-            String existurl = url + "/elements/" + viewid;
-            String response = ExportUtility.get(existurl, false);
-            //response is the string version of the view json gotten from the web
-            if (!ViewEditUtils.isPasswordSet())
-                return false;
-            if (response == null || !response.contains("contains")) {
+            JSONObject webView = null;
+            if (webViews != null)
+                webView = webViews.get(viewid);
+            else {
+                String existurl = url + "/elements/" + viewid;
+                String response = ExportUtility.get(existurl, false);
+                //response is the string version of the view json gotten from the web
+                if (!ViewEditUtils.isPasswordSet())
+                    return false;
+                if (response != null && response.contains("contains"))
+                    webView = (JSONObject)((JSONArray)((JSONObject)JSONValue.parse(response)).get("elements")).get(0);
+            }
+            if (webView == null) {
                 //if the json doesn't contain the "contains" key, that means the view hasn't been exported yet
                 ValidationRuleViolation v = new ValidationRuleViolation(currentView, "[EXIST] This view doesn't exist on view editor yet");
                 v.addAction(new ExportView(currentView, false, false, "Commit View to MMS"));
@@ -225,8 +265,7 @@ public class ViewValidator {
                 exists.addViolation(v);
             } else {
                 //view has been on the web
-                JSONObject webView = (JSONObject)((JSONArray)((JSONObject)JSONValue.parse(response)).get("elements")).get(0);
-                Object containsObj = ((JSONObject)webView.get("specialization")).get("contains");
+                Object containsObj = getContains(webView);
                 if (containsObj == null) {
                     ValidationRuleViolation v = new ValidationRuleViolation(currentView, "[EXIST] This view doesn't exist on view editor yet");
                     v.addAction(new ExportView(currentView, false, false, "Commit View to MMS"));
@@ -254,7 +293,8 @@ public class ViewValidator {
                         if (ps != null && ps.isCancel())
                             break;
                         // quick way to get all element info referenced by view from the web
-                        String viewelements = ExportUtility.get(viewElementsUrl, false);
+                        String viewelements = webViewElements != null ? webViewElements.get(viewid)
+                                : ExportUtility.get(viewElementsUrl, false);
                         if (viewelements == null)
                             continue;
                         JSONObject viewresults = (JSONObject)JSONValue.parse(viewelements);
@@ -324,6 +364,93 @@ public class ViewValidator {
         return true;
     }
 
+    private static Object getContains(JSONObject webView) {
+        if (webView == null || !(webView.get("specialization") instanceof JSONObject))
+            return null;
+        return ((JSONObject)webView.get("specialization")).get("contains");
+    }
+
+    /**
+     * Gets the views from the server with the paged element search
+     * 
+     * @param viewids
+     * @param ps
+     * @return view json keyed by id, views not on the server are left out,
+     *         null if canceled
+     */
+    private Map<String, JSONObject> getWebViews(List<String> viewids, ProgressStatus ps) {
+        Set<Element> views = new HashSet<Element>();
+        Project prj = Application.getInstance().getProject();
+        for (String viewid: viewids) {
+            Element e = (Element)prj.getElementByID(viewid);
+            if (e != null)
+                views.add(e);
+        }
+        Map<String, JSONObject> webViews = new HashMap<String, JSONObject>();
+        if (!ModelValidator.getManyAlfrescoElements(views, ps, webViews))
+            return null;
+        return webViews;
+    }
+
+    /**
+     * Gets the displayed elements of each view from the server, up to
+     * mdk.validate.fetchThreads views at a time (default 4)
+     * 
+     * @param url
+     * @param viewids
+     * @param ps
+     * @return response keyed by view id, null if canceled
+     */
+    private Map<String, String> getWebViewElements(final String url, List<String> viewids, ProgressStatus ps) {
+        final Map<String, String> results = new HashMap<String, String>();
+        if (viewids.isEmpty())
+            return results;
+        int threads = Utils.getIntProperty("mdk.validate.fetchThreads", 4, 1);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, viewids.size()));
+        CompletionService<String[]> completion = new ExecutorCompletionService<String[]>(pool);
+        for (final String viewid: viewids) {
+            completion.submit(new Callable<String[]>() {
+                @Override
+                public String[] call() {
+                    return new String[] {viewid, ExportUtility.get(url + "/views/" + viewid + "/elements", false)};
+                }
+            });
+        }
+        pool.shutdown();
+        if (ps != null) {
+            ps.setIndeterminate(false);
+            ps.setMax(viewids.size());
+            ps.setCurrent(0);
+        }
+        int done = 0;
+        try {
+            while (done < viewids.size()) {
+                if (ps != null && ps.isCancel()) {
+                    pool.shutdownNow();
+                    return null;
+                }
+                Future<String[]> f = completion.poll(1, TimeUnit.SECONDS);
+                if (f == null)
+                    continue;
+                done++;
+                try {
+                    String[] result = f.get();
+                    results.put(result[0], result[1]);
+                } catch (ExecutionException e) {
+                    Utils.printException(e);
+                }
+                if (ps != null) {
+                    ps.setCurrent(done);
+                    ps.setDescription("Got elements for " + done + " of " + viewids.size() + " views");
+                }
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            return null;
+        }
+        return results;
+    }
+
     public void showWindow() {
         List<ValidationSuite> vss = new ArrayList<ValidationSuite>();
         vss.add(suite);
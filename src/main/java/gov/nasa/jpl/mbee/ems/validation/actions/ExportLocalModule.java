@@ -1,6 +1,7 @@
 package gov.nasa.jpl.mbee.ems.validation.actions;
 
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.ModelExportRequestEntity;
 import gov.nasa.jpl.mbee.ems.ModelExporter;
 import gov.nasa.jpl.mgss.mbee.docgen.validation.IRuleViolationAction;
 import gov.nasa.jpl.mgss.mbee.docgen.validation.RuleViolationAction;
@@ -10,6 +11,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -47,11 +49,13 @@ public class ExportLocalModule extends RuleViolationAction implements Annotation
                 return;
             
             ModelExporter me = new ModelExporter(mounts, 0, false, module);
-            JSONObject result = me.getResult();
-            String json = result.toJSONString();
-            gl.log("Number of Elements: " + me.getNumberOfElements());
-            if (ExportUtility.send(url + "/workspaces/master/sites/" + siteName + "/elements?background=true", json) != null)
+            String eurl = url + "/workspaces/master/sites/" + siteName + "/elements?background=true";
+            PostMethod pm = new PostMethod(eurl);
+            pm.setRequestEntity(new ModelExportRequestEntity(me));
+            if (ExportUtility.send(eurl, pm) != null) {
+                gl.log("Number of Elements: " + me.getNumberOfElements());
                 gl.log("You'll receive an email when the module has finished loading.");
+            }
         }
     }
     
@@ -29,6 +29,7 @@
 package gov.nasa.jpl.mbee.ems.validation.actions;
 
 import gov.nasa.jpl.mbee.DocGen3Profile;
+import gov.nasa.jpl.mbee.ems.ArtifactUploader;
 import gov.nasa.jpl.mbee.ems.ExportUtility;
 import gov.nasa.jpl.mbee.ems.ViewExportRunner;
 import gov.nasa.jpl.mbee.ems.sync.OutputQueue;
@@ -40,29 +41,17 @@ import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mbee.model.DocBookOutputVisitor;
 import gov.nasa.jpl.mbee.model.Document;
 import gov.nasa.jpl.mbee.viewedit.DBAlfrescoVisitor;
-import gov.nasa.jpl.mbee.viewedit.ViewEditUtils;
 import gov.nasa.jpl.mbee.viewedit.ViewHierarchyVisitor;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBBook;
 import gov.nasa.jpl.mgss.mbee.docgen.validation.IRuleViolationAction;
 import gov.nasa.jpl.mgss.mbee.docgen.validation.RuleViolationAction;
 
 import java.awt.event.ActionEvent;
-import java.io.File;
-import java.io.FileInputStream;
-import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.Part;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -232,63 +221,7 @@ public class ExportView extends RuleViolationAction implements AnnotationAction,
         // Upload images to view editor (JSON keys are specified in
         // DBEditDocwebVisitor
         gl.log("[INFO] Updating Images...");
-        Map<String, JSONObject> images = visitor2.getImages();
-        boolean isAlfresco = true;
-        for (String key: images.keySet()) {
-            String filename = (String)images.get(key).get("abspath");
-            String cs = (String)images.get(key).get("cs");
-            String extension = (String)images.get(key).get("extension");
-
-            File imageFile = new File(filename);
-            
-            String baseurl = url + "/artifacts/" + key + "?cs=" + cs + "&extension=" + extension;
-            String site = ExportUtility.getSite();
-            String posturl = url + "/sites/" + site + "/artifacts/" + key + "?cs=" + cs + "&extension=" + extension;
-            // check whether the image already exists
-            GetMethod get = new GetMethod(baseurl);
-            int status = 0;
-            try {
-                HttpClient client = new HttpClient();
-                ViewEditUtils.setCredentials(client, baseurl);
-                gl.log("[INFO] Checking if imagefile exists... " + key + "_cs" + cs + extension);
-                client.executeMethod(get);
-
-                status = get.getStatusCode();
-            } catch (Exception ex) {
-                //printStackTrace(ex, gl);
-            } finally {
-                get.releaseConnection();
-            }
-
-            if (status == HttpURLConnection.HTTP_OK) {
-                gl.log("[INFO] Image file already exists, not uploading");
-            } else {
-                PostMethod post = new PostMethod(posturl);
-                try {
-                    if (isAlfresco) {
-                        Part[] parts = {new FilePart("content", imageFile)};
-                        post.setRequestEntity(new MultipartRequestEntity(parts, post.getParams()));
-                    } else {
-                        post.setRequestEntity(new InputStreamRequestEntity(new FileInputStream(imageFile),
-                                imageFile.length()));
-                    }
-                    OutputQueue.getInstance().offer(new Request(posturl, post));
-                    //HttpClient client = new HttpClient();
-                    //ViewEditUtils.setCredentials(client, baseurl);
-                    gl.log("[INFO] Did not find image, uploading file... " + key + "_cs" + cs + extension);
-                    //client.executeMethod(post);
-
-                    //status = post.getStatusCode();
-                    //if (status != HttpURLConnection.HTTP_OK) {
-                    //    gl.log("[ERROR] Could not upload image file to view editor");
-                    //}
-                } catch (Exception ex) {
-                    //printStackTrace(ex, gl);
-                } finally {
-                    //post.releaseConnection();
-                }
-            }
-        }
+        new ArtifactUploader(url, ExportUtility.getSite()).upload(visitor2.getImages());
         //OutputQueue.getInstance().offer(new Request("", "[INFO] Export View Done", "LOG"));
         // clean up the local images
         //visitor2.removeImages();
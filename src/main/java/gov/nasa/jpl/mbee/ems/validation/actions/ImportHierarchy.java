@@ -45,8 +45,10 @@ import gov.nasa.jpl.mgss.mbee.docgen.validation.RuleViolationAction;
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -136,23 +138,42 @@ AnnotationAction, IRuleViolationAction {
         execute("Change Hierarchy");
     }
 
-    @SuppressWarnings("unchecked")
     public static List<Request> sendChanges(Map<String, Object> results) {
-        Set<Element> added = (Set<Element>)results.get("added");
-        Set<Property> moved = (Set<Property>)results.get("moved");
-        Set<Element> deleted = (Set<Element>)results.get("deleted");
-        Set<Property> ptyped = (Set<Property>) results.get("ptyped");
-        Set<String> deletedIds = (Set<String>)results.get("deletedIds");
-        List<Request> returns = new ArrayList<Request>();
+        sendChanges(Collections.singletonList(results));
+        return new ArrayList<Request>();
+    }
+
+    /**
+     * Sends the model changes of several importHierarchy results together,
+     * one request for the added, moved and typed elements and one for the
+     * deleted ones. Elements in more than one result are sent once.
+     * 
+     * @param results
+     */
+    @SuppressWarnings("unchecked")
+    public static void sendChanges(List<Map<String, Object>> results) {
+        Set<Element> added = new LinkedHashSet<Element>();
+        Set<Property> moved = new LinkedHashSet<Property>();
+        Set<Property> ptyped = new LinkedHashSet<Property>();
+        Set<String> deletedIds = new LinkedHashSet<String>();
+        for (Map<String, Object> result: results) {
+            added.addAll((Set<Element>)result.get("added"));
+            moved.addAll((Set<Property>)result.get("moved"));
+            ptyped.addAll((Set<Property>)result.get("ptyped"));
+            deletedIds.addAll((Set<String>)result.get("deletedIds"));
+        }
         JSONArray changes = new JSONArray();
         for (Element e: added) {
             changes.add(ExportUtility.fillElement(e, null));
         }
+        // the full json of added elements has their owner and type already
         for (Property p: moved) {
-            changes.add(ExportUtility.fillOwner(p, null));
+            if (!added.contains(p))
+                changes.add(ExportUtility.fillOwner(p, null));
         }
         for (Property p: ptyped) {
-            changes.add(ExportUtility.fillElement(p, null));
+            if (!added.contains(p))
+                changes.add(ExportUtility.fillElement(p, null));
         }
         JSONObject tosend = new JSONObject();
         tosend.put("elements", changes);
@@ -175,7 +196,6 @@ AnnotationAction, IRuleViolationAction {
             }
             OutputQueue.getInstance().offer(new Request(url + "/elements", send.toJSONString(), "DELETEALL", false, elements.size()));
         }
-        return returns;
     }
     
     private static boolean lock(Element e, boolean isTeamwork, Project project) {
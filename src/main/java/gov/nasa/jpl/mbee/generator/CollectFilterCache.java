@@ -0,0 +1,155 @@
+package gov.nasa.jpl.mbee.generator;
+
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.nomagic.magicdraw.core.Application;
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.uml2.ext.magicdraw.actions.mdbasicactions.CallBehaviorAction;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.transaction.TransactionCommitListener;
+
+/**
+ * Collect plans per action and collect/filter results per (action, input)
+ * for one generation, so tables that run the same collect/filter chain for
+ * every row and column don't redo the traversal each time. Cleared when a
+ * generation starts (once for a batch of documents, see startBatch) and
+ * whenever a model transaction is committed.
+ *
+ * Number of cached results can be set with mdk.generator.cfCacheSize (default
+ * 512, 0 turns off result caching)
+ */
+public class CollectFilterCache {
+    public static Logger log = Logger.getLogger(CollectFilterCache.class);
+
+    private static final int cacheSize = Utils.getIntProperty("mdk.generator.cfCacheSize", 512, 0);
+
+    private static final Map<CallBehaviorAction, CollectPlan> plans = new HashMap<CallBehaviorAction, CollectPlan>();
+    private static final Map<ResultKey, List<Element>> results = new LinkedHashMap<ResultKey, List<Element>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ResultKey, List<Element>> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private static Project listening;
+    private static boolean batch = false;
+    private static int hits = 0;
+    private static int misses = 0;
+
+    private static final TransactionCommitListener listener = new TransactionCommitListener() {
+        @Override
+        public Runnable transactionCommited(Collection<PropertyChangeEvent> events) {
+            clear();
+            return null;
+        }
+    };
+
+    private static class ResultKey {
+        final CallBehaviorAction cba;
+        final List<Element> in;
+        final int hash;
+
+        ResultKey(CallBehaviorAction cba, List<Element> in) {
+            this.cba = cba;
+            this.in = in;
+            this.hash = cba.hashCode() * 31 + in.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey))
+                return false;
+            ResultKey k = (ResultKey)o;
+            return cba == k.cba && hash == k.hash && in.equals(k.in);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * start of a generation, drops anything cached and makes sure model
+     * changes in the current project clear the cache
+     */
+    public static synchronized void startGeneration() {
+        if (batch)
+            return;
+        clear();
+        Project project = Application.getInstance().getProject();
+        if (project == listening)
+            return;
+        if (listening != null)
+            listening.getRepository().getTransactionManager().removeTransactionCommitListener(listener);
+        listening = project;
+        if (project != null)
+            project.getRepository().getTransactionManager().addTransactionCommitListener(listener);
+    }
+
+    /**
+     * start of generating several documents, ex. DocumentsExporter, the cache
+     * is cleared here and kept across the documents until endBatch
+     */
+    public static synchronized void startBatch() {
+        batch = false;
+        startGeneration();
+        batch = true;
+    }
+
+    public static synchronized void endBatch() {
+        batch = false;
+    }
+
+    public static synchronized void clear() {
+        if (hits + misses > 0)
+            log.info("collect/filter cache: " + hits + " hits, " + misses + " misses");
+        plans.clear();
+        results.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    static synchronized CollectPlan getPlan(CallBehaviorAction cba) {
+        CollectPlan plan = plans.get(cba);
+        if (plan == null) {
+            plan = new CollectPlan(cba);
+            plans.put(cba, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @param cba
+     * @param in
+     * @return copy of the cached result, or null if not cached
+     */
+    static synchronized List<Element> getResult(CallBehaviorAction cba, List<Element> in) {
+        if (cacheSize <= 0)
+            return null;
+        List<Element> res = results.get(new ResultKey(cba, in));
+        if (res == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<Element>(res);
+    }
+
+    static synchronized void putResult(CallBehaviorAction cba, List<Element> in, List<Element> res) {
+        if (cacheSize <= 0)
+            return;
+        results.put(new ResultKey(cba, new ArrayList<Element>(in)), new ArrayList<Element>(res));
+    }
+}
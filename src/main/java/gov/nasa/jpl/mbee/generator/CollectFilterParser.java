@@ -29,7 +29,7 @@
 package gov.nasa.jpl.mbee.generator;
 
 import gov.nasa.jpl.graphs.DirectedEdgeVector;
-import gov.nasa.jpl.graphs.DirectedGraphHashSet;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
 import gov.nasa.jpl.graphs.algorithms.TopologicalSort;
 import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.lib.Debug;
@@ -66,31 +66,28 @@ import com.nomagic.uml2.ext.magicdraw.activities.mdintermediateactivities.Decisi
 import com.nomagic.uml2.ext.magicdraw.activities.mdintermediateactivities.ForkNode;
 import com.nomagic.uml2.ext.magicdraw.activities.mdintermediateactivities.JoinNode;
 import com.nomagic.uml2.ext.magicdraw.activities.mdintermediateactivities.MergeNode;
-import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.AggregationKind;
-import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.AggregationKindEnum;
-import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Class;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Diagram;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.EnumerationLiteral;
-import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.NamedElement;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Property;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.TypedElement;
-import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
 
 public class CollectFilterParser {
 
-    private static GenerationContext context;
+    // per thread so views can be generated in parallel
+    private static final ThreadLocal<GenerationContext> contexts = new ThreadLocal<GenerationContext>();
     private static Logger log = Logger.getLogger(CollectFilterParser.class);
 
     public static void setContext(GenerationContext gc) {
-        context = gc;
+        contexts.set(gc);
     }
 
     public static GenerationContext getContext() {
-        return context;
+        return contexts.get();
     }
 
     public static DocumentValidator getValidator() {
+        GenerationContext context = contexts.get();
         return context == null ? null : context.getValidator();
     }
 
@@ -105,7 +102,8 @@ public class CollectFilterParser {
      * @return
      */
     public static List<Element> startCollectAndFilterSequence(ActivityNode a, List<Element> in) {
-        DirectedGraphHashSet<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>> graph = new DirectedGraphHashSet<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>>();
+        GenerationContext context = getContext();
+        DirectedGraphAdjacencyMap<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>> graph = new DirectedGraphAdjacencyMap<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>>();
         getCollectFilterGraph(a, new HashSet<ActivityNode>(), graph,
                 new HashMap<ActivityNode, CollectFilterNode>());
         SortedSet<CollectFilterNode> reverse = (new TopologicalSort()).topological_sort(graph);
@@ -169,7 +167,7 @@ public class CollectFilterParser {
     }
 
     private static void getCollectFilterGraph(ActivityNode cur, Set<ActivityNode> done,
-            DirectedGraphHashSet<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>> graph,
+            DirectedGraphAdjacencyMap<CollectFilterNode, DirectedEdgeVector<CollectFilterNode>> graph,
             Map<ActivityNode, CollectFilterNode> mapping) {
         if (done.contains(cur))
             return;
@@ -195,87 +193,70 @@ public class CollectFilterParser {
     }
 
     /**
-     * given in as input, execute collect/filter action and return result
+     * given in as input, execute collect/filter action and return result,
+     * reusing the result from earlier in the generation if the action already
+     * ran on the same input
      * 
      * @param cba
      * @param in
      * @return
      */
-    @SuppressWarnings("unchecked")
     private static List<Element> collectAndFilter(CallBehaviorAction cba, List<Element> in) {
+        CollectPlan plan = CollectFilterCache.getPlan(cba);
+        if (!plan.isCacheable())
+            return collectAndFilter(cba, plan, in);
+        List<Element> res = CollectFilterCache.getResult(cba, in);
+        if (res == null) {
+            res = collectAndFilter(cba, plan, in);
+            CollectFilterCache.putResult(cba, in, res);
+        }
+        return res;
+    }
+
+    private static List<Element> collectAndFilter(CallBehaviorAction cba, CollectPlan plan, List<Element> in) {
         //System.out.println("collectAndFilter(): cba=" + MoreToString.Helper.toLongString( cba ) );
         //System.out.println("collectAndFilter(): in[" + in.size() + "]=" + MoreToString.Helper.toLongString( in ) );
-        Integer depth = (Integer)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.depthChoosable,
-                "depth", 0);
-        int direction = ((Boolean)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.directionChoosable,
-                "directionOut", true)) ? 1 : 2;
-        List<Stereotype> stereotypes = (List<Stereotype>)GeneratorUtils.getListProperty(cba,
-                DocGen3Profile.stereotypeChoosable, "stereotypes", new ArrayList<Stereotype>());
-        List<Class> metaclasses = (List<Class>)GeneratorUtils.getListProperty(cba,
-                DocGen3Profile.metaclassChoosable, "metaclasses", new ArrayList<Class>());
-        Boolean derived = (Boolean)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.derivedChoosable,
-                "considerDerived", true);
-        List<String> names = (List<String>)GeneratorUtils.getListProperty(cba, DocGen3Profile.nameChoosable,
-                "names", new ArrayList<String>());
-        List<String> diagramTypes = Utils.getElementNames((List<NamedElement>)GeneratorUtils.getListProperty(
-                cba, DocGen3Profile.diagramTypeChoosable, "diagramTypes", new ArrayList<NamedElement>()));
-        Boolean include = (Boolean)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.includeChoosable,
-                "include", true);
-        List<Property> stereotypeProperties = (List<Property>)GeneratorUtils
-                .getListProperty(cba, DocGen3Profile.stereotypePropertyChoosable, "stereotypeProperties",
-                        new ArrayList<Property>());
-        Boolean inherited = (Boolean)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.inheritedChoosable,
-                "includeInherited", false);
-        EnumerationLiteral asso = (EnumerationLiteral)GeneratorUtils.getObjectProperty(cba,
-                DocGen3Profile.associationChoosable, "associationType", null);
-        String expression = (String)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.expressionChoosable,
-                "expression", null);
-        Boolean iterate = (Boolean)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.expressionChoosable,
-                "iterate", true);
-        AggregationKind associationType = null;
-        if (asso != null) {
-            if (asso.getName().equals("composite"))
-                associationType = AggregationKindEnum.COMPOSITE;
-            else if (asso.getName().equals("none"))
-                associationType = AggregationKindEnum.NONE;
-            else
-                associationType = AggregationKindEnum.SHARED;
-        }
-        if (associationType == null)
-            associationType = AggregationKindEnum.COMPOSITE;
         List<Element> res = new ArrayList<Element>();
 
-        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectDiagram)) {
+        switch (plan.kind) {
+        case DIAGRAM:
             for (Element e: in)
                 if (e instanceof Diagram)
                     res.addAll(Utils.getElementsOnDiagram((Diagram)e));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectAssociationStereotype)) {
+            break;
+        case ASSOCIATION:
             for (Element e: in)
-                res.addAll(Utils.collectAssociatedElements(e, depth, associationType));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectOwnedElementStereotype)) {
+                res.addAll(Utils.collectAssociatedElements(e, plan.depth, plan.associationType));
+            break;
+        case OWNED:
             for (Element e: in)
-                res.addAll(Utils.collectOwnedElements(e, depth));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectOwnerStereotype)) {
+                res.addAll(Utils.collectOwnedElements(e, plan.depth));
+            break;
+        case OWNER:
             for (Element e: in)
-                res.addAll(Utils.collectOwners(e, depth));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectRelMetaclassStereotype)) {
+                res.addAll(Utils.collectOwners(e, plan.depth));
+            break;
+        case REL_METACLASS:
             for (Element e: in)
-                res.addAll(Utils.collectDirectedRelatedElementsByRelationshipMetaclasses(e, metaclasses,
-                        direction, depth));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectRelStereotypeStereotype)) {
+                res.addAll(Utils.collectDirectedRelatedElementsByRelationshipMetaclasses(e, plan.metaclasses,
+                        plan.direction, plan.depth));
+            break;
+        case REL_STEREOTYPE:
             for (Element e: in)
-                res.addAll(Utils.collectDirectedRelatedElementsByRelationshipStereotypes(e, stereotypes,
-                        direction, derived, depth));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectStereotypePropStereotype)) {
+                res.addAll(Utils.collectDirectedRelatedElementsByRelationshipStereotypes(e, plan.stereotypes,
+                        plan.direction, plan.derived, plan.depth));
+            break;
+        case STEREOTYPE_PROPERTY:
             List<Object> blah = new ArrayList<Object>();
             for (Element e: in)
-                for (Property p: stereotypeProperties)
+                for (Property p: plan.stereotypeProperties)
                     //blah.addAll(StereotypesHelper.getStereotypePropertyValue(e, (Stereotype)p.getOwner(), p));
                     blah.addAll(Utils.collectByStereotypeProperty(e, p));
             for (Object b: blah)
                 if (b instanceof Element)
                     res.add((Element)b);
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectTypeStereotype)) {
+            break;
+        case TYPE:
             for (Element e: in) {
                 if (e instanceof TypedElement) {
                     if (((TypedElement)e).getType() != null) {
@@ -288,36 +269,52 @@ public class CollectFilterParser {
                     res.add(((CallOperationAction)e).getOperation());
                 }
             }
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectClassifierAttributes)) {
+            break;
+        case CLASSIFIER_ATTRIBUTES:
             for (Element e: in)
-                res.addAll(Utils.getAttributes(e, inherited));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectExpressionStereotype)) {
-            res.addAll(Utils.collectByExpression(in, expression, iterate));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterDiagramTypeStereotype)) {
-            res.addAll(Utils.filterDiagramsByDiagramTypes(in, diagramTypes, include));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterMetaclassStereotype)) {
-            res.addAll(Utils.filterElementsByMetaclasses(in, metaclasses, include));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterNameStereotype)) {
-            res.addAll(Utils.filterElementsByNameRegex(in, names, include));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterStereotypeStereotype)) {
-            res.addAll(Utils.filterElementsByStereotypes(in, stereotypes, include, derived));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterExpressionStereotype)) {
-            res.addAll(Utils.filterElementsByExpression(in, expression, include, iterate));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectionStereotype)
-                && cba.getBehavior() != null) {
+                res.addAll(Utils.getAttributes(e, plan.inherited));
+            break;
+        case EXPRESSION:
+            res.addAll(Utils.collectByExpression(in, plan.expression, plan.iterate));
+            break;
+        case FILTER_DIAGRAM_TYPE:
+            res.addAll(Utils.filterDiagramsByDiagramTypes(in, plan.diagramTypes, plan.include));
+            break;
+        case FILTER_METACLASS:
+            res.addAll(Utils.filterElementsByMetaclasses(in, plan.metaclasses, plan.include));
+            break;
+        case FILTER_NAME:
+            res.addAll(Utils.filterElementsByNameRegex(in, plan.names, plan.include));
+            break;
+        case FILTER_STEREOTYPE:
+            res.addAll(Utils.filterElementsByStereotypes(in, plan.stereotypes, plan.include, plan.derived));
+            break;
+        case FILTER_EXPRESSION:
+            res.addAll(Utils.filterElementsByExpression(in, plan.expression, plan.include, plan.iterate));
+            break;
+        case GROUP:
             res.addAll(collectAndFilterGroup((Activity)cba.getBehavior(), in));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.removeDuplicates)) {
+            break;
+        case REMOVE_DUPLICATES:
             res.addAll(Utils.removeDuplicates(in));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.userScriptCFStereotype, true)) {
+            break;
+        case USER_SCRIPT:
             res.addAll(getUserScriptCF(in, cba));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByName)) {
+            break;
+        case SORT_BY_NAME:
             res.addAll(sortElements(in, DocGen3Profile.sortByName, cba));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByAttribute)) {
+            break;
+        case SORT_BY_ATTRIBUTE:
             res.addAll(sortElements(in, DocGen3Profile.sortByAttribute, cba));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByProperty)) {
+            break;
+        case SORT_BY_PROPERTY:
             res.addAll(sortElements(in, DocGen3Profile.sortByProperty, cba));
-        } else if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByExpression)) {
+            break;
+        case SORT_BY_EXPRESSION:
             res.addAll(sortElements(in, DocGen3Profile.sortByExpression, cba));
+            break;
+        default:
+            break;
         }
         // TODO -- duplicates should probably not be removed if just sorting!
         /*System.out.println( "collectAndFilter(): returning (before removing duplicates) res["
@@ -427,6 +424,7 @@ public class CollectFilterParser {
      */
     @SuppressWarnings("rawtypes")
     private static List<Element> getUserScriptCF(List<Element> in, CallBehaviorAction cba) {
+        GenerationContext context = getContext();
         List<Element> res = new ArrayList<Element>();
         try {
             Map<String, Object> inputs = new HashMap<String, Object>();
@@ -0,0 +1,150 @@
+package gov.nasa.jpl.mbee.generator;
+
+import gov.nasa.jpl.mbee.DocGen3Profile;
+import gov.nasa.jpl.mbee.lib.GeneratorUtils;
+import gov.nasa.jpl.mbee.lib.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.nomagic.uml2.ext.magicdraw.actions.mdbasicactions.CallBehaviorAction;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.AggregationKind;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.AggregationKindEnum;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Class;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.EnumerationLiteral;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.NamedElement;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Property;
+import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
+
+/**
+ * The kind and tag values of a collect/filter action, read once from the
+ * action's stereotypes so they don't have to be looked up every time the
+ * action runs.
+ */
+public class CollectPlan {
+
+    public enum Kind {
+        DIAGRAM, ASSOCIATION, OWNED, OWNER, REL_METACLASS, REL_STEREOTYPE, STEREOTYPE_PROPERTY, TYPE,
+        CLASSIFIER_ATTRIBUTES, EXPRESSION, FILTER_DIAGRAM_TYPE, FILTER_METACLASS, FILTER_NAME,
+        FILTER_STEREOTYPE, FILTER_EXPRESSION, GROUP, REMOVE_DUPLICATES, USER_SCRIPT, SORT_BY_NAME,
+        SORT_BY_ATTRIBUTE, SORT_BY_PROPERTY, SORT_BY_EXPRESSION, NONE
+    }
+
+    final Kind                 kind;
+    final int                  depth;
+    final int                  direction;
+    final List<Stereotype>     stereotypes;
+    final List<Class>          metaclasses;
+    final boolean              derived;
+    final List<String>         names;
+    final List<String>         diagramTypes;
+    final boolean              include;
+    final List<Property>       stereotypeProperties;
+    final boolean              inherited;
+    final AggregationKind      associationType;
+    final String               expression;
+    final boolean              iterate;
+
+    @SuppressWarnings("unchecked")
+    CollectPlan(CallBehaviorAction cba) {
+        kind = getKind(cba);
+        Integer d = (Integer)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.depthChoosable,
+                "depth", 0);
+        depth = d == null ? 0 : d;
+        direction = Boolean.FALSE.equals(GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.directionChoosable, "directionOut", true)) ? 2 : 1;
+        stereotypes = Collections.unmodifiableList(new ArrayList<Stereotype>(
+                (List<Stereotype>)GeneratorUtils.getListProperty(cba, DocGen3Profile.stereotypeChoosable,
+                        "stereotypes", new ArrayList<Stereotype>())));
+        metaclasses = Collections.unmodifiableList(new ArrayList<Class>(
+                (List<Class>)GeneratorUtils.getListProperty(cba, DocGen3Profile.metaclassChoosable,
+                        "metaclasses", new ArrayList<Class>())));
+        derived = !Boolean.FALSE.equals(GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.derivedChoosable, "considerDerived", true));
+        names = Collections.unmodifiableList(new ArrayList<String>(
+                (List<String>)GeneratorUtils.getListProperty(cba, DocGen3Profile.nameChoosable, "names",
+                        new ArrayList<String>())));
+        diagramTypes = Collections.unmodifiableList(Utils.getElementNames(
+                (List<NamedElement>)GeneratorUtils.getListProperty(cba, DocGen3Profile.diagramTypeChoosable,
+                        "diagramTypes", new ArrayList<NamedElement>())));
+        include = !Boolean.FALSE.equals(GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.includeChoosable, "include", true));
+        stereotypeProperties = Collections.unmodifiableList(new ArrayList<Property>(
+                (List<Property>)GeneratorUtils.getListProperty(cba, DocGen3Profile.stereotypePropertyChoosable,
+                        "stereotypeProperties", new ArrayList<Property>())));
+        inherited = Boolean.TRUE.equals(GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.inheritedChoosable, "includeInherited", false));
+        EnumerationLiteral asso = (EnumerationLiteral)GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.associationChoosable, "associationType", null);
+        if (asso == null || asso.getName().equals("composite"))
+            associationType = AggregationKindEnum.COMPOSITE;
+        else if (asso.getName().equals("none"))
+            associationType = AggregationKindEnum.NONE;
+        else
+            associationType = AggregationKindEnum.SHARED;
+        expression = (String)GeneratorUtils.getObjectProperty(cba, DocGen3Profile.expressionChoosable,
+                "expression", null);
+        iterate = !Boolean.FALSE.equals(GeneratorUtils.getObjectProperty(cba,
+                DocGen3Profile.expressionChoosable, "iterate", true));
+    }
+
+    /**
+     * whether results can be reused for the same input, user scripts and
+     * nested collect/filter groups can have side effects so they always run
+     *
+     * @return
+     */
+    boolean isCacheable() {
+        return kind != Kind.USER_SCRIPT && kind != Kind.GROUP && kind != Kind.NONE;
+    }
+
+    private static Kind getKind(CallBehaviorAction cba) {
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectDiagram))
+            return Kind.DIAGRAM;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectAssociationStereotype))
+            return Kind.ASSOCIATION;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectOwnedElementStereotype))
+            return Kind.OWNED;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectOwnerStereotype))
+            return Kind.OWNER;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectRelMetaclassStereotype))
+            return Kind.REL_METACLASS;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectRelStereotypeStereotype))
+            return Kind.REL_STEREOTYPE;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectStereotypePropStereotype))
+            return Kind.STEREOTYPE_PROPERTY;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectTypeStereotype))
+            return Kind.TYPE;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectClassifierAttributes))
+            return Kind.CLASSIFIER_ATTRIBUTES;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectExpressionStereotype))
+            return Kind.EXPRESSION;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterDiagramTypeStereotype))
+            return Kind.FILTER_DIAGRAM_TYPE;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterMetaclassStereotype))
+            return Kind.FILTER_METACLASS;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterNameStereotype))
+            return Kind.FILTER_NAME;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterStereotypeStereotype))
+            return Kind.FILTER_STEREOTYPE;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.filterExpressionStereotype))
+            return Kind.FILTER_EXPRESSION;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.collectionStereotype)
+                && cba.getBehavior() != null)
+            return Kind.GROUP;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.removeDuplicates))
+            return Kind.REMOVE_DUPLICATES;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.userScriptCFStereotype, true))
+            return Kind.USER_SCRIPT;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByName))
+            return Kind.SORT_BY_NAME;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByAttribute))
+            return Kind.SORT_BY_ATTRIBUTE;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByProperty))
+            return Kind.SORT_BY_PROPERTY;
+        if (GeneratorUtils.hasStereotypeByString(cba, DocGen3Profile.sortByExpression))
+            return Kind.SORT_BY_EXPRESSION;
+        return Kind.NONE;
+    }
+}
@@ -154,7 +154,7 @@ public class DiagramTableTool {
                 if (i + 1 >= cellValues.length)
                     continue;
                 stringValues.append("\n");
-                Debug.outln("cellValues[" + i + "] = " + cellValues[i]);
+                Debug.outln("cellValues[", i, "] = ", cellValues[i]);
             }
 
             return stringValues.toString();
@@ -32,7 +32,6 @@ import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.DocGenPlugin;
 import gov.nasa.jpl.mbee.lib.Debug;
 import gov.nasa.jpl.mbee.lib.GeneratorUtils;
-import gov.nasa.jpl.mbee.lib.MoreToString;
 import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mbee.lib.Utils2;
 import gov.nasa.jpl.mbee.model.BulletedList;
@@ -59,7 +58,14 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.Project;
@@ -107,6 +113,25 @@ public class DocumentGenerator {
     private Stereotype        md18expose = Utils.get18ExposeStereotype();
     private Stereotype        ourExpose = Utils.getExposeStereotype();
     private boolean hierarchyOnly;
+    // views are parsed in parallel if mdk.generator.threads is more than 1
+    private ExecutorService viewPool;
+    private List<ViewTask>  viewTasks;
+    // content of views parsed by earlier generations, see setViewContentCache
+    private Map<Element, Section> viewContents;
+
+    private static class ViewTask {
+        final Element   view;
+        final Section   section;
+        final Section   content;
+        final Future<?> future;
+
+        ViewTask(Element view, Section section, Section content, Future<?> future) {
+            this.view = view;
+            this.section = section;
+            this.content = content;
+            this.future = future;
+        }
+    }
     
     public DocumentGenerator(Element e, DocumentValidator dv, PrintWriter wlog) {
         start = e;
@@ -124,6 +149,16 @@ public class DocumentGenerator {
                 .getGUILog());
     }
 
+    // generator for one view task, with its own context
+    private DocumentGenerator(DocumentGenerator parent) {
+        start = parent.start;
+        product = parent.product;
+        doc = parent.doc;
+        hierarchyOnly = parent.hierarchyOnly;
+        context = new GenerationContext(new Stack<List<Object>>(), null, parent.context.getValidator(),
+                Application.getInstance().getGUILog());
+    }
+
     public Document parseDocument() {
         return this.parseDocument(false, true, false);
     }
@@ -131,6 +166,21 @@ public class DocumentGenerator {
     public Document getDocument() {
         return this.doc;
     }
+
+    /**
+     * views whose content is in the cache get it from there instead of
+     * running their viewpoint method again, and views parsed by this
+     * generation are added to it. For generating several documents that share
+     * views, the generations sharing a cache can't run at the same time. The
+     * cached content objects are put in every document with the view, so
+     * they get visited once per document.
+     * 
+     * @param viewContents
+     *            view to the content put in front of its child views
+     */
+    public void setViewContentCache(Map<Element, Section> viewContents) {
+        this.viewContents = viewContents;
+    }
     
     /**
      * singleView: whether to only parse the passed in view recurse: only if
@@ -140,6 +190,40 @@ public class DocumentGenerator {
      */
     public Document parseDocument(boolean singleView, boolean recurse, boolean hierarchyOnly) {
         this.hierarchyOnly = hierarchyOnly;
+        CollectFilterCache.startGeneration();
+        int threads = Utils.getIntProperty("mdk.generator.threads", 1, 1);
+        if (threads > 1 && !hierarchyOnly) {
+            final AtomicInteger count = new AtomicInteger();
+            viewPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ViewGenerator-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            viewTasks = new ArrayList<ViewTask>();
+        }
+        try {
+            parseDocumentViews(singleView, recurse);
+            if (viewPool != null)
+                finishViewTasks();
+        } finally {
+            if (viewPool != null) {
+                viewPool.shutdownNow();
+                viewPool = null;
+                viewTasks = null;
+            }
+        }
+        docMetadata();
+        for (DocGenElement e: doc.getChildren()) {
+            if (e instanceof Section)
+                ((Section)e).isChapter(true);
+        }
+        return doc;
+    }
+
+    private void parseDocumentViews(boolean singleView, boolean recurse) {
         if (StereotypesHelper.hasStereotypeOrDerived(start, sysmlview)) {
             if (start instanceof Package
                     || start instanceof Diagram
@@ -160,12 +244,6 @@ public class DocumentGenerator {
         else {
 
         }
-        docMetadata();
-        for (DocGenElement e: doc.getChildren()) {
-            if (e instanceof Section)
-                ((Section)e).isChapter(true);
-        }
-        return doc;
     }
 
     public Section parseView(Element view) {
@@ -213,6 +291,31 @@ public class DocumentGenerator {
         viewSection.setExposes(elementImports);
         
         if (!hierarchyOnly) {
+            Section cached = viewContents == null ? null : viewContents.get(view);
+            if (cached != null)
+                viewSection.getChildren().addAll(cached.getChildren());
+            else if (viewPool != null)
+                submitViewContent(view, viewpoint, elementImports, viewSection);
+            else if (viewContents != null) {
+                Section content = new Section();
+                parseViewContent(view, viewpoint, elementImports, content);
+                viewContents.put(view, content);
+                viewSection.getChildren().addAll(content.getChildren());
+            } else
+                parseViewContent(view, viewpoint, elementImports, viewSection);
+        }
+        viewSection.setDgElement(view);
+        viewSection.setId(view.getID());
+        viewSection.setTitle(((NamedElement)view).getName());
+        return viewSection;
+    }
+
+    /**
+     * runs the view's viewpoint method, or the default behavior if it doesn't
+     * conform to one, adding the results to viewSection
+     */
+    private void parseViewContent(Element view, Element viewpoint, List<Element> elementImports,
+            Section viewSection) {
         if (viewpoint != null && viewpoint instanceof Class) { // view conforms
                                                                // to a viewpoint
             if (!(view instanceof Diagram)) { // if it's a diagram, people most
@@ -311,11 +414,43 @@ public class DocumentGenerator {
                 }
             }
         }
+    }
+
+    /**
+     * parses the view content on the view pool with its own generator and
+     * context, the results are added to viewSection ahead of its child views
+     * when the generation finishes
+     */
+    private void submitViewContent(final Element view, final Element viewpoint,
+            final List<Element> elementImports, Section viewSection) {
+        final DocumentGenerator task = new DocumentGenerator(this);
+        final Section content = new Section();
+        Future<?> f = viewPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                task.parseViewContent(view, viewpoint, elementImports, content);
+            }
+        });
+        viewTasks.add(new ViewTask(view, viewSection, content, f));
+    }
+
+    // waits for view content in document order and puts it in place
+    private void finishViewTasks() {
+        for (ViewTask t: viewTasks) {
+            try {
+                t.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+            t.section.getChildren().addAll(0, t.content.getChildren());
+            if (viewContents != null)
+                viewContents.put(t.view, t.content);
         }
-        viewSection.setDgElement(view);
-        viewSection.setId(view.getID());
-        viewSection.setTitle(((NamedElement)view).getName());
-        return viewSection;
     }
 
     private void docMetadata() {
@@ -334,8 +469,8 @@ public class DocumentGenerator {
     public Object parseActivityOrStructuredNode(Element a, Container parent) {
         if (a == null || parent == null)
             return null;
-        Debug.outln("parseActivityOrStructuredNode( " + a.getHumanName() + ", " + a.getID() + ", "
-                + parent.getStringIfEmpty() + ")");
+        Debug.outln("parseActivityOrStructuredNode( ", a.getHumanName(), ", ", a.getID(), ", ",
+                parent.getStringIfEmpty(), ")");
         InitialNode in = GeneratorUtils.findInitialNode(a);
         if (in == null)
             return null;
@@ -347,7 +482,7 @@ public class DocumentGenerator {
         while (outs != null && outs.size() == 1) {
             parseResults = null;
             ActivityNode next = outs.iterator().next().getTarget();
-            Debug.outln("next = " + next.getHumanName() + ", " + next.getID());
+            Debug.outln("next = ", next.getHumanName(), ", ", next.getID());
             next2 = null;
             boolean evaluatedConstraintsForNext = false;
             if (next instanceof CallBehaviorAction
@@ -466,8 +601,8 @@ public class DocumentGenerator {
                 DocumentValidator.evaluateConstraints(next, parseResults, context, true, true);
             }
             outs = next2.getOutgoing();
-            Debug.outln("outs = " + MoreToString.Helper.toLongString(outs) + " for next2 = "
-                    + next2.getHumanName() + ", " + next2.getID());
+            Debug.outln("outs = ", Debug.longString(outs), " for next2 = ",
+                    next2.getHumanName(), ", ", next2.getID());
         }
         while (pushed > 0) {
             this.context.popTargets();
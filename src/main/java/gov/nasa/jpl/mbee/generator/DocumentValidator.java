@@ -28,6 +28,9 @@
  ******************************************************************************/
 package gov.nasa.jpl.mbee.generator;
 
+import gov.nasa.jpl.graphs.DirectedEdgeVector;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+import gov.nasa.jpl.graphs.algorithms.StronglyConnectedComponents;
 import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.constraint.BasicConstraint;
 import gov.nasa.jpl.mbee.constraint.Constraint;
@@ -52,10 +55,6 @@ import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.ocl.ParserException;
-import org.jgrapht.DirectedGraph;
-import org.jgrapht.EdgeFactory;
-import org.jgrapht.alg.StrongConnectivityInspector;
-import org.jgrapht.graph.DefaultDirectedGraph;
 
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.GUILog;
@@ -86,9 +85,11 @@ import com.nomagic.uml2.ext.magicdraw.commonbehaviors.mdbasicbehaviors.Behavior;
 import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
 
 /**
- * validates docgen 3 document uses jgrapht to detect cycles in the document and
- * various other potential errors this only checks for static model structure
- * and does not actually try to execute the document
+ * validates docgen 3 document, detects cycles in the document with
+ * StronglyConnectedComponents and various other potential errors this only
+ * checks for static model structure and does not actually try to execute the
+ * document. With mdk.validator.incremental on, views and behaviors that haven't
+ * changed since the last validation are replayed from ValidationCache.
  * 
  * @author dlam Changelog: Document Validator updated to use Validationsuite.
  */
@@ -225,9 +226,12 @@ public class DocumentValidator {
     private Collection<ValidationSuite>                       validationOutput            = new ArrayList<ValidationSuite>();
 
     private GUILog                                            log;
-    private DirectedGraph<NamedElement, Element> dg;           // graph for viewpoints
+    private DirectedGraphAdjacencyMap<NamedElement, DirectedEdgeVector<NamedElement>> dg; // graph for viewpoints
+    private Set<NamedElement>                                 views;        // views in this document
     private List<Set<ActivityNode>>                           cycles;       // cycles for activities and structured nodes
-    private ActivityEdgeFactory                               aef;
+    private ValidationCache                                   cache;        // null unless incremental
+    private ValidationCache.Entry                             recording;    // entry for the view or behavior being walked
+    private List<ValidationRule>                              rules;
     private boolean                                           fatal;
     private Stereotype                                        sysmlview = Utils.getViewStereotype();
     private Stereotype                                        conforms = Utils.getConformsStereotype();
@@ -243,8 +247,12 @@ public class DocumentValidator {
         cycles = new ArrayList<Set<ActivityNode>>();
         fatal = false;
         done = new HashSet<Behavior>();
-        aef = new ActivityEdgeFactory();
-        dg = new DefaultDirectedGraph<NamedElement, Element>(Element.class);
+        views = new HashSet<NamedElement>();
+        if (ValidationCache.isOn()) {
+            cache = ValidationCache.getInstance();
+            dg = cache.getViews();
+        } else
+            dg = new DirectedGraphAdjacencyMap<NamedElement, DirectedEdgeVector<NamedElement>>();
 
         // Ensure user-defined shortcut functions are updated
         OclEvaluator.resetEnvironment();
@@ -271,6 +279,7 @@ public class DocumentValidator {
         validationui.addValidationRule(cycleError);
         validationui.addValidationRule(activityNodeCycleError);
         validationui.addValidationRule(missingTagValue);
+        rules = validationui.getValidationRules();
 
         dynamicExpressionValidation.addValidationRule(viewpointConstraintRule);
 
@@ -285,51 +294,95 @@ public class DocumentValidator {
     }
 
     public void validateDocument() {
+        if (cache == null) {
+            validateStart();
+            return;
+        }
+        // the shared view graph can't change under a validation
+        synchronized (cache) {
+            validateStart();
+            cache.logStats();
+        }
+    }
+
+    private void validateStart() {
         if (StereotypesHelper.hasStereotypeOrDerived(start, sysmlview)) {
             validateView((NamedElement)start, true);
         } else if (StereotypesHelper.hasStereotypeOrDerived(start, DocGen3Profile.documentStereotype)
                 && start instanceof Activity) {
             this.done.add((Activity)start);
-            validateActivity((NamedElement)start);
+            validateBehavior((Activity)start);
         } else {
             log.log("This is not a starting docgen 3 document!");
         }
     }
 
-    class ViewDependencyEdgeFactory implements EdgeFactory<NamedElement, DirectedRelationship> {
-        @Override
-        public DirectedRelationship createEdge(NamedElement sourceVertex, NamedElement targetVertex) {
-            List<DirectedRelationship> dep = Utils.findDirectedRelationshipsBetween(sourceVertex,
-                    targetVertex);
-            if (!dep.isEmpty())
-                return dep.get(0);
-            return null;
+    private void addViolation(ValidationRule rule, Element e) {
+        rule.addViolation(e, rule.getDescription());
+        if (recording != null) {
+            recording.rules.add(rules.indexOf(rule));
+            recording.elements.add(e);
         }
     }
 
-    class ActivityEdgeFactory implements EdgeFactory<ActivityNode, ActivityEdge> {
-        @Override
-        public ActivityEdge createEdge(ActivityNode sourceVertex, ActivityNode targetVertex) {
-            for (ActivityEdge ae: sourceVertex.getOutgoing())
-                if (ae.getTarget() == targetVertex)
-                    return ae;
-            return null;
+    private void addViewEdge(NamedElement view, NamedElement child, boolean section) {
+        dg.addEdge(view, child);
+        if (recording != null) {
+            recording.children.add(child);
+            recording.sections.add(section);
         }
     }
 
-    private void validateView(NamedElement view, boolean section) {
+    private void addViolations(ValidationCache.Entry entry) {
+        for (int i = 0; i < entry.rules.size(); i++) {
+            ValidationRule rule = rules.get(entry.rules.get(i));
+            rule.addViolation(entry.elements.get(i), rule.getDescription());
+        }
+    }
 
-        if (dg.containsVertex(view))
+    private void validateView(NamedElement view, boolean section) {
+        if (!views.add(view))
             return;
-        dg.addVertex(view);
+        ValidationCache.Entry entry = cache == null ? null : cache.get(view);
+        if (entry != null) {
+            addViolations(entry);
+            if (!section && entry.firstOrNext)
+                nonView2View.addViolation(view, nonView2View.getDescription());
+            for (Behavior b: entry.behaviors) {
+                if (!this.done.contains(b)) {
+                    this.done.add(b);
+                    validateBehavior(b);
+                }
+            }
+            for (int i = 0; i < entry.children.size(); i++)
+                validateView(entry.children.get(i), entry.sections.get(i));
+            return;
+        }
+        ValidationCache.Entry previous = recording;
+        if (cache != null) {
+            recording = new ValidationCache.Entry(view);
+            cache.startView(view);
+        } else
+            dg.addVertex(view);
+        try {
+            walkView(view, section);
+            if (recording != null)
+                cache.put(recording);
+        } finally {
+            recording = previous;
+        }
+    }
+
+    private void walkView(NamedElement view, boolean section) {
         List<Element> viewpoints = Utils.collectDirectedRelatedElementsByRelationshipStereotype(view,
                 conforms, 1, false, 1);
         if (viewpoints.isEmpty())
             viewpoints = Utils.collectDirectedRelatedElementsByRelationshipStereotype(view, conforms14, 1, false, 1);
         if (viewpoints.size() > 1)
-            multipleViewpoints.addViolation(view, multipleViewpoints.getDescription());
+            addViolation(multipleViewpoints, view);
         for (Element viewpoint: viewpoints) {
             if (viewpoint != null && viewpoint instanceof Class) {
+                dependsOn(viewpoint);
                 Collection<Behavior> viewpointBehavior = ((Class)viewpoint).getOwnedBehavior();
                 Behavior b = null;
                 if (viewpointBehavior.size() > 0)
@@ -339,6 +392,7 @@ public class DocumentValidator {
                     while (now != null) {
                         if (!now.getSuperClass().isEmpty()) {
                             now = now.getSuperClass().iterator().next();
+                            dependsOn(now);
                             if (now.getOwnedBehavior().size() > 0) {
                                 b = now.getOwnedBehavior().iterator().next();
                                 break;
@@ -349,13 +403,14 @@ public class DocumentValidator {
                     }
                 }
                 if (b == null) {
-                    missingViewpointBehavior.addViolation(viewpoint,
-                            missingViewpointBehavior.getDescription());
+                    addViolation(missingViewpointBehavior, viewpoint);
                 } else {
                     if (b instanceof Activity) {
+                        if (recording != null)
+                            recording.behaviors.add(b);
                         if (!this.done.contains(b)) {
                             this.done.add(b);
-                            validateActivity(b);
+                            validateBehavior(b);
                         }
                     }
                 }
@@ -374,10 +429,10 @@ public class DocumentValidator {
             elementImports.addAll(packageImports);
             elementImports.addAll(queries);
             if (elementImports.isEmpty()) {
-                missingImportErrors.addViolation(view, missingImportErrors.getDescription());
+                addViolation(missingImportErrors, view);
             }
         } else if (!(view instanceof Diagram))
-            missingViewpointErrors.addViolation(view, missingViewpointErrors.getDescription());
+            addViolation(missingViewpointErrors, view);
         if (view instanceof Package) {
             List<Dependency> firsts = getOutgoingDependencies(view, DocGen3Profile.firstStereotype);//Utils.collectDirectedRelatedElementsByRelationshipStereotypeString(view,
                     //DocGen3Profile.firstStereotype, 1, false, 1);
@@ -386,74 +441,106 @@ public class DocumentValidator {
             List<Dependency> contents = getOutgoingDependencies(view, DocGen3Profile.nosectionStereotype);//Utils.collectDirectedRelatedElementsByRelationshipStereotypeString(view,
                     //DocGen3Profile.nosectionStereotype, 1, false, 1);
             if (contents.size() > 1)
-                multipleContentErrors.addViolation(view, multipleContentErrors.getDescription());
+                addViolation(multipleContentErrors, view);
+            if (recording != null)
+                recording.firstOrNext = !firsts.isEmpty() || !nexts.isEmpty();
             if (!section && (!firsts.isEmpty() || !nexts.isEmpty()))
                 nonView2View.addViolation(view, nonView2View.getDescription());
             if (firsts.size() > 1) {
-                multipleFirstErrors.addViolation(view, multipleFirstErrors.getDescription());
+                addViolation(multipleFirstErrors, view);
             }
             if (nexts.size() > 1)
-                multipleNextErrors.addViolation(view, multipleNextErrors.getDescription());
+                addViolation(multipleNextErrors, view);
             for (Dependency c: contents) {
                 Element nosection = ModelHelper.getSupplierElement(c);
                 validateView((NamedElement)nosection, false);
-                dg.addEdge(view, (NamedElement)nosection, c);
+                addViewEdge(view, (NamedElement)nosection, false);
             }
             for (Dependency f: firsts) {
                 Element first = ModelHelper.getSupplierElement(f);
                 validateView((NamedElement)first, true);
-                dg.addEdge(view, (NamedElement)first, f);
+                addViewEdge(view, (NamedElement)first, true);
             }
             for (Dependency n: nexts) {
                 Element next = ModelHelper.getSupplierElement(n);
                 validateView((NamedElement)next, true);
-                dg.addEdge(view, (NamedElement)next, n);
+                addViewEdge(view, (NamedElement)next, true);
             }
         } else if (view instanceof Class) {
             for (Property p: ((Class)view).getOwnedAttribute()) {
+                if (p.getType() != null)
+                    dependsOn(p.getType());
                 if (p.getType() != null && StereotypesHelper.hasStereotypeOrDerived(p.getType(), sysmlview)) {
                     validateView(p.getType(), true);
-                    dg.addEdge(view, p.getType(), p);
+                    addViewEdge(view, p.getType(), true);
                 }
             }
         }
     }
 
+    private void dependsOn(Element e) {
+        if (recording != null)
+            recording.dependsOn.add(e);
+    }
+
+    /**
+     * validates a viewpoint behavior or called behavior, or replays what was
+     * found the last time if it hasn't changed since
+     */
+    private void validateBehavior(Behavior b) {
+        ValidationCache.Entry entry = cache == null ? null : cache.get(b);
+        if (entry != null) {
+            addViolations(entry);
+            this.cycles.addAll(entry.cycles);
+            for (Behavior called: entry.behaviors) {
+                if (!this.done.contains(called)) {
+                    this.done.add(called);
+                    validateBehavior(called);
+                }
+            }
+            return;
+        }
+        ValidationCache.Entry previous = recording;
+        if (cache != null)
+            recording = new ValidationCache.Entry(b);
+        try {
+            validateActivity(b);
+            if (recording != null)
+                cache.put(recording);
+        } finally {
+            recording = previous;
+        }
+    }
+
     private void validateActivity(NamedElement activity) {
-        DirectedGraph<ActivityNode, ActivityEdge> graph = new DefaultDirectedGraph<ActivityNode, ActivityEdge>(
-                aef);
+        DirectedGraphAdjacencyMap<ActivityNode, DirectedEdgeVector<ActivityNode>> graph = new DirectedGraphAdjacencyMap<ActivityNode, DirectedEdgeVector<ActivityNode>>();
         List<InitialNode> inodes = findInitialNodes(activity);
         if (inodes.size() > 1)
-            multipleInitialNode.addViolation(activity, multipleInitialNode.getDescription());
+            addViolation(multipleInitialNode, activity);
         if (inodes.isEmpty())
-            missingInitialNode.addViolation(activity, missingInitialNode.getDescription());
+            addViolation(missingInitialNode, activity);
         for (InitialNode n: inodes) {
             graph.addVertex(n);
             validateNode(n, graph);
         }
 
-        StrongConnectivityInspector<ActivityNode, ActivityEdge> sci = new StrongConnectivityInspector<ActivityNode, ActivityEdge>(
-                graph);
-        List<Set<ActivityNode>> cycles = sci.stronglyConnectedSets();
-        if (!cycles.isEmpty()) {
-            for (Set<ActivityNode> cycle: cycles) {
-                if (cycle.size() > 1) {
-                    this.cycles.add(cycle);
-                }
-            }
+        for (Set<ActivityNode> cycle: new StronglyConnectedComponents().cycles(graph)) {
+            this.cycles.add(cycle);
+            if (recording != null)
+                recording.cycles.add(cycle);
         }
-
     }
 
-    private void validateNode(ActivityNode n, DirectedGraph<ActivityNode, ActivityEdge> graph) {
+    private void validateNode(ActivityNode n,
+            DirectedGraphAdjacencyMap<ActivityNode, DirectedEdgeVector<ActivityNode>> graph) {
         Collection<ActivityEdge> outs = n.getOutgoing();
         if (!(n instanceof ForkNode) && outs.size() > 1)
-            multipleOutgoingFlows.addViolation(n, multipleOutgoingFlows.getDescription());
+            addViolation(multipleOutgoingFlows, n);
         if (!(n instanceof FinalNode) && outs.isEmpty())
-            missingOutgoingFlow.addViolation(n, missingOutgoingFlow.getDescription());
+            addViolation(missingOutgoingFlow, n);
         if (!(n instanceof MergeNode) && !(n instanceof JoinNode) && !(n instanceof DecisionNode)
                 && n.getIncoming().size() > 1)
-            multipleIncomingFlows.addViolation(n, multipleIncomingFlows.getDescription());
+            addViolation(multipleIncomingFlows, n);
         if (n instanceof CallBehaviorAction) {
             Behavior b = n instanceof CallBehaviorAction ? ((CallBehaviorAction)n).getBehavior() : null;
             Collection<Stereotype> napplied = new HashSet<Stereotype>(
@@ -465,9 +552,9 @@ public class DocumentValidator {
                     DocGen3Profile.tableColumnStereotype));
             if (b == null) {
                 if (napplied.isEmpty()) {
-                    missingStereotype.addViolation(n, missingStereotype.getDescription());
+                    addViolation(missingStereotype, n);
                 } else if (napplied.size() > 1) {
-                    multipleStereotypes.addViolation(n, multipleStereotypes.getDescription());
+                    addViolation(multipleStereotypes, n);
                 }
             } else {
                 Collection<Stereotype> bapplied = new HashSet<Stereotype>(
@@ -478,12 +565,12 @@ public class DocumentValidator {
                 bapplied.addAll(StereotypesHelper.checkForAllDerivedStereotypes(b,
                         DocGen3Profile.tableColumnStereotype));
                 if (napplied.isEmpty() && bapplied.isEmpty())
-                    missingStereotype.addViolation(n, missingStereotype.getDescription());
+                    addViolation(missingStereotype, n);
                 // else if (bapplied.isEmpty())
                 // mismatchStereotypeErrors.addViolation(n,
                 // mismatchStereotypeErrors.getDescription());
                 else if (napplied.size() > 1 || bapplied.size() > 1)
-                    multipleStereotypes.addViolation(n, multipleStereotypes.getDescription());
+                    addViolation(multipleStereotypes, n);
                 else if (!napplied.isEmpty() && !bapplied.isEmpty()
                         && napplied.iterator().next() != bapplied.iterator().next()) {
                     Stereotype ns = napplied.iterator().next();
@@ -491,7 +578,7 @@ public class DocumentValidator {
                             !ns.getName().equals(DocGen3Profile.tableColumnStereotype) &&
                             !ns.getName().equals(DocGen3Profile.tableExpressionColumnStereotype) &&
                             !ns.getName().equals(DocGen3Profile.tablePropertyColumnStereotype))
-                        mismatchStereotypeErrors.addViolation(n, mismatchStereotypeErrors.getDescription());
+                        addViolation(mismatchStereotypeErrors, n);
                 }
                 /*
                  * if (StereotypesHelper.hasStereotype(b,
@@ -503,9 +590,12 @@ public class DocumentValidator {
                  * StereotypesHelper.hasStereotype(b,
                  * DocGen3Profile.tableStructureStereotype)) {
                  */
+                if (recording != null)
+                    recording.behaviors.add(b);
+                dependsOn(b);
                 if (!this.done.contains(b)) {
                     this.done.add(b);
-                    validateActivity(b);
+                    validateBehavior(b);
                 }
                 // }
             }
@@ -515,14 +605,14 @@ public class DocumentValidator {
                     && !StereotypesHelper.hasStereotype(n, DocGen3Profile.tableStructureStereotype)
                     && StereotypesHelper.checkForAllDerivedStereotypes(n,
                             DocGen3Profile.tableColumnStereotype).isEmpty())
-                missingStereotype.addViolation(n, missingStereotype.getDescription());
+                addViolation(missingStereotype, n);
             validateActivity(n);
             validateTags(n, null);
         }
 
         for (ActivityEdge out: outs) {
             ActivityNode next = out.getTarget();
-            if (graph.containsVertex(next)) {
+            if (graph.getVertices().contains(next)) {
                 graph.addEdge(n, next);
                 continue;
             } else {
@@ -539,12 +629,12 @@ public class DocumentValidator {
             if (StereotypesHelper.hasStereotypeOrDerived(node, stereotype)
                     && StereotypesHelper.getStereotypePropertyFirst(node, stereotype, tag) == null) {
                 if (b == null) {
-                    missingTagValue.addViolation(node, missingTagValue.getDescription());
+                    addViolation(missingTagValue, node);
                     return;
                 } else {
                     if (StereotypesHelper.hasStereotypeOrDerived(b, stereotype)
                             && StereotypesHelper.getStereotypePropertyFirst(b, stereotype, tag) == null) {
-                        missingTagValue.addViolation(b, missingTagValue.getDescription());
+                        addViolation(missingTagValue, b);
                         return;
                     }
                 }
@@ -563,13 +653,27 @@ public class DocumentValidator {
     public void printErrors() {
         printErrors(true);
     }
+
+    // cycles among this document's views, the graph can have other views
+    // when it's shared
+    private List<Set<NamedElement>> viewCycles() {
+        List<Set<NamedElement>> cycles = new ArrayList<Set<NamedElement>>();
+        if (cache != null) {
+            synchronized (cache) {
+                for (Set<NamedElement> c: new StronglyConnectedComponents().components(dg, views)) {
+                    if (c.size() > 1)
+                        cycles.add(c);
+                }
+            }
+        } else
+            cycles = new StronglyConnectedComponents().cycles(dg);
+        return cycles;
+    }
     // the 2 print errors should be consolidated...
     public void printErrors(boolean showWindow) {
 
         String fatal = "[FATAL] DocGen: ";
-        StrongConnectivityInspector<NamedElement, Element> sci = new StrongConnectivityInspector<NamedElement, Element>(
-                dg);
-        List<Set<NamedElement>> cycles = sci.stronglyConnectedSets();
+        List<Set<NamedElement>> cycles = viewCycles();
         if (!cycles.isEmpty()) {
             for (Set<NamedElement> cycle: cycles) {
                 if (cycle.size() > 1) {
@@ -665,9 +769,7 @@ public class DocumentValidator {
             pw.println(warning + ((NamedElement)e.getElement()).getQualifiedName()
                     + " and its behavior (if present) is missing a document stereotype!");
 
-        StrongConnectivityInspector<NamedElement, Element> sci = new StrongConnectivityInspector<NamedElement, Element>(
-                dg);
-        List<Set<NamedElement>> cycles = sci.stronglyConnectedSets();
+        List<Set<NamedElement>> cycles = viewCycles();
         if (!cycles.isEmpty()) {
             for (Set<NamedElement> cycle: cycles) {
                 if (cycle.size() > 1) {
@@ -713,21 +815,24 @@ public class DocumentValidator {
             boolean reported) {
         if (rule == null)
             return false;
-        List<ValidationRuleViolation> violations = rule.getViolations();
-        boolean alreadyAdded = false;
-        if (violations != null) {
-            for (ValidationRuleViolation v: violations) {
-                if (Utils2.valuesEqual(v.getElement(), element)
-                        && Utils2.valuesEqual(v.getComment(), comment)) {
-                    alreadyAdded = true;
-                    break;
+        // views can be generated in parallel
+        synchronized (rule) {
+            List<ValidationRuleViolation> violations = rule.getViolations();
+            boolean alreadyAdded = false;
+            if (violations != null) {
+                for (ValidationRuleViolation v: violations) {
+                    if (Utils2.valuesEqual(v.getElement(), element)
+                            && Utils2.valuesEqual(v.getComment(), comment)) {
+                        alreadyAdded = true;
+                        break;
+                    }
                 }
             }
+            if (alreadyAdded)
+                return false;
+            rule.addViolation(element, comment, reported);
+            return true;
         }
-        if (alreadyAdded)
-            return false;
-        rule.addViolation(element, comment, reported);
-        return true;
     }
 
     /**
@@ -887,13 +992,15 @@ public class DocumentValidator {
             return result;
         result = true;
         List<Constraint> constraints = getConstraints(constrainedObject, actionOutput, context);
-        if (constrainedObject instanceof Element) {
-            Element e = (Element)constrainedObject;
-            Debug.outln("constraints for " + e.getHumanName() + ", " + e.getID() + ": "
-                    + MoreToString.Helper.toString(constraints));
-        } else {
-            Debug.outln("constraints for " + constrainedObject + ": "
-                    + MoreToString.Helper.toString(constraints));
+        if (Debug.isOn()) {
+            if (constrainedObject instanceof Element) {
+                Element e = (Element)constrainedObject;
+                Debug.outln("constraints for " + e.getHumanName() + ", " + e.getID() + ": "
+                        + MoreToString.Helper.toString(constraints));
+            } else {
+                Debug.outln("constraints for " + constrainedObject + ": "
+                        + MoreToString.Helper.toString(constraints));
+            }
         }
         DocumentValidator dv = addViolations ? context.getValidator() : null;
         // If generating validation rule violations, evaluate all.
@@ -901,7 +1008,8 @@ public class DocumentValidator {
         // MdDebug.logForce(
         // "*** Starting MDK Validate Viewpoint Constraints ***" );
         for (Constraint constraint: constraints) {
-            Debug.outln("found constraint: " + MoreToString.Helper.toString(constraint));
+            if (Debug.isOn())
+                Debug.outln("found constraint: " + MoreToString.Helper.toString(constraint));
             if (Utils2.isNullOrEmpty(constraint.getExpression()))
                 continue;
             Boolean satisfied = evaluateConstraint(constraint, dv, addViolationForInconsistency);
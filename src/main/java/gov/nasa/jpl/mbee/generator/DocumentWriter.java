@@ -71,18 +71,20 @@ public class DocumentWriter implements RunnableWithProgress {
         GUILog gl = Application.getInstance().getGUILog();
         arg0.setIndeterminate(true);
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(realfile));
+            BufferedWriter writer = new BufferedWriter(new FileWriter(realfile), 64 * 1024);
             gl.log("output dir: " + dir.getAbsolutePath());
             DocBookOutputVisitor visitor = new DocBookOutputVisitor(false, dir.getAbsolutePath());
             dge.accept(visitor);
             DBBook book = visitor.getBook();
             if (book != null) {
                 // List<DocumentElement> books = dge.getDocumentElement();
-                DBSerializeVisitor v = new DBSerializeVisitor(genNewImage, dir, arg0);
-                book.accept(v);
                 writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
                 // writer.write("<!DOCTYPE book [\n<!ENTITY % sgml.features \"IGNORE\">\n<!ENTITY % xml.features \"INCLUDE\">\n<!ENTITY % dbcent PUBLIC \"-//OASIS//ENTITIES DocBook Character Entities\nV4.4//EN\" \"dbcentx.mod\">\n%dbcent;\n]>");
-                writer.write(v.getOut());
+                // serialize straight to the file instead of building the book
+                // in memory first
+                DBSerializeVisitor v = new DBSerializeVisitor(genNewImage, dir, writer, arg0);
+                book.accept(v);
+                v.flush();
             }
             writer.flush();
             writer.close();
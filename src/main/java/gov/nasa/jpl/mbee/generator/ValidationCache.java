@@ -0,0 +1,210 @@
+package gov.nasa.jpl.mbee.generator;
+
+import gov.nasa.jpl.graphs.DirectedEdgeVector;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.nomagic.magicdraw.core.Application;
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.uml2.ext.jmi.UML2MetamodelConstants;
+import com.nomagic.uml2.ext.magicdraw.activities.mdfundamentalactivities.ActivityNode;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.NamedElement;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Relationship;
+import com.nomagic.uml2.ext.magicdraw.commonbehaviors.mdbasicbehaviors.Behavior;
+import com.nomagic.uml2.transaction.TransactionCommitListener;
+
+/**
+ * What DocumentValidator found for each view and viewpoint behavior, kept
+ * between validations when mdk.validator.incremental is true (default false).
+ * The view graph is shared by all validations in the project, and each entry
+ * has the violations, activity node cycles, behaviors and child views its
+ * walk found, so a later validation can replay it instead of walking the
+ * model again.
+ *
+ * On a model transaction commit only the entries depending on a changed
+ * element or one of its owners are dropped (edits to nodes in an activity
+ * drop that activity and the activities calling it), the rest are reused.
+ * Deleting elements, or changing a relationship that doesn't know its ends
+ * anymore, drops everything.
+ */
+public class ValidationCache {
+    public static Logger log = Logger.getLogger(ValidationCache.class);
+
+    private static final boolean incremental = Boolean.getBoolean("mdk.validator.incremental");
+    private static ValidationCache instance;
+
+    private final Project project;
+    private final DirectedGraphAdjacencyMap<NamedElement, DirectedEdgeVector<NamedElement>> views = new DirectedGraphAdjacencyMap<NamedElement, DirectedEdgeVector<NamedElement>>();
+    private final Map<Element, Entry> entries = new HashMap<Element, Entry>();
+    // element -> keys of the entries that have to be redone when it changes
+    private final Map<Element, Set<Element>> dependents = new HashMap<Element, Set<Element>>();
+    private int hits = 0;
+    private int misses = 0;
+
+    private final TransactionCommitListener listener = new TransactionCommitListener() {
+        @Override
+        public Runnable transactionCommited(Collection<PropertyChangeEvent> events) {
+            changed(events);
+            return null;
+        }
+    };
+
+    /**
+     * result of walking one view or behavior, without what the walks of its
+     * child views and called behaviors found
+     */
+    static class Entry {
+        final Element                 key;
+        // index of the rule in the validator's rule list and element, in order
+        final List<Integer>           rules     = new ArrayList<Integer>();
+        final List<Element>           elements  = new ArrayList<Element>();
+        final List<Set<ActivityNode>> cycles    = new ArrayList<Set<ActivityNode>>();
+        final List<Behavior>          behaviors = new ArrayList<Behavior>();
+        // views only, children in the order they were walked
+        final List<NamedElement>      children  = new ArrayList<NamedElement>();
+        final List<Boolean>           sections  = new ArrayList<Boolean>();
+        boolean                       firstOrNext;
+        final Set<Element>            dependsOn = new HashSet<Element>();
+
+        Entry(Element key) {
+            this.key = key;
+            dependsOn.add(key);
+        }
+    }
+
+    private ValidationCache(Project project) {
+        this.project = project;
+        if (project != null)
+            project.getRepository().getTransactionManager().addTransactionCommitListener(listener);
+    }
+
+    public static boolean isOn() {
+        return incremental;
+    }
+
+    /**
+     * @return the cache for the current project
+     */
+    public static synchronized ValidationCache getInstance() {
+        Project project = Application.getInstance().getProject();
+        if (instance == null || instance.project != project) {
+            if (instance != null)
+                instance.dispose();
+            instance = new ValidationCache(project);
+        }
+        return instance;
+    }
+
+    private void dispose() {
+        if (project != null)
+            project.getRepository().getTransactionManager().removeTransactionCommitListener(listener);
+        clear();
+    }
+
+    public synchronized void clear() {
+        views.clear();
+        entries.clear();
+        dependents.clear();
+    }
+
+    /**
+     * graph of views to their first, next, nosection and property type views,
+     * for all the views with entries. Only use while holding the cache's lock.
+     */
+    DirectedGraphAdjacencyMap<NamedElement, DirectedEdgeVector<NamedElement>> getViews() {
+        return views;
+    }
+
+    synchronized Entry get(Element key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    synchronized void put(Entry entry) {
+        entries.put(entry.key, entry);
+        for (Element e: entry.dependsOn) {
+            Set<Element> keys = dependents.get(e);
+            if (keys == null) {
+                keys = new HashSet<Element>();
+                dependents.put(e, keys);
+            }
+            keys.add(entry.key);
+        }
+    }
+
+    /**
+     * the view is going to be walked again, its edges get added back by the
+     * walk
+     */
+    synchronized void startView(NamedElement view) {
+        if (!views.addVertex(view))
+            views.removeEdges(new HashSet<DirectedEdgeVector<NamedElement>>(views.findEdgesWithSourceVertex(view)));
+    }
+
+    synchronized void logStats() {
+        if (hits + misses > 0)
+            log.info("validation cache: " + hits + " reused, " + misses + " walked, " + entries.size()
+                    + " cached");
+        hits = 0;
+        misses = 0;
+    }
+
+    private synchronized void changed(Collection<PropertyChangeEvent> events) {
+        if (entries.isEmpty())
+            return;
+        for (PropertyChangeEvent event: events) {
+            if (!(event.getSource() instanceof Element))
+                continue;
+            Element e = (Element)event.getSource();
+            if (UML2MetamodelConstants.INSTANCE_DELETED.equals(event.getPropertyName())) {
+                clear();
+                return;
+            }
+            if (e instanceof Relationship) {
+                Collection<Element> ends = ((Relationship)e).getRelatedElement();
+                if (ends.isEmpty()) {
+                    clear();
+                    return;
+                }
+                for (Element end: ends)
+                    invalidateOwners(end);
+            }
+            invalidateOwners(e);
+        }
+    }
+
+    private void invalidateOwners(Element e) {
+        while (e != null) {
+            Set<Element> keys = dependents.remove(e);
+            if (keys != null) {
+                for (Element key: keys)
+                    invalidate(key);
+            }
+            e = e.getOwner();
+        }
+    }
+
+    private void invalidate(Element key) {
+        Entry entry = entries.remove(key);
+        if (entry == null)
+            return;
+        if (key instanceof NamedElement && views.getVertices().contains(key))
+            views.removeEdges(new HashSet<DirectedEdgeVector<NamedElement>>(
+                    views.findEdgesWithSourceVertex((NamedElement)key)));
+    }
+}
@@ -1065,7 +1065,7 @@ public class ClassUtils {
         // preferredPackage, false );
         List<Class<?>> classesForName = getClassesForName(className, false);
         // Debug.err("classForName = " + classForName );
-        Debug.err("classesForName = " + classesForName);
+        Debug.err("classesForName = ", classesForName);
         if (Utils2.isNullOrEmpty(classesForName)) {
             if (complainIfNotFound) {
                 System.err.println("Couldn't find the class " + className + " for method " + callName
@@ -1771,7 +1771,7 @@ public class ClassUtils {
         try {
             r = (TT)object;
         } catch (ClassCastException cce) {
-            Debug.errln("Warning! No evaluation of " + object + " with type " + cls.getName() + "!");
+            Debug.errln("Warning! No evaluation of ", object, " with type ", cls.getName(), "!");
             throw cce;
         }
         if (cls != null && cls.isInstance(r) || (r != null && cls == r.getClass())) {
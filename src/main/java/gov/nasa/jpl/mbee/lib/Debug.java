@@ -107,6 +107,78 @@ public class Debug {
         return on;
     }
 
+    /**
+     * Part of a debug message that is only built if the message is printed.
+     * Override toString() to build it, for example<br>
+     * {@code Debug.outln("rows = ", Debug.longString(rows));}<br>
+     * doesn't walk rows when debug is off.
+     */
+    public static abstract class Lazy {
+        @Override
+        public abstract String toString();
+    }
+
+    /**
+     * @param o
+     * @return MoreToString.Helper.toLongString(o), built when printed
+     */
+    public static Lazy longString(final Object o) {
+        return new Lazy() {
+            @Override
+            public String toString() {
+                return MoreToString.Helper.toLongString(o);
+            }
+        };
+    }
+
+    /**
+     * @param arr
+     * @return Utils2.toString(arr), built when printed
+     */
+    public static Lazy arrayString(final Object[] arr) {
+        return new Lazy() {
+            @Override
+            public String toString() {
+                return Utils2.toString(arr);
+            }
+        };
+    }
+
+    /**
+     * Prints the parts one after the other like string concatenation would,
+     * but only converts them to strings if debug is on.
+     * 
+     * @param parts
+     */
+    public static void out(Object... parts) {
+        if (on)
+            out(concat(parts));
+    }
+
+    public static void outln(Object... parts) {
+        if (on)
+            outln(concat(parts));
+    }
+
+    public static void err(Object... parts) {
+        if (on)
+            err(concat(parts));
+    }
+
+    public static void errln(Object... parts) {
+        if (on)
+            errln(concat(parts));
+    }
+
+    private static String concat(Object[] parts) {
+        if (parts == null)
+            return "null";
+        StringBuilder sb = new StringBuilder();
+        for (Object p: parts)
+            sb.append(p);
+        return sb.toString();
+    }
+
     /**
      * Throws and catches an exception and prints a supplied message and stack
      * trace to stderr if any of the input objects are null.
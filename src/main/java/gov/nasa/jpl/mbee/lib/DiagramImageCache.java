@@ -0,0 +1,340 @@
+package gov.nasa.jpl.mbee.lib;
+
+import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.ems.validation.ElementFingerprint;
+
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.log4j.Logger;
+
+import com.nomagic.magicdraw.core.Application;
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.magicdraw.export.image.ImageExporter;
+import com.nomagic.magicdraw.properties.Property;
+import com.nomagic.magicdraw.uml.symbols.DiagramPresentationElement;
+import com.nomagic.magicdraw.uml.symbols.PresentationElement;
+import com.nomagic.uml2.ext.jmi.helpers.StereotypesHelper;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Comment;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Diagram;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Type;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.TypedElement;
+import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
+import com.nomagic.uml2.transaction.TransactionCommitListener;
+
+/**
+ * Exports diagram images, and reuses image files from earlier exports if the
+ * diagram hasn't changed since. A diagram's fingerprint covers its shapes and
+ * paths (bounds and display properties) and the elements they show as they'd
+ * be exported to MMS (names, documentation, values, constraint
+ * specifications), plus their types, stereotypes and comment bodies.
+ * Fingerprints and svg checksums are kept in an index file in each image
+ * directory so images can be reused across sessions.
+ *
+ * Exports run on the calling thread. With mdk.images.exportThreads more than 0
+ * (default 0) they run on that many background threads instead, ImageExporter
+ * isn't known to be safe to use alongside model changes so that's opt in.
+ */
+public class DiagramImageCache {
+    public static Logger log = Logger.getLogger(DiagramImageCache.class);
+    private static final String INDEX = "imagecache.properties";
+
+    private static DiagramImageCache instance;
+
+    private final ExecutorService pool;
+    // image directory -> file name -> "fingerprint checksum"
+    private final Map<File, Properties> indexes = new HashMap<File, Properties>();
+    // svg path -> export submitted this session
+    private final Map<File, Submitted> submitted = new HashMap<File, Submitted>();
+    // diagram id -> fingerprint, until the model changes
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    private Project listening;
+
+    private final TransactionCommitListener listener = new TransactionCommitListener() {
+        @Override
+        public Runnable transactionCommited(Collection<PropertyChangeEvent> events) {
+            synchronized (DiagramImageCache.this) {
+                fingerprints.clear();
+            }
+            return null;
+        }
+    };
+
+    public static class Image {
+        public final File    svg;
+        public final File    png;
+        public final long    checksum;
+        // false if the files from an earlier export were used
+        public final boolean exported;
+
+        Image(File svg, File png, long checksum, boolean exported) {
+            this.svg = svg;
+            this.png = png;
+            this.checksum = checksum;
+            this.exported = exported;
+        }
+    }
+
+    private static class Submitted {
+        final String        fingerprint;
+        final boolean       png;
+        final Future<Image> image;
+
+        Submitted(String fingerprint, boolean png, Future<Image> image) {
+            this.fingerprint = fingerprint;
+            this.png = png;
+            this.image = image;
+        }
+    }
+
+    private DiagramImageCache(int threads) {
+        pool = threads < 1 ? null : Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ImageExport-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static synchronized DiagramImageCache getInstance() {
+        if (instance == null)
+            instance = new DiagramImageCache(Utils.getIntProperty("mdk.images.exportThreads", 0, 0));
+        return instance;
+    }
+
+    /**
+     * starts exporting the diagram unless files from an export of the same
+     * diagram contents are there already
+     *
+     * @param d
+     * @param svg
+     *            where the svg goes
+     * @param png
+     *            where the png goes, null to only export svg
+     * @param genNew
+     *            if false, existing files with no recorded fingerprint (from
+     *            before there was a cache) are used as they are
+     * @return the image, get throws ExecutionException if the export failed
+     */
+    public synchronized Future<Image> submit(Diagram d, final File svg, final File png, boolean genNew) {
+        final DiagramPresentationElement diagram = Application.getInstance().getProject().getDiagram(d);
+        // null if it couldn't be worked out, then the diagram is always exported
+        final String fingerprint = getFingerprint(diagram);
+        final File key = svg.getAbsoluteFile();
+        Submitted s = submitted.get(key);
+        boolean exists = svg.exists() && (png == null || png.exists());
+        // files can be deleted after an export, ex. after uploading them
+        if (s != null && fingerprint != null && fingerprint.equals(s.fingerprint) && (s.png || png == null)
+                && (exists || !s.image.isDone()))
+            return s.image;
+
+        String recorded = getIndex(key.getParentFile()).getProperty(key.getName());
+        Future<Image> image = null;
+        if (exists && fingerprint != null) {
+            if (recorded != null && recorded.startsWith(fingerprint + " ")) {
+                long cs = Long.parseLong(recorded.substring(fingerprint.length() + 1));
+                image = done(new Image(svg, png, cs, false));
+            } else if (recorded == null && !genNew) {
+                image = run(new Callable<Image>() {
+                    @Override
+                    public Image call() throws IOException {
+                        return new Image(svg, png, checksum(svg), false);
+                    }
+                });
+            }
+        }
+        if (image == null) {
+            image = run(new Callable<Image>() {
+                @Override
+                public Image call() throws IOException {
+                    ImageExporter.export(diagram, ImageExporter.SVG, svg);
+                    if (png != null)
+                        ImageExporter.export(diagram, ImageExporter.PNG, png);
+                    long cs = checksum(svg);
+                    if (fingerprint != null)
+                        record(key, fingerprint + " " + cs);
+                    return new Image(svg, png, cs, true);
+                }
+            });
+        }
+        submitted.put(key, new Submitted(fingerprint, png != null, image));
+        return image;
+    }
+
+    // on the pool if there is one, otherwise right away on this thread
+    private Future<Image> run(Callable<Image> task) {
+        if (pool != null)
+            return pool.submit(task);
+        FutureTask<Image> f = new FutureTask<Image>(task);
+        f.run();
+        return f;
+    }
+
+    private static Future<Image> done(Image image) {
+        FutureTask<Image> f = new FutureTask<Image>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, image);
+        f.run();
+        return f;
+    }
+
+    /**
+     * CRC32 of the file, read in chunks
+     *
+     * @param f
+     * @return
+     * @throws IOException
+     */
+    public static long checksum(File f) throws IOException {
+        CheckedInputStream in = new CheckedInputStream(new FileInputStream(f), new CRC32());
+        try {
+            byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0)
+                ;
+            return in.getChecksum().getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    private String getFingerprint(DiagramPresentationElement diagram) {
+        Project project = Application.getInstance().getProject();
+        if (project != listening) {
+            if (listening != null)
+                listening.getRepository().getTransactionManager().removeTransactionCommitListener(listener);
+            listening = project;
+            fingerprints.clear();
+            if (project != null)
+                project.getRepository().getTransactionManager().addTransactionCommitListener(listener);
+        }
+        String fingerprint = fingerprints.get(diagram.getID());
+        if (fingerprint == null) {
+            diagram.ensureLoaded();
+            StringBuilder sb = new StringBuilder();
+            sb.append(diagram.getID()).append('|').append(diagram.getName());
+            try {
+                appendPresentation(diagram.getPresentationElements(), sb);
+            } catch (RuntimeException e) {
+                log.warn("couldn't fingerprint " + diagram.getName() + ", it'll be exported again", e);
+                return null;
+            }
+            fingerprint = md5(sb);
+            fingerprints.put(diagram.getID(), fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static void appendPresentation(List<PresentationElement> pes, StringBuilder sb) {
+        for (PresentationElement pe: pes) {
+            sb.append('[').append(pe.getID());
+            Rectangle r = pe.getBounds();
+            if (r != null)
+                sb.append('|').append(r.x).append(',').append(r.y).append(',').append(r.width).append(',')
+                        .append(r.height);
+            if (pe.getPropertyManager() != null) {
+                for (Property p: pe.getPropertyManager().getProperties())
+                    sb.append('|').append(p.getID()).append('=').append(p.toString());
+            }
+            Element e = pe.getElement();
+            if (e != null) {
+                sb.append('|').append(e.getID()).append('|').append(e.getHumanName());
+                // documentation, values, constraint specifications
+                sb.append('|');
+                ElementFingerprint.canonical(ExportUtility.fillElement(e, null), sb);
+                if (e instanceof Comment)
+                    sb.append('|').append(((Comment)e).getBody());
+                if (e instanceof TypedElement) {
+                    Type type = ((TypedElement)e).getType();
+                    if (type != null)
+                        sb.append(':').append(type.getName());
+                }
+                for (Stereotype s: StereotypesHelper.getStereotypes(e))
+                    sb.append("|<<").append(s.getName()).append(">>");
+            }
+            appendPresentation(pe.getPresentationElements(), sb);
+            sb.append(']');
+        }
+    }
+
+    private static String md5(CharSequence s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b: digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // must hold this
+    private Properties getIndex(File dir) {
+        Properties index = indexes.get(dir);
+        if (index == null) {
+            index = new Properties();
+            File f = new File(dir, INDEX);
+            if (f.exists()) {
+                try {
+                    InputStream in = new FileInputStream(f);
+                    try {
+                        index.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    log.warn("couldn't read image index " + f, e);
+                }
+            }
+            indexes.put(dir, index);
+        }
+        return index;
+    }
+
+    private synchronized void record(File svg, String value) {
+        File dir = svg.getParentFile();
+        Properties index = getIndex(dir);
+        index.setProperty(svg.getName(), value);
+        try {
+            OutputStream out = new FileOutputStream(new File(dir, INDEX));
+            try {
+                index.store(out, null);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.warn("couldn't write image index in " + dir, e);
+        }
+    }
+}
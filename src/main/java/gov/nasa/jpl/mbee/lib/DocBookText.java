@@ -0,0 +1,137 @@
+package gov.nasa.jpl.mbee.lib;
+
+/**
+ * Single pass versions of the regex chains DocGenUtils used to run on every
+ * piece of text, with the same output.
+ */
+public class DocBookText {
+
+    private static final String ZERO_WIDTH_SPACE = "&#x200B;";
+
+    private DocBookText() {
+    }
+
+    /**
+     * Same as
+     *
+     * <pre>
+     * HtmlManipulator.replaceHtmlEntities(s.replaceAll(&quot;&amp;(?![A-Za-z#0-9]+;)&quot;, &quot;&amp;amp;&quot;)
+     *         .replaceAll(&quot;&lt;([&gt;=\\s])&quot;, &quot;&amp;lt;$1&quot;).replaceAll(&quot;&lt;&lt;&quot;, &quot;&amp;lt;&amp;lt;&quot;)
+     *         .replaceAll(&quot;&lt;(?![&circ;&gt;]+&gt;)&quot;, &quot;&amp;lt;&quot;))
+     * </pre>
+     *
+     * escapes &amp; that don't start an entity and &lt; that can't start a
+     * tag, then replaces named entities with numeric ones
+     *
+     * @param s
+     * @return
+     */
+    public static String fixString(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n && s.charAt(i) != '&' && s.charAt(i) != '<')
+            i++;
+        if (i == n)
+            return s;
+        int lastGt = s.lastIndexOf('>');
+        StringBuilder sb = new StringBuilder(n + 16);
+        sb.append(s, 0, i);
+        // whether the previous < was left for the << rule and is waiting for
+        // a pair
+        boolean open = false;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '&') {
+                open = false;
+                int j = i + 1;
+                while (j < n && isEntityChar(s.charAt(j)))
+                    j++;
+                if (j > i + 1 && j < n && s.charAt(j) == ';') {
+                    String numeric = HtmlManipulator.getNumericEntity(s.substring(i + 1, j));
+                    if (numeric != null) {
+                        sb.append('&').append(numeric).append(';');
+                        i = j;
+                        continue;
+                    }
+                    sb.append('&');
+                } else
+                    sb.append("&#38;");
+            } else if (c == '<') {
+                char next = i + 1 < n ? s.charAt(i + 1) : 0;
+                if (i + 1 < n && (next == '>' || next == '=' || isWhitespace(next))) {
+                    // <> <= < and the like
+                    open = false;
+                    sb.append("&#60;");
+                } else if (next == '<' && !open && pairs(s, i + 1, n)) {
+                    // first of a << pair, the second is written next time
+                    open = true;
+                    sb.append("&#60;");
+                } else if (open) {
+                    open = false;
+                    sb.append("&#60;");
+                } else if (lastGt < i) {
+                    // no > after it so it can't be a tag
+                    sb.append("&#60;");
+                } else
+                    sb.append(c);
+            } else {
+                open = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // whether the < at i is left for the << rule, it isn't if the <([>=\s])
+    // rule takes it first
+    private static boolean pairs(String s, int i, int n) {
+        if (i + 1 >= n)
+            return true;
+        char next = s.charAt(i + 1);
+        return !(next == '>' || next == '=' || isWhitespace(next));
+    }
+
+    private static boolean isEntityChar(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '#';
+    }
+
+    // regex \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * adds a zero width space after ; . ( ) , / _ and :: so pdf transforms
+     * can wrap long names there
+     *
+     * @param s
+     * @return
+     */
+    public static String addInvisibleSpace(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 32);
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            sb.append(c);
+            switch (c) {
+            case ';':
+            case '.':
+            case '(':
+            case ')':
+            case ',':
+            case '/':
+            case '_':
+                sb.append(ZERO_WIDTH_SPACE);
+                break;
+            case ':':
+                if (i + 1 < n && s.charAt(i + 1) == ':') {
+                    sb.append(':').append(ZERO_WIDTH_SPACE);
+                    i++;
+                }
+                break;
+            default:
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -89,6 +89,9 @@ public final class HtmlManipulator {
 
     private static final Map<String, String>    HTML_ENTITY_TO_NUMERIC_MAP     = new HashMap<String, String>();
 
+    /** length of the longest entity name, longer candidates aren't looked up */
+    private static final int                    MAX_ENTITY_NAME_LENGTH;
+
     /** mapping: Unicode character ---> HTML entity */
     private static final Map<Character, String> UNICODE_TO_HTML_ENTITY_MAP     = new HashMap<Character, String>();
 
@@ -104,14 +107,17 @@ public final class HtmlManipulator {
 
         /* populate HTML entity <---> Unicode character maps */
         final String[] elements = RAW_HTML_ENTITY_TABLE.split("[\\s]++");
+        int maxLength = 0;
 
         for (int i = 0; i < elements.length; i += 3) {
             final char unicode = (char)Integer.parseInt(elements[i + 2], 16);
             HTML_ENTITY_TO_UNICODE_MAP.put(elements[i], unicode);
             HTML_ENTITY_TO_UNICODE_MAP.put(elements[i + 1], unicode);
             HTML_ENTITY_TO_NUMERIC_MAP.put(elements[i], elements[i + 1]);
+            maxLength = Math.max(maxLength, elements[i].length());
             UNICODE_TO_HTML_ENTITY_MAP.put(unicode, elements[i]);
         }
+        MAX_ENTITY_NAME_LENGTH = maxLength;
     }
 
     /**
@@ -129,21 +135,29 @@ public final class HtmlManipulator {
      * @return string with HTML entities replaced
      */
     public static String replaceHtmlEntities(final String s) {
-        final StringBuilder t = new StringBuilder();
+        if (s.indexOf('&') < 0)
+            return s;
+        final StringBuilder t = new StringBuilder(s.length() + 16);
 
         for (int i = 0, n = s.length(); i < n; i++) {
             final char c = s.charAt(i);
 
             if (c == '&') {
                 /* candidate HTML entity */
-                final int j = s.indexOf(';', i);
+                int j = -1;
+                for (int k = i + 1, end = Math.min(n, i + MAX_ENTITY_NAME_LENGTH + 2); k < end; k++) {
+                    if (s.charAt(k) == ';') {
+                        j = k;
+                        break;
+                    }
+                }
 
                 if (j >= 0) {
                     //final Character unicode = HTML_ENTITY_TO_UNICODE_MAP.get(s.substring(i + 1, j));
                     final String numeric = HTML_ENTITY_TO_NUMERIC_MAP.get(s.substring(i + 1, j));
                     if (numeric != null) {
                         /* insert Unicode representation */
-                        t.append("&" + numeric + ";");
+                        t.append('&').append(numeric).append(';');
                         i = j; /* advance index */
                         continue;
                     }
@@ -157,6 +171,18 @@ public final class HtmlManipulator {
         return t.toString();
     }
 
+    /**
+     * Numeric representation of a named HTML entity.
+     * 
+     * @param name
+     *            entity name without the surrounding "&" and ";"
+     * @return numeric form without the "&" and ";", e.g. "#160" for "nbsp",
+     *         or null if it's not an HTML entity
+     */
+    public static String getNumericEntity(final String name) {
+        return name.length() > MAX_ENTITY_NAME_LENGTH ? null : HTML_ENTITY_TO_NUMERIC_MAP.get(name);
+    }
+
     /**
      * Quote a specified string as HTML, by replacing all special characters
      * with their equivalent HTML entities.
@@ -0,0 +1,130 @@
+package gov.nasa.jpl.mbee.lib;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.nomagic.magicdraw.core.Application;
+import com.nomagic.magicdraw.core.Project;
+import com.nomagic.uml2.ext.jmi.helpers.ModelHelper;
+import com.nomagic.uml2.ext.jmi.helpers.StereotypesHelper;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.DirectedRelationship;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Element;
+import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
+import com.nomagic.uml2.transaction.TransactionCommitListener;
+
+/**
+ * Elements directly related to an element through directed relationships of
+ * some stereotypes or metaclasses, in one direction. Filled in as the
+ * collectors in Utils ask for them so each relationship's stereotypes are only
+ * checked once, and emptied on every model transaction commit in the project.
+ */
+public class RelationshipIndex {
+
+    private static RelationshipIndex instance;
+
+    private final Project project;
+    // (element, stereotypes or java classes, derived, outgoing) -> related
+    private final Map<List<Object>, List<Element>> related = new HashMap<List<Object>, List<Element>>();
+    private final TransactionCommitListener listener = new TransactionCommitListener() {
+        @Override
+        public Runnable transactionCommited(Collection<PropertyChangeEvent> events) {
+            clear();
+            return null;
+        }
+    };
+
+    private RelationshipIndex(Project project) {
+        this.project = project;
+        if (project != null)
+            project.getRepository().getTransactionManager().addTransactionCommitListener(listener);
+    }
+
+    /**
+     * @return the index for the current project
+     */
+    public static synchronized RelationshipIndex getInstance() {
+        Project project = Application.getInstance().getProject();
+        if (instance == null || instance.project != project) {
+            if (instance != null)
+                instance.dispose();
+            instance = new RelationshipIndex(project);
+        }
+        return instance;
+    }
+
+    private void dispose() {
+        if (project != null)
+            project.getRepository().getTransactionManager().removeTransactionCommitListener(listener);
+        clear();
+    }
+
+    public synchronized void clear() {
+        related.clear();
+    }
+
+    /**
+     * @param e
+     * @param stereotypes
+     * @param derived
+     *            whether to consider derived stereotypes
+     * @param outgoing
+     *            true for suppliers of relationships e is the client of, false
+     *            for clients of relationships e is the supplier of
+     * @return related elements in relationship order, don't modify
+     */
+    public synchronized List<Element> getRelatedByStereotypes(Element e, Collection<Stereotype> stereotypes,
+            boolean derived, boolean outgoing) {
+        List<Object> key = Arrays.<Object>asList(e, new ArrayList<Stereotype>(stereotypes), derived, outgoing);
+        List<Element> res = related.get(key);
+        if (res == null) {
+            Set<Element> found = new LinkedHashSet<Element>();
+            for (DirectedRelationship dr: outgoing ? e.get_directedRelationshipOfSource() : e
+                    .get_directedRelationshipOfTarget()) {
+                if (derived && StereotypesHelper.hasStereotypeOrDerived(dr, stereotypes) || !derived
+                        && StereotypesHelper.hasStereotype(dr, stereotypes))
+                    found.add(outgoing ? ModelHelper.getSupplierElement(dr) : ModelHelper.getClientElement(dr));
+            }
+            res = new ArrayList<Element>(found);
+            related.put(key, res);
+        }
+        return res;
+    }
+
+    /**
+     * @param e
+     * @param javaClasses
+     *            relationships that are instances of any of these are
+     *            considered
+     * @param outgoing
+     *            true for suppliers of relationships e is the client of, false
+     *            for clients of relationships e is the supplier of
+     * @return related elements in relationship order, don't modify
+     */
+    public synchronized List<Element> getRelatedByJavaClasses(Element e,
+            Collection<java.lang.Class<?>> javaClasses, boolean outgoing) {
+        List<Object> key = Arrays.<Object>asList(e, new ArrayList<java.lang.Class<?>>(javaClasses), null, outgoing);
+        List<Element> res = related.get(key);
+        if (res == null) {
+            Set<Element> found = new LinkedHashSet<Element>();
+            for (DirectedRelationship dr: outgoing ? e.get_directedRelationshipOfSource() : e
+                    .get_directedRelationshipOfTarget()) {
+                for (java.lang.Class<?> c: javaClasses) {
+                    if (c.isInstance(dr)) {
+                        found.add(outgoing ? ModelHelper.getSupplierElement(dr) : ModelHelper.getClientElement(dr));
+                        break;
+                    }
+                }
+            }
+            res = new ArrayList<Element>(found);
+            related.put(key, res);
+        }
+        return res;
+    }
+}
@@ -292,13 +292,11 @@ public class Utils {
     public static List<Element> filterElementsByExpression(Collection<Element> elements, String query,
             boolean include, boolean iterate) {
         List<Element> res = new ArrayList<Element>();
-        OclEvaluator evaluator = null;
         if (!iterate) {
             Object o = null;
             DocumentValidator dv = CollectFilterParser.getValidator();
             o = DocumentValidator.evaluate(query, elements, dv, true);
-            evaluator = OclEvaluator.instance;
-            if (evaluator != null && ( evaluator.isValid() || !Utils2.isNullOrEmpty( o ) ) ) {
+            if (OclEvaluator.isLastQueryValid() || !Utils2.isNullOrEmpty( o ) ) {
                 // try {
                 // o = OclEvaluator.evaluateQuery(e, query);
                 Boolean istrue = isTrue(o, false);
@@ -313,8 +311,7 @@ public class Utils {
                 Object o = null;
                 DocumentValidator dv = CollectFilterParser.getValidator();
                 o = DocumentValidator.evaluate(query, e, dv, true);
-                evaluator = OclEvaluator.instance;
-                if (evaluator != null && ( evaluator.isValid() || !Utils2.isNullOrEmpty( o ) ) ) {
+                if (OclEvaluator.isLastQueryValid() || !Utils2.isNullOrEmpty( o ) ) {
                     // try {
                     // o = OclEvaluator.evaluateQuery(e, query);
                     Boolean istrue = isTrue(o, false);
@@ -646,10 +643,9 @@ public class Utils {
         Object o = null;
         DocumentValidator dv = CollectFilterParser.getValidator();
         o = DocumentValidator.evaluate(query, element, dv, true);
-        OclEvaluator evaluator = OclEvaluator.instance;
         // try {
         // o = OclEvaluator.evaluateQuery(element, query);
-        if ( evaluator.isValid() || !Utils2.isNullOrEmpty( o ) ) {
+        if ( OclEvaluator.isLastQueryValid() || !Utils2.isNullOrEmpty( o ) ) {
             res.addAll(getListOfType(o, Element.class));
         }
         // } catch ( ParserException e ) {
@@ -1006,50 +1002,32 @@ public class Utils {
             badDirectionError(direction, "collectDirectedRelatedElementsByRelationshipJavaClasses()");
             direction = 0;
         }
+        Set<Element> found = new LinkedHashSet<Element>();
         collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(e, javaClasses, direction, depth, 1,
-                res);
+                found, RelationshipIndex.getInstance());
+        res.addAll(found);
         return res;
     }
 
     private static void collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(Element e,
             Collection<java.lang.Class<?>> javaClasses, int direction, int depth, int curdepth,
-            List<Element> res) {
+            Set<Element> res, RelationshipIndex index) {
         if (e == null)
             return;
-        if (direction < 0 || direction > 2) {
-            badDirectionError(direction, "collectDirectedRelatedElementsByRelationshipJavaClassesRecursive()");
-            direction = 0;
-        }
         if (depth != 0 && curdepth > depth)
             return;
         if (direction == 0 || direction == 1) {
-            for (DirectedRelationship dr: e.get_directedRelationshipOfSource()) {
-                for (java.lang.Class<?> c: javaClasses) {
-                    if (c.isInstance(dr)) {
-                        if (!res.contains(ModelHelper.getSupplierElement(dr))) {
-                            res.add(ModelHelper.getSupplierElement(dr));
-                            collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(
-                                    ModelHelper.getSupplierElement(dr), javaClasses, direction, depth,
-                                    curdepth + 1, res);
-                            break;
-                        }
-                    }
-                }
+            for (Element supplier: index.getRelatedByJavaClasses(e, javaClasses, true)) {
+                if (res.add(supplier))
+                    collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(supplier, javaClasses,
+                            direction, depth, curdepth + 1, res, index);
             }
         }
         if (direction == 0 || direction == 2) {
-            for (DirectedRelationship dr: e.get_directedRelationshipOfTarget()) {
-                for (java.lang.Class<?> c: javaClasses) {
-                    if (c.isInstance(dr)) {
-                        if (!res.contains(ModelHelper.getClientElement(dr))) {
-                            res.add(ModelHelper.getClientElement(dr));
-                            collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(
-                                    ModelHelper.getClientElement(dr), javaClasses, direction, depth,
-                                    curdepth + 1, res);
-                            break;
-                        }
-                    }
-                }
+            for (Element client: index.getRelatedByJavaClasses(e, javaClasses, false)) {
+                if (res.add(client))
+                    collectDirectedRelatedElementsByRelationshipJavaClassesRecursive(client, javaClasses,
+                            direction, depth, curdepth + 1, res, index);
             }
         }
     }
@@ -1173,47 +1151,33 @@ public class Utils {
             direction = 0;
         }
         // client: 0 is both, 1 is client, 2 is supplier
+        Set<Element> found = new LinkedHashSet<Element>();
         collectDirectedRelatedElementsByRelationshipStereotypesRecursive(e, stereotypes, direction, derived,
-                depth, 1, res);
+                depth, 1, found, RelationshipIndex.getInstance());
+        res.addAll(found);
         return res;
     }
 
     private static void collectDirectedRelatedElementsByRelationshipStereotypesRecursive(Element e,
             Collection<Stereotype> stereotypes, int direction, boolean derived, int depth, int curdepth,
-            List<Element> res) {
+            Set<Element> res, RelationshipIndex index) {
         if (e == null)
             return;
-        if (direction < 0 || direction > 2) {
-            badDirectionError(direction, "collectDirectedRelatedElementsByRelationshipStereotypesRecursive()");
-            direction = 0;
-        }
         if (depth != 0 && curdepth > depth)
             return;
         // client: 0 is both, 1 is client, 2 is supplier
         if (direction == 0 || direction == 1) {
-            for (DirectedRelationship dr: e.get_directedRelationshipOfSource()) {
-                if (derived && StereotypesHelper.hasStereotypeOrDerived(dr, stereotypes) || !derived
-                        && StereotypesHelper.hasStereotype(dr, stereotypes)) {
-                    if (!res.contains(ModelHelper.getSupplierElement(dr))) {
-                        res.add(ModelHelper.getSupplierElement(dr));
-                        collectDirectedRelatedElementsByRelationshipStereotypesRecursive(
-                                ModelHelper.getSupplierElement(dr), stereotypes, direction, derived, depth,
-                                curdepth + 1, res);
-                    }
-                }
+            for (Element supplier: index.getRelatedByStereotypes(e, stereotypes, derived, true)) {
+                if (res.add(supplier))
+                    collectDirectedRelatedElementsByRelationshipStereotypesRecursive(supplier, stereotypes,
+                            direction, derived, depth, curdepth + 1, res, index);
             }
         }
         if (direction == 0 || direction == 2) {
-            for (DirectedRelationship dr: e.get_directedRelationshipOfTarget()) {
-                if (derived && StereotypesHelper.hasStereotypeOrDerived(dr, stereotypes) || !derived
-                        && StereotypesHelper.hasStereotype(dr, stereotypes)) {
-                    if (!res.contains(ModelHelper.getClientElement(dr))) {
-                        res.add(ModelHelper.getClientElement(dr));
-                        collectDirectedRelatedElementsByRelationshipStereotypesRecursive(
-                                ModelHelper.getClientElement(dr), stereotypes, direction, derived, depth,
-                                curdepth + 1, res);
-                    }
-                }
+            for (Element client: index.getRelatedByStereotypes(e, stereotypes, derived, false)) {
+                if (res.add(client))
+                    collectDirectedRelatedElementsByRelationshipStereotypesRecursive(client, stereotypes,
+                            direction, derived, depth, curdepth + 1, res, index);
             }
         }
     }
@@ -2032,6 +1996,30 @@ public class Utils {
         return (Stereotype)getElementByQualifiedName("SysML::ModelElements::Expose");
     }
     
+    /********************************************* System properties ***************************************************/
+
+    /**
+     * Integer tuning setting from a system property, ex. -Dmdk.sync.workers=4
+     * 
+     * @param name
+     * @param def
+     *            used if the property isn't set or isn't a number
+     * @param min
+     *            smaller values are raised to this
+     * @return
+     */
+    public static int getIntProperty(String name, int def, int min) {
+        String value = System.getProperty(name);
+        if (value == null)
+            return def;
+        try {
+            return Math.max(min, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            Debug.error(true, false, "bad value for " + name + ": " + value);
+            return def;
+        }
+    }
+
     /********************************************* User interaction ****************************************************/
 
     /**
@@ -97,7 +97,7 @@ public class CustomTable extends Table {
     @Override
     public List<DocumentElement> visit(boolean forViewEditor, String outputDir) {
         List<DocumentElement> res = new ArrayList<DocumentElement>();
-        Debug.outln("entering visit(CustomTable): " + this);
+        Debug.outln("entering visit(CustomTable): ", this);
         if (this == null) {
             Debug.errln("Can't create DocBook table from null CustomTable!");
             return res;
@@ -106,14 +106,14 @@ public class CustomTable extends Table {
             return res;
         }
         if (Utils2.isNullOrEmpty(this.getColumns())) {
-            Debug.errln("No columns specified for CustomTable! " + this.getColumns());
+            Debug.errln("No columns specified for CustomTable! ", this.getColumns());
             return res;
         }
         if (Utils2.isNullOrEmpty(this.getTargets())) {
-            Debug.errln("No targets specified for CustomTable! " + this.getTargets());
+            Debug.errln("No targets specified for CustomTable! ", this.getTargets());
             return res;
         }
-        Debug.outln("visiting custom table " + this);
+        Debug.outln("visiting custom table ", this);
         DBTable dbTable = new DBTable();
 
         // get column headings
@@ -129,7 +129,7 @@ public class CustomTable extends Table {
             hs.add(first);
 
             if (Utils2.isNullOrEmpty(this.getColumns())) {
-                Debug.errln("No columns specified for CustomTable! " + this.getColumns());
+                Debug.errln("No columns specified for CustomTable! ", this.getColumns());
             } else {
                 for (String oclExpr: this.getColumns()) {
                     first.add(new DBText(oclExpr));
@@ -198,7 +198,7 @@ public class CustomTable extends Table {
         dbTable.setStyle(this.getStyle());
 
         res.add(dbTable);
-        Debug.outln("got custom DBTable " + dbTable);
+        Debug.outln("got custom DBTable ", dbTable);
         return res;
     }
 
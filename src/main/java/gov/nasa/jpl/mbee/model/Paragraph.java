@@ -33,7 +33,6 @@ import gov.nasa.jpl.mbee.generator.DocumentValidator;
 import gov.nasa.jpl.mbee.generator.GenerationContext;
 import gov.nasa.jpl.mbee.lib.Debug;
 import gov.nasa.jpl.mbee.lib.GeneratorUtils;
-import gov.nasa.jpl.mbee.lib.MoreToString;
 import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mbee.lib.Utils.AvailableAttribute;
 import gov.nasa.jpl.mbee.lib.Utils2;
@@ -156,12 +155,12 @@ public class Paragraph extends Query {
             }
             return;
         }
-        Debug.outln( "addOclParagraph(" + res + ", \"" + oclExpression
-                            + "\", " + context + ")" + " class(" + context.getClass() + ")");
+        Debug.outln( "addOclParagraph(", res, ", \"", oclExpression,
+                            "\", ", context, ")", " class(", context.getClass(), ")");
         Object result =
                 DocumentValidator.evaluate( oclExpression, context,
                                             getValidator(), true );
-        Debug.outln("ocl result = " + result);
+        Debug.outln("ocl result = ", result);
 
 //        if ( result instanceof Collection && ((Collection<?>)result).size() == 1 ) {
 //            result = ( (Collection< ? >)result ).iterator().next();
@@ -221,7 +220,7 @@ public class Paragraph extends Query {
      */
     @Override
     public List<DocumentElement> visit(boolean forViewEditor, String outputDir) {
-        Debug.outln( "visit(" + forViewEditor + ", " + outputDir + ")" );
+        Debug.outln( "visit(", forViewEditor, ", ", outputDir, ")" );
         List<DocumentElement> res = new ArrayList<DocumentElement>();
         List< Reference > refs = new ArrayList< Reference >();
         if (getIgnore())
@@ -231,10 +230,10 @@ public class Paragraph extends Query {
         boolean gotStereotypeProperties = 
                 !Utils2.isNullOrEmpty( getStereotypeProperties() );
         boolean allTargetsAreProperties = false;
-        Debug.outln("gotText = " + gotText + ", " + getText());
-        Debug.outln("gotTargets = " + gotTargets + ", " + MoreToString.Helper.toLongString( getTargets()) );
-        Debug.outln("gotStereotypeProperties = " + gotStereotypeProperties + ", " + getStereotypeProperties());
-        Debug.outln("desiredAttribute = " + attribute);
+        Debug.outln("gotText = ", gotText, ", ", getText());
+        Debug.outln("gotTargets = ", gotTargets, ", ", Debug.longString( getTargets()) );
+        Debug.outln("gotStereotypeProperties = ", gotStereotypeProperties, ", ", getStereotypeProperties());
+        Debug.outln("desiredAttribute = ", attribute);
         if (gotText && !tryOcl) { // ignoring targets -- should be none -- REVIEW
             Debug.outln( "case 4" );
             // case 4: return a paragraph of the text, tied to the "body" slot
@@ -285,14 +284,14 @@ public class Paragraph extends Query {
                 Reference ref = null;
                 if ( gotStereotypeProperties ) {
                     // for cases 3, 6, and 9
-                    Debug.outln( "case 3, 6, or 9, target=" + o );
+                    Debug.outln( "case 3, 6, or 9, target=", o );
                     for (Property p: getStereotypeProperties()) {
                         ref = Reference.getPropertyReference(e, p);
                         refs.add( ref );
                     }
                 } else {
                     if ( tryOcl && gotText) {
-                        Debug.outln( "case 8, target=" + Utils.getName( o ) );
+                        Debug.outln( "case 8, target=", Utils.getName( o ) );
                         // for case 8
                         ref = new Reference( o );
                     } else {
@@ -327,7 +326,7 @@ public class Paragraph extends Query {
                 // creating paragraph for each reference
                 for ( Reference r : refs ) {
                     if ( !tryOcl ) { // gotText is false
-                        Debug.outln( "case 2 or 3, ref=" + r );
+                        Debug.outln( "case 2 or 3, ref=", r );
                         // cases 2 & 3: return a paragraph for each
                         // target-property pair (3) or for each target's
                         // documentation (2)
@@ -336,13 +335,13 @@ public class Paragraph extends Query {
 //                                                  r.getElement(), r.getFrom() ) );
                     } else {
                         if ( gotText ) {
-                            Debug.outln( "case 8 or 9, ref=" + r );
+                            Debug.outln( "case 8 or 9, ref=", r );
                             // cases 8 & 9: return a paragraph of the evaluation
                             // of the text as OCL on each target-property pair (9)
                             // or on each target (8)
                             addOclParagraph( res, getText(), r.getResult() );
                         } else {
-                            Debug.outln( "case 5 or 6, ref=" + r );
+                            Debug.outln( "case 5 or 6, ref=", r );
                             // cases 5 & 6: add a paragraph of the evaluation of
                             // the value of each target-property (6) or of each target's
                             // documentation (5) as OCL on dgElement
@@ -353,7 +352,7 @@ public class Paragraph extends Query {
             }
         } // else case 1: gotText and gotTarget are both false, so return nothing 
 
-        Debug.outln( "visit(" + forViewEditor + ", \"" + outputDir + ") returning " + res );
+        Debug.outln( "visit(", forViewEditor, ", \"", outputDir, ") returning ", res );
         return res;
     }
 
@@ -34,7 +34,6 @@ import gov.nasa.jpl.mbee.generator.DocumentValidator;
 import gov.nasa.jpl.mbee.generator.GenerationContext;
 import gov.nasa.jpl.mbee.lib.Debug;
 import gov.nasa.jpl.mbee.lib.GeneratorUtils;
-import gov.nasa.jpl.mbee.lib.MoreToString;
 import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mbee.lib.Utils2;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBColSpec;
@@ -218,6 +217,9 @@ public class TableStructure extends Table {
     }
     
     private void buildTableReferences() {
+        // the table can be visited more than once, ex. a view shared by
+        // documents exported together
+        tableContent.clear();
         for (Object e: targets) {
             List<List<Reference>> row = new ArrayList<List<Reference>>();
             List<Object> startElements = new ArrayList<Object>();
@@ -240,20 +242,19 @@ public class TableStructure extends Table {
                     if (expr != null) {
                         Object result = DocumentValidator
                                 .evaluate(expr, resultElements, getValidator(), true);
-                        OclEvaluator evaluator = OclEvaluator.instance;
-                        if (evaluator.isValid() && result != null) {
-                            Debug.outln( "valid result = " + result
-                                         + " for expression " + expr + " on "
-                                         + MoreToString.Helper.toLongString( resultElements ) );
+                        if (OclEvaluator.isLastQueryValid() && result != null) {
+                            Debug.outln( "valid result = ", result,
+                                         " for expression ", expr, " on ",
+                                         Debug.longString( resultElements ) );
                             cell.add(new Reference(result));
                         } else {
-                            Debug.outln( "invalid evaluation of expression "
-                                         + expr + " on "
-                                         + MoreToString.Helper.toLongString( resultElements ) );
+                            Debug.outln( "invalid evaluation of expression ",
+                                         expr, " on ",
+                                         Debug.longString( resultElements ) );
                         }
                     } else {
-                        Debug.outln( "attempted to evaluate null expression on "
-                                + MoreToString.Helper.toLongString( resultElements ) );
+                        Debug.outln( "attempted to evaluate null expression on ",
+                                Debug.longString( resultElements ) );
                     }
                 } else {
                     for (Element re: resultElements) {
@@ -286,21 +287,20 @@ public class TableStructure extends Table {
                             String expr = ((TableExpressionColumn)tc).expression;
                             if (expr == null) {
                                 // cell.add(new Reference(empty));
-                                Debug.outln( "attempted to evaluate null expression on "
-                                        + MoreToString.Helper.toLongString( re ) );
+                                Debug.outln( "attempted to evaluate null expression on ",
+                                        Debug.longString( re ) );
                                 continue;
                             }
                             Object result = DocumentValidator.evaluate(expr, re, getValidator(), true);
-                            OclEvaluator evaluator = OclEvaluator.instance;
-                            if (evaluator.isValid() || result != null) {
-                                Debug.outln( "valid result = " + result
-                                             + " for expression " + expr + " on "
-                                             + MoreToString.Helper.toLongString( re ) );
+                            if (OclEvaluator.isLastQueryValid() || result != null) {
+                                Debug.outln( "valid result = ", result,
+                                             " for expression ", expr, " on ",
+                                             Debug.longString( re ) );
                                 cell.add(new Reference(result));
                             } else {
-                                Debug.outln( "invalid evaluation of expression "
-                                        + expr + " on "
-                                        + MoreToString.Helper.toLongString( re ) );
+                                Debug.outln( "invalid evaluation of expression ",
+                                        expr, " on ",
+                                        Debug.longString( re ) );
    
                             }
                         }
@@ -312,7 +312,7 @@ public class TableStructure extends Table {
                 DocumentValidator.evaluateConstraints(tc.activityNode, getCellData(row, tc), context, true,
                         true);
             }
-            Debug.outln( "adding " + row.size() + " cells in row to table." );
+            Debug.outln( "adding ", row.size(), " cells in row to table." );
             tableContent.add(row);
         }
     }
@@ -3,6 +3,7 @@ package gov.nasa.jpl.mbee.viewedit;
 import gov.nasa.jpl.mbee.DocGen3Profile;
 import gov.nasa.jpl.mbee.DocGenUtils;
 import gov.nasa.jpl.mbee.ems.ExportUtility;
+import gov.nasa.jpl.mbee.lib.DiagramImageCache;
 import gov.nasa.jpl.mbee.lib.Utils;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBAbstractVisitor;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBBook;
@@ -18,16 +19,14 @@ import gov.nasa.jpl.mgss.mbee.docgen.docbook.DocumentElement;
 import gov.nasa.jpl.mgss.mbee.docgen.docbook.From;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -35,8 +34,6 @@ import org.json.simple.JSONObject;
 import com.nomagic.magicdraw.core.Application;
 import com.nomagic.magicdraw.core.GUILog;
 import com.nomagic.magicdraw.core.Project;
-import com.nomagic.magicdraw.export.image.ImageExporter;
-import com.nomagic.magicdraw.uml.symbols.DiagramPresentationElement;
 import com.nomagic.uml2.ext.jmi.helpers.ModelHelper;
 import com.nomagic.uml2.ext.jmi.helpers.StereotypesHelper;
 import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Comment;
@@ -57,6 +54,7 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
     private Stack<JSONArray>          sibviews; //sibling views
     private Stack<Set<String>>        viewElements;
     private Map<String, JSONObject>   images;        
+    private Map<String, Future<DiagramImageCache.Image>> pendingImages = new HashMap<String, Future<DiagramImageCache.Image>>();
     protected boolean                 recurse;
     private GUILog                    gl;
     private static String             FILE_EXTENSION = ".svg";
@@ -93,7 +91,22 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
     /**
      * Simple getter for images
      */
+    @SuppressWarnings("unchecked")
     public Map<String, JSONObject> getImages() {
+        // wait for images still being exported
+        for (Map.Entry<String, Future<DiagramImageCache.Image>> e: pendingImages.entrySet()) {
+            long cs = 0;
+            try {
+                cs = e.getValue().get().checksum;
+            } catch (ExecutionException ex) {
+                gl.log("Could not calculate checksum: " + ex.getCause().getMessage());
+                ex.getCause().printStackTrace();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            images.get(e.getKey()).put("cs", String.valueOf(cs));
+        }
+        pendingImages.clear();
         return images;
     }
 
@@ -101,7 +114,7 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
      * Utility to remove all the images
      */
     public void removeImages() {
-        for (String key: images.keySet()) {
+        for (String key: getImages().keySet()) {
             String filename = (String)images.get(key).get("abspath");
             try {
                 File file = new File(filename);
@@ -161,8 +174,6 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
         //}
         addToElements(image.getImage());
         // export image - also keep track of exported images
-        DiagramPresentationElement diagram = Application.getInstance().getProject()
-                .getDiagram(image.getImage());
         String svgFilename = image.getImage().getID();
 
         // create image file
@@ -171,28 +182,12 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
             directory.mkdirs();
         }
 
-        // export the image file
+        // export the image file, in the background if
+        // mdk.images.exportThreads is set, the checksum is filled in by
+        // getImages
         File svgDiagramFile = new File(directory, svgFilename);
-        try {
-            ImageExporter.export(diagram, ImageExporter.SVG, svgDiagramFile);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // calculate the checksum
-        long cs = 0;
-        try {
-            RandomAccessFile f = new RandomAccessFile(svgDiagramFile.getAbsolutePath(), "r");
-            byte[] data = new byte[(int)f.length()];
-            f.read(data);
-            f.close();
-            Checksum checksum = new CRC32();
-            checksum.update(data, 0, data.length);
-            cs = checksum.getValue();
-        } catch (IOException e) {
-            gl.log("Could not calculate checksum: " + e.getMessage());
-            e.printStackTrace();
-        }
+        pendingImages.put(svgFilename,
+                DiagramImageCache.getInstance().submit(image.getImage(), svgDiagramFile, null, true));
 
         // Lets rename the file to have the hash code
         // make sure this matches what's in the View Editor ImageResource.java
@@ -200,7 +195,6 @@ public class DBAlfrescoVisitor extends DBAbstractVisitor {
         //gl.log("Exporting diagram to: " + svgDiagramFile.getAbsolutePath());
 
         // keep record of all images found
-        imageEntry.put("cs", String.valueOf(cs));
         imageEntry.put("abspath", svgDiagramFile.getAbsolutePath());
         imageEntry.put("extension", FILE_EXTENSION);
         images.put(svgFilename, imageEntry);
@@ -148,41 +148,7 @@ public class ViewEditUtils {
     public static void setCredentials(HttpClient client, String urlstring) {
         try {
             URL url = new URL(urlstring);
-
-            if (!passwordSet) {
-                // Pop up one time dialog for logging into Alfresco
-                JPanel userPanel = new JPanel();
-                userPanel.setLayout(new GridLayout(2, 2));
-
-                JLabel usernameLbl = new JLabel("Username:");
-                JLabel passwordLbl = new JLabel("Password:");
-
-                JTextField usernameFld = new JTextField();
-                JPasswordField passwordFld = new JPasswordField();
-
-                userPanel.add(usernameLbl);
-                userPanel.add(usernameFld);
-                userPanel.add(passwordLbl);
-                userPanel.add(passwordFld);
-
-                if (username != null) {
-                    usernameFld.setText(username);
-                    usernameFld.requestFocus();
-                }
-                if (password != null) {
-                    passwordFld.setText(password);
-                }
-                makeSureUserGetsFocus(usernameFld);
-                JOptionPane.showConfirmDialog(null, userPanel,
-                        "Enter your username and password for ViewEditor:", JOptionPane.OK_CANCEL_OPTION,
-                        JOptionPane.PLAIN_MESSAGE);
-
-                username = usernameFld.getText();
-                password = new String(passwordFld.getPassword());
-                passwordSet = true;
-            }
-
-            Credentials creds = new UsernamePasswordCredentials(username, password);
+            Credentials creds = getCredentials();
             client.getState().setCredentials(
                     new AuthScope(url.getHost(), url.getPort(), AuthScope.ANY_REALM), creds);
             client.setTimeout(0);
@@ -194,6 +160,48 @@ public class ViewEditUtils {
         }
 
     }
+
+    /**
+     * Gets the ViewEditor/MMS login, popping up the login dialog if not logged
+     * in yet
+     * 
+     * @return
+     */
+    public static Credentials getCredentials() {
+        if (!passwordSet) {
+            // Pop up one time dialog for logging into Alfresco
+            JPanel userPanel = new JPanel();
+            userPanel.setLayout(new GridLayout(2, 2));
+
+            JLabel usernameLbl = new JLabel("Username:");
+            JLabel passwordLbl = new JLabel("Password:");
+
+            JTextField usernameFld = new JTextField();
+            JPasswordField passwordFld = new JPasswordField();
+
+            userPanel.add(usernameLbl);
+            userPanel.add(usernameFld);
+            userPanel.add(passwordLbl);
+            userPanel.add(passwordFld);
+
+            if (username != null) {
+                usernameFld.setText(username);
+                usernameFld.requestFocus();
+            }
+            if (password != null) {
+                passwordFld.setText(password);
+            }
+            makeSureUserGetsFocus(usernameFld);
+            JOptionPane.showConfirmDialog(null, userPanel,
+                    "Enter your username and password for ViewEditor:", JOptionPane.OK_CANCEL_OPTION,
+                    JOptionPane.PLAIN_MESSAGE);
+
+            username = usernameFld.getText();
+            password = new String(passwordFld.getPassword());
+            passwordSet = true;
+        }
+        return new UsernamePasswordCredentials(username, password);
+    }
     
     private static void makeSureUserGetsFocus(final JTextField user) {
         //from http://stackoverflow.com/questions/14096140/how-to-set-default-input-field-in-joptionpane
@@ -0,0 +1,38 @@
+package gov.nasa.jpl.mbee.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.FileRequestEntity;
+
+/**
+ * Sends a json file as the request body, for posts too big to keep as a
+ * string. If deleteAfterSend is set the file is removed once it's been
+ * written out, for temp files.
+ */
+public class JsonFileRequestEntity extends FileRequestEntity {
+    private File file;
+    private boolean deleteAfterSend;
+
+    public JsonFileRequestEntity(File file, boolean deleteAfterSend) {
+        super(file, "application/json;charset=utf-8");
+        this.file = file;
+        this.deleteAfterSend = deleteAfterSend;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return !deleteAfterSend;
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        try {
+            super.writeRequest(out);
+        } finally {
+            if (deleteAfterSend)
+                file.delete();
+        }
+    }
+}
@@ -32,156 +32,319 @@ import gov.nasa.jpl.mbee.DocGenUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.nomagic.task.ProgressStatus;
+import com.nomagic.uml2.ext.magicdraw.classes.mdkernel.Diagram;
 
 /**
  * visitor that serializes to docbook xml
- * 
+ *
+ * output is written as elements are visited, either to a given Writer or to
+ * a buffer returned by getOut. A section's opening tag is held back until
+ * something inside it is written so empty sections can still be skipped
+ * without serializing the section's content to a string first.
+ *
  * @author dlam
- * 
+ *
  */
 public class DBSerializeVisitor extends DBAbstractVisitor {
 
-    private File           dir;
-    private boolean        genImage;
-    private StringBuilder  out;
-    private Set<String>    ids;
-    private ProgressStatus ps;
+    private File            dir;
+    private boolean         genImage;
+    private Writer          out;
+    private StringWriter    buffer;
+    private IOException     error;
+    private Set<String>     ids;
+    private ProgressStatus  ps;
+    // sections whose opening tags haven't been written yet, outermost first
+    private List<DBSection> pending = new ArrayList<DBSection>();
+    // sections that have a descendant with the same id, the descendant has
+    // to claim the id first so these are serialized to a buffer
+    private Set<DBSection>  conflicts;
 
     public DBSerializeVisitor(boolean genNewImages, File dir, ProgressStatus ps) {
-        genImage = genNewImages;
-        this.dir = dir;
-        out = new StringBuilder();
-        ids = new HashSet<String>();
-        this.ps = ps;
+        this(genNewImages, dir, new HashSet<String>(), null, ps);
     }
 
     public DBSerializeVisitor(boolean genNewImages, File dir, Set<String> ids, ProgressStatus ps) {
+        this(genNewImages, dir, ids, null, ps);
+    }
+
+    /**
+     * serializes straight to out, call flush when done
+     *
+     * @param genNewImages
+     * @param dir
+     * @param out
+     * @param ps
+     */
+    public DBSerializeVisitor(boolean genNewImages, File dir, Writer out, ProgressStatus ps) {
+        this(genNewImages, dir, new HashSet<String>(), out, ps);
+    }
+
+    private DBSerializeVisitor(boolean genNewImages, File dir, Set<String> ids, Writer out, ProgressStatus ps) {
         genImage = genNewImages;
         this.dir = dir;
-        out = new StringBuilder();
+        if (out == null) {
+            buffer = new StringWriter();
+            out = buffer;
+        }
+        this.out = out;
         this.ids = ids;
         this.ps = ps;
     }
 
+    /**
+     * @return the serialized docbook, or null if this visitor writes to a
+     *         given Writer
+     */
     public String getOut() {
-        return out.toString();
+        return buffer == null ? null : buffer.toString();
+    }
+
+    /**
+     * flushes the writer
+     *
+     * @throws IOException
+     *             the first error from writing, if any
+     */
+    public void flush() throws IOException {
+        if (error != null)
+            throw error;
+        out.flush();
+    }
+
+    private void write(String s) {
+        if (s == null)
+            s = "null";
+        if (s.length() == 0 || error != null)
+            return;
+        if (!pending.isEmpty())
+            openPending();
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    // something is being written inside the pending sections, so they're not
+    // empty and their opening tags can go out
+    private void openPending() {
+        List<DBSection> open = new ArrayList<DBSection>(pending);
+        pending.clear();
+        for (DBSection section: open) {
+            if (!section.isNoSection())
+                writeOpenTag(section);
+        }
+    }
+
+    private void writeOpenTag(DBSection section) {
+        if (section.isAppendix())
+            write("<appendix");
+        else if (section.isChapter())
+            write("<chapter");
+        else
+            write("<section");
+        if (section.getId() != null && !ids.contains(section.getId())) {
+            write(" xml:id=\"");
+            write(section.getId());
+            write("\"");
+            ids.add(section.getId());
+        }
+        write(">\n<info><title>");
+        write(DocGenUtils.fixString(section.getTitle()));
+        write("</title></info>\n");
+    }
+
+    private void writeCloseTag(DBSection section) {
+        if (section.isAppendix())
+            write("</appendix>\n");
+        else if (section.isChapter())
+            write("</chapter>\n");
+        else
+            write("</section>\n");
+    }
+
+    // finds sections with id conflicts and starts exporting the images
+    private void prepare(DocumentElement root) {
+        conflicts = new HashSet<DBSection>();
+        if (root instanceof DBBook && ((DBBook)root).getCoverimage() != null)
+            prefetch(((DBBook)root).getCoverimage(), false);
+        prepare(root, new HashMap<String, List<DBSection>>());
+    }
+
+    // open is the enclosing sections by id
+    private void prepare(DocumentElement e, Map<String, List<DBSection>> open) {
+        if (e == null)
+            return;
+        String id = e.getId();
+        if (id != null && (e instanceof DBSection || e instanceof DBTable || e instanceof DBImage)
+                && open.containsKey(id))
+            conflicts.addAll(open.get(id));
+        if (e instanceof DBImage) {
+            prefetch(((DBImage)e).getImage(), genImage);
+        } else if (e instanceof DBTable) {
+            prepare(((DBTable)e).getHeaders(), open);
+            prepare(((DBTable)e).getBody(), open);
+        } else if (e instanceof DBHasContent) {
+            List<DBSection> sections = null;
+            if (id != null && e instanceof DBSection) {
+                sections = open.get(id);
+                if (sections == null) {
+                    sections = new ArrayList<DBSection>();
+                    open.put(id, sections);
+                }
+                sections.add((DBSection)e);
+            }
+            for (DocumentElement child: ((DBHasContent)e).getChildren())
+                prepare(child, open);
+            if (sections != null) {
+                sections.remove(sections.size() - 1);
+                if (sections.isEmpty())
+                    open.remove(id);
+            }
+        }
+    }
+
+    private void prepare(List<List<DocumentElement>> grid, Map<String, List<DBSection>> open) {
+        if (grid == null)
+            return;
+        for (List<DocumentElement> row: grid)
+            for (DocumentElement cell: row)
+                prepare(cell, open);
+    }
+
+    // with mdk.images.exportThreads set, exports run in the background while
+    // the content before them is written
+    private void prefetch(Diagram d, boolean genNew) {
+        if (d == null || ps != null && ps.isCancel())
+            return;
+        File imageDir = new File(dir, "images");
+        imageDir.mkdirs();
+        DocGenUtils.prefetchDiagram(d, imageDir, genNew);
     }
 
     @Override
     public void visit(DBBook book) {
-        out.append("<book xmlns=\"http://docbook.org/ns/docbook\" xmlns:xl=\"http://www.w3.org/1999/xlink\" version=\"5.0\">\n");
+        if (conflicts == null)
+            prepare(book);
+        write("<book xmlns=\"http://docbook.org/ns/docbook\" xmlns:xl=\"http://www.w3.org/1999/xlink\" version=\"5.0\">\n");
         String title = null;
         String delims = "[,]";
         String revdelims = "[|]";
-        out.append("<info>");
+        write("<info>");
         if (book.getUseDefaultStylesheet() == true) {
             if (book.getSubtitle() == null || book.getSubtitle().equals(""))
                 title = DocGenUtils.fixString(book.getTitle());
             else
                 title = DocGenUtils.fixString(book.getTitle() + ": " + book.getSubtitle());
-            out.append("<title>" + title + "</title><subtitle>Generated On: " + new Date().toString()
+            write("<title>" + title + "</title><subtitle>Generated On: " + new Date().toString()
                     + "</subtitle>");
         } else {
 
             if (book.getDocumentID() != null && !book.getDocumentID().equals("")) {
-                out.append("\n<productnumber>" + book.getDocumentID() + "</productnumber>");
+                write("\n<productnumber>" + book.getDocumentID() + "</productnumber>");
             }
             if (book.getDocumentVersion() != null && !book.getDocumentVersion().equals("")) {
-                out.append("\n<releaseinfo>" + book.getDocumentVersion() + "</releaseinfo>");
+                write("\n<releaseinfo>" + book.getDocumentVersion() + "</releaseinfo>");
             }
             if (book.getLogoLocation() != null && !book.getLogoLocation().equals("") && book.getLogoAlignment() != null && !book.getLogoAlignment().equals("")) {
                 if (book.getLogoSize() != null && !book.getLogoSize().equals("")) {
 
                     if (book.getLogoAlignment().equals("center") || book.getLogoAlignment().equals("Center")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"center\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"center\" fileref=\""
                                 + book.getLogoLocation() + "\" depth=\"" + book.getLogoSize()
                                 + "\"/></imageobject></mediaobject>");
                     } else if (book.getLogoAlignment().equals("left")
                             || book.getLogoAlignment().equals("Left")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"left\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"left\" fileref=\""
                                 + book.getLogoLocation() + "\" depth=\"" + book.getLogoSize()
                                 + "\"/></imageobject></mediaobject>");
                     } else if (book.getLogoAlignment().equals("right")
                             || book.getLogoAlignment().equals("Right")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"right\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"right\" fileref=\""
                                 + book.getLogoLocation() + "\" depth=\"" + book.getLogoSize()
                                 + "\"/></imageobject></mediaobject>");
                     }
                 } else {
                     if (book.getLogoAlignment().equals("center") || book.getLogoAlignment().equals("Center")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"center\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"center\" fileref=\""
                                 + book.getLogoLocation() + "\"/></imageobject></mediaobject>");
                     } else if (book.getLogoAlignment().equals("left")
                             || book.getLogoAlignment().equals("Left")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"left\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"left\" fileref=\""
                                 + book.getLogoLocation() + "\"/></imageobject></mediaobject>");
                     } else if (book.getLogoAlignment().equals("right")
                             || book.getLogoAlignment().equals("Right")) {
-                        out.append("\n<mediaobject><imageobject><imagedata align= \"right\" fileref=\""
+                        write("\n<mediaobject><imageobject><imagedata align= \"right\" fileref=\""
                                 + book.getLogoLocation() + "\"/></imageobject></mediaobject>");
                     }
                 }
             }
             if (book.getAbbreviatedProjectName() != null && !book.getAbbreviatedProjectName().equals("")) {
                 if (book.getDocushareLink() != null && !book.getDocushareLink().equals(""))
-                    out.append("\n<publisher><publishername>" + book.getAbbreviatedProjectName()
+                    write("\n<publisher><publishername>" + book.getAbbreviatedProjectName()
                             + "</publishername><address>" + book.getDocushareLink()
                             + "</address></publisher>");
                 else
-                    out.append("\n<publisher><publishername>" + book.getAbbreviatedProjectName()
+                    write("\n<publisher><publishername>" + book.getAbbreviatedProjectName()
                             + "</publishername></publisher>");
             }
-            out.append("\n<pubdate>" + new Date().toString() + "</pubdate>");
+            write("\n<pubdate>" + new Date().toString() + "</pubdate>");
             if (book.getJPLProjectTitle() == null || book.getJPLProjectTitle().equals("")) {
-                out.append("\n<title>" + DocGenUtils.fixString(book.getTitle()) + "</title>");
+                write("\n<title>" + DocGenUtils.fixString(book.getTitle()) + "</title>");
             } else {
-                out.append("\n<title>" + book.getJPLProjectTitle() + "</title><subtitle>"
+                write("\n<title>" + book.getJPLProjectTitle() + "</title><subtitle>"
                     + DocGenUtils.fixString(book.getTitle()) + "</subtitle>");
             }
             if (book.getAbbreviatedTitle() != null && !book.getAbbreviatedTitle().equals("")) {
-                out.append("\n<titleabbrev>" + book.getAbbreviatedTitle() + "</titleabbrev>");
+                write("\n<titleabbrev>" + book.getAbbreviatedTitle() + "</titleabbrev>");
             }
-            out.append("\n<legalnotice><title>" + book.getTitlePageLegalNotice() + "</title><para>"
+            write("\n<legalnotice><title>" + book.getTitlePageLegalNotice() + "</title><para>"
                     + book.getFooterLegalNotice() + "</para></legalnotice>");
 
             if (book.getInstTxt1() != null) {
-                out.append("\n<collab><org>\n<orgname>" + book.getInstTxt1() + "</orgname>");
+                write("\n<collab><org>\n<orgname>" + book.getInstTxt1() + "</orgname>");
 
             } else {
-                out.append("\n<collab><org>\n<orgname>Jet Propulsion Laboratory</orgname>");
+                write("\n<collab><org>\n<orgname>Jet Propulsion Laboratory</orgname>");
             }
 
             if (book.getInstTxt2() != null) {
-                out.append("\n<orgdiv>" + book.getInstTxt2() + "</orgdiv>");
+                write("\n<orgdiv>" + book.getInstTxt2() + "</orgdiv>");
 
             } else {
-                out.append("\n<orgdiv>California Institute of Technology</orgdiv>");
+                write("\n<orgdiv>California Institute of Technology</orgdiv>");
             }
 
             if (book.getInstLogo() != null) {
-                out.append("\n<uri>" + book.getInstLogo() + "</uri>");
+                write("\n<uri>" + book.getInstLogo() + "</uri>");
 
             } else {
-                out.append("\n<uri>http://sec274.jpl.nasa.gov/img/logos/jpl_logo(220x67).gif</uri>");
+                write("\n<uri>http://sec274.jpl.nasa.gov/img/logos/jpl_logo(220x67).gif</uri>");
             }
             if (book.getInstLogoSize() != null) {
-                out.append("\n<address><alt>" + book.getInstLogoSize() + "</alt></address>\n</org></collab>");
+                write("\n<address><alt>" + book.getInstLogoSize() + "</alt></address>\n</org></collab>");
 
             } else {
-                out.append("\n<address><alt>36px</alt></address>\n</org></collab>");
+                write("\n<address><alt>36px</alt></address>\n</org></collab>");
             }
 
             for (int index = 0; index < book.getAuthor().size(); index++) {
                 if (book.getAuthor().get(index) != null && !book.getAuthor().get(index).equals("")) {
                     String[] tokens = book.getAuthor().get(index).split(delims);
-                    out.append("\n<author><personname><firstname>" + tokens[0] + "</firstname><surname>"
+                    write("\n<author><personname><firstname>" + tokens[0] + "</firstname><surname>"
                             + tokens[1] + "</surname></personname><affiliation>" + "<jobtitle>" + tokens[2]
                             + "</jobtitle><org><orgname>" + tokens[3] + "</orgname><orgdiv>" + tokens[4]
                             + "</orgdiv></org></affiliation></author>");
@@ -190,7 +353,7 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
             for (int index = 0; index < book.getApprover().size(); index++) {
                 if (book.getApprover().get(index) != null && !book.getApprover().get(index).equals("")) {
                     String[] tokens = book.getApprover().get(index).split(delims);
-                    out.append("\n<editor><personname><firstname>" + tokens[0] + "</firstname><surname>"
+                    write("\n<editor><personname><firstname>" + tokens[0] + "</firstname><surname>"
                             + tokens[1] + "</surname></personname><affiliation>" + "<jobtitle>" + tokens[2]
                             + "</jobtitle><org><orgname>" + tokens[3] + "</orgname><orgdiv>" + tokens[4]
                             + "</orgdiv></org></affiliation></editor>");
@@ -200,7 +363,7 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
             for (int index = 0; index < book.getConcurrance().size(); index++) {
                 if (book.getConcurrance().get(index) != null && !book.getConcurrance().get(index).equals("")) {
                     String[] tokens = book.getConcurrance().get(index).split(delims);
-                    out.append("\n<othercredit><personname><firstname>" + tokens[0] + "</firstname><surname>"
+                    write("\n<othercredit><personname><firstname>" + tokens[0] + "</firstname><surname>"
                             + tokens[1] + "</surname></personname><affiliation>" + "<jobtitle>" + tokens[2]
                             + "</jobtitle><org><orgname>" + tokens[3] + "</orgname><orgdiv>" + tokens[4]
                             + "</orgdiv></org></affiliation></othercredit>");
@@ -210,7 +373,7 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
                 if (book.getRevisionHistory().get(index) != null
                         && !book.getRevisionHistory().get(index).equals("")) {
                     String[] tokens = book.getRevisionHistory().get(index).split(revdelims);
-                    out.append("\n<revhistory><revision><revnumber>" + tokens[0] + "</revnumber><date>"
+                    write("\n<revhistory><revision><revnumber>" + tokens[0] + "</revnumber><date>"
                             + tokens[1] + "</date><author><personname><firstname>" + tokens[2]
                             + "</firstname><surname>" + tokens[3]
                             + "</surname></personname></author><revremark>" + tokens[4]
@@ -221,7 +384,7 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
                 if (book.getCollaboratorEmail().get(index) != null
                         && !book.getCollaboratorEmail().get(index).equals("")) {
                     String[] tokens = book.getCollaboratorEmail().get(index).split(delims);
-                    out.append("\n<address><email>" + tokens[0] + "</email></address>");
+                    write("\n<address><email>" + tokens[0] + "</email></address>");
                 }
             }
         }
@@ -246,42 +409,47 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
                 ok = false;
             }
             if (ok) {
-                out.append("<cover>");
-                out.append("<mediaobject><imageobject role=\"fo\">\n");
+                write("<cover>");
+                write("<mediaobject><imageobject role=\"fo\">\n");
                 String filename = s.get(0);
                 String scale = s.get(1);
                 if (scale.equals("true"))
-                    out.append("<imagedata fileref=\"" + filename
+                    write("<imagedata fileref=\"" + filename
                             + "\" format=\"SVG\" scalefit=\"1\" width=\"100%\"/>\n");
                 else
-                    out.append("<imagedata fileref=\"" + filename + "\" format=\"SVG\"/>\n");
-                out.append("</imageobject><imageobject role=\"html\"><imagedata fileref=\""
+                    write("<imagedata fileref=\"" + filename + "\" format=\"SVG\"/>\n");
+                write("</imageobject><imageobject role=\"html\"><imagedata fileref=\""
                         + filename.replaceAll(".svg", ".png") + "\"/></imageobject>\n");
-                out.append("</mediaobject>\n");
-                out.append("</cover>");
+                write("</mediaobject>\n");
+                write("</cover>");
             }
         }
-        out.append("</info>\n");
+        write("</info>\n");
         if (book.getAcknowledgement() != null && !book.getAcknowledgement().equals(""))
-            out.append("<acknowledgement>"
+            write("<acknowledgement>"
                     + DocGenUtils.addDocbook(DocGenUtils.fixString(book.getAcknowledgement()))
                     + "</acknowledgement>\n");
         for (DocumentElement e: book.getChildren())
             e.accept(this);
         if (book.getIndex())
-            out.append("<index/>");
-        out.append("</book>");
+            write("<index/>");
+        write("</book>");
     }
 
+
     @Override
     public void visit(DBColSpec colspec) {
-        out.append("<colspec ");
-        out.append("colname=\"" + colspec.getColname() + "\" ");
-        out.append("colnum=\"" + colspec.getColnum() + "\"");
-        if (colspec.getColwidth() != null && !colspec.getColwidth().equals(""))
-            out.append(" colwidth=\"" + colspec.getColwidth() + "\"/>\n");
-        else
-            out.append("/>\n");
+        write("<colspec colname=\"");
+        write(colspec.getColname());
+        write("\" colnum=\"");
+        write(Integer.toString(colspec.getColnum()));
+        write("\"");
+        if (colspec.getColwidth() != null && !colspec.getColwidth().equals("")) {
+            write(" colwidth=\"");
+            write(colspec.getColwidth());
+            write("\"/>\n");
+        } else
+            write("/>\n");
     }
 
     @Override
@@ -299,27 +467,33 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
         }
         if (image.isDoNotShow())
             return;
-        String id = "";
+        write("<figure");
         if (image.getId() != null && !ids.contains(image.getId())) {
-            id = " xml:id=\"" + image.getId() + "\"";
+            write(" xml:id=\"");
+            write(image.getId());
+            write("\"");
             ids.add(image.getId());
         }
-        out.append("<figure" + id + " pgwide=\"1\">");
-        out.append("<title>" + DocGenUtils.fixString(image.getTitle()) + "</title>\n");
-        out.append("<mediaobject><imageobject role=\"fo\">\n");
+        write(" pgwide=\"1\"><title>");
+        write(DocGenUtils.fixString(image.getTitle()));
+        write("</title>\n<mediaobject><imageobject role=\"fo\">\n");
         String filename = s.get(0);
         String scale = s.get(1);
+        write("<imagedata fileref=\"");
+        write(filename);
         if (scale.equals("true"))
-            out.append("<imagedata fileref=\"" + filename
-                    + "\" format=\"SVG\" scalefit=\"1\" width=\"100%\"/>\n");
+            write("\" format=\"SVG\" scalefit=\"1\" width=\"100%\"/>\n");
         else
-            out.append("<imagedata fileref=\"" + filename + "\" format=\"SVG\"/>\n");
-        out.append("</imageobject><imageobject role=\"html\"><imagedata fileref=\""
-                + filename.replaceAll(".svg", ".png") + "\"/></imageobject>\n");
-        if (image.getCaption() != null && !image.getCaption().equals(""))
-            out.append("<caption>" + DocGenUtils.addDocbook(DocGenUtils.fixString(image.getCaption()))
-                    + "</caption>\n");
-        out.append("</mediaobject></figure>\n");
+            write("\" format=\"SVG\"/>\n");
+        write("</imageobject><imageobject role=\"html\"><imagedata fileref=\"");
+        write(filename.replaceAll(".svg", ".png"));
+        write("\"/></imageobject>\n");
+        if (image.getCaption() != null && !image.getCaption().equals("")) {
+            write("<caption>");
+            write(DocGenUtils.addDocbook(DocGenUtils.fixString(image.getCaption())));
+            write("</caption>\n");
+        }
+        write("</mediaobject></figure>\n");
 
     }
 
@@ -328,45 +502,47 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
         if (list.getChildren().isEmpty())
             return;
         if (list.isOrdered())
-            out.append("<orderedlist spacing=\"compact\">\n");
+            write("<orderedlist spacing=\"compact\">\n");
         else
-            out.append("<itemizedlist spacing=\"compact\">\n");
+            write("<itemizedlist spacing=\"compact\">\n");
         for (DocumentElement e: list.getChildren()) {
             if (!(e instanceof DBListItem)) {
-                out.append("<listitem>\n");
+                write("<listitem>\n");
                 e.accept(this);
-                out.append("</listitem>\n");
+                write("</listitem>\n");
             } else {
                 e.accept(this);
             }
         }
         if (list.isOrdered())
-            out.append("</orderedlist>\n");
+            write("</orderedlist>\n");
         else
-            out.append("</itemizedlist>\n");
+            write("</itemizedlist>\n");
 
     }
 
     @Override
     public void visit(DBListItem listitem) {
-        out.append("<listitem>\n");
+        write("<listitem>\n");
         for (DocumentElement de: listitem.getChildren()) {
             de.accept(this);
         }
-        out.append("</listitem>\n");
+        write("</listitem>\n");
 
     }
 
     @Override
     public void visit(DBParagraph para) {
         if (para.getText() == null)
-            out.append("<para></para>\n");
+            write("<para></para>\n");
         else {
             if (para.getText() instanceof Collection) {
                 for (Object p: (Collection)para.getText())
-                    out.append(DocGenUtils.addDocbook(DocGenUtils.fixString(p)));
-            } else
-                out.append(DocGenUtils.addDocbook(DocGenUtils.fixString(para.getText())) + "\n");
+                    write(DocGenUtils.addDocbook(DocGenUtils.fixString(p)));
+            } else {
+                write(DocGenUtils.addDocbook(DocGenUtils.fixString(para.getText())));
+                write("\n");
+            }
         }
 
     }
@@ -374,12 +550,37 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
     @Override
     public void visit(DBText text) {
         if (text.getText() != null)
-            out.append(DocGenUtils.fixString(text.getText()));
+            write(DocGenUtils.fixString(text.getText()));
     }
 
     @Override
     public void visit(DBSection section) {
+        if (conflicts == null)
+            prepare(section);
+        if (conflicts.contains(section)) {
+            visitBuffered(section);
+            return;
+        }
+        pending.add(section);
+        for (DocumentElement de: section.getChildren()) {
+            de.accept(this);
+        }
+        if (!pending.isEmpty() && pending.get(pending.size() - 1) == section) {
+            // nothing was written inside
+            if (section.isSkipIfEmpty()) {
+                pending.remove(pending.size() - 1);
+                return;
+            }
+            write("<para>" + section.getStringIfEmpty() + "</para>\n");
+        }
+        if (!section.isNoSection())
+            writeCloseTag(section);
+    }
+
+    // serializes the section's content before claiming the section's id
+    private void visitBuffered(DBSection section) {
         DBSerializeVisitor inside = new DBSerializeVisitor(genImage, dir, ids, ps);
+        inside.conflicts = conflicts;
         for (DocumentElement de: section.getChildren()) {
             de.accept(inside);
         }
@@ -390,28 +591,11 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
             inString = "<para>" + section.getStringIfEmpty() + "</para>\n";
         }
         if (!section.isNoSection()) {
-            String id = "";
-            if (section.getId() != null && !ids.contains(section.getId())) {
-                id = " xml:id=\"" + section.getId() + "\"";
-                ids.add(section.getId());
-            }
-            if (section.isAppendix()) {
-                out.append("<appendix" + id + ">\n");
-            } else if (section.isChapter()) {
-                out.append("<chapter" + id + ">\n");
-            } else {
-                out.append("<section" + id + ">\n");
-            }
-            out.append("<info><title>" + DocGenUtils.fixString(section.getTitle()) + "</title></info>\n");
-            out.append(inString);
-            if (section.isAppendix())
-                out.append("</appendix>\n");
-            else if (section.isChapter())
-                out.append("</chapter>\n");
-            else
-                out.append("</section>\n");
+            writeOpenTag(section);
+            write(inString);
+            writeCloseTag(section);
         } else {
-            out.append(inString);
+            write(inString);
         }
     }
 
@@ -419,11 +603,13 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
     public void visit(DBSimpleList simplelist) {
         if (simplelist.getContent().isEmpty())
             return;
-        out.append("<simplelist>\n");
+        write("<simplelist>\n");
         for (Object s: simplelist.getContent()) {
-            out.append("<member>" + DocGenUtils.fixString(s) + "</member>\n");
+            write("<member>");
+            write(DocGenUtils.fixString(s));
+            write("</member>\n");
         }
-        out.append("</simplelist>\n");
+        write("</simplelist>\n");
     }
 
     @Override
@@ -439,73 +625,84 @@ public class DBSerializeVisitor extends DBAbstractVisitor {
                     cols = row.size();
             }
         }
-        String id = "";
+        write("<table frame=\"all\" pgwide=\"1\" role=\"longtable\"");
         if (table.getId() != null && !ids.contains(table.getId())) {
-            id = " xml:id=\"" + table.getId() + "\"";
+            write(" xml:id=\"");
+            write(table.getId());
+            write("\"");
             ids.add(table.getId());
         }
-        String style = "";
-        if (table.getStyle() != null && !table.getStyle().equals(""))
-            style = " tabstyle=\"" + table.getStyle() + "\"";
-        out.append("<table frame=\"all\" pgwide=\"1\" role=\"longtable\"" + id + style + ">\n");
-        // out.append("<informaltable frame=\"all\" pgwide=\"1\" role=\"longtable\""
-        // + id + style + ">\n");
-        out.append("<title>" + DocGenUtils.fixString(table.getTitle()) + "</title>\n"); // don't
-                                                                                        // have
-                                                                                        // this
-                                                                                        // for
-                                                                                        // informaltable
-        out.append("<tgroup cols=\"" + cols + "\" align=\"left\" colsep=\"1\" rowsep=\"1\">\n");
+        if (table.getStyle() != null && !table.getStyle().equals("")) {
+            write(" tabstyle=\"");
+            write(table.getStyle());
+            write("\"");
+        }
+        write(">\n<title>"); // informaltable doesn't have the title
+        write(DocGenUtils.fixString(table.getTitle()));
+        write("</title>\n<tgroup cols=\"");
+        write(Integer.toString(cols));
+        write("\" align=\"left\" colsep=\"1\" rowsep=\"1\">\n");
         if (table.getColspecs() != null)
             for (DBColSpec colspec: table.getColspecs())
                 colspec.accept(this);
         if (table.getHeaders() != null) {
-            out.append("<thead>\n");
+            write("<thead>\n");
             getTableRows(table.getHeaders());
-            out.append("</thead>\n");
+            write("</thead>\n");
         }
-        out.append("<tbody>\n");
+        write("<tbody>\n");
         getTableRows(table.getBody());
-        out.append("</tbody>\n");
-        out.append("</tgroup>\n");
-        if (table.getCaption() != null && !table.getCaption().equals(""))
-            out.append("<caption>" + DocGenUtils.addDocbook(DocGenUtils.fixString(table.getCaption()))
-                    + "</caption>\n");
-        out.append("</table>\n");
+        write("</tbody>\n");
+        write("</tgroup>\n");
+        if (table.getCaption() != null && !table.getCaption().equals("")) {
+            write("<caption>");
+            write(DocGenUtils.addDocbook(DocGenUtils.fixString(table.getCaption())));
+            write("</caption>\n");
+        }
+        write("</table>\n");
 
     }
 
     private void getTableRows(List<List<DocumentElement>> grid) {
         for (List<DocumentElement> row: grid) {
-            out.append("<row>");
+            write("<row>");
             for (DocumentElement cell: row) {
                 if (cell instanceof DBTableEntry)
                     cell.accept(this);
                 else if (cell == null)
                     continue;
                 else {
-                    out.append("<entry>");
+                    write("<entry>");
                     cell.accept(this);
-                    out.append("</entry>");
+                    write("</entry>");
                 }
             }
-            out.append("</row>\n");
+            write("</row>\n");
         }
     }
 
     @Override
     public void visit(DBTableEntry tableentry) {
-        out.append("<entry");
-        if (tableentry.getMorerows() > 0)
-            out.append(" morerows=\"" + tableentry.getMorerows() + "\"");
-        if (tableentry.getNamest() != null && !tableentry.getNamest().equals(""))
-            out.append(" namest=\"" + tableentry.getNamest() + "\"");
-        if (tableentry.getNameend() != null && !tableentry.getNameend().equals(""))
-            out.append(" nameend=\"" + tableentry.getNameend() + "\"");
-        out.append(">");
+        write("<entry");
+        if (tableentry.getMorerows() > 0) {
+            write(" morerows=\"");
+            write(Integer.toString(tableentry.getMorerows()));
+            write("\"");
+        }
+        if (tableentry.getNamest() != null && !tableentry.getNamest().equals("")) {
+            write(" namest=\"");
+            write(tableentry.getNamest());
+            write("\"");
+        }
+        if (tableentry.getNameend() != null && !tableentry.getNameend().equals("")) {
+            write(" nameend=\"");
+            write(tableentry.getNameend());
+            write("\"");
+        }
+        write(">");
         for (DocumentElement de: tableentry.getChildren())
             de.accept(this);
-        out.append("</entry>");
+        write("</entry>");
 
     }
 }
@@ -334,7 +334,7 @@ public class ConstraintValidationRule extends ValidationRule implements ElementV
     public static void logResults(Boolean satisfied, gov.nasa.jpl.mbee.constraint.Constraint constraint) {
         if (satisfied == null) {
             String errorMsg = "";
-            OclEvaluator e = OclEvaluator.instance;
+            OclEvaluator e = OclEvaluator.getInstance();
             if (e != null)
                 errorMsg = e.errorMessage;
             MdDebug.logForce("  Not OCL parsable: " + constraint + "; " + errorMsg);
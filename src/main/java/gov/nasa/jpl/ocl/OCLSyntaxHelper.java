@@ -311,7 +311,7 @@ public class OCLSyntaxHelper<PK, C, O, P, EL, PM, S, COA, SSA, CT, CLS, E> exten
 
         protected ASTVisitor(String text, int position, ConstraintKind constraintType) {
             super(text, position, constraintType);
-            Debug.outln("constructed ASTVisitor(" + text + ", " + position + ", " + constraintType + ")");
+            Debug.outln("constructed ASTVisitor(", text, ", ", position, ", ", constraintType, ")");
         }
 
         public String visit(String m) {
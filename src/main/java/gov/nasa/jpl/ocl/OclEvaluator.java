@@ -46,8 +46,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -133,7 +135,18 @@ import com.nomagic.uml2.ext.magicdraw.mdprofiles.Stereotype;
  * 
  */
 public class OclEvaluator {
-    public static OclEvaluator instance = null;
+    /**
+     * evaluator of the last query evaluated on any thread, use getInstance()
+     * for the one from the current thread
+     */
+    public static volatile OclEvaluator instance = null;
+    private static final ThreadLocal<OclEvaluator> current = new ThreadLocal<OclEvaluator>();
+    /**
+     * status of the last query evaluated on this thread, kept apart from the
+     * evaluator since a cached evaluator can be picked up by another thread
+     * as soon as it's back in the cache
+     */
+    private static final ThreadLocal<QueryStatus> lastStatus = new ThreadLocal<QueryStatus>();
 
     public enum QueryStatus {
         PARSE_EXCEPTION, VALID_OCL, INVALID_OCL, NO_QUERY
@@ -147,6 +160,7 @@ public class OclEvaluator {
     private ProblemHandler                                                        problemHandler     = null;
     protected DgEnvironmentFactory                                                environmentFactory = new DgEnvironmentFactory();
     public String                                                                 errorMessage       = "";
+    private OCLExpression<EClassifier>                                            lastQuery          = null;
 
     // public static Set< DgOperationInstance > opsCache = null;
     // public static boolean useCachedOps = true;
@@ -294,25 +308,25 @@ public class OclEvaluator {
             queryStatus = QueryStatus.PARSE_EXCEPTION;
             if (verbose) {
                 e.printStackTrace();
-                Debug.outln("my diag = " + getBasicDiagnostic());
+                Debug.outln("my diag = ", getBasicDiagnostic());
                 Object analyzer = getBasicDiagnostic().getData().get(0);
-                Debug.outln("analyzer = " + analyzer);
-                Debug.outln("ProblemHandler = " + getProblemHandler());
+                Debug.outln("analyzer = ", analyzer);
+                Debug.outln("ProblemHandler = ", getProblemHandler());
                 if (getProblemHandler() != null) {
                     int offset = getProblemHandler().getErrorReportLineOffset();
-                    Debug.outln("getErrorReportLineOffset() = " + offset);
+                    Debug.outln("getErrorReportLineOffset() = ", offset);
                     this.errorMessage = Utils2.toString(ProblemHandler.ERROR_MESSAGES);
-                    Debug.outln("Error messages = " + errorMessage);
+                    Debug.outln("Error messages = ", errorMessage);
                     AbstractParser parser = getProblemHandler().getParser();
-                    Debug.outln("parser = " + parser);
+                    Debug.outln("parser = ", parser);
                     if (parser != null) {
                         ParseTable pt = parser.getParseTable();
-                        Debug.outln("ParseTable = " + pt);
+                        Debug.outln("ParseTable = ", pt);
                         AbstractLexer lexer = parser.getLexer();
-                        Debug.outln("lexer = " + lexer);
+                        Debug.outln("lexer = ", lexer);
                         if (lexer != null) {
                             pt = lexer.getParseTable();
-                            Debug.outln("lexer ParseTable = " + pt);
+                            Debug.outln("lexer ParseTable = ", pt);
                         }
                     }
                 }
@@ -324,6 +338,7 @@ public class OclEvaluator {
         }
 
         if (query != null) {
+            lastQuery = query;
             result = getOcl().evaluate(context, query);
             if (getOcl().isInvalid(result)) {
                 queryStatus = QueryStatus.INVALID_OCL;
@@ -347,40 +362,120 @@ public class OclEvaluator {
      */
     public static Object evaluateQuery(Object context, String queryString, boolean verbose)
             throws ParserException {
-        OclEvaluator ev = new OclEvaluator();
-        instance = ev;
-        // if ( needEnvironmentSetup() ) {
-        resetEnvironment(false);
-        ev.setupEnvironment();
-        // }
-        if (queryString == null)
+        if (queryString == null) {
+            OclEvaluator ev = new OclEvaluator();
+            setInstance(ev);
+            resetEnvironment(false);
+            ev.setupEnvironment();
+            lastStatus.set(QueryStatus.NO_QUERY);
             return null;
-
-        // create the ocl evaluator
-        // boolean wasOn = Debug.isOn(); Debug.turnOn(); verbose = true;
-        ev.setOclTracingEnabled(verbose);
-        ev.queryStatus = QueryStatus.VALID_OCL;
-
+        }
+        EClassifier contextType = null;
         if (context instanceof EObject) {
-            ev.getHelper().setContext(context == null ? null : ((EObject)context).eClass());
+            contextType = ((EObject)context).eClass();
         } else if (context instanceof Collection) {
-            ev.getHelper().setContext(
-                    context == null ? null : OCLStandardLibraryImpl.INSTANCE.getCollection());
+            contextType = OCLStandardLibraryImpl.INSTANCE.getCollection();
+        }
+        CacheKey key = new CacheKey(queryString, contextType);
+        CachedQuery cached;
+        // taken out while it's evaluated so a nested evaluation of the same
+        // query (ex. through eval()) parses its own copy
+        synchronized (queryCache) {
+            cached = queryCache.remove(key);
+            if (cached != null)
+                cacheHits++;
+            else
+                cacheMisses++;
         }
 
         Object result = null;
+        if (cached != null) {
+            OclEvaluator ev = cached.evaluator;
+            setInstance(ev);
+            ev.setOclTracingEnabled(verbose);
+            ev.queryStatus = QueryStatus.VALID_OCL;
+            ev.basicDiagnostic = null;
+            ev.problemHandler = null;
+            result = ev.getOcl().evaluate(context, cached.query);
+            if (ev.getOcl().isInvalid(result)) {
+                ev.queryStatus = QueryStatus.INVALID_OCL;
+            }
+            lastStatus.set(ev.queryStatus);
+            putCachedQuery(key, cached);
+        } else {
+            OclEvaluator ev = new OclEvaluator();
+            setInstance(ev);
+            // if ( needEnvironmentSetup() ) {
+            resetEnvironment(false);
+            ev.setupEnvironment();
+            // }
+
+            // create the ocl evaluator
+            // boolean wasOn = Debug.isOn(); Debug.turnOn(); verbose = true;
+            ev.setOclTracingEnabled(verbose);
+            ev.queryStatus = QueryStatus.VALID_OCL;
+
+            if (contextType != null) {
+                ev.getHelper().setContext(contextType);
+            }
 
-        ev.basicDiagnostic = null;
-        ev.problemHandler = null;
+            ev.basicDiagnostic = null;
+            ev.problemHandler = null;
 
-        result = ev.evaluateQueryNoSetup(context, queryString, verbose);
+            try {
+                result = ev.evaluateQueryNoSetup(context, queryString, verbose);
+            } finally {
+                lastStatus.set(ev.queryStatus);
+            }
+            if (ev.lastQuery != null)
+                putCachedQuery(key, new CachedQuery(ev, ev.lastQuery));
+        }
 
-        Debug.outln("evaluateQuery(context=" + DocGenUtils.fixString(context) + ", queryString="
-                + queryString + ", verbose=" + verbose + ") = " + DocGenUtils.fixString(result));
+        if (Debug.isOn())
+            Debug.outln("evaluateQuery(context=" + DocGenUtils.fixString(context) + ", queryString="
+                    + queryString + ", verbose=" + verbose + ") = " + DocGenUtils.fixString(result));
         // if ( !wasOn ) Debug.turnOff();
         return result;
     }
 
+    private static void setInstance(OclEvaluator ev) {
+        instance = ev;
+        current.set(ev);
+    }
+
+    /**
+     * @return the evaluator used for the last query evaluated on this thread
+     */
+    public static OclEvaluator getInstance() {
+        OclEvaluator ev = current.get();
+        return ev == null ? instance : ev;
+    }
+
+    /**
+     * Status of the last query evaluated on this thread. Use this rather than
+     * getInstance().getQueryStatus(), the evaluator may be shared.
+     * 
+     * @return
+     */
+    public static QueryStatus getLastQueryStatus() {
+        QueryStatus status = lastStatus.get();
+        return status == null ? QueryStatus.NO_QUERY : status;
+    }
+
+    /**
+     * @return true if the last query evaluated on this thread was valid
+     */
+    public static boolean isLastQueryValid() {
+        return getLastQueryStatus() == QueryStatus.VALID_OCL;
+    }
+
+    private static void putCachedQuery(CacheKey key, CachedQuery cached) {
+        synchronized (queryCache) {
+            if (cached.generation == cacheGeneration)
+                queryCache.put(key, cached);
+        }
+    }
+
     public boolean needEnvironmentSetup() {
         if (environmentFactory == null || environmentFactory.getDgEnvironment() == null || ocl == null
                 || helper == null) {
@@ -936,6 +1031,8 @@ public class OclEvaluator {
         if (resetOpsCache) {
             // opsCache = null;
             expressions = null;
+            // cached queries were parsed with the old expression operations
+            clearQueryCache();
         }
         // ocl = null;
         // helper = null;
@@ -948,6 +1045,81 @@ public class OclEvaluator {
     protected static int cacheHits   = 0;
     protected static int cacheMisses = 0;
 
+    /**
+     * Parsed queries with the evaluator whose environment they were parsed in,
+     * keyed by query text and context type, least recently used dropped past
+     * mdk.ocl.cacheSize (default 256)
+     */
+    private static final int                          cacheSize       = Utils.getIntProperty("mdk.ocl.cacheSize", 256, 0);
+    private static final Map<CacheKey, CachedQuery>   queryCache      = new LinkedHashMap<CacheKey, CachedQuery>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedQuery> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private static int                                cacheGeneration = 0;
+
+    private static class CacheKey {
+        final String      query;
+        final EClassifier contextType;
+
+        CacheKey(String query, EClassifier contextType) {
+            this.query = query;
+            this.contextType = contextType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey))
+                return false;
+            CacheKey k = (CacheKey)o;
+            return query.equals(k.query) && contextType == k.contextType;
+        }
+
+        @Override
+        public int hashCode() {
+            return query.hashCode() * 31 + System.identityHashCode(contextType);
+        }
+    }
+
+    private static class CachedQuery {
+        final OclEvaluator               evaluator;
+        final OCLExpression<EClassifier> query;
+        final int                        generation;
+
+        CachedQuery(OclEvaluator evaluator, OCLExpression<EClassifier> query) {
+            this.evaluator = evaluator;
+            this.query = query;
+            synchronized (queryCache) {
+                this.generation = cacheGeneration;
+            }
+        }
+    }
+
+    public static void clearQueryCache() {
+        synchronized (queryCache) {
+            queryCache.clear();
+            cacheGeneration++;
+        }
+    }
+
+    public static int getCacheHits() {
+        return cacheHits;
+    }
+
+    public static int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public static void resetCacheCounters() {
+        synchronized (queryCache) {
+            cacheHits = 0;
+            cacheMisses = 0;
+        }
+    }
+
     protected DgEnvironmentFactory setupEnvironment() {
         // set up the customized environment
         // create custom environment factory
@@ -1040,7 +1212,7 @@ public class OclEvaluator {
                 case PROPERTY:
                 case ENUMERATION_LITERAL:
                 case VARIABLE:
-                    Debug.outln(next.getName() + " : " + next.getDescription());
+                    Debug.outln(next.getName(), " : ", next.getDescription());
                     // choiceList.add( next.getName() );
                     break;
                 default:
@@ -1051,7 +1223,7 @@ public class OclEvaluator {
         }
 //        if (!wasOn)
 //            Debug.turnOff();
-        Debug.outln("choices = " + choiceList.toString());
+        Debug.outln("choices = ", choiceList);
         return choiceList;
     }
 
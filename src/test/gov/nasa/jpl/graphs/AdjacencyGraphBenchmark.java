@@ -0,0 +1,97 @@
+package gov.nasa.jpl.graphs;
+
+import gov.nasa.jpl.graphs.algorithms.TopologicalSort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Builds the owner graph ImportUtility.getCreationOrder makes for a batch of
+ * new elements with DirectedGraphHashSet and DirectedGraphAdjacencyMap, then
+ * times the topological sort, a children query per vertex and removing a
+ * tenth of the vertices.
+ *
+ * usage: AdjacencyGraphBenchmark [elements]
+ */
+public class AdjacencyGraphBenchmark {
+
+    private interface Factory {
+        DirectedGraph<JSONObject, DirectedEdgeVector<JSONObject>> create();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Random r = new Random(0);
+        List<JSONObject> elements = new ArrayList<JSONObject>();
+        for (int i = 0; i < n; i++) {
+            JSONObject ob = new JSONObject();
+            ob.put("sysmlid", "_17_0_2_3_" + i);
+            ob.put("owner", i == 0 ? "project" : "_17_0_2_3_" + r.nextInt(i));
+            ob.put("name", "Element " + i);
+            ob.put("documentation", "documentation of element " + i);
+            elements.add(ob);
+        }
+        Factory hashSet = new Factory() {
+            @Override
+            public DirectedGraph<JSONObject, DirectedEdgeVector<JSONObject>> create() {
+                return new DirectedGraphHashSet<JSONObject, DirectedEdgeVector<JSONObject>>();
+            }
+
+            @Override
+            public String toString() {
+                return "DirectedGraphHashSet";
+            }
+        };
+        Factory adjacency = new Factory() {
+            @Override
+            public DirectedGraph<JSONObject, DirectedEdgeVector<JSONObject>> create() {
+                return new DirectedGraphAdjacencyMap<JSONObject, DirectedEdgeVector<JSONObject>>();
+            }
+
+            @Override
+            public String toString() {
+                return "DirectedGraphAdjacencyMap";
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            run(hashSet, elements);
+            run(adjacency, elements);
+        }
+    }
+
+    private static void run(Factory factory, List<JSONObject> elements) {
+        System.gc();
+        long start = System.nanoTime();
+        DirectedGraph<JSONObject, DirectedEdgeVector<JSONObject>> graph = factory.create();
+        List<JSONObject> byIndex = new ArrayList<JSONObject>(elements.size());
+        for (JSONObject ob: elements) {
+            graph.addVertex(ob);
+            byIndex.add(ob);
+        }
+        for (int i = 1; i < elements.size(); i++) {
+            String owner = (String)elements.get(i).get("owner");
+            graph.addEdge(elements.get(i), byIndex.get(Integer.parseInt(owner.substring(owner.lastIndexOf('_') + 1))));
+        }
+        long built = System.nanoTime();
+        int sorted = new TopologicalSort().topological_sort(graph).size();
+        long sort = System.nanoTime();
+        long children = 0;
+        for (JSONObject ob: elements)
+            children += graph.findChildrenOf(ob).size();
+        long query = System.nanoTime();
+        for (int i = 0; i < elements.size(); i += 10)
+            graph.removeVertex(elements.get(i));
+        long remove = System.nanoTime();
+        System.out.println(factory + ": build " + ms(start, built) + " ms, topological sort " + ms(built, sort)
+                + " ms, children " + ms(sort, query) + " ms, remove " + ms(query, remove) + " ms (" + sorted
+                + " sorted, " + children + " children)");
+    }
+
+    private static long ms(long from, long to) {
+        return (to - from) / 1000000;
+    }
+}
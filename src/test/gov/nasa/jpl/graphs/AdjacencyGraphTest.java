@@ -0,0 +1,129 @@
+package gov.nasa.jpl.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.jpl.graphs.algorithms.TopologicalSort;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Runs the same random changes on the adjacency map graphs and the hash set
+ * graphs and checks they have the same vertices, edges and children.
+ */
+public class AdjacencyGraphTest {
+
+    @Test
+    public void testDirectedAgainstHashSet() {
+        Random r = new Random(0);
+        DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>> expected = new DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>>();
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> actual = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 0; i < 20000; i++) {
+            Integer u = r.nextInt(60);
+            Integer v = r.nextInt(60);
+            switch (r.nextInt(10)) {
+            case 0:
+                assertEquals(expected.addVertex(u), actual.addVertex(u));
+                break;
+            case 1:
+                assertEquals(expected.removeVertex(u), actual.removeVertex(u));
+                break;
+            case 2:
+            case 3:
+                DirectedEdgeVector<Integer> e = new DirectedEdgeVector<Integer>(u, v);
+                assertEquals(expected.removeEdge(e), actual.removeEdge(e));
+                break;
+            default:
+                assertEquals(expected.addEdge(u, v), actual.addEdge(u, v));
+            }
+            if (i % 100 == 0)
+                check(expected, actual);
+        }
+        check(expected, actual);
+        actual.clear();
+        assertTrue(actual.getVertices().isEmpty());
+        assertTrue(actual.getEdges().isEmpty());
+    }
+
+    private static void check(DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>> expected,
+            DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> actual) {
+        assertEquals(expected.getVertices(), new HashSet<Integer>(actual.getVertices()));
+        assertEquals(expected.getEdges(), new HashSet<DirectedEdgeVector<Integer>>(actual.getEdges()));
+        assertEquals(expected.getEdges().size(), actual.getEdges().size());
+        // DirectedGraphHashSet.removeVertex leaves removed edges in the other
+        // vertices' sets, so go by its edge set
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        Map<Integer, Set<Integer>> parents = new HashMap<Integer, Set<Integer>>();
+        for (Integer v: expected.getVertices()) {
+            children.put(v, new HashSet<Integer>());
+            parents.put(v, new HashSet<Integer>());
+        }
+        for (DirectedEdgeVector<Integer> e: expected.getEdges()) {
+            children.get(e.getSourceVertex()).add(e.getTargetVertex());
+            parents.get(e.getTargetVertex()).add(e.getSourceVertex());
+        }
+        for (Integer v: expected.getVertices()) {
+            assertEquals(children.get(v), actual.findChildrenOf(v));
+            assertEquals(children.get(v), actual.findNeighborsOf(v));
+            assertEquals(parents.get(v), actual.findParentsOf(v));
+            assertEquals(children.get(v).size(), actual.findEdgesWithSourceVertex(v).size());
+            assertEquals(parents.get(v).size(), actual.findEdgesWithTargetVertex(v).size());
+            for (DirectedEdgeVector<Integer> e: actual.findEdgesOf(v))
+                assertTrue(expected.getEdges().contains(e));
+        }
+    }
+
+    @Test
+    public void testUndirected() {
+        UndirectedGraphAdjacencyMap<Integer, UndirectedEdgeVector<Integer>> g = new UndirectedGraphAdjacencyMap<Integer, UndirectedEdgeVector<Integer>>();
+        assertTrue(g.addEdge(1, 2));
+        assertFalse(g.addEdge(2, 1));
+        assertTrue(g.addEdge(2, 3));
+        assertTrue(g.addEdge(3, 3));
+        assertEquals(3, g.getEdges().size());
+        assertEquals(3, new HashSet<UndirectedEdgeVector<Integer>>(g.getEdges()).size());
+        assertEquals(set(1, 3), g.findNeighborsOf(2));
+        assertEquals(set(2), g.findNeighborsOf(3));
+        assertEquals(2, g.findEdgesOf(3).size());
+        assertTrue(g.removeVertex(3));
+        assertEquals(1, g.getEdges().size());
+        assertEquals(set(1), g.findNeighborsOf(2));
+        assertTrue(g.removeEdge(new UndirectedEdgeVector<Integer>(1, 2)));
+        assertTrue(g.getEdges().isEmpty());
+        assertEquals(set(1, 2), new HashSet<Integer>(g.getVertices()));
+    }
+
+    @Test
+    public void testTopologicalSort() {
+        Random r = new Random(1);
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            g.addVertex(i);
+            if (i > 0)
+                g.addEdge(i, r.nextInt(i));
+        }
+        List<Integer> order = new ArrayList<Integer>(new TopologicalSort().topological_sort(g));
+        assertEquals(2000, order.size());
+        Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+        for (int i = 0; i < order.size(); i++)
+            index.put(order.get(i), i);
+        // ascending finish times, so edge targets come first
+        for (DirectedEdgeVector<Integer> e: g.getEdges())
+            assertTrue(index.get(e.getTargetVertex()) < index.get(e.getSourceVertex()));
+    }
+
+    private static Set<Integer> set(Integer... vertices) {
+        Set<Integer> s = new HashSet<Integer>();
+        for (Integer v: vertices)
+            s.add(v);
+        return s;
+    }
+}
@@ -0,0 +1,105 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.jpl.graphs.DirectedEdgeVector;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.alg.StrongConnectivityInspector;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.junit.Test;
+
+public class StronglyConnectedComponentsTest {
+
+    private static DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> random(Random r, int n, int m) {
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 0; i < n; i++)
+            g.addVertex(i);
+        for (int i = 0; i < m; i++)
+            g.addEdge(r.nextInt(n), r.nextInt(n));
+        return g;
+    }
+
+    // what DocumentValidator used before
+    private static Set<Set<Integer>> jgrapht(DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g) {
+        DefaultDirectedGraph<Integer, DefaultEdge> jg = new DefaultDirectedGraph<Integer, DefaultEdge>(
+                DefaultEdge.class);
+        for (Integer v: g.getVertices())
+            jg.addVertex(v);
+        for (DirectedEdgeVector<Integer> e: g.getEdges())
+            jg.addEdge(e.getSourceVertex(), e.getTargetVertex());
+        return new HashSet<Set<Integer>>(new StrongConnectivityInspector<Integer, DefaultEdge>(jg)
+                .stronglyConnectedSets());
+    }
+
+    @Test
+    public void testRandomAgainstJgrapht() {
+        Random r = new Random(0);
+        StronglyConnectedComponents scc = new StronglyConnectedComponents();
+        for (int t = 0; t < 500; t++) {
+            int n = 1 + r.nextInt(40);
+            DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = random(r, n, r.nextInt(3 * n));
+            List<Set<Integer>> components = scc.components(g);
+            assertEquals(jgrapht(g), new HashSet<Set<Integer>>(components));
+            // reverse topological, edges only go to the same or an earlier
+            // component
+            Map<Integer, Integer> component = new HashMap<Integer, Integer>();
+            for (int i = 0; i < components.size(); i++) {
+                for (Integer v: components.get(i))
+                    component.put(v, i);
+            }
+            for (DirectedEdgeVector<Integer> e: g.getEdges())
+                assertTrue(component.get(e.getTargetVertex()) <= component.get(e.getSourceVertex()));
+        }
+    }
+
+    @Test
+    public void testCyclesAndRoots() {
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        g.addEdge(1, 2);
+        g.addEdge(2, 3);
+        g.addEdge(3, 1);
+        g.addEdge(3, 4);
+        g.addEdge(4, 4);
+        g.addEdge(5, 6);
+        g.addEdge(6, 5);
+        g.addEdge(6, 1);
+        StronglyConnectedComponents scc = new StronglyConnectedComponents();
+        Set<Set<Integer>> cycles = new HashSet<Set<Integer>>(scc.cycles(g));
+        Set<Set<Integer>> expected = new HashSet<Set<Integer>>();
+        expected.add(new HashSet<Integer>(Arrays.asList(1, 2, 3)));
+        expected.add(new HashSet<Integer>(Arrays.asList(5, 6)));
+        assertEquals(expected, cycles);
+
+        List<Set<Integer>> fromTwo = scc.components(g, Collections.singleton(2));
+        assertEquals(2, fromTwo.size());
+        assertEquals(Collections.singleton(4), fromTwo.get(0));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), fromTwo.get(1));
+        assertEquals(0, scc.components(g, Collections.singleton(7)).size());
+    }
+
+    @Test
+    public void testLongCycle() {
+        int n = 1000000;
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 0; i < n; i++)
+            g.addEdge(i, (i + 1) % n);
+        g.addEdge(n / 2, n);
+        List<Set<Integer>> components = new StronglyConnectedComponents().components(g,
+                new ArrayList<Integer>(Collections.singleton(0)));
+        assertEquals(2, components.size());
+        assertEquals(Collections.singleton(n), components.get(0));
+        assertEquals(n, components.get(1).size());
+    }
+}
@@ -0,0 +1,44 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import gov.nasa.jpl.graphs.DirectedEdgeVector;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+
+import java.util.Random;
+
+/**
+ * Times topological_sort (dfs and a TreeSet of finish times) against sort
+ * (Kahn on arrays) on an owner tree and an owner chain.
+ *
+ * usage: TopologicalSortBenchmark [vertices]
+ */
+public class TopologicalSortBenchmark {
+
+    public static void main(String[] args) throws CycleException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random r = new Random(0);
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> tree = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> chain = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        tree.addVertex(0);
+        chain.addVertex(0);
+        for (int i = 1; i < n; i++) {
+            tree.addEdge(i, r.nextInt(i));
+            chain.addEdge(i, i - 1);
+        }
+        for (int i = 0; i < 3; i++) {
+            run("tree ", tree);
+            run("chain", chain);
+        }
+    }
+
+    private static void run(String name,
+            DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> graph) throws CycleException {
+        System.gc();
+        long start = System.nanoTime();
+        int a = new TopologicalSort().topological_sort(graph).size();
+        long dfs = System.nanoTime();
+        int b = new TopologicalSort().sort(graph).size();
+        long kahn = System.nanoTime();
+        System.out.println(name + ": topological_sort " + (dfs - start) / 1000000 + " ms, sort "
+                + (kahn - dfs) / 1000000 + " ms (" + a + ", " + b + " vertices)");
+    }
+}
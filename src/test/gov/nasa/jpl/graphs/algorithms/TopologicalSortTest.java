@@ -0,0 +1,147 @@
+package gov.nasa.jpl.graphs.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.nasa.jpl.graphs.DirectedEdge;
+import gov.nasa.jpl.graphs.DirectedEdgeVector;
+import gov.nasa.jpl.graphs.DirectedGraph;
+import gov.nasa.jpl.graphs.DirectedGraphAdjacencyMap;
+import gov.nasa.jpl.graphs.DirectedGraphHashSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TopologicalSortTest {
+
+    // DepthFirstSearch before it was iterative
+    private static class RecursiveDfs {
+        Set<Integer>          white = new HashSet<Integer>();
+        Map<Object, Integer>  d     = new HashMap<Object, Integer>();
+        Map<Object, Integer>  f     = new HashMap<Object, Integer>();
+        Set<DirectedEdgeVector<Integer>> pi = new HashSet<DirectedEdgeVector<Integer>>();
+        int                   time;
+
+        void dfs(DirectedGraph<Integer, DirectedEdgeVector<Integer>> G, Set<Integer> roots) {
+            white.addAll(roots);
+            for (Integer u: roots) {
+                if (white.contains(u))
+                    visit(G, u);
+            }
+        }
+
+        void visit(DirectedGraph<Integer, DirectedEdgeVector<Integer>> G, Integer u) {
+            white.remove(u);
+            d.put(u, ++time);
+            for (Integer v: G.findChildrenOf(u)) {
+                if (white.contains(v)) {
+                    pi.add(new DirectedEdgeVector<Integer>(u, v));
+                    visit(G, v);
+                }
+            }
+            f.put(u, ++time);
+        }
+    }
+
+    private static DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>> random(Random r, int n, int m) {
+        DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 0; i < n; i++)
+            g.addVertex(i);
+        for (int i = 0; i < m; i++)
+            g.addEdge(r.nextInt(n), r.nextInt(n));
+        return g;
+    }
+
+    @Test
+    public void testDfsSameAsRecursive() {
+        Random r = new Random(0);
+        for (int t = 0; t < 200; t++) {
+            DirectedGraphHashSet<Integer, DirectedEdgeVector<Integer>> g = random(r, 1 + r.nextInt(40),
+                    r.nextInt(80));
+            Set<Integer> roots = g.getVertices();
+            if (t % 2 == 1) {
+                roots = new HashSet<Integer>();
+                for (Integer v: g.getVertices())
+                    if (r.nextBoolean())
+                        roots.add(v);
+            }
+            RecursiveDfs expected = new RecursiveDfs();
+            expected.dfs(g, roots);
+            DepthFirstSearch dfs = new DepthFirstSearch();
+            DirectedGraph<Integer, DirectedEdge<Integer>> pi = dfs.dfs(g, roots);
+            assertEquals(expected.d, dfs.d);
+            assertEquals(expected.f, dfs.f);
+            assertEquals(expected.pi, new HashSet<DirectedEdge<Integer>>(pi.getEdges()));
+            List<Object> finished = dfs.getFinishOrder();
+            for (int i = 1; i < finished.size(); i++)
+                assertTrue(dfs.f.get(finished.get(i - 1)) < dfs.f.get(finished.get(i)));
+        }
+    }
+
+    @Test
+    public void testDeepChain() throws CycleException {
+        int n = 1000000;
+        DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+        for (int i = 1; i < n; i++)
+            g.addEdge(i, i - 1);
+        DepthFirstSearch dfs = new DepthFirstSearch();
+        dfs.dfs(g);
+        assertEquals(n, dfs.f.size());
+        List<Integer> order = new TopologicalSort().sort(g);
+        for (int i = 0; i < n; i++)
+            assertEquals(Integer.valueOf(i), order.get(i));
+        assertEquals(n, new TopologicalSort().topological_sort(g).size());
+    }
+
+    @Test
+    public void testSortDag() throws CycleException {
+        Random r = new Random(1);
+        for (int t = 0; t < 100; t++) {
+            int n = 1 + r.nextInt(300);
+            DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>> g = new DirectedGraphAdjacencyMap<Integer, DirectedEdgeVector<Integer>>();
+            for (int i = 0; i < n; i++) {
+                g.addVertex(i);
+                for (int k = r.nextInt(3); k > 0 && i > 0; k--)
+                    g.addEdge(i, r.nextInt(i));
+            }
+            List<Integer> order = new TopologicalSort().sort(g);
+            assertEquals(n, order.size());
+            assertEquals(g.getVertices(), new HashSet<Integer>(order));
+            Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+            for (int i = 0; i < order.size(); i++)
+                index.put(order.get(i), i);
+            for (DirectedEdgeVector<Integer> e: g.getEdges())
+                assertTrue(index.get(e.getTargetVertex()) < index.get(e.getSourceVertex()));
+            // the dfs based sort has to keep every vertex too
+            assertEquals(n, new TopologicalSort().topological_sort(g).size());
+        }
+    }
+
+    @Test
+    public void testCycle() {
+        DirectedGraphAdjacencyMap<String, DirectedEdgeVector<String>> g = new DirectedGraphAdjacencyMap<String, DirectedEdgeVector<String>>();
+        // a owns b owns c owns a, d is owned by a, e by nothing in the graph
+        g.addEdge("b", "a");
+        g.addEdge("c", "b");
+        g.addEdge("a", "c");
+        g.addEdge("d", "a");
+        g.addVertex("e");
+        g.addEdge("f", "e");
+        try {
+            new TopologicalSort().sort(g);
+            fail("cycle not found");
+        } catch (CycleException e) {
+            Set<Object> expected = new HashSet<Object>();
+            for (String v: new String[] {"a", "b", "c", "d"})
+                expected.add(v);
+            assertEquals(expected, new HashSet<Object>(e.getVertices()));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package gov.nasa.jpl.mbee.ems;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares request throughput against a local stub server with a new
+ * HttpClient per request (the old ExportUtility behavior) vs the shared pooled
+ * client.
+ *
+ * usage: HttpClientPoolBenchmark [requests] [threads]
+ */
+public class HttpClientPoolBenchmark {
+
+    private static final byte[] BODY = "{\"elements\":[]}".getBytes();
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                ex.sendResponseHeaders(200, BODY.length);
+                OutputStream os = ex.getResponseBody();
+                os.write(BODY);
+                os.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(threads * 2));
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/elements";
+        try {
+            run("warmup new client", url, requests / 10, threads, false);
+            run("warmup pooled", url, requests / 10, threads, true);
+            run("new client per request", url, requests, threads, false);
+            run("pooled client", url, requests, threads, true);
+        } finally {
+            server.stop(0);
+            HttpClientPool.shutdown();
+        }
+    }
+
+    private static void run(String name, final String url, final int requests, int threads,
+            final boolean pooled) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        final int perThread = requests / threads;
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        HttpClient client = pooled ? HttpClientPool.getClient() : new HttpClient();
+                        GetMethod gm = new GetMethod(url);
+                        try {
+                            client.executeMethod(gm);
+                            gm.getResponseBodyAsString();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            gm.releaseConnection();
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t: workers)
+            t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-25s %6d requests in %6.2fs: %8.1f req/s", name,
+                perThread * threads, secs, perThread * threads / secs));
+    }
+}
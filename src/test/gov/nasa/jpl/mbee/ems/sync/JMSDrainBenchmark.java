@@ -0,0 +1,165 @@
+package gov.nasa.jpl.mbee.ems.sync;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Compares reading a durable subscriber's backlog from an embedded broker the
+ * old getJMSChanges way (default prefetch, full parse and acknowledge per
+ * message) with JMSDrain, and checks both find the same ids.
+ *
+ * usage: JMSDrainBenchmark [messages] [elements per message]
+ */
+public class JMSDrainBenchmark {
+
+    private static final String URL = "vm://bench?create=false";
+    private static final String SELECTOR = "projectId = 'PROJECT-bench' AND workspace = 'master'";
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int elements = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("bench");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        try {
+            Set<String> old = run("old receive loop", "old", messages, elements, false);
+            Set<String> drained = run("JMSDrain", "drain", messages, elements, true);
+            System.out.println("same ids: " + old.equals(drained));
+        } finally {
+            broker.stop();
+        }
+    }
+
+    private static Set<String> run(String name, String subscriber, int messages, int elements, boolean drain)
+            throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(URL);
+        if (drain)
+            JMSDrain.configure(factory);
+        Connection connection = factory.createConnection();
+        connection.setClientID(subscriber);
+        Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+        Topic topic = session.createTopic("master");
+        // subscribe first so the backlog is kept for the subscriber, like
+        // autosync being turned off
+        session.createDurableSubscriber(topic, subscriber, SELECTOR, true).close();
+        publish(factory, topic, messages, elements);
+        Set<String> added = new HashSet<String>();
+        Set<String> changed = new HashSet<String>();
+        Set<String> deleted = new HashSet<String>();
+        long start = System.nanoTime();
+        MessageConsumer consumer = session.createDurableSubscriber(topic, subscriber, SELECTOR, true);
+        connection.start();
+        int read = drain ? new JMSDrain().drain(consumer, added, changed, deleted) : receive(consumer, added,
+                changed, deleted);
+        double secs = (System.nanoTime() - start) / 1e9;
+        consumer.close();
+        session.close();
+        connection.close();
+        System.out.println(String.format("%-20s %6d messages in %6.2fs: %8.1f msg/s (includes idle wait)", name,
+                read, secs, read / secs));
+        Set<String> all = new HashSet<String>();
+        for (String id: added)
+            all.add("a " + id);
+        for (String id: changed)
+            all.add("c " + id);
+        for (String id: deleted)
+            all.add("d " + id);
+        return all;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void publish(ActiveMQConnectionFactory factory, Topic topic, int messages, int elements)
+            throws Exception {
+        Connection connection = factory.createConnection();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(topic);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        String[] kinds = {"updatedElements", "addedElements", "movedElements", "deletedElements"};
+        for (int i = 0; i < messages; i++) {
+            JSONObject ws2 = new JSONObject();
+            for (int k = 0; k < kinds.length; k++) {
+                JSONArray array = new JSONArray();
+                for (int j = 0; j < elements / kinds.length; j++) {
+                    JSONObject e = new JSONObject();
+                    e.put("sysmlid", "_" + ((i * 7 + j * 13 + k) % (messages * 2)));
+                    e.put("name", "element " + j);
+                    e.put("documentation", "<p>some documentation for element " + j + " of message " + i
+                            + "</p>");
+                    JSONObject spec = new JSONObject();
+                    spec.put("type", "Property");
+                    spec.put("value", new JSONArray());
+                    e.put("specialization", spec);
+                    array.add(e);
+                }
+                ws2.put(kinds[k], array);
+            }
+            JSONObject ob = new JSONObject();
+            ob.put("workspace2", ws2);
+            ob.put("source", i % 10 == 0 ? "magicdraw" : "ve");
+            TextMessage m = session.createTextMessage(ob.toJSONString());
+            m.setStringProperty("projectId", "PROJECT-bench");
+            m.setStringProperty("workspace", "master");
+            producer.send(m);
+        }
+        connection.close();
+    }
+
+    // the receive loop getJMSChanges had before JMSDrain
+    private static int receive(MessageConsumer consumer, Set<String> addedIds, Set<String> changedIds,
+            Set<String> deletedIds) throws Exception {
+        int count = 0;
+        Message m = consumer.receive(1000);
+        while (m != null) {
+            JSONObject ob = (JSONObject)JSONValue.parse(((TextMessage)m).getText());
+            boolean magicdraw = "magicdraw".equals(ob.get("source"));
+            JSONObject ws2 = (JSONObject)ob.get("workspace2");
+            for (Object e: (JSONArray)ws2.get("updatedElements")) {
+                String id = (String)((JSONObject)e).get("sysmlid");
+                if (!magicdraw)
+                    changedIds.add(id);
+                deletedIds.remove(id);
+            }
+            for (Object e: (JSONArray)ws2.get("addedElements")) {
+                String id = (String)((JSONObject)e).get("sysmlid");
+                if (!magicdraw)
+                    addedIds.add(id);
+                deletedIds.remove(id);
+            }
+            for (Object e: (JSONArray)ws2.get("movedElements")) {
+                String id = (String)((JSONObject)e).get("sysmlid");
+                if (!magicdraw)
+                    changedIds.add(id);
+                deletedIds.remove(id);
+            }
+            for (Object e: (JSONArray)ws2.get("deletedElements")) {
+                String id = (String)((JSONObject)e).get("sysmlid");
+                if (!magicdraw)
+                    deletedIds.add(id);
+                addedIds.remove(id);
+                changedIds.remove(id);
+            }
+            m.acknowledge();
+            count++;
+            m = consumer.receive(1000);
+        }
+        return count;
+    }
+}
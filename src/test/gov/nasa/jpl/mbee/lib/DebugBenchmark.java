@@ -0,0 +1,54 @@
+package gov.nasa.jpl.mbee.lib;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytes allocated and time per Debug.outln call with debug off, for a message
+ * built with MoreToString.Helper.toLongString up front vs passed as parts with
+ * Debug.longString, like the calls in TableStructure.buildTableReferences.
+ * Allocation counts need a HotSpot JVM.
+ *
+ * usage: DebugBenchmark [list size] [calls]
+ */
+public class DebugBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        List<String> elements = new ArrayList<String>();
+        for (int i = 0; i < size; i++)
+            elements.add("element " + i);
+        Debug.turnOff();
+
+        for (int i = 0; i < 3; i++) {
+            run("eager", true, elements, calls);
+            run("lazy ", false, elements, calls);
+        }
+    }
+
+    private static void run(String name, boolean eager, List<String> elements, int calls) {
+        String expr = "self.name";
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            if (eager)
+                Debug.outln("invalid evaluation of expression " + expr + " on "
+                        + MoreToString.Helper.toLongString(elements));
+            else
+                Debug.outln("invalid evaluation of expression ", expr, " on ", Debug.longString(elements));
+        }
+        long ns = System.nanoTime() - start;
+        bytes = allocated() - bytes;
+        System.out.println(name + ": " + bytes / calls + " bytes/call, " + ns / calls + " ns/call");
+    }
+
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread()
+                    .getId());
+        return 0;
+    }
+}
@@ -0,0 +1,72 @@
+package gov.nasa.jpl.mbee.lib;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the regex chain fixString used to run on plain text against
+ * DocBookText.fixString over a corpus of documentation strings.
+ *
+ * usage: DocBookTextBenchmark [corpus file, one string per line] [rounds]
+ */
+public class DocBookTextBenchmark {
+
+    private static final String[] SAMPLES = {
+            "The pump shall deliver 5 L/min at < 3 bar & 20 C.",
+            "Provides power to the avionics bus. See SRD-1234 for allocation.",
+            "Mass < 25 kg; volume <= 0.1 m^3 & peak power <> 150 W",
+            "<<block>> Flight Computer",
+            "Temperature range &plusmn;5 &deg;C over the operating range of the unit",
+            "List<Port> ports() returns the ports owned by this part",
+            "R&D hardware, not for flight. TBD &amp; TBR items are tracked in the risk list.",
+            "The quick brown fox jumps over the lazy dog, again and again, to fill out a longer "
+                    + "paragraph of plain text without any markup in it at all, which is the common case."};
+
+    public static void main(String[] args) throws IOException {
+        List<String> corpus = new ArrayList<String>();
+        if (args.length > 0) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null)
+                corpus.add(line);
+            in.close();
+        } else {
+            for (String s: SAMPLES)
+                corpus.add(s);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        for (String s: corpus) {
+            if (!regex(s).equals(DocBookText.fixString(s)))
+                throw new IllegalStateException("different output for " + s);
+        }
+        for (int i = 0; i < 3; i++) {
+            long regex = time(true, corpus, rounds);
+            long scanner = time(false, corpus, rounds);
+            System.out.println("regex: " + regex + " ns/string, scanner: " + scanner + " ns/string");
+        }
+    }
+
+    private static String regex(String s) {
+        return HtmlManipulator.replaceHtmlEntities(s.replaceAll("&(?![A-Za-z#0-9]+;)", "&amp;")
+                .replaceAll("<([>=\\s])", "&lt;$1").replaceAll("<<", "&lt;&lt;")
+                .replaceAll("<(?![^>]+>)", "&lt;"));
+    }
+
+    private static long time(boolean regex, List<String> corpus, int rounds) {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String s: corpus)
+                sink += (regex ? regex(s) : DocBookText.fixString(s)).length();
+        }
+        long ns = System.nanoTime() - start;
+        if (sink == 42)
+            System.out.println();
+        return ns / ((long)rounds * corpus.size());
+    }
+}
@@ -0,0 +1,84 @@
+package gov.nasa.jpl.mbee.lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * DocBookText has to give exactly what the regex chains in DocGenUtils used
+ * to, generated docs shouldn't change.
+ */
+public class DocBookTextTest {
+
+    // what DocGenUtils.fixString used to do for strings without html
+    private static String regexFixString(String s) {
+        return HtmlManipulator.replaceHtmlEntities(s.replaceAll("&(?![A-Za-z#0-9]+;)", "&amp;")
+                .replaceAll("<([>=\\s])", "&lt;$1").replaceAll("<<", "&lt;&lt;")
+                .replaceAll("<(?![^>]+>)", "&lt;"));
+    }
+
+    private static String regexAddInvisibleSpace(String s) {
+        return s.replaceAll(";", ";&#x200B;").replaceAll("\\.", ".&#x200B;").replaceAll("\\(", "(&#x200B;")
+                .replaceAll("\\)", ")&#x200B;").replaceAll(",", ",&#x200B;").replaceAll("/", "/&#x200B;")
+                .replaceAll("_", "_&#x200B;").replaceAll("::", "::&#x200B;");
+    }
+
+    private static void check(String in, String expected) {
+        assertEquals(expected, DocBookText.fixString(in));
+        assertEquals(expected, regexFixString(in));
+    }
+
+    @Test
+    public void testFixStringGolden() {
+        check("plain text", "plain text");
+        check("A & B", "A &#38; B");
+        check("x < y", "x &#60; y");
+        check("x<=y", "x&#60;=y");
+        check("a<>b", "a&#60;>b");
+        check("tab<\there", "tab&#60;\there");
+        check("a <b>bold</b> c", "a <b>bold</b> c");
+        check("if a<b then", "if a&#60;b then");
+        check("<<block>>", "&#60;&#60;block>>");
+        check("<<<", "&#60;&#60;&#60;");
+        check("a << b", "a &#60;&#60; b");
+        check("<< b", "&#60;&#60; b");
+        check("&nbsp;&amp;&lt;&#160;&foo;", "&#160;&#38;&#60;&#160;&foo;");
+        check("5 &deg; < 6 > 3", "5 &#176; &#60; 6 > 3");
+        check("List<String> get()", "List<String> get()");
+        check("ends with <", "ends with &#60;");
+        check("R&D; T&E", "R&D; T&#38;E");
+        check("&thetasym;&alefsym;&toolongname;", "&#977;&#8501;&toolongname;");
+        check("&&amp;", "&#38;&#38;");
+        check("a &; b", "a &#38;; b");
+        check("<<=", "&#60;&#60;=");
+        check("<<<=", "&#60;&#60;&#60;=");
+        check("x << y > z", "x <&#60; y > z");
+        check("1 < 2 && 3 > 2", "1 &#60; 2 &#38;&#38; 3 > 2");
+        check("Pump::Motor.speed_rpm (max 3,000/min); see A::B", "Pump::Motor.speed_rpm (max 3,000/min); see A::B");
+    }
+
+    @Test
+    public void testAddInvisibleSpaceGolden() {
+        assertEquals("Pump::&#x200B;Motor.&#x200B;speed_&#x200B;rpm (&#x200B;max 3,&#x200B;000/&#x200B;min)&#x200B;;&#x200B; see A::&#x200B;B",
+                DocBookText.addInvisibleSpace("Pump::Motor.speed_rpm (max 3,000/min); see A::B"));
+        assertEquals("a:b::&#x200B;c::&#x200B;:d", DocBookText.addInvisibleSpace("a:b::c:::d"));
+    }
+
+    @Test
+    public void testRandomAgainstRegex() {
+        String[] atoms = {"<", ">", "&", ";", "=", " ", "\t", "\n", "\r", "\u000B", "\f", "a", "lt", "nbsp", "#",
+                "1", "amp", "thetasym", ":", ".", "(", ")", ",", "/", "_", "&nbsp;", "<<", "\u00e9"};
+        Random r = new Random(0);
+        for (int t = 0; t < 200000; t++) {
+            StringBuilder sb = new StringBuilder();
+            int len = r.nextInt(14);
+            for (int i = 0; i < len; i++)
+                sb.append(atoms[r.nextInt(atoms.length)]);
+            String s = sb.toString();
+            assertEquals(s, regexFixString(s), DocBookText.fixString(s));
+            assertEquals(s, regexAddInvisibleSpace(s), DocBookText.addInvisibleSpace(s));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package gov.nasa.jpl.mbee.model;
+
+import static org.junit.Assert.assertEquals;
+import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBBook;
+import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBSection;
+import gov.nasa.jpl.mgss.mbee.docgen.docbook.DBTable;
+import gov.nasa.jpl.mgss.mbee.docgen.docbook.DocumentElement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TableStructureTest {
+
+    /**
+     * content of a view shared by two documents is the same objects in both,
+     * like when DocumentsExporter generates them with one view content cache
+     */
+    @Test
+    public void testSharedViewTable() {
+        TableStructure table = new TableStructure(null);
+        List<Object> targets = new ArrayList<Object>();
+        targets.add("first");
+        targets.add("second");
+        table.setTargets(targets);
+        table.setTitles(new ArrayList<String>());
+        Section content = new Section();
+        content.addElement(table);
+
+        for (int i = 0; i < 2; i++) {
+            Document doc = new Document();
+            Section view = new Section();
+            view.getChildren().addAll(content.getChildren());
+            doc.addElement(view);
+            DocBookOutputVisitor visitor = new DocBookOutputVisitor(true);
+            doc.accept(visitor);
+            assertEquals("rows in document " + (i + 1), 2, findTable(visitor.getBook()).getBody().size());
+        }
+    }
+
+    private DBTable findTable(DBBook book) {
+        for (DocumentElement de: book.getChildren()) {
+            if (de instanceof DBSection) {
+                for (DocumentElement child: ((DBSection)de).getChildren()) {
+                    if (child instanceof DBTable)
+                        return (DBTable)child;
+                }
+            }
+        }
+        return null;
+    }
+}
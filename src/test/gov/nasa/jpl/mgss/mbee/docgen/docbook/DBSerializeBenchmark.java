@@ -0,0 +1,122 @@
+package gov.nasa.jpl.mgss.mbee.docgen.docbook;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Compares time and peak heap for writing a synthetic book with one big table
+ * by building the whole book in memory with getOut (the old DocumentWriter
+ * behavior) vs serializing straight to the file, and checks both files are
+ * the same apart from the generated date.
+ *
+ * usage: DBSerializeBenchmark [rows] [cols]
+ */
+public class DBSerializeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        DBBook book = makeBook(rows, cols);
+        File dir = new File(System.getProperty("java.io.tmpdir"), "dbserialize");
+        dir.mkdirs();
+        File buffered = new File(dir, "buffered.xml");
+        File streamed = new File(dir, "streamed.xml");
+
+        // warm up
+        writeBuffered(makeBook(1000, cols), dir, buffered);
+        writeStreamed(makeBook(1000, cols), dir, streamed);
+
+        resetPeaks();
+        long start = System.nanoTime();
+        writeBuffered(book, dir, buffered);
+        report("getOut", start);
+
+        resetPeaks();
+        start = System.nanoTime();
+        writeStreamed(book, dir, streamed);
+        report("streamed", start);
+
+        System.out.println(buffered.length() + " bytes, same output: "
+                + withoutDate(buffered).equals(withoutDate(streamed)));
+    }
+
+    private static DBBook makeBook(int rows, int cols) {
+        DBBook book = new DBBook();
+        book.setTitle("Benchmark");
+        book.setUseDefaulStylesheet(true);
+        DBSection chapter = new DBSection();
+        chapter.setChapter(true);
+        chapter.setId("chapter");
+        chapter.setTitle("Tables");
+        DBTable table = new DBTable();
+        table.setId("table");
+        table.setTitle("Big Table");
+        List<List<DocumentElement>> headers = new ArrayList<List<DocumentElement>>();
+        List<DocumentElement> header = new ArrayList<DocumentElement>();
+        for (int c = 0; c < cols; c++)
+            header.add(new DBText("Column " + c));
+        headers.add(header);
+        table.setHeaders(headers);
+        List<List<DocumentElement>> body = new ArrayList<List<DocumentElement>>();
+        for (int r = 0; r < rows; r++) {
+            List<DocumentElement> row = new ArrayList<DocumentElement>();
+            for (int c = 0; c < cols; c++)
+                row.add(new DBText("cell " + r + "," + c + " <b>R&D</b>"));
+            body.add(row);
+        }
+        table.setBody(body);
+        table.setCols(cols);
+        chapter.addElement(table);
+        book.addElement(chapter);
+        return book;
+    }
+
+    private static void writeBuffered(DBBook book, File dir, File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        DBSerializeVisitor v = new DBSerializeVisitor(false, dir, null);
+        book.accept(v);
+        writer.write(v.getOut());
+        writer.close();
+    }
+
+    private static void writeStreamed(DBBook book, File dir, File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file), 64 * 1024);
+        DBSerializeVisitor v = new DBSerializeVisitor(false, dir, writer, null);
+        book.accept(v);
+        v.flush();
+        writer.close();
+    }
+
+    private static void resetPeaks() {
+        System.gc();
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+    }
+
+    private static void report(String name, long start) {
+        long ms = (System.nanoTime() - start) / 1000000;
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        System.out.println(name + ": " + ms + " ms, peak heap " + peak / (1024 * 1024) + " MB");
+    }
+
+    private static String withoutDate(File file) throws IOException {
+        Scanner s = new Scanner(file, "UTF-8");
+        try {
+            return s.useDelimiter("\\A").next().replaceFirst("Generated On: [^<]*", "");
+        } finally {
+            s.close();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package gov.nasa.jpl.mgss.mbee.docgen.docbook;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * DBSerializeVisitor has to write exactly what it did before it streamed to
+ * the output, generated docs shouldn't change. The expected strings are the
+ * output of the serializer before that change.
+ */
+public class DBSerializeVisitorTest {
+
+    private static final String SECTIONS = "<section xml:id=\"doc\">\n"
+            + "<info><title>Doc &#38; Co</title></info>\n"
+            + "<chapter xml:id=\"ch1\">\n"
+            + "<info><title>Intro</title></info>\n"
+            + "<para>Hello <world> &#38; R&#38;D</para>\n"
+            + "x &#60; y<section xml:id=\"empty\">\n"
+            + "<info><title>Empty</title></info>\n"
+            + "<para>Nothing here</para>\n"
+            + "</section>\n"
+            + "</chapter>\n"
+            + "<para>inside no section</para>\n"
+            + "<section xml:id=\"onlyskipped\">\n"
+            + "<info><title>Only skipped</title></info>\n"
+            + "<para>All skipped</para>\n"
+            + "</section>\n"
+            + "<appendix xml:id=\"app\">\n"
+            + "<info><title>Appendix</title></info>\n"
+            + "<para></para>\n"
+            + "</appendix>\n"
+            + "</section>\n";
+
+    private static final String TABLES = "<section xml:id=\"tables\">\n"
+            + "<info><title>Tables</title></info>\n"
+            + "<table frame=\"all\" pgwide=\"1\" role=\"longtable\" xml:id=\"t1\" tabstyle=\"normal\">\n"
+            + "<title>Parts &#38; Pieces</title>\n"
+            + "<tgroup cols=\"2\" align=\"left\" colsep=\"1\" rowsep=\"1\">\n"
+            + "<colspec colname=\"c1\" colnum=\"1\"/>\n"
+            + "<colspec colname=\"c2\" colnum=\"2\" colwidth=\"2*\"/>\n"
+            + "<thead>\n"
+            + "<row><entry>Name</entry><entry>Value</entry></row>\n"
+            + "</thead>\n"
+            + "<tbody>\n"
+            + "<row><entry namest=\"c1\" nameend=\"c2\">spans both</entry></row>\n"
+            + "<row><entry morerows=\"1\"><para>two rows</para>\n"
+            + "</entry><entry>a</entry></row>\n"
+            + "<row><entry><itemizedlist spacing=\"compact\">\n"
+            + "<listitem>\n"
+            + "item</listitem>\n"
+            + "</itemizedlist>\n"
+            + "</entry></row>\n"
+            + "</tbody>\n"
+            + "</tgroup>\n"
+            + "<caption><para>Caption <1></para></caption>\n"
+            + "</table>\n"
+            + "<orderedlist spacing=\"compact\">\n"
+            + "<listitem>\n"
+            + "<para>first</para>\n"
+            + "</listitem>\n"
+            + "<listitem>\n"
+            + "second</listitem>\n"
+            + "</orderedlist>\n"
+            + "<simplelist>\n"
+            + "<member>one</member>\n"
+            + "<member>A &#38; B</member>\n"
+            + "</simplelist>\n"
+            + "<para>p1</para><para>p2</para></section>\n";
+
+    private static final String DUPLICATE_IDS = "<section xml:id=\"dup\">\n"
+            + "<info><title>Duplicates</title></info>\n"
+            + "<section>\n"
+            + "<info><title>Outer</title></info>\n"
+            + "<table frame=\"all\" pgwide=\"1\" role=\"longtable\" xml:id=\"s1\">\n"
+            + "<title>Inner</title>\n"
+            + "<tgroup cols=\"1\" align=\"left\" colsep=\"1\" rowsep=\"1\">\n"
+            + "<tbody>\n"
+            + "<row><entry>cell</entry></row>\n"
+            + "</tbody>\n"
+            + "</tgroup>\n"
+            + "</table>\n"
+            + "<section xml:id=\"s2\">\n"
+            + "<info><title>Nested</title></info>\n"
+            + "<para>nested</para>\n"
+            + "</section>\n"
+            + "</section>\n"
+            + "<table frame=\"all\" pgwide=\"1\" role=\"longtable\">\n"
+            + "<title>Again</title>\n"
+            + "<tgroup cols=\"1\" align=\"left\" colsep=\"1\" rowsep=\"1\">\n"
+            + "<tbody>\n"
+            + "<row><entry>cell</entry></row>\n"
+            + "</tbody>\n"
+            + "</tgroup>\n"
+            + "</table>\n"
+            + "</section>\n";
+
+    private static final File dir = new File(System.getProperty("java.io.tmpdir"));
+
+    private static String streamed(DocumentElement e) throws IOException {
+        StringWriter out = new StringWriter();
+        DBSerializeVisitor v = new DBSerializeVisitor(false, dir, out, null);
+        e.accept(v);
+        v.flush();
+        return out.toString();
+    }
+
+    private static String buffered(DocumentElement e) {
+        DBSerializeVisitor v = new DBSerializeVisitor(false, dir, null);
+        e.accept(v);
+        return v.getOut();
+    }
+
+    private static void check(String expected, DocumentElement e) throws IOException {
+        assertEquals(expected, streamed(e));
+        assertEquals(expected, buffered(e));
+    }
+
+    private static DBSection section(String id, String title) {
+        DBSection s = new DBSection();
+        s.setId(id);
+        s.setTitle(title);
+        return s;
+    }
+
+    // nested, empty, skipped, chapter, appendix and no section sections
+    static DBSection sections() {
+        DBSection doc = section("doc", "Doc & Co");
+        DBSection chapter = section("ch1", "Intro");
+        chapter.setChapter(true);
+        chapter.addElement(new DBParagraph("Hello <world> & R&D"));
+        chapter.addElement(new DBText("x < y"));
+        DBSection skipped = section("skipped", "Skipped");
+        skipped.setSkipIfEmpty(true);
+        chapter.addElement(skipped);
+        DBSection empty = section("empty", "Empty");
+        empty.setStringIfEmpty("Nothing here");
+        chapter.addElement(empty);
+        doc.addElement(chapter);
+
+        DBSection noSection = section("nosection", "Not a section");
+        noSection.isNoSection(true);
+        noSection.addElement(new DBParagraph("inside no section"));
+        doc.addElement(noSection);
+
+        DBSection onlySkipped = section("onlyskipped", "Only skipped");
+        onlySkipped.setStringIfEmpty("All skipped");
+        DBSection inner = section(null, "Inner");
+        inner.setSkipIfEmpty(true);
+        onlySkipped.addElement(inner);
+        doc.addElement(onlySkipped);
+
+        DBSection appendix = section("app", "Appendix");
+        appendix.setAppendix(true);
+        appendix.addElement(new DBParagraph(null));
+        doc.addElement(appendix);
+        return doc;
+    }
+
+    // tables with headers, colspecs and spans, lists and simple lists
+    static DBSection tables() {
+        DBSection doc = section("tables", "Tables");
+        DBTable table = new DBTable();
+        table.setId("t1");
+        table.setTitle("Parts & Pieces");
+        table.setStyle("normal");
+        table.setCaption("Caption <1>");
+        table.setColspecs(Arrays.asList(new DBColSpec(1, "c1"), new DBColSpec(2, "c2", "2*")));
+        List<List<DocumentElement>> headers = new ArrayList<List<DocumentElement>>();
+        headers.add(Arrays.<DocumentElement>asList(new DBText("Name"), new DBText("Value")));
+        table.setHeaders(headers);
+        List<List<DocumentElement>> body = new ArrayList<List<DocumentElement>>();
+        DBTableEntry span = new DBTableEntry();
+        span.setNamest("c1");
+        span.setNameend("c2");
+        span.addElement(new DBText("spans both"));
+        body.add(Arrays.<DocumentElement>asList(span));
+        DBTableEntry tall = new DBTableEntry();
+        tall.setMorerows(1);
+        tall.addElement(new DBParagraph("two rows"));
+        body.add(Arrays.<DocumentElement>asList(tall, new DBText("a")));
+        DBList cellList = new DBList();
+        cellList.addElement(new DBText("item"));
+        body.add(Arrays.<DocumentElement>asList(null, cellList));
+        table.setBody(body);
+        doc.addElement(table);
+
+        DBTable empty = new DBTable();
+        empty.setTitle("Empty");
+        doc.addElement(empty);
+
+        DBList ordered = new DBList();
+        ordered.setOrdered(true);
+        DBListItem item = new DBListItem();
+        item.addElement(new DBParagraph("first"));
+        ordered.addElement(item);
+        ordered.addElement(new DBText("second"));
+        doc.addElement(ordered);
+        doc.addElement(new DBList());
+
+        DBSimpleList simple = new DBSimpleList();
+        simple.add("one");
+        simple.add("A & B");
+        doc.addElement(simple);
+        doc.addElement(new DBSimpleList());
+        doc.addElement(new DBParagraph(Arrays.asList("p1", "p2")));
+        return doc;
+    }
+
+    // an id claimed by a descendant of the section that has it, and by a
+    // later table
+    static DBSection duplicateIds() {
+        DBSection doc = section("dup", "Duplicates");
+        DBSection outer = section("s1", "Outer");
+        DBTable inner = new DBTable();
+        inner.setId("s1");
+        inner.setTitle("Inner");
+        List<List<DocumentElement>> body = new ArrayList<List<DocumentElement>>();
+        body.add(Arrays.<DocumentElement>asList(new DBText("cell")));
+        inner.setBody(body);
+        outer.addElement(inner);
+        DBSection nested = section("s2", "Nested");
+        nested.addElement(new DBParagraph("nested"));
+        outer.addElement(nested);
+        doc.addElement(outer);
+        DBTable again = new DBTable();
+        again.setId("s2");
+        again.setTitle("Again");
+        again.setBody(body);
+        doc.addElement(again);
+        return doc;
+    }
+
+    @Test
+    public void testSectionsGolden() throws IOException {
+        check(SECTIONS, sections());
+    }
+
+    @Test
+    public void testTablesGolden() throws IOException {
+        check(TABLES, tables());
+    }
+
+    @Test
+    public void testDuplicateIdsGolden() throws IOException {
+        check(DUPLICATE_IDS, duplicateIds());
+    }
+}